@@ -0,0 +1,89 @@
+package uk.gov.ons.ctp.integration.rhsvc;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import ma.glasnost.orika.MapperFacade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.model.AddressCompact;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.integration.rhsvc.representation.CaseDTO;
+import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
+
+/**
+ * Benchmarks of the mappings made by the bean mapper on each case and UAC request, for both the
+ * Orika RHSvcBeanMapper and the SpecialisedBeanMapper.
+ *
+ * <p>Run with the benchmark profile, which reports allocation per mapping as well as throughput:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RHSvcBeanMapperBenchmark {
+
+  @Param({"orika", "specialised"})
+  public String engine;
+
+  private MapperFacade mapper;
+
+  private CollectionCase householdCase;
+  private CollectionCase ceCase;
+  private UAC uac;
+
+  @Setup
+  public void setup() {
+    mapper = "specialised".equals(engine) ? new SpecialisedBeanMapper() : new RHSvcBeanMapper();
+
+    List<CollectionCase> cases = FixtureHelper.loadClassFixtures(CollectionCase[].class);
+    householdCase = cases.get(0);
+    ceCase = cases.get(1);
+
+    uac = FixtureHelper.loadClassFixtures(UAC[].class).get(0);
+    uac.setQuestionnaireId(RespondentHomeFixture.A_QID);
+  }
+
+  /** Household case with no estab type, so the custom mapper supplies it. */
+  @Benchmark
+  public CaseDTO householdCaseToCaseDTO() {
+    return mapper.map(householdCase, CaseDTO.class);
+  }
+
+  /** CE case whose estab type goes through the EstabTypeConverter. */
+  @Benchmark
+  public CaseDTO ceCaseToCaseDTO() {
+    return mapper.map(ceCase, CaseDTO.class);
+  }
+
+  /** As UniqueAccessCodeServiceImpl builds the DTO returned for a UAC: the UAC, then the case. */
+  @Benchmark
+  public UniqueAccessCodeDTO uacAndCaseToUniqueAccessCodeDTO() {
+    UniqueAccessCodeDTO uniqueAccessCodeDTO = new UniqueAccessCodeDTO();
+    mapper.map(uac, uniqueAccessCodeDTO);
+    mapper.map(householdCase, uniqueAccessCodeDTO);
+    return uniqueAccessCodeDTO;
+  }
+
+  /** As CaseServiceImpl copies the address of a case for an address modification. */
+  @Benchmark
+  public AddressCompact addressToAddressCompact() {
+    return mapper.map(ceCase.getAddress(), AddressCompact.class);
+  }
+}
@@ -0,0 +1,116 @@
+package uk.gov.ons.ctp.integration.rhsvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig.LocalStorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.impl.LocalStorageEngine;
+
+/**
+ * Benchmarks of the operations the RespondentDataRepository makes on the local storage engine, with
+ * the objects held in memory only, written to the log, and written to the log with each write
+ * forced to disk.
+ *
+ * <p>Run with the benchmark profile:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="StorageEngine"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageEngineBenchmark {
+  private static final String SCHEMA = "case";
+  private static final String[] SEARCH_BY_UPRN_PATH = new String[] {"address", "uprn"};
+
+  @Param({"memory", "log", "synced-log"})
+  public String mode;
+
+  @Param({"10000"})
+  public int caseCount;
+
+  private Path directory;
+  private LocalStorageEngine engine;
+  private CollectionCase collectionCase;
+
+  @Setup
+  public void setup() throws Exception {
+    LocalStorageConfig localConfig = new LocalStorageConfig();
+    if (!"memory".equals(mode)) {
+      directory = Files.createTempDirectory("rhsvc-storage");
+      localConfig.setDirectory(directory.toString());
+      localConfig.setSyncWrites("synced-log".equals(mode));
+    }
+    StorageConfig storageConfig = new StorageConfig();
+    storageConfig.setLocal(localConfig);
+    AppConfig appConfig = new AppConfig();
+    appConfig.setStorage(storageConfig);
+    engine = new LocalStorageEngine(appConfig);
+
+    collectionCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    for (int i = 0; i < caseCount; i++) {
+      collectionCase.setId(caseId(i));
+      collectionCase.getAddress().setUprn(Integer.toString(i));
+      engine.storeObject(SCHEMA, caseId(i), collectionCase, caseId(i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    engine.destroy();
+    if (directory != null) {
+      FileSystemUtils.deleteRecursively(directory);
+    }
+  }
+
+  private String caseId(int i) {
+    return new UUID(0, i).toString();
+  }
+
+  /** As a case event is stored, replacing the existing case. */
+  @Benchmark
+  public CollectionCase storeCase() throws Exception {
+    String caseId = caseId(ThreadLocalRandom.current().nextInt(caseCount));
+    engine.storeObject(SCHEMA, caseId, collectionCase, caseId);
+    return collectionCase;
+  }
+
+  /** As a case is read by ID. */
+  @Benchmark
+  public Optional<CollectionCase> retrieveCase() throws Exception {
+    String caseId = caseId(ThreadLocalRandom.current().nextInt(caseCount));
+    return engine.retrieveObject(CollectionCase.class, SCHEMA, caseId);
+  }
+
+  /** As the cases at an address are read by UPRN. */
+  @Benchmark
+  public List<CollectionCase> searchCasesByUprn() throws Exception {
+    String uprn = Integer.toString(ThreadLocalRandom.current().nextInt(caseCount));
+    return engine.search(CollectionCase.class, SCHEMA, SEARCH_BY_UPRN_PATH, uprn);
+  }
+}
@@ -4,6 +4,7 @@ import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
 import com.godaddy.logging.LoggingConfigs;
 import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
 import io.micrometer.core.instrument.config.MeterFilterReply;
 import io.micrometer.stackdriver.StackdriverConfig;
@@ -13,14 +14,19 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
 import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerFactory;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
 import org.springframework.context.annotation.Bean;
@@ -48,6 +54,10 @@ import uk.gov.ons.ctp.common.rest.RestClientConfig;
 import uk.gov.ons.ctp.integration.ratelimiter.client.RateLimiterClient;
 import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
 import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.PublishConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.PublishMode;
+import uk.gov.ons.ctp.integration.rhsvc.config.PublisherConnectionFactory;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ConfirmingEventSender;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxEventSender;
 import uk.gov.service.notify.NotificationClient;
 import uk.gov.service.notify.NotificationClientApi;
 
@@ -69,6 +79,8 @@ public class RHSvcApplication {
 
   @Autowired private AppConfig appConfig;
 
+  private CachingConnectionFactory publisherConnectionFactory;
+
   @Autowired
   @Qualifier("envoyLimiterCb")
   private CircuitBreaker circuitBreaker;
@@ -91,29 +103,86 @@ public class RHSvcApplication {
     }
   }
 
+  /**
+   * The publisher of events. This sends events directly to rabbit, unless the outbox is enabled, in
+   * which case events are added to the outbox to be published in the background. When sending
+   * directly, the publish mode decides whether each event is committed in a transaction or waits
+   * for a publisher confirm.
+   *
+   * @param rabbitTemplate template for sending events to rabbit
+   * @param eventPersistence persistence of events that could not be sent
+   * @param circuitBreakerFactory factory for the circuit breaker around sending
+   * @param outboxEventSender the outbox, if it is enabled
+   * @param meterRegistry registry for publishing metrics
+   * @return the event publisher
+   */
   @Bean
   public EventPublisher eventPublisher(
-      final RabbitTemplate rabbitTemplate,
+      @Qualifier("rabbitTemplate") final RabbitTemplate rabbitTemplate,
       final FirestoreEventPersistence eventPersistence,
       @Qualifier("eventPublisherCbFactory")
-          Resilience4JCircuitBreakerFactory circuitBreakerFactory) {
+          Resilience4JCircuitBreakerFactory circuitBreakerFactory,
+      ObjectProvider<OutboxEventSender> outboxEventSender,
+      MeterRegistry meterRegistry) {
 
-    EventSender sender = new SpringRabbitEventSender(rabbitTemplate);
+    EventSender sender =
+        outboxEventSender.getIfAvailable(() -> directEventSender(rabbitTemplate, meterRegistry));
     CircuitBreaker circuitBreaker = circuitBreakerFactory.create("eventSendCircuitBreaker");
     return EventPublisher.createWithEventPersistence(sender, eventPersistence, circuitBreaker);
   }
 
+  private EventSender directEventSender(RabbitTemplate rabbitTemplate, MeterRegistry registry) {
+    PublishConfig publishConfig = appConfig.getMessaging().getPublish();
+    if (publishConfig.getMode() == PublishMode.CONFIRMS) {
+      return new ConfirmingEventSender(
+          rabbitTemplate,
+          publishConfig.getConfirmWindow(),
+          publishConfig.getConfirmTimeout(),
+          registry);
+    }
+    return new SpringRabbitEventSender(rabbitTemplate);
+  }
+
+  /**
+   * Template for sending events to rabbit. In confirms mode a channel cannot also be transacted, so
+   * the template uses its own connection factory with correlated publisher confirms, built from the
+   * same spring.rabbitmq properties as the connection factory of the listeners.
+   *
+   * @param connectionFactory the main connection factory
+   * @param rabbitProperties the properties of the main connection factory
+   * @param sendRetryTemplate retry of failed sends
+   * @return the template
+   * @throws Exception if the connection factory for confirms cannot be created
+   */
   @Bean
+  @Primary
   public RabbitTemplate rabbitTemplate(
-      final ConnectionFactory connectionFactory, RetryTemplate sendRetryTemplate) {
-    final var template = new RabbitTemplate(connectionFactory);
+      final ConnectionFactory connectionFactory,
+      RabbitProperties rabbitProperties,
+      RetryTemplate sendRetryTemplate)
+      throws Exception {
+    boolean confirms = appConfig.getMessaging().getPublish().getMode() == PublishMode.CONFIRMS;
+    if (confirms) {
+      publisherConnectionFactory =
+          PublisherConnectionFactory.create(
+              rabbitProperties, ConfirmType.CORRELATED, "rhsvc-publisher");
+    }
+    final var template =
+        new RabbitTemplate(confirms ? publisherConnectionFactory : connectionFactory);
     template.setMessageConverter(new Jackson2JsonMessageConverter());
     template.setExchange("events");
-    template.setChannelTransacted(true);
+    template.setChannelTransacted(!confirms);
     template.setRetryTemplate(sendRetryTemplate);
     return template;
   }
 
+  @PreDestroy
+  public void closePublisherConnectionFactory() {
+    if (publisherConnectionFactory != null) {
+      publisherConnectionFactory.destroy();
+    }
+  }
+
   @Bean
   public RetryTemplate sendRetryTemplate(RetryListener sendRetryListener) {
     RetryTemplate template = new RetryTemplate();
@@ -7,6 +7,7 @@ import ma.glasnost.orika.converter.BidirectionalConverter;
 import ma.glasnost.orika.converter.ConverterFactory;
 import ma.glasnost.orika.impl.ConfigurableMapper;
 import ma.glasnost.orika.metadata.Type;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import uk.gov.ons.ctp.common.domain.CaseType;
 import uk.gov.ons.ctp.common.domain.EstabType;
@@ -19,8 +20,12 @@ import uk.gov.ons.ctp.integration.rhsvc.representation.AddressDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.CaseDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
 
-/** The bean mapper that maps to/from DTOs and repository entity types. */
+/**
+ * The bean mapper that maps to/from DTOs and repository entity types. This is the default, unless
+ * bean-mapper.engine selects the {@link SpecialisedBeanMapper}.
+ */
 @Component
+@ConditionalOnProperty(name = "bean-mapper.engine", havingValue = "orika", matchIfMissing = true)
 public class RHSvcBeanMapper extends ConfigurableMapper {
 
   /**
@@ -0,0 +1,257 @@
+package uk.gov.ons.ctp.integration.rhsvc;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import ma.glasnost.orika.MapperFactory;
+import ma.glasnost.orika.converter.ConverterFactory;
+import ma.glasnost.orika.impl.ConfigurableMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.ctp.common.domain.CaseType;
+import uk.gov.ons.ctp.common.domain.EstabType;
+import uk.gov.ons.ctp.common.domain.UniquePropertyReferenceNumber;
+import uk.gov.ons.ctp.common.event.model.Address;
+import uk.gov.ons.ctp.common.event.model.AddressCompact;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.common.util.StringToUPRNConverter;
+import uk.gov.ons.ctp.common.util.StringToUUIDConverter;
+import uk.gov.ons.ctp.integration.rhsvc.RHSvcBeanMapper.EstabTypeConverter;
+import uk.gov.ons.ctp.integration.rhsvc.representation.AddressDTO;
+import uk.gov.ons.ctp.integration.rhsvc.representation.CaseDTO;
+import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
+
+/**
+ * A bean mapper with hand written mappings for the types mapped on each request, as an alternative
+ * to the RHSvcBeanMapper. It is used when bean-mapper.engine is set to specialised.
+ *
+ * <p>The mappings give the same results as those of the RHSvcBeanMapper, including Orika's
+ * mapping of nulls, and use the same converters. Lists and arrays of the same types are mapped one
+ * element at a time with the same mappings. As no class maps are registered, Orika generates no
+ * mapper classes at startup. Any other mapping is left to Orika, which generates a default mapper
+ * on first use.
+ */
+@Component
+@ConditionalOnProperty(name = "bean-mapper.engine", havingValue = "specialised")
+public class SpecialisedBeanMapper extends ConfigurableMapper {
+
+  private final StringToUUIDConverter uuidConverter = new StringToUUIDConverter();
+  private final StringToUPRNConverter uprnConverter = new StringToUPRNConverter();
+  private final EstabTypeConverter estabTypeConverter = new EstabTypeConverter();
+
+  /**
+   * Setup the mapper for the mappings left to Orika.
+   *
+   * @param factory the factory to which we add our converters
+   */
+  protected final void configure(final MapperFactory factory) {
+    ConverterFactory converterFactory = factory.getConverterFactory();
+    converterFactory.registerConverter(new StringToUUIDConverter());
+    converterFactory.registerConverter(new StringToUPRNConverter());
+    converterFactory.registerConverter(new EstabTypeConverter());
+  }
+
+  @Override
+  public <S, D> D map(S source, Class<D> destinationClass) {
+    if (source != null) {
+      if (source.getClass() == CollectionCase.class && destinationClass == CaseDTO.class) {
+        return destinationClass.cast(toCaseDTO((CollectionCase) source));
+      }
+      if (source.getClass() == Address.class && destinationClass == AddressCompact.class) {
+        AddressCompact addressCompact = new AddressCompact();
+        copyAddress((Address) source, addressCompact);
+        return destinationClass.cast(addressCompact);
+      }
+    }
+    return super.map(source, destinationClass);
+  }
+
+  /*
+   * Orika leaves out null elements of an iterable, but keeps those of an array, and maps an element
+   * that appears more than once to the same object each time.
+   */
+  @Override
+  public <S, D> List<D> mapAsList(Iterable<S> source, Class<D> destinationClass) {
+    if (!isSpecialisedDestination(destinationClass)) {
+      return super.mapAsList(source, destinationClass);
+    }
+    List<D> destination = new ArrayList<>();
+    Map<Object, D> mapped = new IdentityHashMap<>();
+    for (S item : source) {
+      if (item != null) {
+        destination.add(mapped.computeIfAbsent(item, i -> map(i, destinationClass)));
+      }
+    }
+    return destination;
+  }
+
+  @Override
+  public <S, D> List<D> mapAsList(S[] source, Class<D> destinationClass) {
+    if (!isSpecialisedDestination(destinationClass)) {
+      return super.mapAsList(source, destinationClass);
+    }
+    List<D> destination = new ArrayList<>(source.length);
+    Map<Object, D> mapped = new IdentityHashMap<>();
+    for (S item : source) {
+      destination.add(
+          item == null ? null : mapped.computeIfAbsent(item, i -> map(i, destinationClass)));
+    }
+    return destination;
+  }
+
+  // Orika fills the given array from the start, leaving out null elements
+  @Override
+  public <S, D> D[] mapAsArray(D[] destination, Iterable<S> source, Class<D> destinationClass) {
+    if (!isSpecialisedDestination(destinationClass)) {
+      return super.mapAsArray(destination, source, destinationClass);
+    }
+    int index = 0;
+    Map<Object, D> mapped = new IdentityHashMap<>();
+    for (S item : source) {
+      if (item != null) {
+        destination[index++] = mapped.computeIfAbsent(item, i -> map(i, destinationClass));
+      }
+    }
+    return destination;
+  }
+
+  @Override
+  public <S, D> D[] mapAsArray(D[] destination, S[] source, Class<D> destinationClass) {
+    if (!isSpecialisedDestination(destinationClass)) {
+      return super.mapAsArray(destination, source, destinationClass);
+    }
+    if (source == null) {
+      return null;
+    }
+    int index = 0;
+    Map<Object, D> mapped = new IdentityHashMap<>();
+    for (S item : source) {
+      if (item != null) {
+        destination[index++] = mapped.computeIfAbsent(item, i -> map(i, destinationClass));
+      }
+    }
+    return destination;
+  }
+
+  // the destinations of map(S, Class) that have hand written mappings from some source
+  private boolean isSpecialisedDestination(Class<?> destinationClass) {
+    return destinationClass == CaseDTO.class || destinationClass == AddressCompact.class;
+  }
+
+  @Override
+  public <S, D> void map(S source, D destination) {
+    if (source != null && destination != null) {
+      Class<?> sourceClass = source.getClass();
+      Class<?> destinationClass = destination.getClass();
+      if (sourceClass == UAC.class && destinationClass == UniqueAccessCodeDTO.class) {
+        copyUac((UAC) source, (UniqueAccessCodeDTO) destination);
+        return;
+      }
+      if (sourceClass == CollectionCase.class && destinationClass == UniqueAccessCodeDTO.class) {
+        copyCase((CollectionCase) source, (UniqueAccessCodeDTO) destination);
+        return;
+      }
+      if (sourceClass == AddressDTO.class && destinationClass == AddressCompact.class) {
+        copyAddress((AddressDTO) source, (AddressCompact) destination);
+        return;
+      }
+    }
+    super.map(source, destination);
+  }
+
+  private CaseDTO toCaseDTO(CollectionCase collectionCase) {
+    CaseDTO dto = new CaseDTO();
+    Address address = collectionCase.getAddress();
+    dto.setCaseId(toUUID(collectionCase.getId()));
+    dto.setCaseRef(collectionCase.getCaseRef());
+    dto.setCaseType(collectionCase.getCaseType());
+    dto.setAddressType(address == null ? null : address.getAddressType());
+    dto.setAddress(toAddressDTO(address, null));
+    dto.setRegion(address == null ? null : address.getRegion());
+    dto.setAddressLevel(address == null ? null : address.getAddressLevel());
+    dto.setEstabType(address == null ? null : toEstabType(address.getEstabType()));
+    if (dto.getEstabType() == null) {
+      dto.setEstabType(
+          CaseType.HH.name().equals(dto.getCaseType()) ? EstabType.HOUSEHOLD : EstabType.OTHER);
+    }
+    return dto;
+  }
+
+  private void copyUac(UAC uac, UniqueAccessCodeDTO dto) {
+    dto.setUacHash(uac.getUacHash());
+    // Orika leaves a primitive alone when the source is null
+    if (uac.getActive() != null) {
+      dto.setActive(Boolean.valueOf(uac.getActive()));
+    }
+    dto.setQuestionnaireId(uac.getQuestionnaireId());
+    dto.setCaseType(uac.getCaseType());
+    dto.setRegion(uac.getRegion());
+    dto.setCaseId(toUUID(uac.getCaseId()));
+    dto.setCollectionExerciseId(toUUID(uac.getCollectionExerciseId()));
+    dto.setFormType(uac.getFormType());
+  }
+
+  private void copyCase(CollectionCase collectionCase, UniqueAccessCodeDTO dto) {
+    Address address = collectionCase.getAddress();
+    dto.setCaseId(toUUID(collectionCase.getId()));
+    dto.setRegion(address == null ? null : address.getRegion());
+    dto.setEstabType(address == null ? null : address.getEstabType());
+    dto.setCaseType(collectionCase.getCaseType());
+    dto.setCollectionExerciseId(toUUID(collectionCase.getCollectionExerciseId()));
+    dto.setAddress(toAddressDTO(address, dto.getAddress()));
+    dto.setHandDelivery(collectionCase.isHandDelivery());
+  }
+
+  // Orika maps into an existing destination object rather than replacing it
+  private AddressDTO toAddressDTO(Address address, AddressDTO existing) {
+    if (address == null) {
+      return null;
+    }
+    AddressDTO dto = existing == null ? new AddressDTO() : existing;
+    dto.setUprn(toUPRN(address.getUprn()));
+    dto.setAddressLine1(address.getAddressLine1());
+    dto.setAddressLine2(address.getAddressLine2());
+    dto.setAddressLine3(address.getAddressLine3());
+    dto.setTownName(address.getTownName());
+    dto.setPostcode(address.getPostcode());
+    return dto;
+  }
+
+  private void copyAddress(Address address, AddressCompact addressCompact) {
+    addressCompact.setAddressLine1(address.getAddressLine1());
+    addressCompact.setAddressLine2(address.getAddressLine2());
+    addressCompact.setAddressLine3(address.getAddressLine3());
+    addressCompact.setTownName(address.getTownName());
+    addressCompact.setPostcode(address.getPostcode());
+    addressCompact.setRegion(address.getRegion());
+    addressCompact.setUprn(address.getUprn());
+  }
+
+  private void copyAddress(AddressDTO address, AddressCompact addressCompact) {
+    addressCompact.setAddressLine1(address.getAddressLine1());
+    addressCompact.setAddressLine2(address.getAddressLine2());
+    addressCompact.setAddressLine3(address.getAddressLine3());
+    addressCompact.setTownName(address.getTownName());
+    addressCompact.setPostcode(address.getPostcode());
+    addressCompact.setUprn(fromUPRN(address.getUprn()));
+  }
+
+  private UUID toUUID(String value) {
+    return value == null ? null : uuidConverter.convertTo(value, null, null);
+  }
+
+  private UniquePropertyReferenceNumber toUPRN(String value) {
+    return value == null ? null : uprnConverter.convertTo(value, null, null);
+  }
+
+  private String fromUPRN(UniquePropertyReferenceNumber value) {
+    return value == null ? null : uprnConverter.convertFrom(value, null, null);
+  }
+
+  private EstabType toEstabType(String value) {
+    return value == null ? null : estabTypeConverter.convertTo(value, null, null);
+  }
+}
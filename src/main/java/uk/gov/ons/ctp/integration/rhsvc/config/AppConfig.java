@@ -26,4 +26,13 @@ public class AppConfig {
   private NotifyConfig notify;
   private WebformConfig webform;
   private LoadsheddingConfig loadshedding;
+  private CacheConfig uacCache;
+  private CacheConfig caseVersionCache;
+  private UacFilterConfig uacFilter;
+  private HedgedReadConfig hedgedReads;
+  private ExecutorConfig linkExecutor;
+  private UprnLockConfig uprnLock;
+  private FulfilmentsConfig fulfilments;
+  private StageTimingConfig stageTiming;
+  private StorageConfig storage;
 }
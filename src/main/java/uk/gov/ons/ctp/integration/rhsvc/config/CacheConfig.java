@@ -0,0 +1,11 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class CacheConfig {
+  private boolean enabled;
+  private long maximumSize;
+  // expireAfterWriteSeconds - how long an entry may be served before it is re-read from storage
+  private int expireAfterWriteSeconds;
+}
@@ -0,0 +1,10 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class ExecutorConfig {
+  private int threads;
+  // queueSize - tasks waiting for a thread, beyond which the calling thread runs the task itself
+  private int queueSize;
+}
@@ -0,0 +1,32 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+/**
+ * The Firestore client used for the batched, conditional and listing operations that the cloud
+ * data store does not offer. It is created as the cloud data store creates its own, for the project
+ * in GOOGLE_CLOUD_PROJECT, so that both write to the same database with the same settings. There is
+ * one client for the whole service, which is closed when the service stops.
+ */
+@Configuration
+@ConditionalOnProperty(name = "storage.engine", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreConfig {
+
+  @Value("${GOOGLE_CLOUD_PROJECT:}")
+  private String projectId;
+
+  @Bean
+  public Firestore firestore() {
+    FirestoreOptions.Builder options = FirestoreOptions.newBuilder();
+    if (!StringUtils.isEmpty(projectId)) {
+      options.setProjectId(projectId);
+    }
+    return options.build().getService();
+  }
+}
@@ -0,0 +1,9 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class FulfilmentsConfig {
+  // cacheMaxAgeSeconds - how long clients and the CDN may reuse a GET /fulfilments response
+  private long cacheMaxAgeSeconds;
+}
@@ -0,0 +1,19 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class HedgedReadConfig {
+  private boolean enabled;
+  // percentile - of recent read latencies, after which a read that has not completed is hedged
+  private double percentile;
+  // minDelayMillis - least time to wait for a read before hedging it
+  private long minDelayMillis;
+  // minSamples - reads of each type to observe before any of that type are hedged
+  private int minSamples;
+  // budgetPercent - hedges allowed, as a percentage of all reads
+  private double budgetPercent;
+  // burst - hedges that may be made at once from budget saved while reads were fast
+  private int burst;
+  private ExecutorConfig executor;
+}
@@ -1,5 +1,10 @@
 package uk.gov.ons.ctp.integration.rhsvc.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.config.StatelessRetryOperationsInterceptorFactoryBean;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -9,13 +14,18 @@ import org.springframework.amqp.support.converter.DefaultClassMapper;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
 import org.springframework.retry.RetryPolicy;
 import org.springframework.retry.backoff.ExponentialBackOffPolicy;
+import org.springframework.retry.listener.RetryListenerSupport;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.backoff.BackOff;
 import org.springframework.util.backoff.ExponentialBackOff;
@@ -23,7 +33,18 @@ import uk.gov.ons.ctp.common.event.model.CaseEvent;
 import uk.gov.ons.ctp.common.event.model.UACEvent;
 import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
 import uk.gov.ons.ctp.common.retry.CTPRetryPolicy;
-import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.ContainerConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.BatchConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.LaneConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.ListenerConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.RetryConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.CaseEventReceiver;
+import uk.gov.ons.ctp.integration.rhsvc.event.UACEventReceiver;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.AdaptiveListenerController;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.EventBatchListener;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.EventLaneListener;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.QidFilteringPostProcessor;
+import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 
 /** Integration configuration for inbound events. */
 @Configuration
@@ -67,20 +88,33 @@ public class InboundEventIntegrationConfig {
    * <p>Note also that the retry policy is configured with "maximum attempts" so for instance if
    * "conMaxAttempts" is 3 , then there will be at most 2 retries after the initial attempt.
    *
+   * @param meterRegistry registry for the count of failed attempts
    * @return retry template
    */
   @Bean
-  public RetryTemplate uacCaseRetryTemplate() {
-    ContainerConfig messaging = appConfig.getMessaging().getUacCaseListener();
-    BackoffConfig processingBackoff = messaging.getProcessingBackoff();
+  public RetryTemplate uacCaseRetryTemplate(MeterRegistry meterRegistry) {
+    RetryConfig retryConfig = appConfig.getMessaging().getListenerRetry();
+    BackoffConfig processingBackoff = retryConfig.getProcessingBackoff();
     ExponentialBackOffPolicy backoffPolicy = new ExponentialBackOffPolicy();
     backoffPolicy.setMaxInterval(processingBackoff.getMax());
     backoffPolicy.setMultiplier(processingBackoff.getMultiplier());
     backoffPolicy.setInitialInterval(processingBackoff.getInitial());
     RetryTemplate template = new RetryTemplate();
     template.setBackOffPolicy(backoffPolicy);
-    RetryPolicy retryPolicy = new CTPRetryPolicy(messaging.getConMaxAttempts());
+    RetryPolicy retryPolicy = new CTPRetryPolicy(retryConfig.getConMaxAttempts());
     template.setRetryPolicy(retryPolicy);
+    Counter failedAttempts =
+        Counter.builder("rhsvc.listener.failed.attempts")
+            .description("Attempts to process an event that failed, and were retried or rejected")
+            .register(meterRegistry);
+    template.registerListener(
+        new RetryListenerSupport() {
+          @Override
+          public <T, E extends Throwable> void onError(
+              RetryContext context, RetryCallback<T, E> callback, Throwable throwable) {
+            failedAttempts.increment();
+          }
+        });
     return template;
   }
 
@@ -89,24 +123,60 @@ public class InboundEventIntegrationConfig {
    * that if the retry fails, to place the message in the DLQ.
    *
    * @param uacCaseRetryTemplate uacCaseRetryTemplate
+   * @param meterRegistry registry for the count of events rejected to the DLQ
    * @return retry advice for the listener.
    */
   @Bean
   public StatelessRetryOperationsInterceptorFactoryBean uacCaseRetryAdvice(
-      RetryTemplate uacCaseRetryTemplate) {
+      RetryTemplate uacCaseRetryTemplate, MeterRegistry meterRegistry) {
     var advice = new StatelessRetryOperationsInterceptorFactoryBean();
-    advice.setMessageRecoverer(new RejectAndDontRequeueRecoverer());
+    advice.setMessageRecoverer(
+        new RejectAndDontRequeueRecoverer() {
+          @Override
+          public void recover(Message message, Throwable cause) {
+            String queue = message.getMessageProperties().getConsumerQueue();
+            ListenerMetrics.rejectedCounter(queue, meterRegistry).increment();
+            super.recover(message, cause);
+          }
+        });
     advice.setRetryOperations(uacCaseRetryTemplate);
     return advice;
   }
 
+  /**
+   * Create the metrics for the Case listener.
+   *
+   * @param meterRegistry registry for the meters
+   * @return metrics for the Case listener
+   */
+  @Bean
+  public ListenerMetrics caseListenerMetrics(MeterRegistry meterRegistry) {
+    return new ListenerMetrics(appConfig.getQueueConfig().getCaseQueue(), meterRegistry);
+  }
+
+  /**
+   * Create the metrics for the UAC listener.
+   *
+   * @param meterRegistry registry for the meters
+   * @return metrics for the UAC listener
+   */
+  @Bean
+  public ListenerMetrics uacListenerMetrics(MeterRegistry meterRegistry) {
+    return new ListenerMetrics(appConfig.getQueueConfig().getUacQueue(), meterRegistry);
+  }
+
   /**
    * Configure a listener container for the Case events. This listens for Case events on the rabbit
    * case queue.
    *
+   * <p>If case batch processing is enabled then the container delivers the events in batches to
+   * the {@link #caseEventBatchListener}, or if case lanes are enabled one at a time to the {@link
+   * #caseEventLaneListener}, otherwise one at a time to the {@link #caseEventInboundAmqp} adapter.
+   *
    * @param connectionFactory connection factory
    * @param eventRetryAdvice retry advice
    * @param rabbitDownBackOff backoff for when rabbit problems occur
+   * @param listenerMetrics metrics for the Case listener
    * @return listener container for the Case events.
    */
   @Bean
@@ -114,22 +184,41 @@ public class InboundEventIntegrationConfig {
       ConnectionFactory connectionFactory,
       @Qualifier("uacCaseRetryAdvice")
           StatelessRetryOperationsInterceptorFactoryBean eventRetryAdvice,
-      BackOff rabbitDownBackOff) {
-    return makeListenerContainer(
-        connectionFactory,
-        eventRetryAdvice,
-        rabbitDownBackOff,
-        appConfig.getMessaging().getUacCaseListener(),
-        appConfig.getQueueConfig().getCaseQueue());
+      BackOff rabbitDownBackOff,
+      @Qualifier("caseListenerMetrics") ListenerMetrics listenerMetrics) {
+    SimpleMessageListenerContainer listener =
+        makeListenerContainer(
+            connectionFactory,
+            eventRetryAdvice,
+            rabbitDownBackOff,
+            listenerMetrics,
+            appConfig.getMessaging().getCaseListener(),
+            appConfig.getQueueConfig().getCaseQueue());
+    BatchConfig batchConfig = appConfig.getMessaging().getCaseListenerBatch();
+    LaneConfig laneConfig = appConfig.getMessaging().getCaseListenerLanes();
+    if (isBatched(batchConfig)) {
+      configureBatchListenerContainer(
+          listener, listenerMetrics, appConfig.getMessaging().getCaseListener(), batchConfig);
+    } else if (isLaned(batchConfig, laneConfig)) {
+      configureLaneListenerContainer(listener);
+    }
+    return listener;
   }
 
   /**
    * Configure a listener container for the UAC events. This listens for UAC events on the rabbit
    * UAC queue.
    *
+   * <p>UAC events for filtered questionnaire IDs are discarded before conversion, by the lane
+   * listener if UAC lanes are enabled, otherwise by the container. If UAC batch processing is
+   * enabled then the container delivers the remaining events in batches to the {@link
+   * #uacEventBatchListener}, or if UAC lanes are enabled one at a time to the {@link
+   * #uacEventLaneListener}, otherwise one at a time to the {@link #uacEventInboundAmqp} adapter.
+   *
    * @param connectionFactory connection factory
    * @param eventRetryAdvice retry advice
    * @param rabbitDownBackOff backoff for when rabbit problems occur
+   * @param listenerMetrics metrics for the UAC listener
    * @return listener container for the UAC events.
    */
   @Bean
@@ -137,34 +226,364 @@ public class InboundEventIntegrationConfig {
       ConnectionFactory connectionFactory,
       @Qualifier("uacCaseRetryAdvice")
           StatelessRetryOperationsInterceptorFactoryBean eventRetryAdvice,
-      BackOff rabbitDownBackOff) {
-    return makeListenerContainer(
-        connectionFactory,
-        eventRetryAdvice,
-        rabbitDownBackOff,
-        appConfig.getMessaging().getUacCaseListener(),
-        appConfig.getQueueConfig().getUacQueue());
+      BackOff rabbitDownBackOff,
+      @Qualifier("uacListenerMetrics") ListenerMetrics listenerMetrics) {
+    SimpleMessageListenerContainer listener =
+        makeListenerContainer(
+            connectionFactory,
+            eventRetryAdvice,
+            rabbitDownBackOff,
+            listenerMetrics,
+            appConfig.getMessaging().getUacListener(),
+            appConfig.getQueueConfig().getUacQueue());
+    BatchConfig batchConfig = appConfig.getMessaging().getUacListenerBatch();
+    LaneConfig laneConfig = appConfig.getMessaging().getUacListenerLanes();
+    // the lane listener filters the events itself, as the container does not acknowledge them
+    if (!isLaned(batchConfig, laneConfig)) {
+      listener.setAfterReceivePostProcessors(
+          new QidFilteringPostProcessor(
+              appConfig.getQueueConfig().getQidFilterPrefixes(), listenerMetrics));
+    }
+    if (isBatched(batchConfig)) {
+      configureBatchListenerContainer(
+          listener, listenerMetrics, appConfig.getMessaging().getUacListener(), batchConfig);
+    } else if (isLaned(batchConfig, laneConfig)) {
+      configureLaneListenerContainer(listener);
+    }
+    return listener;
   }
 
   private SimpleMessageListenerContainer makeListenerContainer(
       ConnectionFactory connectionFactory,
       StatelessRetryOperationsInterceptorFactoryBean eventRetryAdvice,
       BackOff rabbitDownBackOff,
-      ContainerConfig containerConfig,
+      ListenerMetrics listenerMetrics,
+      ListenerConfig listenerConfig,
       String queueName) {
     MessagingConfig messaging = appConfig.getMessaging();
     SimpleMessageListenerContainer listener = new SimpleMessageListenerContainer();
     listener.setConnectionFactory(connectionFactory);
     listener.setMismatchedQueuesFatal(messaging.isMismatchedQueuesFatal());
     listener.setQueueNames(queueName);
-    listener.setAdviceChain(eventRetryAdvice.getObject());
-    listener.setConcurrentConsumers(containerConfig.getConsumingThreads());
-    listener.setPrefetchCount(containerConfig.getPrefetchCount());
+    // the metrics advice is outermost, so that its timing includes any retries
+    listener.setAdviceChain(listenerMetrics.processingAdvice(), eventRetryAdvice.getObject());
+    listener.setConcurrentConsumers(listenerConfig.getConsumingThreads());
+    listener.setPrefetchCount(listenerConfig.getPrefetchCount());
     listener.setRecoveryBackOff(rabbitDownBackOff);
     return listener;
   }
 
+  /*
+   * Batches are acknowledged by the batch listener itself once they have been processed, and it
+   * does its own retries when falling back to processing the events individually, so there is no
+   * retry advice.
+   */
+  private void configureBatchListenerContainer(
+      SimpleMessageListenerContainer listener,
+      ListenerMetrics listenerMetrics,
+      ListenerConfig listenerConfig,
+      BatchConfig batchConfig) {
+    listener.setAdviceChain(listenerMetrics.processingAdvice());
+    listener.setConsumerBatchEnabled(true);
+    listener.setBatchSize(batchConfig.getSize());
+    listener.setReceiveTimeout(batchConfig.getReceiveTimeout());
+    listener.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    listener.setPrefetchCount(minPrefetchCount(listenerConfig, batchConfig));
+  }
+
+  /*
+   * Each event is acknowledged by its lane once it has been processed, and the lanes do their own
+   * retries and metrics, so there is no advice. There is a single consumer so that the events are
+   * put on the lanes in the order they are on the queue, with the lanes processing them
+   * concurrently.
+   */
+  private void configureLaneListenerContainer(SimpleMessageListenerContainer listener) {
+    listener.setAdviceChain();
+    listener.setConcurrentConsumers(1);
+    listener.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+  }
+
+  private boolean isBatched(BatchConfig batchConfig) {
+    return batchConfig != null && batchConfig.isEnabled();
+  }
+
+  // batching takes precedence over lanes, if both are enabled
+  private boolean isLaned(BatchConfig batchConfig, LaneConfig laneConfig) {
+    return !isBatched(batchConfig) && laneConfig != null && laneConfig.isEnabled();
+  }
+
+  // a batch listener needs a prefetch of at least the batch size, to fill its batches
+  private int minPrefetchCount(ListenerConfig listenerConfig, BatchConfig batchConfig) {
+    if (isBatched(batchConfig)) {
+      return Math.max(listenerConfig.getPrefetchCount(), batchConfig.getSize());
+    }
+    return listenerConfig.getPrefetchCount();
+  }
+
+  /**
+   * Create the controller that adapts the consumers and prefetch of the Case listener to the
+   * backlog on the case queue and how well the events are being processed.
+   *
+   * <p>It is not created for a batch listener, as its latency target is for a single event, whereas
+   * the latency measured for a batch listener is that of a whole batch.
+   *
+   * @param listenerContainer listener container for the Case events
+   * @param listenerMetrics metrics for the Case listener
+   * @param amqpAdmin admin used to find the backlog on the queue
+   * @param meterRegistry registry for the gauges of consumers and prefetch
+   * @return the controller
+   */
+  @Bean
+  @ConditionalOnExpression(
+      "${messaging.case-listener.adaptive.enabled:false}"
+          + " and !${messaging.case-listener-batch.enabled:false}")
+  public AdaptiveListenerController caseListenerController(
+      @Qualifier("caseEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("caseListenerMetrics") ListenerMetrics listenerMetrics,
+      AmqpAdmin amqpAdmin,
+      MeterRegistry meterRegistry) {
+    return makeListenerController(
+        listenerContainer,
+        listenerMetrics,
+        amqpAdmin,
+        meterRegistry,
+        appConfig.getMessaging().getCaseListener(),
+        appConfig.getMessaging().getCaseListenerBatch(),
+        appConfig.getMessaging().getCaseListenerLanes(),
+        appConfig.getQueueConfig().getCaseQueue());
+  }
+
+  /**
+   * Create the controller that adapts the consumers and prefetch of the UAC listener to the
+   * backlog on the UAC queue and how well the events are being processed.
+   *
+   * <p>It is not created for a batch listener, as its latency target is for a single event, whereas
+   * the latency measured for a batch listener is that of a whole batch.
+   *
+   * @param listenerContainer listener container for the UAC events
+   * @param listenerMetrics metrics for the UAC listener
+   * @param amqpAdmin admin used to find the backlog on the queue
+   * @param meterRegistry registry for the gauges of consumers and prefetch
+   * @return the controller
+   */
+  @Bean
+  @ConditionalOnExpression(
+      "${messaging.uac-listener.adaptive.enabled:false}"
+          + " and !${messaging.uac-listener-batch.enabled:false}")
+  public AdaptiveListenerController uacListenerController(
+      @Qualifier("uacEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("uacListenerMetrics") ListenerMetrics listenerMetrics,
+      AmqpAdmin amqpAdmin,
+      MeterRegistry meterRegistry) {
+    return makeListenerController(
+        listenerContainer,
+        listenerMetrics,
+        amqpAdmin,
+        meterRegistry,
+        appConfig.getMessaging().getUacListener(),
+        appConfig.getMessaging().getUacListenerBatch(),
+        appConfig.getMessaging().getUacListenerLanes(),
+        appConfig.getQueueConfig().getUacQueue());
+  }
+
+  private AdaptiveListenerController makeListenerController(
+      SimpleMessageListenerContainer listenerContainer,
+      ListenerMetrics listenerMetrics,
+      AmqpAdmin amqpAdmin,
+      MeterRegistry meterRegistry,
+      ListenerConfig listenerConfig,
+      BatchConfig batchConfig,
+      LaneConfig laneConfig,
+      String queueName) {
+    int minConsumers = listenerConfig.getConsumingThreads();
+    int maxConsumers = listenerConfig.getAdaptive().getMaxConsumingThreads();
+    if (isLaned(batchConfig, laneConfig)) {
+      // the lanes rely on a single consumer to keep the events in order, so only prefetch adapts
+      minConsumers = 1;
+      maxConsumers = 1;
+    }
+    return new AdaptiveListenerController(
+        queueName,
+        listenerContainer,
+        minConsumers,
+        maxConsumers,
+        minPrefetchCount(listenerConfig, batchConfig),
+        listenerConfig.getAdaptive(),
+        listenerMetrics,
+        amqpAdmin,
+        meterRegistry);
+  }
+
+  /**
+   * Create the listener for batches of Case events, which is used in place of the inbound adapter
+   * when case batch processing is enabled.
+   *
+   * @param listenerContainer listener container for the Case events
+   * @param msgConverter converter for Case events
+   * @param caseEventReceiver receiver that processes the Case events
+   * @param uacCaseRetryTemplate retries for events processed individually
+   * @param listenerMetrics metrics for the Case listener
+   * @return the batch listener
+   */
+  @Bean
+  @ConditionalOnProperty(name = "messaging.case-listener-batch.enabled", havingValue = "true")
+  public EventBatchListener<CaseEvent> caseEventBatchListener(
+      @Qualifier("caseEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("caseJsonMessageConverter") MessageConverter msgConverter,
+      CaseEventReceiver caseEventReceiver,
+      RetryTemplate uacCaseRetryTemplate,
+      @Qualifier("caseListenerMetrics") ListenerMetrics listenerMetrics) {
+    checkBatchSize(
+        "messaging.case-listener-batch.size",
+        appConfig.getMessaging().getCaseListenerBatch(),
+        RespondentDataRepository.MAX_CASES_PER_BATCH);
+    EventBatchListener<CaseEvent> batchListener =
+        new EventBatchListener<>(
+            "case",
+            msgConverter,
+            CaseEvent.class,
+            e -> e.getPayload().getCollectionCase().getId(),
+            e -> e.getEvent().getDateTime(),
+            caseEventReceiver::acceptCaseEvents,
+            caseEventReceiver::acceptCaseEvent,
+            uacCaseRetryTemplate,
+            listenerMetrics);
+    listenerContainer.setMessageListener(batchListener);
+    return batchListener;
+  }
+
+  /**
+   * Create the listener for batches of UAC events, which is used in place of the inbound adapter
+   * when UAC batch processing is enabled.
+   *
+   * @param listenerContainer listener container for the UAC events
+   * @param msgConverter converter for UAC events
+   * @param uacEventReceiver receiver that processes the UAC events
+   * @param uacCaseRetryTemplate retries for events processed individually
+   * @param listenerMetrics metrics for the UAC listener
+   * @return the batch listener
+   */
+  @Bean
+  @ConditionalOnProperty(name = "messaging.uac-listener-batch.enabled", havingValue = "true")
+  public EventBatchListener<UACEvent> uacEventBatchListener(
+      @Qualifier("uacEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("uacJsonMessageConverter") MessageConverter msgConverter,
+      UACEventReceiver uacEventReceiver,
+      RetryTemplate uacCaseRetryTemplate,
+      @Qualifier("uacListenerMetrics") ListenerMetrics listenerMetrics) {
+    checkBatchSize(
+        "messaging.uac-listener-batch.size",
+        appConfig.getMessaging().getUacListenerBatch(),
+        RespondentDataRepository.MAX_UACS_PER_BATCH);
+    EventBatchListener<UACEvent> batchListener =
+        new EventBatchListener<>(
+            "uac",
+            msgConverter,
+            UACEvent.class,
+            e -> e.getPayload().getUac().getUacHash(),
+            e -> e.getEvent().getDateTime(),
+            uacEventReceiver::acceptUACEvents,
+            uacEventReceiver::acceptUACEvent,
+            uacCaseRetryTemplate,
+            listenerMetrics);
+    listenerContainer.setMessageListener(batchListener);
+    return batchListener;
+  }
+
+  // each batch is stored in one commit, which Firestore limits to 500 writes
+  private void checkBatchSize(String property, BatchConfig batchConfig, int maxSize) {
+    if (batchConfig.getSize() > maxSize) {
+      throw new IllegalStateException(
+          property
+              + " must be no more than "
+              + maxSize
+              + ", as each batch is stored in one commit");
+    }
+  }
+
+  /**
+   * Create the listener that processes Case events on ordered lanes, which is used in place of the
+   * inbound adapter when case lanes are enabled, and case batch processing is not. Each case is
+   * kept to one lane, so the events for a case are processed in order.
+   *
+   * @param listenerContainer listener container for the Case events
+   * @param msgConverter converter for Case events
+   * @param caseEventReceiver receiver that processes each Case event
+   * @param uacCaseRetryTemplate retries for each event
+   * @param listenerMetrics metrics for the Case listener
+   * @return the lane listener
+   */
+  @Bean
+  @ConditionalOnExpression(
+      "${messaging.case-listener-lanes.enabled:false}"
+          + " and !${messaging.case-listener-batch.enabled:false}")
+  public EventLaneListener<CaseEvent> caseEventLaneListener(
+      @Qualifier("caseEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("caseJsonMessageConverter") MessageConverter msgConverter,
+      CaseEventReceiver caseEventReceiver,
+      RetryTemplate uacCaseRetryTemplate,
+      @Qualifier("caseListenerMetrics") ListenerMetrics listenerMetrics) {
+    LaneConfig laneConfig = appConfig.getMessaging().getCaseListenerLanes();
+    EventLaneListener<CaseEvent> laneListener =
+        new EventLaneListener<>(
+            "case",
+            msgConverter,
+            CaseEvent.class,
+            e -> e.getPayload().getCollectionCase().getId(),
+            caseEventReceiver::acceptCaseEvent,
+            uacCaseRetryTemplate,
+            listenerMetrics,
+            laneConfig.getLanes(),
+            laneConfig.getLaneSize());
+    listenerContainer.setMessageListener(laneListener);
+    return laneListener;
+  }
+
+  /**
+   * Create the listener that processes UAC events on ordered lanes, which is used in place of the
+   * inbound adapter when UAC lanes are enabled, and UAC batch processing is not. Each UAC is kept
+   * to one lane, so the events for a UAC are processed in order.
+   *
+   * @param listenerContainer listener container for the UAC events
+   * @param msgConverter converter for UAC events
+   * @param uacEventReceiver receiver that processes each UAC event
+   * @param uacCaseRetryTemplate retries for each event
+   * @param listenerMetrics metrics for the UAC listener
+   * @return the lane listener
+   */
+  @Bean
+  @ConditionalOnExpression(
+      "${messaging.uac-listener-lanes.enabled:false}"
+          + " and !${messaging.uac-listener-batch.enabled:false}")
+  public EventLaneListener<UACEvent> uacEventLaneListener(
+      @Qualifier("uacEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
+      @Qualifier("uacJsonMessageConverter") MessageConverter msgConverter,
+      UACEventReceiver uacEventReceiver,
+      RetryTemplate uacCaseRetryTemplate,
+      @Qualifier("uacListenerMetrics") ListenerMetrics listenerMetrics) {
+    LaneConfig laneConfig = appConfig.getMessaging().getUacListenerLanes();
+    EventLaneListener<UACEvent> laneListener =
+        new EventLaneListener<>(
+            "uac",
+            msgConverter,
+            UACEvent.class,
+            e -> e.getPayload().getUac().getUacHash(),
+            uacEventReceiver::acceptUACEvent,
+            uacCaseRetryTemplate,
+            listenerMetrics,
+            laneConfig.getLanes(),
+            laneConfig.getLaneSize());
+    laneListener.setFilter(
+        new QidFilteringPostProcessor(
+            appConfig.getQueueConfig().getQidFilterPrefixes(), listenerMetrics));
+    listenerContainer.setMessageListener(laneListener);
+    return laneListener;
+  }
+
   @Bean
+  @ConditionalOnExpression(
+      "!${messaging.case-listener-batch.enabled:false}"
+          + " and !${messaging.case-listener-lanes.enabled:false}")
   public AmqpInboundChannelAdapter caseEventInboundAmqp(
       @Qualifier("caseEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
       @Qualifier("caseJsonMessageConverter") MessageConverter msgConverter,
@@ -176,6 +595,9 @@ public class InboundEventIntegrationConfig {
   }
 
   @Bean
+  @ConditionalOnExpression(
+      "!${messaging.uac-listener-batch.enabled:false}"
+          + " and !${messaging.uac-listener-lanes.enabled:false}")
   public AmqpInboundChannelAdapter uacEventInboundAmqp(
       @Qualifier("uacEventListenerContainer") SimpleMessageListenerContainer listenerContainer,
       @Qualifier("uacJsonMessageConverter") MessageConverter msgConverter,
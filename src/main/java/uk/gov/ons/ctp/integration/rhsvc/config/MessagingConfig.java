@@ -8,21 +8,114 @@ public class MessagingConfig {
   private boolean mismatchedQueuesFatal;
   // recoveryBackoff - frequency of attempted connection to rabbit after rabbit failure
   private BackoffConfig recoveryBackoff;
-  // default settings for container
-  private ContainerConfig uacCaseListener;
+  // retrying of events by both the case and UAC listeners
+  private RetryConfig listenerRetry;
+  // consumers of the case queue
+  private ListenerConfig caseListener;
+  // consumers of the UAC queue
+  private ListenerConfig uacListener;
+  // batch processing of case events, in place of one event at a time
+  private BatchConfig caseListenerBatch;
+  // batch processing of UAC events, in place of one event at a time
+  private BatchConfig uacListenerBatch;
+  // ordered lanes for case events, in place of one event at a time, unless batching is enabled
+  private LaneConfig caseListenerLanes;
+  // ordered lanes for UAC events, in place of one event at a time, unless batching is enabled
+  private LaneConfig uacListenerLanes;
   private PublishConfig publish;
+  // publishing events from a local journal, rather than waiting for rabbit on each request
+  private OutboxConfig outbox;
 
   @Data
-  public static class ContainerConfig {
+  public static class RetryConfig {
     // processingBackoff - retrying when an event fails to be processed with rabbit working.
     private BackoffConfig processingBackoff;
-    private int consumingThreads;
     private int conMaxAttempts;
+  }
+
+  @Data
+  public static class ListenerConfig {
+    // consumingThreads - consumers of the queue, and the least when adaptive is enabled
+    private int consumingThreads;
+    // prefetchCount - unacknowledged events per consumer, and the least when adaptive is enabled
     private int prefetchCount;
+    private AdaptiveConfig adaptive;
+  }
+
+  @Data
+  public static class AdaptiveConfig {
+    private boolean enabled;
+    private int maxConsumingThreads;
+    private int maxPrefetchCount;
+    // interval - millis between adjustments of the consumers and prefetch
+    private long interval;
+    // scaleUpDepth - events waiting on the queue for the listener to be scaled up
+    private int scaleUpDepth;
+    // targetLatency - mean millis to process a delivery above which the listener is scaled down
+    private long targetLatency;
+    // maxErrorRate - fraction of events rejected above which the listener is scaled down
+    private double maxErrorRate;
+  }
+
+  @Data
+  public static class BatchConfig {
+    private boolean enabled;
+    // size - maximum number of events that are processed and acknowledged together, whose writes
+    // must fit in one storage transaction
+    private int size;
+    // receiveTimeout - millis to wait for another event before processing a part filled batch
+    private long receiveTimeout;
+  }
+
+  @Data
+  public static class LaneConfig {
+    private boolean enabled;
+    // lanes - number of events processed concurrently, each lane in the order they were delivered
+    private int lanes;
+    // laneSize - maximum number of events waiting on each lane
+    private int laneSize;
   }
 
   @Data
   public static class PublishConfig {
     private int maxAttempts;
+    // mode - transacted, to commit each event, or confirms, to wait for a publisher confirm
+    private PublishMode mode;
+    // confirmWindow - maximum number of events waiting for a confirm in confirms mode
+    private int confirmWindow;
+    // confirmTimeout - millis to wait for a place in the window, and then for the confirm
+    private long confirmTimeout;
+  }
+
+  public enum PublishMode {
+    TRANSACTED,
+    CONFIRMS
+  }
+
+  @Data
+  public static class OutboxConfig {
+    private boolean enabled;
+    // directory - where the journal of events waiting to be published is kept, which must be set
+    // to a persistent volume, as events left in it are only published if the service restarts with
+    // the same directory
+    private String directory;
+    // syncWrites - force each event to disk before the request carries on
+    private boolean syncWrites;
+    // segmentSize - number of events in each journal file
+    private int segmentSize;
+    // maxBacklog - events waiting to be published, beyond which new events are rejected
+    private int maxBacklog;
+    // batchSize - maximum number of events published before waiting for confirms
+    private int batchSize;
+    // pollTimeout - millis the dispatcher waits for events before checking again
+    private long pollTimeout;
+    // confirmTimeout - millis to wait for rabbit to confirm a batch
+    private long confirmTimeout;
+    // retryBackoff - millis to wait before publishing again after a failure
+    private long retryBackoff;
+    // maxAttempts - failed attempts to publish an event on its own before it is parked
+    private int maxAttempts;
+    // drainTimeout - millis to wait on shutdown for the journal to be published
+    private long drainTimeout;
   }
 }
@@ -0,0 +1,99 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+import uk.gov.ons.ctp.common.event.SpringRabbitEventSender;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.OutboxConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxEventSender;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxJournal;
+
+/**
+ * Configuration for publishing events through a local outbox, which is used by the EventPublisher
+ * in place of sending directly to rabbit when messaging.outbox.enabled is true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "messaging.outbox.enabled", havingValue = "true")
+public class OutboxIntegrationConfig implements DisposableBean {
+  private AppConfig appConfig;
+  private CachingConnectionFactory outboxConnectionFactory;
+
+  public OutboxIntegrationConfig(AppConfig appConfig) {
+    this.appConfig = appConfig;
+  }
+
+  /**
+   * The journal of events waiting to be published. Its directory has no default, as events left in
+   * a directory that does not outlive the service, such as one in /tmp of a container, are lost.
+   *
+   * @param customObjectMapper mapper for writing and reading events
+   * @return the journal
+   * @throws IOException if the journal cannot be read or written
+   */
+  @Bean
+  public OutboxJournal outboxJournal(CustomObjectMapper customObjectMapper) throws IOException {
+    OutboxConfig outboxConfig = appConfig.getMessaging().getOutbox();
+    if (StringUtils.isEmpty(outboxConfig.getDirectory())) {
+      throw new IllegalStateException(
+          "messaging.outbox.directory must be set to a persistent volume to enable the outbox");
+    }
+    return new OutboxJournal(
+        Paths.get(outboxConfig.getDirectory()),
+        customObjectMapper,
+        outboxConfig.isSyncWrites(),
+        outboxConfig.getSegmentSize(),
+        outboxConfig.getMaxBacklog());
+  }
+
+  /**
+   * Template for the outbox dispatcher. Publisher confirms cannot be used on the transacted
+   * channels of the main rabbitTemplate, so the dispatcher has its own connection factory, built
+   * from the same spring.rabbitmq properties as the main one.
+   *
+   * @param rabbitProperties the properties of the main connection factory
+   * @return template using a connection factory with publisher confirms enabled
+   * @throws Exception if the connection factory cannot be created
+   */
+  @Bean
+  public RabbitTemplate outboxRabbitTemplate(RabbitProperties rabbitProperties) throws Exception {
+    outboxConnectionFactory =
+        PublisherConnectionFactory.create(rabbitProperties, ConfirmType.SIMPLE, "rhsvc-outbox");
+
+    RabbitTemplate template = new RabbitTemplate(outboxConnectionFactory);
+    template.setMessageConverter(new Jackson2JsonMessageConverter());
+    template.setExchange("events");
+    return template;
+  }
+
+  @Bean
+  public OutboxEventSender outboxEventSender(
+      OutboxJournal outboxJournal,
+      @Qualifier("outboxRabbitTemplate") RabbitTemplate outboxRabbitTemplate,
+      MeterRegistry meterRegistry) {
+    return new OutboxEventSender(
+        outboxJournal,
+        outboxRabbitTemplate,
+        new SpringRabbitEventSender(outboxRabbitTemplate),
+        appConfig.getMessaging().getOutbox(),
+        meterRegistry);
+  }
+
+  @Override
+  public void destroy() {
+    if (outboxConnectionFactory != null) {
+      outboxConnectionFactory.destroy();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import java.time.Duration;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.connection.RabbitConnectionFactoryBean;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+
+/**
+ * Creates a connection factory with publisher confirms, for publishing events on channels that
+ * cannot be transacted like those of the main connection factory. It is not a bean, so that it does
+ * not take the place of the main one.
+ *
+ * <p>The factory is built from the spring.rabbitmq properties in the same way as Spring Boot builds
+ * the main connection factory, so that it connects to the same addresses with the same credentials,
+ * SSL, heartbeat, timeouts and caching.
+ */
+public final class PublisherConnectionFactory {
+
+  private PublisherConnectionFactory() {}
+
+  /**
+   * Create a connection factory with publisher confirms.
+   *
+   * @param properties the spring.rabbitmq properties of the main connection factory
+   * @param confirmType the type of publisher confirms
+   * @param connectionName the name of the connection shown by rabbit
+   * @return the connection factory, which the caller must destroy
+   * @throws Exception if the properties cannot be applied, eg an SSL key store cannot be read
+   */
+  public static CachingConnectionFactory create(
+      RabbitProperties properties, ConfirmType confirmType, String connectionName)
+      throws Exception {
+    PropertyMapper map = PropertyMapper.get();
+    CachingConnectionFactory factory =
+        new CachingConnectionFactory(rabbitConnectionFactoryBean(properties).getObject());
+    map.from(properties::determineAddresses).to(factory::setAddresses);
+    map.from(properties::isPublisherReturns).to(factory::setPublisherReturns);
+    RabbitProperties.Cache.Channel channel = properties.getCache().getChannel();
+    map.from(channel::getSize).whenNonNull().to(factory::setChannelCacheSize);
+    map.from(channel::getCheckoutTimeout)
+        .whenNonNull()
+        .as(Duration::toMillis)
+        .to(factory::setChannelCheckoutTimeout);
+    RabbitProperties.Cache.Connection connection = properties.getCache().getConnection();
+    map.from(connection::getMode).whenNonNull().to(factory::setCacheMode);
+    map.from(connection::getSize).whenNonNull().to(factory::setConnectionCacheSize);
+    factory.setPublisherConfirmType(confirmType);
+    factory.setConnectionNameStrategy(f -> connectionName);
+    return factory;
+  }
+
+  private static RabbitConnectionFactoryBean rabbitConnectionFactoryBean(
+      RabbitProperties properties) throws Exception {
+    PropertyMapper map = PropertyMapper.get();
+    RabbitConnectionFactoryBean factory = new RabbitConnectionFactoryBean();
+    map.from(properties::determineHost).whenNonNull().to(factory::setHost);
+    map.from(properties::determinePort).to(factory::setPort);
+    map.from(properties::determineUsername).whenNonNull().to(factory::setUsername);
+    map.from(properties::determinePassword).whenNonNull().to(factory::setPassword);
+    map.from(properties::determineVirtualHost).whenNonNull().to(factory::setVirtualHost);
+    map.from(properties::getRequestedHeartbeat)
+        .whenNonNull()
+        .asInt(Duration::getSeconds)
+        .to(factory::setRequestedHeartbeat);
+    map.from(properties::getRequestedChannelMax).to(factory::setRequestedChannelMax);
+    RabbitProperties.Ssl ssl = properties.getSsl();
+    if (ssl.determineEnabled()) {
+      factory.setUseSSL(true);
+      map.from(ssl::getAlgorithm).whenNonNull().to(factory::setSslAlgorithm);
+      map.from(ssl::getKeyStoreType).to(factory::setKeyStoreType);
+      map.from(ssl::getKeyStore).to(factory::setKeyStore);
+      map.from(ssl::getKeyStorePassword).to(factory::setKeyStorePassphrase);
+      map.from(ssl::getTrustStoreType).to(factory::setTrustStoreType);
+      map.from(ssl::getTrustStore).to(factory::setTrustStore);
+      map.from(ssl::getTrustStorePassword).to(factory::setTrustStorePassphrase);
+      map.from(ssl::isValidateServerCertificate)
+          .to(validate -> factory.setSkipServerCertificateValidation(!validate));
+      map.from(ssl::getVerifyHostname).to(factory::setEnableHostnameVerification);
+    }
+    map.from(properties::getConnectionTimeout)
+        .whenNonNull()
+        .asInt(Duration::toMillis)
+        .to(factory::setConnectionTimeout);
+    factory.afterPropertiesSet();
+    return factory;
+  }
+}
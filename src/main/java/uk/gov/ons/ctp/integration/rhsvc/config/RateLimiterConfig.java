@@ -7,4 +7,30 @@ import uk.gov.ons.ctp.common.rest.RestClientConfig;
 public class RateLimiterConfig {
   private boolean enabled;
   private RestClientConfig restClientConfig;
+  // executor - for calling the rate limiter for the products of a request concurrently
+  private ExecutorConfig executor;
+  // local limits checked in process before calling the rate limiter service
+  private LocalLimitsConfig local;
+
+  @Data
+  public static class LocalLimitsConfig {
+    private boolean enabled;
+    // maxKeys - number of keys tracked before idle keys are forgotten
+    private int maxKeys;
+    private LocalLimit fulfilmentIpAddress;
+    private LocalLimit fulfilmentUprn;
+    private LocalLimit fulfilmentTelNo;
+    private LocalLimit webformIpAddress;
+    private LocalLimit eqLaunchIpAddress;
+  }
+
+  /**
+   * A local limit of requests for a key in a period. These must be looser than the limits of the
+   * rate limiter service, so that only requests it would reject anyway are rejected locally.
+   */
+  @Data
+  public static class LocalLimit {
+    private int limit;
+    private long periodSeconds;
+  }
 }
@@ -0,0 +1,10 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class StageTimingConfig {
+  private boolean enabled;
+  // slowRequestMillis - requests taking at least this long are logged with their stage timings
+  private long slowRequestMillis;
+}
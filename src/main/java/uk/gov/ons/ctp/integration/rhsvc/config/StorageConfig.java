@@ -0,0 +1,18 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class StorageConfig {
+  // engine - firestore, or local for the embedded engine
+  private String engine;
+  private LocalStorageConfig local;
+
+  @Data
+  public static class LocalStorageConfig {
+    // directory - where the log of stored objects is kept. If empty they are held in memory only
+    private String directory;
+    // syncWrites - force each write to disk before it returns
+    private boolean syncWrites;
+  }
+}
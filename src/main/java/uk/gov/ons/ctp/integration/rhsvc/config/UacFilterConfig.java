@@ -0,0 +1,18 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class UacFilterConfig {
+  private boolean enabled;
+  // expectedInsertions - number of UACs the filter is first sized for. It grows to hold more
+  private int expectedInsertions;
+  // falsePositiveProbability - chance that an unknown UAC is read from storage, when first sized
+  private double falsePositiveProbability;
+  // rebuildIntervalSeconds - how often the filter is rebuilt from a scan of the stored UACs
+  private int rebuildIntervalSeconds;
+  // missChecksPerSecond - UACs not in the filter that are still read, as they may be new
+  private double missChecksPerSecond;
+  // missCheckBurst - such reads that may be made at once from budget saved while there were few
+  private int missCheckBurst;
+}
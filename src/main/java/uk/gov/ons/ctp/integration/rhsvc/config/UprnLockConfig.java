@@ -0,0 +1,25 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import lombok.Data;
+
+@Data
+public class UprnLockConfig {
+  // stripes - number of locks that UPRNs are shared between within the service
+  private int stripes;
+  // wait - longest to wait, in millis, for the lock or lease
+  private long wait;
+  // proceedWithoutLock - whether to create the case without the lock or lease after the wait,
+  // rather than fail the request with HTTP 503 so that it can be retried
+  private boolean proceedWithoutLock;
+  private LeaseConfig lease;
+
+  @Data
+  public static class LeaseConfig {
+    // enabled - whether a lease is also taken in storage, to lock the UPRN across instances
+    private boolean enabled;
+    // duration - millis after which a lease that has not been released expires
+    private long duration;
+    // retryInterval - millis between attempts to take a lease held by another request
+    private long retryInterval;
+  }
+}
@@ -1,13 +1,21 @@
 package uk.gov.ons.ctp.integration.rhsvc.endpoint;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import com.google.common.hash.Hashing;
 import io.micrometer.core.annotation.Timed;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -15,10 +23,13 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import uk.gov.ons.ctp.common.endpoint.CTPEndpoint;
 import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
 import uk.gov.ons.ctp.integration.common.product.model.Product;
 import uk.gov.ons.ctp.integration.common.product.model.Product.CaseType;
 import uk.gov.ons.ctp.integration.common.product.model.Product.DeliveryChannel;
 import uk.gov.ons.ctp.integration.common.product.model.Product.Region;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
 import uk.gov.ons.ctp.integration.rhsvc.representation.ProductDTO;
 import uk.gov.ons.ctp.integration.rhsvc.service.FulfilmentsService;
 
@@ -30,10 +41,40 @@ public final class FulfilmentsEndpoint implements CTPEndpoint {
   private static final Logger log = LoggerFactory.getLogger(FulfilmentsEndpoint.class);
 
   private FulfilmentsService fulfilmentsService;
+  private CustomObjectMapper objectMapper;
+  private CacheControl cacheControl;
+
+  // Products found, with their ETag, by query. The parameters are all enums, so there are few
+  // combinations, and the products for each do not change while the service runs.
+  private final Map<FulfilmentsQuery, TaggedFulfilments> responses = new ConcurrentHashMap<>();
+
+  @Data
+  @AllArgsConstructor
+  private static class FulfilmentsQuery {
+    private CaseType caseType;
+    private Region region;
+    private DeliveryChannel deliveryChannel;
+    private Boolean individual;
+    private Product.ProductGroup productGroup;
+  }
+
+  @Data
+  @AllArgsConstructor
+  private static class TaggedFulfilments {
+    private List<ProductDTO> fulfilments;
+    private String eTag;
+  }
 
   @Autowired
-  public FulfilmentsEndpoint(final FulfilmentsService fulfilmentsService) {
+  public FulfilmentsEndpoint(
+      final FulfilmentsService fulfilmentsService,
+      final CustomObjectMapper objectMapper,
+      final AppConfig appConfig) {
     this.fulfilmentsService = fulfilmentsService;
+    this.objectMapper = objectMapper;
+    this.cacheControl =
+        CacheControl.maxAge(appConfig.getFulfilments().getCacheMaxAgeSeconds(), TimeUnit.SECONDS)
+            .cachePublic();
   }
 
   /**
@@ -43,13 +84,19 @@ public final class FulfilmentsEndpoint implements CTPEndpoint {
    * <p>All request parameters are optional. If no parameters are specified then all products which
    * are applicable to RH are returned.
    *
+   * <p>The products for each combination of parameters are found once, and served with a strong
+   * ETag, computed from their JSON, and a Cache-Control header so that the UI and CDN can cache
+   * them. A request with a matching If-None-Match header gets a 304 (Not Modified) response with no
+   * body.
+   *
    * @param caseType is an optional parameter to specify the case type, eg, 'HI' or 'HH'
    * @param region is an optional parameter to specify the region, eg, 'E' for England.
    * @param deliveryChannel is an optional parameter to specify the delivery channel, eg, 'POST'
    * @param individual is an optional parameter to specify whether this is a query about an
    *     individual or a household
    * @param productGroup is an optional parameter to specify the product group, eg 'UAC'
-   * @return A list of matching products. The list will be empty if there are no matching products.
+   * @return A JSON list of matching products. The list will be empty if there are no matching
+   *     products.
    * @throws CTPException if something went wrong.
    */
   @RequestMapping(value = "/fulfilments", method = RequestMethod.GET)
@@ -67,14 +114,19 @@ public final class FulfilmentsEndpoint implements CTPEndpoint {
         .with("requestParam.individual", individual)
         .with("requestParam.productGroup", productGroup)
         .info("Entering GET getFulfilments");
-    List<CaseType> caseTypes = caseType == null ? Collections.emptyList() : Arrays.asList(caseType);
-    List<ProductDTO> fulfilments =
-        fulfilmentsService.getFulfilments(
-            caseTypes, region, deliveryChannel, productGroup, individual);
+    FulfilmentsQuery query =
+        new FulfilmentsQuery(caseType, region, deliveryChannel, individual, productGroup);
+    TaggedFulfilments fulfilments = responses.get(query);
+    if (fulfilments == null) {
+      fulfilments = find(query);
+      responses.putIfAbsent(query, fulfilments);
+    }
 
     List<String> fulfilmentCodes =
-        fulfilments.stream().map(ProductDTO::getFulfilmentCode).collect(Collectors.toList());
-    log.with("size", fulfilments.size())
+        fulfilments.getFulfilments().stream()
+            .map(ProductDTO::getFulfilmentCode)
+            .collect(Collectors.toList());
+    log.with("size", fulfilmentCodes.size())
         .with("fulfilments", fulfilmentCodes)
         .info("Found fulfilment(s)");
 
@@ -82,6 +134,30 @@ public final class FulfilmentsEndpoint implements CTPEndpoint {
         .with("requestParam.productGroup", productGroup)
         .debug("Exit GET getFulfilments");
 
-    return ResponseEntity.ok(fulfilments);
+    // a GET whose If-None-Match matches the ETag is answered with a 304 by Spring MVC
+    return ResponseEntity.ok()
+        .cacheControl(cacheControl)
+        .eTag(fulfilments.getETag())
+        .body(fulfilments.getFulfilments());
+  }
+
+  private TaggedFulfilments find(FulfilmentsQuery query) throws CTPException {
+    CaseType caseType = query.getCaseType();
+    List<CaseType> caseTypes = caseType == null ? Collections.emptyList() : Arrays.asList(caseType);
+    List<ProductDTO> fulfilments =
+        fulfilmentsService.getFulfilments(
+            caseTypes,
+            query.getRegion(),
+            query.getDeliveryChannel(),
+            query.getProductGroup(),
+            query.getIndividual());
+
+    try {
+      byte[] json = objectMapper.writeValueAsBytes(fulfilments);
+      String eTag = "\"" + Hashing.sha256().hashBytes(json).toString() + "\"";
+      return new TaggedFulfilments(List.copyOf(fulfilments), eTag);
+    } catch (JsonProcessingException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to render fulfilments");
+    }
   }
 }
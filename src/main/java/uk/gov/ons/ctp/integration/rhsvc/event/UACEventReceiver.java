@@ -1,5 +1,6 @@
 package uk.gov.ons.ctp.integration.rhsvc.event;
 
+import java.util.List;
 import org.springframework.integration.annotation.MessageEndpoint;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.model.UACEvent;
@@ -18,4 +19,12 @@ public interface UACEventReceiver {
    * @throws CTPException something went wrong
    */
   public void acceptUACEvent(UACEvent event) throws CTPException;
+
+  /**
+   * End point for a batch of events from Response Management, which are stored together.
+   *
+   * @param events UACEvent messages from Response Management, no more than one for each UAC
+   * @throws CTPException something went wrong, in which case none of the events were stored
+   */
+  public void acceptUACEvents(List<UACEvent> events) throws CTPException;
 }
@@ -0,0 +1,201 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.DisposableBean;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.AdaptiveConfig;
+
+/**
+ * Grows and shrinks the consumers of a listener container, and their prefetch, between the
+ * configured bounds, so that a backlog on the queue is drained quickly without overloading
+ * Firestore while events arrive at the usual rate.
+ *
+ * <p>Every interval the controller looks at the events waiting on the queue, and at the mean
+ * processing time and the fraction of events rejected since the last interval, which rise when
+ * Firestore is failing or the retries are backing off:
+ *
+ * <ul>
+ *   <li>if processing is slower than the target latency, or too many events are rejected, the
+ *       consumers and prefetch are halved
+ *   <li>otherwise, if the backlog has reached the scale up depth, a consumer is added and the
+ *       prefetch doubled
+ *   <li>otherwise, if the queue is empty, a consumer is removed and the prefetch halved
+ * </ul>
+ *
+ * <p>The container only applies a new prefetch to consumers started after it is changed.
+ */
+public class AdaptiveListenerController implements DisposableBean {
+  private static final Logger log = LoggerFactory.getLogger(AdaptiveListenerController.class);
+
+  private final String queue;
+  private final SimpleMessageListenerContainer container;
+  private final AdaptiveConfig adaptiveConfig;
+  private final ListenerMetrics listenerMetrics;
+  private final AmqpAdmin amqpAdmin;
+  private final int minConsumers;
+  private final int maxConsumers;
+  private final int minPrefetch;
+  private final ScheduledExecutorService scheduler;
+
+  private volatile int consumers;
+  private volatile int prefetch;
+  private long lastDeliveries;
+  private double lastProcessingMillis;
+  private double lastEvents;
+  private double lastRejections;
+
+  /**
+   * Constructor for AdaptiveListenerController, which starts adjusting the container.
+   *
+   * @param queue name of the queue the container listens to
+   * @param container the listener container
+   * @param minConsumers the least consumers, which the container starts with
+   * @param maxConsumers the most consumers
+   * @param minPrefetch the least prefetch, which the container starts with
+   * @param adaptiveConfig bounds and thresholds for the adjustments
+   * @param listenerMetrics metrics of the listener
+   * @param amqpAdmin admin used to find the events waiting on the queue
+   * @param meterRegistry registry for the gauges of consumers and prefetch
+   */
+  public AdaptiveListenerController(
+      String queue,
+      SimpleMessageListenerContainer container,
+      int minConsumers,
+      int maxConsumers,
+      int minPrefetch,
+      AdaptiveConfig adaptiveConfig,
+      ListenerMetrics listenerMetrics,
+      AmqpAdmin amqpAdmin,
+      MeterRegistry meterRegistry) {
+    this.queue = queue;
+    this.container = container;
+    this.minConsumers = minConsumers;
+    this.maxConsumers = Math.max(minConsumers, maxConsumers);
+    this.minPrefetch = minPrefetch;
+    this.adaptiveConfig = adaptiveConfig;
+    this.listenerMetrics = listenerMetrics;
+    this.amqpAdmin = amqpAdmin;
+    this.consumers = minConsumers;
+    this.prefetch = minPrefetch;
+    this.lastDeliveries = listenerMetrics.getDeliveries();
+    this.lastProcessingMillis = listenerMetrics.getProcessingMillis();
+    this.lastEvents = listenerMetrics.getEvents();
+    this.lastRejections = listenerMetrics.getRejections();
+
+    Gauge.builder("rhsvc.listener.consumers", this, c -> c.consumers)
+        .description("Consumers of the queue")
+        .tag("queue", queue)
+        .register(meterRegistry);
+    Gauge.builder("rhsvc.listener.prefetch", this, c -> c.prefetch)
+        .description("Prefetch of consumers of the queue")
+        .tag("queue", queue)
+        .register(meterRegistry);
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "listener-control-" + queue);
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::adjustSafely,
+        adaptiveConfig.getInterval(),
+        adaptiveConfig.getInterval(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Adjust the consumers and prefetch of the container once, from what has happened since the
+   * last adjustment. This is done every interval by the controller itself.
+   */
+  public synchronized void adjust() {
+    long deliveries = listenerMetrics.getDeliveries() - lastDeliveries;
+    double processingMillis = listenerMetrics.getProcessingMillis() - lastProcessingMillis;
+    double events = listenerMetrics.getEvents() - lastEvents;
+    double rejections = listenerMetrics.getRejections() - lastRejections;
+    lastDeliveries += deliveries;
+    lastProcessingMillis += processingMillis;
+    lastEvents += events;
+    lastRejections += rejections;
+
+    double meanLatency = deliveries == 0 ? 0 : processingMillis / deliveries;
+    double errorRate = events == 0 ? 0 : rejections / events;
+    Integer depth = queueDepth();
+
+    int newConsumers = consumers;
+    int newPrefetch = prefetch;
+    if (meanLatency > adaptiveConfig.getTargetLatency()
+        || errorRate > adaptiveConfig.getMaxErrorRate()) {
+      newConsumers = Math.max(minConsumers, consumers / 2);
+      newPrefetch = Math.max(minPrefetch, prefetch / 2);
+    } else if (depth != null && depth >= adaptiveConfig.getScaleUpDepth()) {
+      int maxPrefetch = Math.max(minPrefetch, adaptiveConfig.getMaxPrefetchCount());
+      newConsumers = Math.min(maxConsumers, consumers + 1);
+      newPrefetch = Math.min(maxPrefetch, prefetch * 2);
+    } else if (depth != null && depth == 0) {
+      newConsumers = Math.max(minConsumers, consumers - 1);
+      newPrefetch = Math.max(minPrefetch, prefetch / 2);
+    }
+
+    if (newConsumers != consumers || newPrefetch != prefetch) {
+      log.with("queue", queue)
+          .with("depth", depth)
+          .with("meanLatency", meanLatency)
+          .with("errorRate", errorRate)
+          .with("consumers", newConsumers)
+          .with("prefetch", newPrefetch)
+          .info("Adjusting listener");
+      // the prefetch is set first, so that any consumers added now use it
+      container.setPrefetchCount(newPrefetch);
+      container.setConcurrentConsumers(newConsumers);
+      consumers = newConsumers;
+      prefetch = newPrefetch;
+    }
+  }
+
+  /**
+   * Get the number of consumers the container has been set to.
+   *
+   * @return the number of consumers
+   */
+  public int getConsumers() {
+    return consumers;
+  }
+
+  /**
+   * Get the prefetch the container has been set to.
+   *
+   * @return the prefetch
+   */
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  private void adjustSafely() {
+    try {
+      adjust();
+    } catch (Exception e) {
+      log.with("queue", queue).warn(e, "Failed to adjust listener");
+    }
+  }
+
+  // null if the depth is not known, when the listener is only scaled down for latency or errors
+  private Integer queueDepth() {
+    QueueInformation info = amqpAdmin.getQueueInfo(queue);
+    return info == null ? null : info.getMessageCount();
+  }
+
+  @Override
+  public void destroy() {
+    scheduler.shutdownNow();
+  }
+}
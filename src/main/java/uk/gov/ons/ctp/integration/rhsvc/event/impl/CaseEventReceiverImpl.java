@@ -2,6 +2,8 @@ package uk.gov.ons.ctp.integration.rhsvc.event.impl;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,6 +14,7 @@ import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.model.CaseEvent;
 import uk.gov.ons.ctp.common.event.model.CollectionCase;
 import uk.gov.ons.ctp.integration.rhsvc.event.CaseEventReceiver;
+import uk.gov.ons.ctp.integration.rhsvc.repository.CaseUpdate;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 
 /**
@@ -45,10 +48,37 @@ public class CaseEventReceiverImpl implements CaseEventReceiver {
         .info("Entering acceptCaseEvent");
 
     try {
-      respondentDataRepo.writeCollectionCase(collectionCase);
+      respondentDataRepo.writeCollectionCaseIfChanged(
+          collectionCase, caseEvent.getEvent().getDateTime());
     } catch (CTPException ctpEx) {
       log.with("caseTransactionId", caseTransactionId).error(ctpEx, "Case Event processing failed");
       throw new CTPException(ctpEx.getFault());
     }
   }
+
+  /**
+   * End point for a batch of events from Response Management, used when case batch processing is
+   * enabled. The cases are written in one transaction.
+   *
+   * @param caseEvents CaseEvent messages from Response Management, no more than one for each case
+   * @throws CTPException something went wrong
+   */
+  public void acceptCaseEvents(List<CaseEvent> caseEvents) throws CTPException {
+    List<CaseUpdate> caseUpdates = new ArrayList<>();
+    for (CaseEvent caseEvent : caseEvents) {
+      caseUpdates.add(
+          new CaseUpdate(
+              caseEvent.getPayload().getCollectionCase(), caseEvent.getEvent().getDateTime()));
+    }
+
+    log.with("size", caseEvents.size()).info("Entering acceptCaseEvents");
+
+    try {
+      int written = respondentDataRepo.writeCollectionCasesIfChanged(caseUpdates);
+      log.with("size", caseEvents.size()).with("written", written).debug("Stored case batch");
+    } catch (CTPException ctpEx) {
+      log.with("size", caseEvents.size()).error(ctpEx, "Case Event batch processing failed");
+      throw new CTPException(ctpEx.getFault());
+    }
+  }
 }
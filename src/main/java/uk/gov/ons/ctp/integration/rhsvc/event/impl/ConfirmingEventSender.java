@@ -0,0 +1,104 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventSender;
+import uk.gov.ons.ctp.common.event.SpringRabbitEventSender;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * Event sender for the confirms mode of publishing, which relies on correlated publisher confirms
+ * rather than a transaction on the channel for each event.
+ *
+ * <p>Each event is published with its own correlation data, whose future is completed by the
+ * connection's confirm thread when rabbit acks or nacks it. Publishes from many request threads are
+ * therefore in flight together, up to the confirm window, rather than each waiting for a commit in
+ * turn. The request still waits for the confirm of its own event, so a nack, a confirm timeout or a
+ * full window is thrown as a failure to send, which the EventPublisher handles as before through
+ * the circuit breaker and event persistence.
+ */
+public class ConfirmingEventSender implements EventSender {
+  private final EventSender sender;
+  private final Semaphore window;
+  private final int windowSize;
+  private final long confirmTimeout;
+  private final ThreadLocal<CorrelationData> correlation = new ThreadLocal<>();
+
+  /**
+   * Constructor for ConfirmingEventSender
+   *
+   * @param template template for a connection factory with correlated publisher confirms enabled
+   * @param windowSize maximum number of events waiting for a confirm
+   * @param confirmTimeout millis to wait for a place in the window, and then for the confirm
+   * @param meterRegistry registry for the in flight metric
+   */
+  public ConfirmingEventSender(
+      RabbitTemplate template, int windowSize, long confirmTimeout, MeterRegistry meterRegistry) {
+    this.sender = new SpringRabbitEventSender(template);
+    this.window = new Semaphore(windowSize);
+    this.windowSize = windowSize;
+    this.confirmTimeout = confirmTimeout;
+
+    // called on the sending thread for each publish, including any retried by the template
+    template.setCorrelationDataPostProcessor(
+        (message, correlationData) -> {
+          CorrelationData data = correlationData == null ? new CorrelationData() : correlationData;
+          correlation.set(data);
+          return data;
+        });
+
+    Gauge.builder("rhsvc.publish.confirms.outstanding", this, ConfirmingEventSender::outstanding)
+        .description("Events published and waiting for a confirm from rabbit")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+    try {
+      if (!window.tryAcquire(confirmTimeout, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Too many events waiting for publisher confirms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting to publish event", e);
+    }
+
+    try {
+      sender.sendEvent(routingKey, genericEvent);
+      awaitConfirm(correlation.get());
+    } finally {
+      correlation.remove();
+      window.release();
+    }
+  }
+
+  private void awaitConfirm(CorrelationData correlationData) {
+    if (correlationData == null) {
+      throw new IllegalStateException("Event was published without correlation data");
+    }
+    Confirm confirm;
+    try {
+      confirm = correlationData.getFuture().get(confirmTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for publisher confirm", e);
+    } catch (ExecutionException | TimeoutException e) {
+      throw new IllegalStateException("No publisher confirm for event", e);
+    }
+    if (!confirm.isAck()) {
+      throw new IllegalStateException("Event was nacked by rabbit: " + confirm.getReason());
+    }
+  }
+
+  private int outstanding() {
+    return windowSize - window.availablePermits();
+  }
+}
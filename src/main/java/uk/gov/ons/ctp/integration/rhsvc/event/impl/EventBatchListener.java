@@ -0,0 +1,182 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.support.RabbitExceptionTranslator;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.retry.RetryOperations;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * Listener for a batch of inbound events, used in place of the AMQP inbound channel adapter when
+ * batch processing is enabled for a queue.
+ *
+ * <p>The events of a batch are processed together, so that what they write is committed to storage
+ * once for the whole batch, and the whole batch is acknowledged once it has been stored. Where
+ * several events in a batch are for the same key (eg, the same case) only the newest of them is
+ * processed, as each event carries the complete entity and the older ones would just be
+ * overwritten. The newest is the one with the latest event time, or of those with the same time,
+ * the one delivered last, so that an older event redelivered after a newer one does not replace
+ * it.
+ *
+ * <p>If any event in the batch fails then the batch falls back to processing each event on its
+ * own, with the usual retries, so that only the events that still fail are rejected to the DLQ.
+ * Processing an event again after its batch failed is harmless, as each event carries the complete
+ * entity.
+ *
+ * @param <T> the type of event
+ */
+public class EventBatchListener<T> implements ChannelAwareBatchMessageListener {
+  private static final Logger log = LoggerFactory.getLogger(EventBatchListener.class);
+
+  /**
+   * Processes a single event.
+   *
+   * @param <T> the type of event
+   */
+  @FunctionalInterface
+  public interface EventProcessor<T> {
+    void process(T event) throws CTPException;
+  }
+
+  /**
+   * Processes the events of a batch together, storing all of them or none of them.
+   *
+   * @param <T> the type of event
+   */
+  @FunctionalInterface
+  public interface BatchProcessor<T> {
+    void process(List<T> events) throws CTPException;
+  }
+
+  private String name;
+  private MessageConverter messageConverter;
+  private Class<T> eventType;
+  private Function<T, String> keyExtractor;
+  private Function<T, Date> dateTimeExtractor;
+  private BatchProcessor<T> batchProcessor;
+  private EventProcessor<T> eventProcessor;
+  private RetryOperations retryOperations;
+  private ListenerMetrics listenerMetrics;
+
+  /**
+   * Constructor for EventBatchListener
+   *
+   * @param name name of the listener, for logging
+   * @param messageConverter converter from AMQP message to event
+   * @param eventType the type of event
+   * @param keyExtractor gives the key of the entity carried by an event
+   * @param dateTimeExtractor gives the time of an event
+   * @param batchProcessor processes the events of a batch together
+   * @param eventProcessor processes a single event, after a batch failure
+   * @param retryOperations retries for events processed individually after a batch failure
+   * @param listenerMetrics metrics of the listener, which count the events rejected to the DLQ
+   */
+  public EventBatchListener(
+      String name,
+      MessageConverter messageConverter,
+      Class<T> eventType,
+      Function<T, String> keyExtractor,
+      Function<T, Date> dateTimeExtractor,
+      BatchProcessor<T> batchProcessor,
+      EventProcessor<T> eventProcessor,
+      RetryOperations retryOperations,
+      ListenerMetrics listenerMetrics) {
+    this.name = name;
+    this.messageConverter = messageConverter;
+    this.eventType = eventType;
+    this.keyExtractor = keyExtractor;
+    this.dateTimeExtractor = dateTimeExtractor;
+    this.batchProcessor = batchProcessor;
+    this.eventProcessor = eventProcessor;
+    this.retryOperations = retryOperations;
+    this.listenerMetrics = listenerMetrics;
+  }
+
+  @Override
+  public void onMessageBatch(List<Message> messages, Channel channel) {
+    log.with("listener", name).with("size", messages.size()).debug("Processing event batch");
+    try {
+      if (processBatch(messages)) {
+        long lastDeliveryTag = deliveryTag(messages.get(messages.size() - 1));
+        channel.basicAck(lastDeliveryTag, true);
+      } else {
+        log.with("listener", name)
+            .with("size", messages.size())
+            .warn("Event batch failed, falling back to processing events individually");
+        processIndividually(messages, channel);
+      }
+    } catch (IOException e) {
+      throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+    }
+  }
+
+  private boolean processBatch(List<Message> messages) {
+    Map<String, T> latestEvents = new LinkedHashMap<>();
+    try {
+      for (Message message : messages) {
+        T event = toEvent(message);
+        String key = keyExtractor.apply(event);
+        T latestEvent = latestEvents.get(key);
+        if (latestEvent == null || !isOlder(event, latestEvent)) {
+          latestEvents.remove(key);
+          latestEvents.put(key, event);
+        }
+      }
+    } catch (RuntimeException e) {
+      log.with("listener", name).warn(e, "Failed to convert event in batch");
+      return false;
+    }
+
+    try {
+      batchProcessor.process(new ArrayList<>(latestEvents.values()));
+      return true;
+    } catch (CTPException | RuntimeException e) {
+      log.with("listener", name).warn(e, "Failed to process event batch");
+      return false;
+    }
+  }
+
+  // events without a time are never older
+  private boolean isOlder(T event, T other) {
+    Date dateTime = dateTimeExtractor.apply(event);
+    Date otherDateTime = dateTimeExtractor.apply(other);
+    return dateTime != null && otherDateTime != null && dateTime.before(otherDateTime);
+  }
+
+  private void processIndividually(List<Message> messages, Channel channel) throws IOException {
+    for (Message message : messages) {
+      try {
+        T event = toEvent(message);
+        retryOperations.execute(
+            context -> {
+              eventProcessor.process(event);
+              return null;
+            });
+        channel.basicAck(deliveryTag(message), false);
+      } catch (Exception e) {
+        log.with("listener", name).error(e, "Event processing failed, rejecting to DLQ");
+        channel.basicReject(deliveryTag(message), false);
+        listenerMetrics.rejected();
+      }
+    }
+  }
+
+  private T toEvent(Message message) {
+    return eventType.cast(messageConverter.fromMessage(message));
+  }
+
+  private long deliveryTag(Message message) {
+    return message.getMessageProperties().getDeliveryTag();
+  }
+}
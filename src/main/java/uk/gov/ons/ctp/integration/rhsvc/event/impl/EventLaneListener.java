@@ -0,0 +1,217 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.retry.RetryOperations;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.EventBatchListener.EventProcessor;
+
+/**
+ * Listener for inbound events that processes them on a number of ordered lanes, used in place of
+ * the AMQP inbound channel adapter when lanes are enabled for a queue.
+ *
+ * <p>Each event is put on the lane given by the hash of its key (eg, the case ID), and each lane
+ * processes its events one at a time in the order they were delivered. So the events for one key
+ * are applied in order, while events for different keys are processed concurrently.
+ *
+ * <p>The container has a single consumer, so that events are put on their lanes in the order they
+ * are on the queue, and acknowledges nothing itself. Each event is acknowledged by its lane once
+ * it has been processed, with the usual retries, or rejected to the DLQ if it still fails. The
+ * lanes are bounded, so the consumer waits for space on a full lane rather than taking more events
+ * from the queue. Events that have not been acknowledged when the consumer stops are redelivered.
+ *
+ * <p>As the container acknowledges nothing, events are filtered here rather than by the container,
+ * which would leave a filtered event unacknowledged. A filtered event is acknowledged as soon as it
+ * is delivered, without being put on a lane.
+ *
+ * @param <T> the type of event
+ */
+public class EventLaneListener<T> implements ChannelAwareMessageListener, DisposableBean {
+  private static final Logger log = LoggerFactory.getLogger(EventLaneListener.class);
+
+  private final String name;
+  private final MessageConverter messageConverter;
+  private final Class<T> eventType;
+  private final Function<T, String> keyExtractor;
+  private final EventProcessor<T> eventProcessor;
+  private final RetryOperations retryOperations;
+  private final ListenerMetrics listenerMetrics;
+  private final List<Lane> lanes = new ArrayList<>();
+  private MessagePostProcessor filter;
+
+  /**
+   * Constructor for EventLaneListener, which starts the lanes.
+   *
+   * @param name name of the listener, for logging and naming the lane threads
+   * @param messageConverter converter from AMQP message to event
+   * @param eventType the type of event
+   * @param keyExtractor gives the key of the entity carried by an event
+   * @param eventProcessor processes a single event
+   * @param retryOperations retries for each event
+   * @param listenerMetrics metrics of the listener
+   * @param laneCount number of lanes
+   * @param laneSize maximum number of events waiting on each lane
+   */
+  public EventLaneListener(
+      String name,
+      MessageConverter messageConverter,
+      Class<T> eventType,
+      Function<T, String> keyExtractor,
+      EventProcessor<T> eventProcessor,
+      RetryOperations retryOperations,
+      ListenerMetrics listenerMetrics,
+      int laneCount,
+      int laneSize) {
+    this.name = name;
+    this.messageConverter = messageConverter;
+    this.eventType = eventType;
+    this.keyExtractor = keyExtractor;
+    this.eventProcessor = eventProcessor;
+    this.retryOperations = retryOperations;
+    this.listenerMetrics = listenerMetrics;
+    for (int i = 0; i < laneCount; i++) {
+      lanes.add(new Lane(name + "-lane-" + i, laneSize));
+    }
+  }
+
+  /**
+   * Set the filter of the events, which returns null for an event that is not to be processed.
+   *
+   * @param filter the filter, eg of UAC events by questionnaire ID
+   */
+  public void setFilter(MessagePostProcessor filter) {
+    this.filter = filter;
+  }
+
+  @Override
+  public void onMessage(Message message, Channel channel) {
+    listenerMetrics.received(message);
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+    if (filter != null && filter.postProcessMessage(message) == null) {
+      ack(channel, deliveryTag);
+      return;
+    }
+    T event;
+    String key;
+    try {
+      event = eventType.cast(messageConverter.fromMessage(message));
+      key = keyExtractor.apply(event);
+    } catch (RuntimeException e) {
+      log.with("listener", name).error(e, "Failed to convert event, rejecting to DLQ");
+      reject(channel, deliveryTag);
+      return;
+    }
+
+    Lane lane = lanes.get(key == null ? 0 : Math.floorMod(key.hashCode(), lanes.size()));
+    try {
+      lane.put(new Delivery(event, channel, deliveryTag));
+    } catch (InterruptedException e) {
+      // the event is not acknowledged, so it will be redelivered once the channel is closed
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void process(Delivery delivery) {
+    long start = System.nanoTime();
+    try {
+      retryOperations.execute(
+          context -> {
+            eventProcessor.process(delivery.event);
+            return null;
+          });
+      ack(delivery.channel, delivery.deliveryTag);
+    } catch (Exception e) {
+      log.with("listener", name).error(e, "Event processing failed, rejecting to DLQ");
+      reject(delivery.channel, delivery.deliveryTag);
+    } finally {
+      listenerMetrics.processed(System.nanoTime() - start);
+    }
+  }
+
+  // acknowledgements fail if the channel has closed, when the event will be redelivered anyway
+  private void ack(Channel channel, long deliveryTag) {
+    try {
+      channel.basicAck(deliveryTag, false);
+    } catch (Exception e) {
+      log.with("listener", name).warn(e, "Failed to acknowledge event");
+    }
+  }
+
+  private void reject(Channel channel, long deliveryTag) {
+    try {
+      channel.basicReject(deliveryTag, false);
+      listenerMetrics.rejected();
+    } catch (Exception e) {
+      log.with("listener", name).warn(e, "Failed to reject event");
+    }
+  }
+
+  /**
+   * Stop the lanes. Events still waiting on them are not acknowledged, so are redelivered when the
+   * service next consumes from the queue.
+   */
+  @Override
+  public void destroy() throws InterruptedException {
+    for (Lane lane : lanes) {
+      lane.stop();
+    }
+    for (Lane lane : lanes) {
+      lane.thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+
+  private class Delivery {
+    private final T event;
+    private final Channel channel;
+    private final long deliveryTag;
+
+    Delivery(T event, Channel channel, long deliveryTag) {
+      this.event = event;
+      this.channel = channel;
+      this.deliveryTag = deliveryTag;
+    }
+  }
+
+  private class Lane {
+    private final BlockingQueue<Delivery> deliveries;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    Lane(String threadName, int size) {
+      deliveries = new ArrayBlockingQueue<>(size);
+      thread = new Thread(this::run, threadName);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void put(Delivery delivery) throws InterruptedException {
+      deliveries.put(delivery);
+    }
+
+    void stop() {
+      running = false;
+      thread.interrupt();
+    }
+
+    private void run() {
+      while (running) {
+        try {
+          process(deliveries.take());
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.amqp.core.Message;
+
+/**
+ * Metrics for the listener of an inbound queue, all tagged with the queue name. The meters are
+ * named rhsvc.listener rather than rabbitmq, as the rabbitmq meters are filtered out.
+ *
+ * <p>The processing advice is added to the listener container. It times each delivery to the
+ * listener, including any retries, and records the lag of each event, ie the time from the
+ * dateTime in the header of the event to its delivery.
+ */
+public class ListenerMetrics {
+  private static final String QUEUE = "queue";
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final Timer processing;
+  private final Timer lag;
+  private final DistributionSummary batchSize;
+  private final Counter events;
+  private final Counter filtered;
+  private final Counter rejected;
+
+  /**
+   * Constructor for ListenerMetrics
+   *
+   * @param queue name of the queue listened to
+   * @param meterRegistry registry for the meters
+   */
+  public ListenerMetrics(String queue, MeterRegistry meterRegistry) {
+    processing =
+        Timer.builder("rhsvc.listener.processing")
+            .description("Time to process a delivery of events, including retries")
+            .tag(QUEUE, queue)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    lag =
+        Timer.builder("rhsvc.listener.lag")
+            .description("Time from an event being raised to it being delivered")
+            .tag(QUEUE, queue)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+    batchSize =
+        DistributionSummary.builder("rhsvc.listener.batch.size")
+            .description("Number of events delivered in a batch")
+            .tag(QUEUE, queue)
+            .register(meterRegistry);
+    events =
+        Counter.builder("rhsvc.listener.events")
+            .description("Events delivered to the listener")
+            .tag(QUEUE, queue)
+            .register(meterRegistry);
+    filtered =
+        Counter.builder("rhsvc.listener.filtered")
+            .description("Events discarded without processing")
+            .tag(QUEUE, queue)
+            .register(meterRegistry);
+    rejected = rejectedCounter(queue, meterRegistry);
+  }
+
+  /**
+   * Get the counter of events rejected to the DLQ for a queue.
+   *
+   * @param queue name of the queue
+   * @param meterRegistry registry for the counter
+   * @return the counter
+   */
+  public static Counter rejectedCounter(String queue, MeterRegistry meterRegistry) {
+    return Counter.builder("rhsvc.listener.rejected")
+        .description("Events rejected to the DLQ")
+        .tag(QUEUE, queue == null ? "unknown" : queue)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Create the advice for the listener container, which is invoked with the channel and either a
+   * message or, for a batch listener, a list of messages.
+   *
+   * @return the advice
+   */
+  public MethodInterceptor processingAdvice() {
+    return invocation -> {
+      Object data = invocation.getArguments()[1];
+      if (data instanceof Message) {
+        received((Message) data);
+      } else if (data instanceof List) {
+        List<?> messages = (List<?>) data;
+        batchSize.record(messages.size());
+        for (Object message : messages) {
+          received((Message) message);
+        }
+      }
+      long start = System.nanoTime();
+      try {
+        return invocation.proceed();
+      } finally {
+        processed(System.nanoTime() - start);
+      }
+    };
+  }
+
+  /**
+   * Count an event delivered to the listener, and record its lag. This is done by the processing
+   * advice, for listeners that process the event before returning to the container.
+   *
+   * @param message the message of the event
+   */
+  public void received(Message message) {
+    events.increment();
+    recordLag(message);
+  }
+
+  /**
+   * Record the time taken to process a delivery. This is done by the processing advice, for
+   * listeners that process the event before returning to the container.
+   *
+   * @param nanos the time taken in nanoseconds
+   */
+  public void processed(long nanos) {
+    processing.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Count an event that was discarded without processing. */
+  public void filtered() {
+    filtered.increment();
+  }
+
+  /** Count an event that was rejected to the DLQ. */
+  public void rejected() {
+    rejected.increment();
+  }
+
+  /**
+   * Get the number of deliveries processed so far, each being an event or a batch of events.
+   *
+   * @return the number of deliveries
+   */
+  public long getDeliveries() {
+    return processing.count();
+  }
+
+  /**
+   * Get the total time spent processing deliveries so far.
+   *
+   * @return the time in milliseconds
+   */
+  public double getProcessingMillis() {
+    return processing.totalTime(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the number of events delivered so far.
+   *
+   * @return the number of events
+   */
+  public double getEvents() {
+    return events.count();
+  }
+
+  /**
+   * Get the number of events rejected to the DLQ so far.
+   *
+   * @return the number of events
+   */
+  public double getRejections() {
+    return rejected.count();
+  }
+
+  private void recordLag(Message message) {
+    OffsetDateTime raised = peekEventDateTime(message.getBody());
+    if (raised != null) {
+      Duration duration = Duration.between(raised, OffsetDateTime.now());
+      if (!duration.isNegative()) {
+        lag.record(duration);
+      }
+    }
+  }
+
+  /*
+   * Find the dateTime in the event header, which is the top level "event" object, by scanning the
+   * JSON tokens of the message body. Returns null if there is none or it cannot be parsed.
+   */
+  private OffsetDateTime peekEventDateTime(byte[] body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("event".equals(field) && value == JsonToken.START_OBJECT) {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String headerField = parser.getCurrentName();
+            parser.nextToken();
+            if ("dateTime".equals(headerField)) {
+              String dateTime = parser.getValueAsString();
+              return dateTime == null ? null : OffsetDateTime.parse(dateTime);
+            }
+            parser.skipChildren();
+          }
+          return null;
+        }
+        parser.skipChildren();
+      }
+    } catch (IOException | DateTimeParseException e) {
+      // the lag is not known, but the event is processed as usual
+    }
+    return null;
+  }
+}
@@ -0,0 +1,188 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.DisposableBean;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventSender;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.OutboxConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxJournal.Entry;
+
+/**
+ * Event sender for the outbox mode of publishing, which adds each event to a local journal rather
+ * than sending it to rabbit, so that the request that raised the event need not wait for rabbit.
+ *
+ * <p>A background dispatcher publishes the journalled events in batches on a channel with
+ * publisher confirms, and only acknowledges them in the journal once rabbit has confirmed the
+ * whole batch. If a batch fails it is published again, so an event may be published more than
+ * once, but is not lost.
+ *
+ * <p>After a batch of more than one event fails, the oldest event is published on its own until it
+ * succeeds, so that an event that can never be published is found. Once such an event has failed
+ * maxAttempts times, for any reason other than being unable to connect to rabbit, it is parked in
+ * the dead letter file of the journal, so that it does not hold up the events after it.
+ *
+ * <p>Failing to add an event to the journal, including when the journal is full, is reported to the
+ * caller as a failure to send, so the EventPublisher falls back to its event persistence as before.
+ */
+public class OutboxEventSender implements EventSender, DisposableBean {
+  private static final Logger log = LoggerFactory.getLogger(OutboxEventSender.class);
+
+  private final OutboxJournal journal;
+  private final RabbitTemplate confirmingTemplate;
+  private final EventSender sender;
+  private final OutboxConfig outboxConfig;
+  private final Counter parkedEvents;
+  private final Thread dispatcher;
+  private volatile boolean running = true;
+
+  // the dispatcher is publishing the oldest event on its own, after a batch failed
+  private boolean isolating;
+  // failed attempts to publish the oldest event on its own
+  private int attempts;
+
+  /**
+   * Constructor for OutboxEventSender, which starts the dispatcher.
+   *
+   * @param journal the journal of events waiting to be published
+   * @param confirmingTemplate template for a connection factory with publisher confirms enabled
+   * @param sender sends a single event using the confirmingTemplate
+   * @param outboxConfig outbox configuration
+   * @param meterRegistry registry for the backlog metrics
+   */
+  public OutboxEventSender(
+      OutboxJournal journal,
+      RabbitTemplate confirmingTemplate,
+      EventSender sender,
+      OutboxConfig outboxConfig,
+      MeterRegistry meterRegistry) {
+    this.journal = journal;
+    this.confirmingTemplate = confirmingTemplate;
+    this.sender = sender;
+    this.outboxConfig = outboxConfig;
+
+    Gauge.builder("rhsvc.outbox.backlog", journal, OutboxJournal::size)
+        .description("Events in the outbox waiting to be published")
+        .register(meterRegistry);
+    Gauge.builder("rhsvc.outbox.backlog.age", journal, j -> j.oldestAgeMillis() / 1000.0)
+        .description("Seconds since the oldest event waiting in the outbox was added")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    parkedEvents =
+        Counter.builder("rhsvc.outbox.parked")
+            .description("Events parked in the outbox dead letter file, as they could not be sent")
+            .register(meterRegistry);
+
+    dispatcher = new Thread(this::dispatch, "outbox-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  @Override
+  public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+    try {
+      journal.append(routingKey.name(), genericEvent);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to add event to outbox journal", e);
+    }
+  }
+
+  private void dispatch() {
+    while (running) {
+      List<Entry> entries = List.of();
+      try {
+        entries =
+            journal.awaitEntries(
+                isolating ? 1 : outboxConfig.getBatchSize(), outboxConfig.getPollTimeout());
+        if (!entries.isEmpty()) {
+          publish(entries);
+          journal.acknowledge(entries.get(entries.size() - 1).getSequence());
+          isolating = false;
+          attempts = 0;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        log.with("backlog", journal.size()).warn(e, "Failed to publish events from outbox");
+        failed(entries, e);
+        pause();
+      }
+    }
+  }
+
+  // a lone event that keeps failing, while rabbit can be reached, is parked
+  private void failed(List<Entry> entries, Exception failure) {
+    if (entries.size() != 1) {
+      isolating = !entries.isEmpty();
+      return;
+    }
+    if (failure instanceof AmqpConnectException || ++attempts < outboxConfig.getMaxAttempts()) {
+      return;
+    }
+    Entry entry = entries.get(0);
+    try {
+      journal.park(entry);
+      parkedEvents.increment();
+      log.with("sequence", entry.getSequence())
+          .with("routingKey", entry.getRoutingKey())
+          .with("attempts", attempts)
+          .error(failure, "Parked event that could not be published from outbox");
+      isolating = false;
+      attempts = 0;
+    } catch (IOException e) {
+      log.with("sequence", entry.getSequence()).error(e, "Failed to park event from outbox");
+    }
+  }
+
+  // all of the batch is sent on one channel, then we wait for rabbit to confirm all of it
+  private void publish(List<Entry> entries) {
+    confirmingTemplate.invoke(
+        operations -> {
+          for (Entry entry : entries) {
+            sender.sendEvent(
+                RoutingKey.valueOf(entry.getRoutingKey()), (GenericEvent) entry.getEvent());
+          }
+          operations.waitForConfirmsOrDie(outboxConfig.getConfirmTimeout());
+          return null;
+        });
+    log.with("events", entries.size()).debug("Published events from outbox");
+  }
+
+  private void pause() {
+    try {
+      Thread.sleep(outboxConfig.getRetryBackoff());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+  }
+
+  /**
+   * Stop the dispatcher, once it has published the events in the journal or the drain timeout has
+   * passed. Events that have not been published stay in the journal, and are published when the
+   * service next starts with the same journal directory.
+   */
+  @Override
+  public void destroy() throws Exception {
+    long deadline = System.currentTimeMillis() + outboxConfig.getDrainTimeout();
+    while (journal.size() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    if (journal.size() > 0) {
+      log.with("backlog", journal.size()).warn("Stopping with events unpublished in outbox");
+    }
+    running = false;
+    dispatcher.interrupt();
+    dispatcher.join(outboxConfig.getConfirmTimeout());
+    journal.close();
+  }
+}
@@ -0,0 +1,384 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A local, append-only journal of events that are waiting to be published.
+ *
+ * <p>Each event is written as a line of JSON to the current segment file before {@link #append}
+ * returns. If writes are synced, append also waits for the event to be forced to the storage
+ * device. Appends that arrive while a force is in progress are written meanwhile, and are then
+ * covered by a single force between them (a group commit), rather than each forcing the file in
+ * turn. An event may be published before it has been forced, so if the force fails the event may
+ * be published as well as reported as not added.
+ *
+ * <p>The journal holds at most maxBacklog events that have not been acknowledged, and rejects any
+ * more, so that a rabbit outage does not fill the disk or the heap.
+ *
+ * <p>Once events have been published they are acknowledged, which records the sequence number of
+ * the last of them in a checkpoint file, and segments whose events have all been acknowledged are
+ * deleted. When the journal is opened, any events after the checkpoint are loaded again to be
+ * published, so an event is published at least once even if the service stops before it has been
+ * sent.
+ *
+ * <p>An event that cannot be published is parked: it is written to a dead letter file, in the same
+ * format as the segments, and acknowledged, so that the events after it can be published. Parked
+ * events are left in the file to be inspected and, if need be, published by hand.
+ */
+public class OutboxJournal implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(OutboxJournal.class);
+
+  private static final String SEGMENT_PREFIX = "outbox-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final String CHECKPOINT_FILE = "outbox.checkpoint";
+  private static final String DEAD_LETTER_FILE = "outbox.deadletter";
+
+  /** An event in the journal. */
+  @Data
+  @AllArgsConstructor
+  public static class Entry {
+    private long sequence;
+    private long queuedAt;
+    private String routingKey;
+    private Object event;
+  }
+
+  private final Path directory;
+  private final ObjectMapper objectMapper;
+  private final boolean syncWrites;
+  private final int segmentSize;
+  private final int maxBacklog;
+
+  // held while forcing the current segment, so that appends queue for the next force
+  private final Object syncLock = new Object();
+  // the last sequence number known to be forced to the storage device
+  private long syncedSequence;
+
+  // events not yet acknowledged, in the order they were appended
+  private final Deque<Entry> pending = new ArrayDeque<>();
+  // first sequence number of each segment, keyed by that number
+  private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+  private FileChannel currentSegment;
+  private int currentSegmentEntries;
+  private long nextSequence = 1;
+  private long acknowledgedSequence;
+
+  /**
+   * Open the journal in the given directory, loading any events that have not been acknowledged.
+   *
+   * @param directory directory holding the journal files, which is created if need be
+   * @param objectMapper mapper for writing and reading events
+   * @param syncWrites true to force each event to the storage device before append returns
+   * @param segmentSize number of events written to a segment file before starting a new one
+   * @param maxBacklog maximum number of events not yet acknowledged, beyond which append fails
+   * @throws IOException if the journal cannot be read or written
+   */
+  public OutboxJournal(
+      Path directory,
+      ObjectMapper objectMapper,
+      boolean syncWrites,
+      int segmentSize,
+      int maxBacklog)
+      throws IOException {
+    this.directory = directory;
+    this.objectMapper = objectMapper;
+    this.syncWrites = syncWrites;
+    this.segmentSize = segmentSize;
+    this.maxBacklog = maxBacklog;
+    Files.createDirectories(directory);
+    load();
+    startSegment();
+  }
+
+  /**
+   * Add an event to the journal.
+   *
+   * @param routingKey routing key to publish the event with
+   * @param event the event
+   * @return the journal entry for the event
+   * @throws IOException if the event could not be written
+   * @throws IllegalStateException if the journal already holds maxBacklog events
+   */
+  public Entry append(String routingKey, Object event) throws IOException {
+    Entry entry = write(routingKey, event);
+    if (syncWrites) {
+      sync(entry.getSequence());
+    }
+    return entry;
+  }
+
+  private synchronized Entry write(String routingKey, Object event) throws IOException {
+    if (pending.size() >= maxBacklog) {
+      throw new IllegalStateException(
+          "Outbox journal is full, with " + pending.size() + " events waiting to be published");
+    }
+    Entry entry = new Entry(nextSequence, System.currentTimeMillis(), routingKey, event);
+    writeLine(currentSegment, entry);
+
+    nextSequence++;
+    pending.addLast(entry);
+    if (++currentSegmentEntries >= segmentSize) {
+      startSegment();
+    }
+    notifyAll();
+    return entry;
+  }
+
+  /*
+   * Wait for an event to be forced to the storage device. Whoever holds the sync lock forces
+   * everything written so far, so those waiting behind it are often covered already. A segment is
+   * forced before it is closed for the next, so a force of a closed segment can be skipped.
+   */
+  private void sync(long sequence) throws IOException {
+    synchronized (syncLock) {
+      if (syncedSequence >= sequence) {
+        return;
+      }
+      FileChannel segment;
+      long written;
+      synchronized (this) {
+        segment = currentSegment;
+        written = nextSequence - 1;
+      }
+      try {
+        segment.force(false);
+      } catch (ClosedChannelException e) {
+        synchronized (this) {
+          // a journal that has been closed, rather than moved on to a new segment
+          if (currentSegment == null) {
+            throw e;
+          }
+        }
+      }
+      syncedSequence = written;
+    }
+  }
+
+  /**
+   * Wait for events to publish.
+   *
+   * @param maxEntries maximum number of events to return
+   * @param timeoutMillis how long to wait for an event if there are none
+   * @return the oldest events not yet acknowledged, which is empty if there were none in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized List<Entry> awaitEntries(int maxEntries, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (pending.isEmpty()) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0) {
+        return List.of();
+      }
+      wait(remaining);
+    }
+    List<Entry> entries = new ArrayList<>(Math.min(maxEntries, pending.size()));
+    Iterator<Entry> it = pending.iterator();
+    while (it.hasNext() && entries.size() < maxEntries) {
+      entries.add(it.next());
+    }
+    return entries;
+  }
+
+  /**
+   * Record that events have been published, up to and including the given sequence number.
+   *
+   * @param sequence sequence number of the last event published
+   * @throws IOException if the checkpoint could not be written
+   */
+  public synchronized void acknowledge(long sequence) throws IOException {
+    while (!pending.isEmpty() && pending.peekFirst().getSequence() <= sequence) {
+      pending.removeFirst();
+    }
+    acknowledgedSequence = Math.max(acknowledgedSequence, sequence);
+    writeCheckpoint();
+    deleteAcknowledgedSegments();
+  }
+
+  /**
+   * Park the oldest event not yet acknowledged, which cannot be published, by writing it to the
+   * dead letter file and acknowledging it.
+   *
+   * @param entry the oldest event not yet acknowledged
+   * @throws IOException if the event could not be written to the dead letter file, in which case it
+   *     is not acknowledged
+   */
+  public synchronized void park(Entry entry) throws IOException {
+    if (pending.peekFirst() != entry) {
+      throw new IllegalArgumentException(
+          "Only the oldest event can be parked, not event " + entry.getSequence());
+    }
+    try (FileChannel deadLetters =
+        FileChannel.open(
+            directory.resolve(DEAD_LETTER_FILE),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+      writeLine(deadLetters, entry);
+      deadLetters.force(false);
+    }
+    acknowledge(entry.getSequence());
+  }
+
+  /** @return number of events not yet acknowledged */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /** @return millis since the oldest event not yet acknowledged was added, or 0 if none */
+  public synchronized long oldestAgeMillis() {
+    Entry oldest = pending.peekFirst();
+    return oldest == null ? 0 : System.currentTimeMillis() - oldest.getQueuedAt();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (currentSegment != null) {
+      if (syncWrites) {
+        currentSegment.force(false);
+      }
+      currentSegment.close();
+      currentSegment = null;
+    }
+  }
+
+  private void load() throws IOException {
+    Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+    if (Files.exists(checkpoint)) {
+      acknowledgedSequence = Long.parseLong(Files.readString(checkpoint).trim());
+      nextSequence = acknowledgedSequence + 1;
+    }
+
+    try (Stream<Path> files = Files.list(directory)) {
+      files
+          .filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX))
+          .forEach(f -> segments.put(segmentStart(f), f));
+    }
+    for (Path segment : segments.values()) {
+      loadSegment(segment);
+    }
+    if (!pending.isEmpty()) {
+      log.with("unsentEvents", pending.size()).info("Loaded unsent events from outbox journal");
+    }
+    deleteAcknowledgedSegments();
+  }
+
+  private void loadSegment(Path segment) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = readEntry(segment, line);
+        if (entry != null) {
+          nextSequence = Math.max(nextSequence, entry.getSequence() + 1);
+          if (entry.getSequence() > acknowledgedSequence) {
+            pending.addLast(entry);
+          }
+        }
+      }
+    }
+  }
+
+  private void writeLine(FileChannel file, Entry entry) throws IOException {
+    ObjectNode line = objectMapper.createObjectNode();
+    line.put("sequence", entry.getSequence());
+    line.put("queuedAt", entry.getQueuedAt());
+    line.put("routingKey", entry.getRoutingKey());
+    line.put("eventClass", entry.getEvent().getClass().getName());
+    line.set("event", objectMapper.valueToTree(entry.getEvent()));
+    byte[] bytes = (objectMapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8);
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      file.write(buffer);
+    }
+  }
+
+  // a line that was only partly written when the service stopped cannot be read, and is skipped
+  private Entry readEntry(Path segment, String line) {
+    try {
+      JsonNode node = objectMapper.readTree(line);
+      Class<?> eventClass = Class.forName(node.get("eventClass").asText());
+      return new Entry(
+          node.get("sequence").asLong(),
+          node.get("queuedAt").asLong(),
+          node.get("routingKey").asText(),
+          objectMapper.treeToValue(node.get("event"), eventClass));
+    } catch (IOException | ClassNotFoundException | RuntimeException e) {
+      log.with("segment", segment).warn(e, "Skipping unreadable outbox journal entry");
+      return null;
+    }
+  }
+
+  /*
+   * Any existing file for the new segment can only hold a partly written line, from when the
+   * service stopped, as a whole line would have moved on the sequence number. So it is truncated.
+   */
+  private void startSegment() throws IOException {
+    close();
+    String name = SEGMENT_PREFIX + String.format("%020d", nextSequence) + SEGMENT_SUFFIX;
+    Path segment = directory.resolve(name);
+    currentSegment =
+        FileChannel.open(
+            segment,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    currentSegmentEntries = 0;
+    segments.put(nextSequence, segment);
+  }
+
+  private void writeCheckpoint() throws IOException {
+    Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+    Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+    Files.writeString(temp, Long.toString(acknowledgedSequence));
+    Files.move(
+        temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // a segment has been fully acknowledged once the segment after it starts beyond the checkpoint
+  private void deleteAcknowledgedSegments() throws IOException {
+    Map.Entry<Long, Path> oldest = segments.firstEntry();
+    while (oldest != null) {
+      Long nextStart = segments.higherKey(oldest.getKey());
+      if (nextStart == null || nextStart - 1 > acknowledgedSequence) {
+        return;
+      }
+      Files.deleteIfExists(oldest.getValue());
+      segments.remove(oldest.getKey());
+      oldest = segments.firstEntry();
+    }
+  }
+
+  private long segmentStart(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+}
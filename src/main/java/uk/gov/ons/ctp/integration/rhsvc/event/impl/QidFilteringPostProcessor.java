@@ -0,0 +1,83 @@
+package uk.gov.ons.ctp.integration.rhsvc.event.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.util.Set;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+
+/**
+ * Discards inbound UAC events for questionnaire IDs that RH is not interested in, before they are
+ * converted into UACEvent objects.
+ *
+ * <p>The questionnaire ID is found by scanning the JSON tokens of the message body, so filtered
+ * events cost very little. The listener container, or the lane listener when lanes are enabled,
+ * acknowledges a message for which this returns null without processing it.
+ */
+public class QidFilteringPostProcessor implements MessagePostProcessor {
+  private static final Logger log = LoggerFactory.getLogger(QidFilteringPostProcessor.class);
+
+  private static final String QUESTIONNAIRE_ID = "questionnaireId";
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private Set<String> qidFilterPrefixes;
+  private ListenerMetrics listenerMetrics;
+
+  /**
+   * Constructor for QidFilteringPostProcessor
+   *
+   * @param qidFilterPrefixes the questionnaire ID prefixes of the UACs to discard
+   * @param listenerMetrics metrics of the UAC listener, which count the discarded events
+   */
+  public QidFilteringPostProcessor(Set<String> qidFilterPrefixes, ListenerMetrics listenerMetrics) {
+    this.qidFilterPrefixes = qidFilterPrefixes;
+    this.listenerMetrics = listenerMetrics;
+  }
+
+  @Override
+  public Message postProcessMessage(Message message) {
+    String qid = peekQuestionnaireId(message.getBody());
+    if (isFilteredByQid(qid, qidFilterPrefixes)) {
+      log.with("questionnaireId", qid)
+          .debug("Filtering UAC Event because of questionnaire ID prefix");
+      listenerMetrics.filtered();
+      return null;
+    }
+    return message;
+  }
+
+  /**
+   * Determine whether a UAC is to be ignored, based on its questionnaire ID.
+   *
+   * @param qid questionnaire ID of the UAC
+   * @param qidFilterPrefixes the questionnaire ID prefixes of the UACs to ignore
+   * @return true if the UAC is to be ignored
+   */
+  public static boolean isFilteredByQid(String qid, Set<String> qidFilterPrefixes) {
+    return qid != null && qid.length() > 2 && qidFilterPrefixes.contains(qid.substring(0, 2));
+  }
+
+  /*
+   * Find the first questionnaireId field in the JSON, which for a UAC event is in the UAC payload.
+   * Returns null if there is none, or the body cannot be parsed, leaving the message to be dealt
+   * with by the usual conversion and its error handling.
+   */
+  private String peekQuestionnaireId(byte[] body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token == JsonToken.FIELD_NAME && QUESTIONNAIRE_ID.equals(parser.getCurrentName())) {
+          parser.nextToken();
+          return parser.getValueAsString();
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Unable to scan UAC event for questionnaire ID");
+    }
+    return null;
+  }
+}
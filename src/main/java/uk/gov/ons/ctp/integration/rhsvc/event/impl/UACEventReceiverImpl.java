@@ -2,6 +2,8 @@ package uk.gov.ons.ctp.integration.rhsvc.event.impl;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,6 +14,7 @@ import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.model.UAC;
 import uk.gov.ons.ctp.common.event.model.UACEvent;
 import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.UACEventReceiver;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 
 /**
@@ -22,7 +25,7 @@ import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 @NoArgsConstructor
 @AllArgsConstructor
 @MessageEndpoint
-public class UACEventReceiverImpl {
+public class UACEventReceiverImpl implements UACEventReceiver {
 
   private static final Logger log = LoggerFactory.getLogger(UACEventReceiverImpl.class);
 
@@ -64,9 +67,43 @@ public class UACEventReceiverImpl {
     }
   }
 
+  /**
+   * End point for a batch of events from Response Management, used when UAC batch processing is
+   * enabled. The UACs are written as one batch, leaving out any filtered by questionnaire ID.
+   *
+   * @param uacEvents UACEvent messages from Response Management, no more than one for each UAC
+   * @throws CTPException something went wrong
+   */
+  public void acceptUACEvents(List<UACEvent> uacEvents) throws CTPException {
+    log.with("size", uacEvents.size()).info("Entering acceptUACEvents");
+
+    List<UAC> uacs = new ArrayList<>();
+    for (UACEvent uacEvent : uacEvents) {
+      UAC uac = uacEvent.getPayload().getUac();
+      if (isFilteredByQid(uac.getQuestionnaireId())) {
+        log.with("transactionId", uacEvent.getEvent().getTransactionId())
+            .with("caseId", uac.getCaseId())
+            .with("questionnaireId", uac.getQuestionnaireId())
+            .info("Filtering UAC Event because of questionnaire ID prefix");
+      } else {
+        uacs.add(uac);
+      }
+    }
+    if (uacs.isEmpty()) {
+      return;
+    }
+
+    try {
+      respondentDataRepo.writeUACs(uacs);
+    } catch (CTPException ctpEx) {
+      log.with("size", uacEvents.size()).error(ctpEx, "UAC Event batch processing failed");
+      throw new CTPException(ctpEx.getFault());
+    }
+  }
+
+  // Filtered UACs are normally discarded before conversion by the QidFilteringPostProcessor
   private boolean isFilteredByQid(String qid) {
-    return qid != null
-        && qid.length() > 2
-        && appConfig.getQueueConfig().getQidFilterPrefixes().contains(qid.substring(0, 2));
+    return QidFilteringPostProcessor.isFilteredByQid(
+        qid, appConfig.getQueueConfig().getQidFilterPrefixes());
   }
 }
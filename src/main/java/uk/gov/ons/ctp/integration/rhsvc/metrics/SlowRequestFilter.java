@@ -0,0 +1,52 @@
+package uk.gov.ons.ctp.integration.rhsvc.metrics;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Starts a {@link StageTrace} for each request, and logs the stages of any request that takes at
+ * least the slow request threshold.
+ */
+public class SlowRequestFilter extends OncePerRequestFilter {
+  private static final Logger log = LoggerFactory.getLogger(SlowRequestFilter.class);
+
+  private final long slowRequestMillis;
+
+  /**
+   * Constructor for SlowRequestFilter
+   *
+   * @param slowRequestMillis requests taking at least this long are logged
+   */
+  public SlowRequestFilter(long slowRequestMillis) {
+    this.slowRequestMillis = slowRequestMillis;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    StageTrace trace = StageTrace.begin();
+    long start = System.nanoTime();
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (elapsedMillis >= slowRequestMillis) {
+        log.with("method", request.getMethod())
+            .with("uri", request.getRequestURI())
+            .with("status", response.getStatus())
+            .with("elapsedMillis", elapsedMillis)
+            .with("stages", trace.getStages())
+            .warn("Slow request");
+      }
+      StageTrace.end();
+    }
+  }
+}
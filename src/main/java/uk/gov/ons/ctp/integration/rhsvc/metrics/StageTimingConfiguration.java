@@ -0,0 +1,43 @@
+package uk.gov.ons.ctp.integration.rhsvc.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import ma.glasnost.orika.MapperFacade;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.gov.ons.ctp.common.event.EventPublisher;
+import uk.gov.ons.ctp.integration.ratelimiter.client.RateLimiterClient;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+
+/** Timing of the stages of request handling, enabled by stage-timing.enabled */
+@Configuration
+@ConditionalOnProperty(name = "stage-timing.enabled", havingValue = "true")
+public class StageTimingConfiguration {
+
+  /**
+   * Times calls to the repository, rate limiter, event publisher and bean mapper. This is static,
+   * as post processors are created before other beans.
+   *
+   * @param meterRegistry registry for the stage timers
+   * @return the post processor
+   */
+  @Bean
+  public static StageTimingPostProcessor stageTimingPostProcessor(
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    Map<Class<?>, String> stages = new LinkedHashMap<>();
+    stages.put(RespondentDataRepository.class, "repository");
+    stages.put(RateLimiterClient.class, "rateLimiter");
+    stages.put(EventPublisher.class, "eventPublisher");
+    stages.put(MapperFacade.class, "mapping");
+    return new StageTimingPostProcessor(stages, meterRegistry);
+  }
+
+  @Bean
+  public SlowRequestFilter slowRequestFilter(AppConfig appConfig) {
+    return new SlowRequestFilter(appConfig.getStageTiming().getSlowRequestMillis());
+  }
+}
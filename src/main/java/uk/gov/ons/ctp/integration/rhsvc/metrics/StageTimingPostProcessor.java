@@ -0,0 +1,105 @@
+package uk.gov.ons.ctp.integration.rhsvc.metrics;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Wraps the beans for a stage of request handling, such as the repository or the event publisher,
+ * so that every call to them is timed.
+ *
+ * <p>Each call is recorded in the rhsvc.stage timer, tagged with the stage and the method called,
+ * and in the {@link StageTrace} of the request, if there is one.
+ */
+public class StageTimingPostProcessor implements BeanPostProcessor {
+  private static final Logger log = LoggerFactory.getLogger(StageTimingPostProcessor.class);
+
+  private final Map<Class<?>, String> stages;
+  private final ObjectProvider<MeterRegistry> meterRegistry;
+
+  /**
+   * Constructor for StageTimingPostProcessor
+   *
+   * @param stages the name of the stage for beans of each type
+   * @param meterRegistry registry for the timers, which is looked up on the first call so that it
+   *     is not created before its own post processing
+   */
+  public StageTimingPostProcessor(
+      Map<Class<?>, String> stages, ObjectProvider<MeterRegistry> meterRegistry) {
+    this.stages = stages;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    for (Map.Entry<Class<?>, String> stage : stages.entrySet()) {
+      if (stage.getKey().isInstance(bean)) {
+        return proxy(bean, beanName, stage.getKey(), stage.getValue());
+      }
+    }
+    return bean;
+  }
+
+  private Object proxy(Object bean, String beanName, Class<?> type, String stage) {
+    ProxyFactory proxyFactory = new ProxyFactory(bean);
+    if (!type.isInterface()) {
+      if (Modifier.isFinal(bean.getClass().getModifiers())) {
+        log.with("bean", beanName).warn("Cannot time final class");
+        return bean;
+      }
+      proxyFactory.setProxyTargetClass(true);
+    }
+    proxyFactory.addAdvice(new StageTimingInterceptor(stage));
+    log.with("bean", beanName).with("stage", stage).debug("Timing calls to bean");
+    return proxyFactory.getProxy(bean.getClass().getClassLoader());
+  }
+
+  private class StageTimingInterceptor implements MethodInterceptor {
+    private final String stage;
+    private final Map<Method, Timer> timers = new ConcurrentHashMap<>();
+
+    StageTimingInterceptor(String stage) {
+      this.stage = stage;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      Method method = invocation.getMethod();
+      if (method.getDeclaringClass() == Object.class) {
+        return invocation.proceed();
+      }
+      long start = System.nanoTime();
+      try {
+        return invocation.proceed();
+      } finally {
+        long nanos = System.nanoTime() - start;
+        timers.computeIfAbsent(method, this::timer).record(nanos, TimeUnit.NANOSECONDS);
+        StageTrace trace = StageTrace.current();
+        if (trace != null) {
+          trace.record(stage, method.getName(), nanos);
+        }
+      }
+    }
+
+    private Timer timer(Method method) {
+      return Timer.builder("rhsvc.stage")
+          .description("Time taken by a stage of request handling")
+          .tag("stage", stage)
+          .tag("operation", method.getName())
+          .publishPercentiles(0.5, 0.95, 0.99)
+          .publishPercentileHistogram()
+          .register(meterRegistry.getObject());
+    }
+  }
+}
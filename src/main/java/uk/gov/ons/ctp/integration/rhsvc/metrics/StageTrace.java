@@ -0,0 +1,74 @@
+package uk.gov.ons.ctp.integration.rhsvc.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of a single request, in the order they finished, with how long each took. The trace
+ * of a request is held by the thread handling it, and is attached to any worker thread that runs
+ * part of the request, so stages run concurrently are recorded too.
+ */
+public final class StageTrace {
+  private static final ThreadLocal<StageTrace> CURRENT = new ThreadLocal<>();
+
+  private final Queue<String> stages = new ConcurrentLinkedQueue<>();
+
+  private StageTrace() {}
+
+  /**
+   * Start a trace for the request handled by this thread.
+   *
+   * @return the new trace
+   */
+  public static StageTrace begin() {
+    StageTrace trace = new StageTrace();
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  /** End the trace of this thread. */
+  public static void end() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Get the trace of the request handled by this thread.
+   *
+   * @return the trace, or null if there is none
+   */
+  public static StageTrace current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Make a trace the current trace of this thread, for a worker thread running part of a request.
+   *
+   * @param trace the trace to attach, or null to detach any trace
+   * @return the trace that was current before, to attach again when the work is done
+   */
+  public static StageTrace attach(StageTrace trace) {
+    StageTrace previous = CURRENT.get();
+    if (trace == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(trace);
+    }
+    return previous;
+  }
+
+  void record(String stage, String operation, long nanos) {
+    stages.add(stage + "." + operation + "=" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+  }
+
+  /**
+   * Get the stages recorded so far.
+   *
+   * @return the stages, as stage.operation=millis
+   */
+  public List<String> getStages() {
+    return new ArrayList<>(stages);
+  }
+}
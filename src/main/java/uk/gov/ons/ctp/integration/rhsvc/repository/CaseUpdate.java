@@ -0,0 +1,18 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository;
+
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+
+/**
+ * A case received in an event, to write as one of a batch with {@link
+ * RespondentDataRepository#writeCollectionCasesIfChanged}.
+ */
+@Data
+@AllArgsConstructor
+public class CaseUpdate {
+  private CollectionCase collectionCase;
+  // the time of the event that the case was received in
+  private Date eventDateTime;
+}
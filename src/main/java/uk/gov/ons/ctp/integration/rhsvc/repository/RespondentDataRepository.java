@@ -1,5 +1,7 @@
 package uk.gov.ons.ctp.integration.rhsvc.repository;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.model.CollectionCase;
@@ -8,16 +10,47 @@ import uk.gov.ons.ctp.common.event.model.UAC;
 /** Repository for Respondent Data */
 public interface RespondentDataRepository {
 
+  /**
+   * The most cases that can be written together by writeCollectionCasesIfChanged. Firestore commits
+   * no more than 500 writes together, and each case is written with its version and up to two UPRN
+   * index entries. A batch whose cases also have UAC claim contexts to write is split as needed.
+   */
+  int MAX_CASES_PER_BATCH = 125;
+
+  /**
+   * The most UACs that can be written together by writeUACs, as each UAC may be written with its
+   * claim context.
+   */
+  int MAX_UACS_PER_BATCH = 250;
+
   void writeUAC(UAC uac) throws CTPException;
 
+  void writeUACs(List<UAC> uacs) throws CTPException;
+
+  void writeUACLink(UAC uac, List<CollectionCase> collectionCases) throws CTPException;
+
   void writeCollectionCase(CollectionCase collectionCase) throws CTPException;
 
+  boolean writeCollectionCaseIfChanged(CollectionCase collectionCase, Date eventDateTime)
+      throws CTPException;
+
+  int writeCollectionCasesIfChanged(List<CaseUpdate> caseUpdates) throws CTPException;
+
   Optional<UAC> readUAC(String universalAccessCode) throws CTPException;
 
   Optional<CollectionCase> readCollectionCase(String caseId) throws CTPException;
 
+  Optional<UACClaimContext> readUACClaimContext(String uacHash) throws CTPException;
+
   Optional<CollectionCase> readNonHILatestCollectionCaseByUprn(String uprn, boolean onlyValid)
       throws CTPException;
 
+  Optional<CollectionCase> readNonHILatestCollectionCaseByUprnFromStorage(
+      String uprn, boolean onlyValid) throws CTPException;
+
+  boolean acquireUprnLease(String uprn, String holder, long durationMillis) throws CTPException;
+
+  void releaseUprnLease(String uprn, String holder) throws CTPException;
+
   String writeCloudStartupCheckObject() throws Exception;
 }
@@ -0,0 +1,114 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * Storage of the objects held by the RespondentDataRepository, as JSON documents keyed within a
+ * schema (a Firestore collection).
+ *
+ * <p>The engine is selected by storage.engine, which is firestore by default, or local for the
+ * embedded engine used to test the service on a single host.
+ */
+public interface StorageEngine {
+
+  /**
+   * Store an object, replacing any object already stored with the key.
+   *
+   * @param schema the schema to store the object in
+   * @param key the key of the object within the schema
+   * @param value the object to store
+   * @param id identifies the object in any errors, eg the case ID of a UAC
+   * @throws CTPException if the object could not be stored
+   */
+  void storeObject(String schema, String key, Object value, String id) throws CTPException;
+
+  /**
+   * Store a batch of objects, in any schemas, as a single write, so that either all of them are
+   * stored or none are.
+   *
+   * @param writes the objects to store
+   * @throws CTPException if the objects could not be stored, in which case none were
+   */
+  void storeObjects(List<StorageWrite> writes) throws CTPException;
+
+  /**
+   * Store an object only if no object is stored with the key, as a single conditional write, so
+   * that of concurrent callers only one stores its object.
+   *
+   * @param schema the schema to store the object in
+   * @param key the key of the object within the schema
+   * @param value the object to store
+   * @return true if the object was stored; false if an object was already stored with the key
+   * @throws CTPException if the object could not be stored
+   */
+  boolean storeObjectIfAbsent(String schema, String key, Object value) throws CTPException;
+
+  /**
+   * Run a transaction, storing its writes only if nothing it read has been changed since, and
+   * running it again if it has.
+   *
+   * @param <T> the type of the result of the transaction
+   * @param transaction the reads and writes to make
+   * @return the result of the transaction
+   * @throws CTPException if the transaction failed, in which case none of its writes were stored
+   */
+  <T> T runTransaction(StorageTransaction<T> transaction) throws CTPException;
+
+  /**
+   * Delete an object, if there is one.
+   *
+   * @param schema the schema the object is stored in
+   * @param key the key of the object within the schema
+   * @throws CTPException if the object could not be deleted
+   */
+  void deleteObject(String schema, String key) throws CTPException;
+
+  /**
+   * Retrieve an object by its key.
+   *
+   * @param <T> the type of object
+   * @param target the class of object
+   * @param schema the schema the object is stored in
+   * @param key the key of the object within the schema
+   * @return the object, if there is one
+   * @throws CTPException if the object could not be retrieved
+   */
+  <T> Optional<T> retrieveObject(Class<T> target, String schema, String key) throws CTPException;
+
+  /**
+   * Search for the objects with a field of a given value.
+   *
+   * @param <T> the type of object
+   * @param target the class of object
+   * @param schema the schema to search
+   * @param fieldPath the path to the field, eg address then uprn
+   * @param searchValue the value of the field
+   * @return the objects found
+   * @throws CTPException if the search failed
+   */
+  <T> List<T> search(Class<T> target, String schema, String[] fieldPath, String searchValue)
+      throws CTPException;
+
+  /**
+   * Pass the key of every object in a schema to a consumer, reading the keys from storage in
+   * pages. Objects stored while the keys are read may or may not be included.
+   *
+   * @param schema the schema to scan
+   * @param consumer given each key
+   * @throws CTPException if the keys could not be read
+   */
+  void forEachKey(String schema, Consumer<String> consumer) throws CTPException;
+
+  /**
+   * Store an object once, without any retries, to check that storage is working.
+   *
+   * @param schema the schema to store the object in
+   * @param key the key of the object within the schema
+   * @param value the object to store
+   * @throws Exception if the object could not be stored
+   */
+  void storeStartupCheckObject(String schema, String key, Object value) throws Exception;
+}
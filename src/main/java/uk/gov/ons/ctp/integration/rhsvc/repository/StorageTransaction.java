@@ -0,0 +1,82 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository;
+
+import java.util.List;
+import java.util.Optional;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * Reads and writes made as one transaction, with {@link StorageEngine#runTransaction}. Every read
+ * is made before any write. The writes are only stored if nothing that was read has been changed
+ * since, so that a decision made on what was read still holds when the writes are stored.
+ *
+ * <p>A transaction that contends with another write may be run again, so it must not change
+ * anything other than through its context.
+ *
+ * @param <T> the type of the result of the transaction
+ */
+@FunctionalInterface
+public interface StorageTransaction<T> {
+
+  /**
+   * Run the transaction.
+   *
+   * @param context reads and writes the objects of the transaction
+   * @return the result of the transaction
+   * @throws CTPException if the transaction failed, in which case none of its writes are stored
+   */
+  T run(Context context) throws CTPException;
+
+  /** The reads and writes of a transaction. */
+  interface Context {
+
+    /**
+     * Retrieve an object by its key.
+     *
+     * @param <T> the type of object
+     * @param target the class of object
+     * @param schema the schema the object is stored in
+     * @param key the key of the object within the schema
+     * @return the object, if there is one
+     * @throws CTPException if the object could not be retrieved
+     */
+    <T> Optional<T> retrieveObject(Class<T> target, String schema, String key)
+        throws CTPException;
+
+    /**
+     * Search for the objects with a field of a given value. Objects stored with the value after
+     * the search, but before the transaction ends, cause the transaction to be run again.
+     *
+     * @param <T> the type of object
+     * @param target the class of object
+     * @param schema the schema to search
+     * @param fieldPath the path to the field, eg address then uprn
+     * @param searchValue the value of the field
+     * @return the objects found
+     * @throws CTPException if the search failed
+     */
+    <T> List<T> search(Class<T> target, String schema, String[] fieldPath, String searchValue)
+        throws CTPException;
+
+    /**
+     * Store an object when the transaction ends, replacing any object already stored with the key.
+     *
+     * @param schema the schema to store the object in
+     * @param key the key of the object within the schema
+     * @param value the object to store
+     */
+    void storeObject(String schema, String key, Object value);
+
+    /**
+     * Store an entry of a map field of an object when the transaction ends, without reading the
+     * object, creating the object if there is none. The other entries of the map, and the other
+     * fields of the object, are left as they are stored.
+     *
+     * @param schema the schema the object is stored in
+     * @param key the key of the object within the schema
+     * @param field the name of the map field
+     * @param entryKey the key of the entry within the map
+     * @param value the value of the entry, or null to remove the entry
+     */
+    void storeMapEntry(String schema, String key, String field, String entryKey, Object value);
+  }
+}
@@ -0,0 +1,13 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/** An object to store as one of a batch of writes, made with {@link StorageEngine#storeObjects}. */
+@Data
+@AllArgsConstructor
+public class StorageWrite {
+  private String schema;
+  private String key;
+  private Object value;
+}
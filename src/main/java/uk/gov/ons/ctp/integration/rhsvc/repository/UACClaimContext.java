@@ -0,0 +1,21 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.model.UAC;
+
+/**
+ * Projection of a UAC joined with the case it is linked to, so that what is needed to authenticate
+ * a UAC can be read with a single keyed read. The case is null if the UAC is unlinked, or its case
+ * had not been stored when the projection was last written.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UACClaimContext {
+  private String uacHash;
+  private UAC uac;
+  private CollectionCase collectionCase;
+}
@@ -0,0 +1,24 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Record of the version of a case that was last stored, used to skip writes of case updates that
+ * are unchanged or older than what is stored.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class CaseVersion {
+  private String caseId;
+  // digest of the content of the stored case
+  private String digest;
+  // time of the event that the stored case came from. Null if the case was written by RH itself
+  private Date eventDateTime;
+  // UPRN of the address of the stored case, so that it can be taken out of the index of a UPRN it
+  // has moved from. Null for versions stored before it was recorded
+  private String uprn;
+}
@@ -0,0 +1,271 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode.Code;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.WriteBatch;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.retry.backoff.ExponentialBackOffPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.ctp.common.cloud.CloudDataStore;
+import uk.gov.ons.ctp.common.cloud.RetryableCloudDataStore;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageEngine;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageTransaction;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+
+/**
+ * Storage in Firestore, with the usual retries on contention. The startup check is made without
+ * retries, so that a service that cannot reach Firestore fails fast.
+ *
+ * <p>The cloud data store has no way to list what is stored, or to make batched, conditional or
+ * merged writes or deletes, so these are made with the service's Firestore client, which is
+ * configured as the cloud data store's own is. Objects are given to Firestore as they are to the
+ * cloud data store, so are stored in the same form whichever way they are written. A batch is
+ * retried with the same backoff as the cloud data store if Firestore fails transiently, as writing
+ * it again is harmless. Transactions are run by the client, which runs them again if they contend.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreStorageEngine implements StorageEngine {
+
+  // Firestore status codes on which a batch is retried
+  private static final Set<Code> RETRYABLE_CODES =
+      EnumSet.of(Code.ABORTED, Code.DEADLINE_EXCEEDED, Code.RESOURCE_EXHAUSTED, Code.UNAVAILABLE);
+
+  private RetryableCloudDataStore retryableCloudDataStore;
+
+  // Cloud data store access for startup checks only
+  @Autowired CloudDataStore nonRetryableCloudDataStore;
+
+  @Value("${cloud-storage.backoff.initial}")
+  private long backoffInitial;
+
+  @Value("${cloud-storage.backoff.multiplier}")
+  private double backoffMultiplier;
+
+  @Value("${cloud-storage.backoff.max}")
+  private long backoffMax;
+
+  @Value("${cloud-storage.backoff.max-attempts}")
+  private int backoffMaxAttempts;
+
+  private final Firestore firestore;
+  private RetryTemplate batchRetryTemplate;
+
+  /**
+   * Constructor for FirestoreStorageEngine
+   *
+   * @param retryableCloudDataStore data store that retries on contention
+   * @param firestore client for the operations the cloud data store does not offer
+   */
+  @Autowired
+  public FirestoreStorageEngine(
+      RetryableCloudDataStore retryableCloudDataStore, Firestore firestore) {
+    this.retryableCloudDataStore = retryableCloudDataStore;
+    this.firestore = firestore;
+  }
+
+  @Override
+  public void storeObject(String schema, String key, Object value, String id) throws CTPException {
+    retryableCloudDataStore.storeObject(schema, key, value, id);
+  }
+
+  @Override
+  public void storeObjects(List<StorageWrite> writes) throws CTPException {
+    try {
+      batchRetryTemplate()
+          .execute(
+              context -> {
+                commit(writes);
+                return null;
+              });
+    } catch (ApiException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to store batch of objects");
+    }
+  }
+
+  // a transient failure is thrown as is, to be retried
+  private void commit(List<StorageWrite> writes) throws CTPException {
+    WriteBatch batch = firestore.batch();
+    for (StorageWrite write : writes) {
+      batch.set(firestore.collection(write.getSchema()).document(write.getKey()), write.getValue());
+    }
+    try {
+      batch.commit().get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ApiException
+          && RETRYABLE_CODES.contains(((ApiException) e.getCause()).getStatusCode().getCode())) {
+        throw (ApiException) e.getCause();
+      }
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to store batch of objects");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted storing batch of objects");
+    }
+  }
+
+  @Override
+  public <T> T runTransaction(StorageTransaction<T> transaction) throws CTPException {
+    try {
+      return firestore
+          .runTransaction(tx -> transaction.run(new FirestoreTransactionContext(tx)))
+          .get();
+    } catch (ExecutionException e) {
+      // a failure of the transaction itself is passed back as it was thrown
+      for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+        if (cause instanceof CTPException) {
+          throw (CTPException) cause;
+        }
+      }
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to run transaction");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted running transaction");
+    }
+  }
+
+  @Override
+  public boolean storeObjectIfAbsent(String schema, String key, Object value) throws CTPException {
+    try {
+      firestore.collection(schema).document(key).create(value).get();
+      return true;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ApiException
+          && ((ApiException) e.getCause()).getStatusCode().getCode()
+              == Code.ALREADY_EXISTS) {
+        return false;
+      }
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to create object in " + schema);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted creating object in " + schema);
+    }
+  }
+
+  @Override
+  public void deleteObject(String schema, String key) throws CTPException {
+    try {
+      firestore.collection(schema).document(key).delete().get();
+    } catch (ExecutionException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to delete object from " + schema);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted deleting object from " + schema);
+    }
+  }
+
+  @Override
+  public <T> Optional<T> retrieveObject(Class<T> target, String schema, String key)
+      throws CTPException {
+    return retryableCloudDataStore.retrieveObject(target, schema, key);
+  }
+
+  @Override
+  public <T> List<T> search(Class<T> target, String schema, String[] fieldPath, String searchValue)
+      throws CTPException {
+    return retryableCloudDataStore.search(target, schema, fieldPath, searchValue);
+  }
+
+  @Override
+  public void forEachKey(String schema, Consumer<String> consumer) throws CTPException {
+    try {
+      for (DocumentReference document : firestore.collection(schema).listDocuments()) {
+        consumer.accept(document.getId());
+      }
+    } catch (RuntimeException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to list keys of " + schema);
+    }
+  }
+
+  private class FirestoreTransactionContext implements StorageTransaction.Context {
+    private final Transaction tx;
+
+    FirestoreTransactionContext(Transaction tx) {
+      this.tx = tx;
+    }
+
+    @Override
+    public <T> Optional<T> retrieveObject(Class<T> target, String schema, String key)
+        throws CTPException {
+      try {
+        DocumentSnapshot document = tx.get(firestore.collection(schema).document(key)).get();
+        return Optional.ofNullable(document.exists() ? document.toObject(target) : null);
+      } catch (ExecutionException e) {
+        throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to read object from " + schema);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted reading from " + schema);
+      }
+    }
+
+    @Override
+    public <T> List<T> search(
+        Class<T> target, String schema, String[] fieldPath, String searchValue)
+        throws CTPException {
+      Query query = firestore.collection(schema).whereEqualTo(FieldPath.of(fieldPath), searchValue);
+      try {
+        return tx.get(query).get().toObjects(target);
+      } catch (ExecutionException e) {
+        throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to search " + schema);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted searching " + schema);
+      }
+    }
+
+    @Override
+    public void storeObject(String schema, String key, Object value) {
+      tx.set(firestore.collection(schema).document(key), value);
+    }
+
+    // a merge only writes the fields given, so the entry is written without reading the object
+    @Override
+    public void storeMapEntry(
+        String schema, String key, String field, String entryKey, Object value) {
+      Object entry = value == null ? FieldValue.delete() : value;
+      tx.set(
+          firestore.collection(schema).document(key),
+          Map.of(field, Map.of(entryKey, entry)),
+          SetOptions.merge());
+    }
+  }
+
+  private synchronized RetryTemplate batchRetryTemplate() {
+    if (batchRetryTemplate == null) {
+      ExponentialBackOffPolicy backoffPolicy = new ExponentialBackOffPolicy();
+      backoffPolicy.setInitialInterval(backoffInitial);
+      backoffPolicy.setMultiplier(backoffMultiplier);
+      backoffPolicy.setMaxInterval(backoffMax);
+      batchRetryTemplate = new RetryTemplate();
+      batchRetryTemplate.setBackOffPolicy(backoffPolicy);
+      batchRetryTemplate.setRetryPolicy(
+          new SimpleRetryPolicy(backoffMaxAttempts, Map.of(ApiException.class, true)));
+    }
+    return batchRetryTemplate;
+  }
+
+  @Override
+  public void storeStartupCheckObject(String schema, String key, Object value) throws Exception {
+    nonRetryableCloudDataStore.storeObject(schema, key, value);
+  }
+}
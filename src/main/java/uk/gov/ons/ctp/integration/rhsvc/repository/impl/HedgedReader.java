@@ -0,0 +1,248 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.integration.rhsvc.config.ExecutorConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.HedgedReadConfig;
+
+/**
+ * Hedges reads of storage, so that a read that is slower than most is made again, and whichever of
+ * the two reads completes first is used. This cuts the tail of read latency, as a read is rarely
+ * slow twice, for the cost of a few extra reads. Only reads that can safely be made twice are to be
+ * hedged.
+ *
+ * <p>A read is hedged once it has taken longer than the configured percentile of the recent reads
+ * of its type, or the minimum delay if that is longer. Reads are not hedged until enough of their
+ * type have been observed. The number of hedges is limited by a budget, which grows by the budget
+ * percentage with each read up to the burst, and is spent one per hedge.
+ *
+ * <p>Each read is made on the executor of the reader, while the caller waits. If the executor is
+ * full the caller makes the read itself, without hedging it.
+ *
+ * <p>The latency of the reads is published as rhsvc.reads.storage, the hedges made as
+ * rhsvc.reads.hedged, those that completed first as rhsvc.reads.hedge.wins and the slow reads that
+ * were not hedged as rhsvc.reads.hedges.denied, with the hedge rate and win rate as gauges, all
+ * tagged with the type of read.
+ */
+public class HedgedReader {
+  // the budget is counted in millionths of a hedge
+  private static final long HEDGE_COST = 1_000_000;
+  // how often the hedge delay is recomputed from the latency of recent reads
+  private static final long DELAY_REFRESH_MILLIS = 1000;
+
+  private final HedgedReadConfig hedgeConfig;
+  private final MeterRegistry meterRegistry;
+  private final ThreadPoolExecutor executor;
+  private final Map<String, ReadMeters> readMeters = new ConcurrentHashMap<>();
+
+  private final AtomicLong budget = new AtomicLong();
+  private final long budgetPerRead;
+  private final long maxBudget;
+
+  /**
+   * Constructor for HedgedReader, which starts its executor.
+   *
+   * @param hedgeConfig configuration of the hedging
+   * @param meterRegistry registry for the metrics of the hedging
+   */
+  public HedgedReader(HedgedReadConfig hedgeConfig, MeterRegistry meterRegistry) {
+    this.hedgeConfig = hedgeConfig;
+    this.meterRegistry = meterRegistry;
+    this.budgetPerRead = (long) (hedgeConfig.getBudgetPercent() / 100 * HEDGE_COST);
+    this.maxBudget = hedgeConfig.getBurst() * HEDGE_COST;
+
+    ExecutorConfig executorConfig = hedgeConfig.getExecutor();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("hedged-read-");
+    threadFactory.setDaemon(true);
+    executor =
+        new ThreadPoolExecutor(
+            executorConfig.getThreads(),
+            executorConfig.getThreads(),
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(executorConfig.getQueueSize()),
+            threadFactory);
+  }
+
+  /**
+   * Read, hedging the read if it is slow.
+   *
+   * @param <T> the type read
+   * @param type the type of read, eg uac
+   * @param read the read of storage, which may be made twice
+   * @return what was read by whichever read completed first
+   * @throws CTPException if the read failed, or both reads did
+   */
+  public <T> T read(String type, ReadCoalescer.Read<T> read) throws CTPException {
+    ReadMeters meters = readMeters.computeIfAbsent(type, ReadMeters::new);
+    meters.reads.incrementAndGet();
+    budget.accumulateAndGet(
+        budgetPerRead, (current, added) -> Math.min(maxBudget, current + added));
+
+    CompletableFuture<T> result = new CompletableFuture<>();
+    // the reads not yet failed, so that the caller is only failed once every read has
+    AtomicInteger pending = new AtomicInteger(1);
+    try {
+      executor.execute(() -> attempt(read, meters, result, pending, false));
+    } catch (RejectedExecutionException e) {
+      return read.read();
+    }
+
+    try {
+      long delay = meters.hedgeDelay();
+      if (delay >= 0) {
+        try {
+          return result.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          hedge(read, meters, result, pending);
+        }
+      }
+      return result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CTPException) {
+        throw (CTPException) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted waiting for read");
+    }
+  }
+
+  private <T> void hedge(
+      ReadCoalescer.Read<T> read,
+      ReadMeters meters,
+      CompletableFuture<T> result,
+      AtomicInteger pending) {
+    if (!spendBudget()) {
+      meters.denied.increment();
+      return;
+    }
+    pending.incrementAndGet();
+    try {
+      executor.execute(() -> attempt(read, meters, result, pending, true));
+      meters.hedged.increment();
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      budget.addAndGet(HEDGE_COST);
+      meters.denied.increment();
+    }
+  }
+
+  private boolean spendBudget() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < HEDGE_COST) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - HEDGE_COST));
+    return true;
+  }
+
+  private <T> void attempt(
+      ReadCoalescer.Read<T> read,
+      ReadMeters meters,
+      CompletableFuture<T> result,
+      AtomicInteger pending,
+      boolean hedge) {
+    long start = System.nanoTime();
+    try {
+      T value = read.read();
+      meters.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      if (result.complete(value) && hedge) {
+        meters.wins.increment();
+      }
+    } catch (CTPException | RuntimeException e) {
+      if (pending.decrementAndGet() == 0) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  /** Stop the executor. Reads still in flight are left to complete. */
+  public void destroy() {
+    executor.shutdown();
+  }
+
+  private class ReadMeters {
+    private final Timer latency;
+    private final Counter hedged;
+    private final Counter wins;
+    private final Counter denied;
+    private final AtomicLong reads = new AtomicLong();
+
+    private volatile long delay = -1;
+    private volatile long delayComputedAt;
+
+    ReadMeters(String type) {
+      latency =
+          Timer.builder("rhsvc.reads.storage")
+              .description("Time taken by reads of storage that may be hedged")
+              .tag("read", type)
+              .publishPercentiles(hedgeConfig.getPercentile())
+              .register(meterRegistry);
+      hedged = counter("rhsvc.reads.hedged", "Reads made again as the first was slow", type);
+      wins = counter("rhsvc.reads.hedge.wins", "Hedged reads that completed first", type);
+      denied = counter("rhsvc.reads.hedges.denied", "Slow reads that were not hedged", type);
+      Gauge.builder("rhsvc.reads.hedge.rate", this, ReadMeters::hedgeRate)
+          .description("Proportion of reads that were hedged")
+          .tag("read", type)
+          .register(meterRegistry);
+      Gauge.builder("rhsvc.reads.hedge.win.rate", this, ReadMeters::winRate)
+          .description("Proportion of hedged reads that completed first")
+          .tag("read", type)
+          .register(meterRegistry);
+    }
+
+    private Counter counter(String name, String description, String type) {
+      return Counter.builder(name)
+          .description(description)
+          .tag("read", type)
+          .register(meterRegistry);
+    }
+
+    // -1 until enough reads have been observed to know what is slow
+    long hedgeDelay() {
+      if (latency.count() < hedgeConfig.getMinSamples()) {
+        return -1;
+      }
+      long now = System.currentTimeMillis();
+      if (delay < 0 || now - delayComputedAt >= DELAY_REFRESH_MILLIS) {
+        ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+        long observed =
+            percentiles.length == 0 ? 0 : (long) percentiles[0].value(TimeUnit.MILLISECONDS);
+        delay = Math.max(hedgeConfig.getMinDelayMillis(), observed);
+        delayComputedAt = now;
+      }
+      return delay;
+    }
+
+    private double hedgeRate() {
+      long count = reads.get();
+      return count == 0 ? 0 : hedged.count() / count;
+    }
+
+    private double winRate() {
+      double count = hedged.count();
+      return count == 0 ? 0 : wins.count() / count;
+    }
+  }
+}
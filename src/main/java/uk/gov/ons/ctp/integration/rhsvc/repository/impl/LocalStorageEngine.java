@@ -0,0 +1,396 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig.LocalStorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageEngine;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageTransaction;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+
+/**
+ * Embedded storage, so that the whole service can be run and load tested on a single host without
+ * Firestore or its emulator.
+ *
+ * <p>Objects are held in memory as JSON, so callers are given their own copy of what is stored, as
+ * they are by Firestore. If a directory is configured, each write is also appended to a log file
+ * before it is applied, and the log is read back when the engine is opened, so the data survives a
+ * restart. The log is compacted as it is opened, keeping only the latest version of each object.
+ *
+ * <p>Searches scan every object in the schema, so are much slower than keyed reads. Transactions
+ * are run one at a time, and no other write is applied while one runs, so a transaction never has
+ * to be run again.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "local")
+public class LocalStorageEngine implements StorageEngine, DisposableBean {
+  private static final Logger log = LoggerFactory.getLogger(LocalStorageEngine.class);
+
+  private static final String LOG_FILE = "storage.log";
+
+  private final ObjectMapper objectMapper = new CustomObjectMapper();
+  // JSON of the objects, keyed by schema then key
+  private final Map<String, Map<String, byte[]>> schemas = new ConcurrentHashMap<>();
+  private final boolean syncWrites;
+  // null if the objects are only held in memory
+  private FileChannel logFile;
+
+  /**
+   * Constructor for LocalStorageEngine, which loads any objects stored in the log file.
+   *
+   * @param appConfig centralised configuration
+   * @throws IOException if the log file cannot be read or written
+   */
+  @Autowired
+  public LocalStorageEngine(AppConfig appConfig) throws IOException {
+    LocalStorageConfig localConfig = appConfig.getStorage().getLocal();
+    this.syncWrites = localConfig.isSyncWrites();
+    if (StringUtils.isEmpty(localConfig.getDirectory())) {
+      log.info("Local storage is held in memory only");
+      return;
+    }
+    Path directory = Paths.get(localConfig.getDirectory());
+    Files.createDirectories(directory);
+    Path path = directory.resolve(LOG_FILE);
+    if (Files.exists(path)) {
+      load(path);
+      compact(directory, path);
+    }
+    logFile =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    log.with("directory", directory).with("schemas", schemas.size()).info("Opened local storage");
+  }
+
+  @Override
+  public void storeObject(String schema, String key, Object value, String id) throws CTPException {
+    try {
+      byte[] json = objectMapper.writeValueAsBytes(value);
+      synchronized (this) {
+        if (logFile != null) {
+          append(schema, key, json);
+        }
+        schemas.computeIfAbsent(schema, s -> new ConcurrentHashMap<>()).put(key, json);
+      }
+    } catch (IOException e) {
+      log.with("schema", schema).with("id", id).error(e, "Failed to store object");
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to store object in local storage");
+    }
+  }
+
+  @Override
+  public void storeObjects(List<StorageWrite> writes) throws CTPException {
+    try {
+      List<byte[]> jsons = new ArrayList<>();
+      for (StorageWrite write : writes) {
+        jsons.add(objectMapper.writeValueAsBytes(write.getValue()));
+      }
+      synchronized (this) {
+        if (logFile != null) {
+          appendBatch(writes, jsons);
+        }
+        for (int i = 0; i < writes.size(); i++) {
+          StorageWrite write = writes.get(i);
+          schemas
+              .computeIfAbsent(write.getSchema(), s -> new ConcurrentHashMap<>())
+              .put(write.getKey(), jsons.get(i));
+        }
+      }
+    } catch (IOException e) {
+      log.with("writes", writes.size()).error(e, "Failed to store batch of objects");
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to store objects in local storage");
+    }
+  }
+
+  @Override
+  public synchronized <T> T runTransaction(StorageTransaction<T> transaction)
+      throws CTPException {
+    LocalTransactionContext context = new LocalTransactionContext();
+    T result = transaction.run(context);
+    if (!context.writes.isEmpty()) {
+      storeObjects(mergeMapEntries(context.writes));
+    }
+    return result;
+  }
+
+  // each map entry is merged into the object as it is by then, and written as the whole object
+  private List<StorageWrite> mergeMapEntries(List<StorageWrite> writes) throws CTPException {
+    List<StorageWrite> merged = new ArrayList<>();
+    for (StorageWrite write : writes) {
+      if (!(write.getValue() instanceof MapEntry)) {
+        merged.add(write);
+        continue;
+      }
+      MapEntry entry = (MapEntry) write.getValue();
+      ObjectNode object = latestObject(merged, write.getSchema(), write.getKey());
+      JsonNode map = object.get(entry.field);
+      ObjectNode entries =
+          map != null && map.isObject() ? (ObjectNode) map : object.putObject(entry.field);
+      if (entry.value == null) {
+        entries.remove(entry.key);
+      } else {
+        entries.set(entry.key, objectMapper.valueToTree(entry.value));
+      }
+      merged.add(new StorageWrite(write.getSchema(), write.getKey(), object));
+    }
+    return merged;
+  }
+
+  private ObjectNode latestObject(List<StorageWrite> writes, String schema, String key)
+      throws CTPException {
+    for (int i = writes.size() - 1; i >= 0; i--) {
+      StorageWrite write = writes.get(i);
+      if (write.getSchema().equals(schema) && write.getKey().equals(key)) {
+        return objectMapper.valueToTree(write.getValue());
+      }
+    }
+    byte[] json = schemas.getOrDefault(schema, Map.of()).get(key);
+    if (json == null) {
+      return objectMapper.createObjectNode();
+    }
+    try {
+      return (ObjectNode) objectMapper.readTree(json);
+    } catch (IOException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to read object from local storage");
+    }
+  }
+
+  @Override
+  public synchronized boolean storeObjectIfAbsent(String schema, String key, Object value)
+      throws CTPException {
+    if (schemas.getOrDefault(schema, Map.of()).containsKey(key)) {
+      return false;
+    }
+    storeObject(schema, key, value, key);
+    return true;
+  }
+
+  @Override
+  public synchronized void deleteObject(String schema, String key) throws CTPException {
+    Map<String, byte[]> objects = schemas.get(schema);
+    if (objects == null || !objects.containsKey(key)) {
+      return;
+    }
+    try {
+      if (logFile != null) {
+        append(schema, key, null);
+      }
+      objects.remove(key);
+    } catch (IOException e) {
+      log.with("schema", schema).with("key", key).error(e, "Failed to delete object");
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to delete object from local storage");
+    }
+  }
+
+  @Override
+  public <T> Optional<T> retrieveObject(Class<T> target, String schema, String key)
+      throws CTPException {
+    byte[] json = schemas.getOrDefault(schema, Map.of()).get(key);
+    if (json == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(objectMapper.readValue(json, target));
+    } catch (IOException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to read object from local storage");
+    }
+  }
+
+  @Override
+  public <T> List<T> search(Class<T> target, String schema, String[] fieldPath, String searchValue)
+      throws CTPException {
+    List<T> results = new ArrayList<>();
+    try {
+      for (byte[] json : schemas.getOrDefault(schema, Map.of()).values()) {
+        JsonNode object = objectMapper.readTree(json);
+        JsonNode field = object;
+        for (String name : fieldPath) {
+          field = field.path(name);
+        }
+        if (field.isValueNode() && searchValue.equals(field.asText())) {
+          results.add(objectMapper.treeToValue(object, target));
+        }
+      }
+    } catch (IOException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to search local storage");
+    }
+    return results;
+  }
+
+  @Override
+  public void forEachKey(String schema, Consumer<String> consumer) {
+    schemas.getOrDefault(schema, Map.of()).keySet().forEach(consumer);
+  }
+
+  @Override
+  public void storeStartupCheckObject(String schema, String key, Object value) throws Exception {
+    storeObject(schema, key, value, key);
+  }
+
+  @Override
+  public synchronized void destroy() throws IOException {
+    if (logFile != null) {
+      logFile.close();
+      logFile = null;
+    }
+  }
+
+  // reads are made directly, and writes held until the transaction ends
+  private class LocalTransactionContext implements StorageTransaction.Context {
+    private final List<StorageWrite> writes = new ArrayList<>();
+
+    @Override
+    public <T> Optional<T> retrieveObject(Class<T> target, String schema, String key)
+        throws CTPException {
+      return LocalStorageEngine.this.retrieveObject(target, schema, key);
+    }
+
+    @Override
+    public <T> List<T> search(
+        Class<T> target, String schema, String[] fieldPath, String searchValue)
+        throws CTPException {
+      return LocalStorageEngine.this.search(target, schema, fieldPath, searchValue);
+    }
+
+    @Override
+    public void storeObject(String schema, String key, Object value) {
+      writes.add(new StorageWrite(schema, key, value));
+    }
+
+    @Override
+    public void storeMapEntry(
+        String schema, String key, String field, String entryKey, Object value) {
+      writes.add(new StorageWrite(schema, key, new MapEntry(field, entryKey, value)));
+    }
+  }
+
+  // an entry to merge into a map field of an object when the transaction ends
+  private static class MapEntry {
+    private final String field;
+    private final String key;
+    private final Object value;
+
+    MapEntry(String field, String key, Object value) {
+      this.field = field;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private void append(String schema, String key, byte[] json) throws IOException {
+    writeLine(logFile, entry(schema, key, json));
+    if (syncWrites) {
+      logFile.force(false);
+    }
+  }
+
+  // a batch is logged as one line, so that it is loaded whole or, if partly written, not at all
+  private void appendBatch(List<StorageWrite> writes, List<byte[]> jsons) throws IOException {
+    ObjectNode line = objectMapper.createObjectNode();
+    ArrayNode batch = line.putArray("batch");
+    for (int i = 0; i < writes.size(); i++) {
+      batch.add(entry(writes.get(i).getSchema(), writes.get(i).getKey(), jsons.get(i)));
+    }
+    writeLine(logFile, line);
+    if (syncWrites) {
+      logFile.force(false);
+    }
+  }
+
+  private ObjectNode entry(String schema, String key, byte[] json) throws IOException {
+    ObjectNode entry = objectMapper.createObjectNode();
+    entry.put("schema", schema);
+    entry.put("key", key);
+    // a deleted object is logged with no value
+    entry.set("value", json == null ? NullNode.getInstance() : objectMapper.readTree(json));
+    return entry;
+  }
+
+  private void writeLine(FileChannel channel, ObjectNode line) throws IOException {
+    byte[] bytes = (objectMapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // a line that was only partly written when the service stopped cannot be read, and is skipped
+  private void load(Path path) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        try {
+          JsonNode node = objectMapper.readTree(line);
+          if (node.has("batch")) {
+            for (JsonNode entry : node.get("batch")) {
+              loadEntry(entry);
+            }
+          } else {
+            loadEntry(node);
+          }
+        } catch (IOException | RuntimeException e) {
+          log.with("path", path).warn(e, "Skipping unreadable local storage entry");
+        }
+      }
+    }
+  }
+
+  private void loadEntry(JsonNode entry) throws IOException {
+    Map<String, byte[]> objects =
+        schemas.computeIfAbsent(entry.get("schema").asText(), s -> new ConcurrentHashMap<>());
+    JsonNode value = entry.get("value");
+    if (value.isNull()) {
+      objects.remove(entry.get("key").asText());
+    } else {
+      objects.put(entry.get("key").asText(), objectMapper.writeValueAsBytes(value));
+    }
+  }
+
+  // the log is rewritten with only the latest version of each object, and replaces the old log
+  private void compact(Path directory, Path path) throws IOException {
+    Path temp = directory.resolve(LOG_FILE + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Map.Entry<String, Map<String, byte[]>> schema : schemas.entrySet()) {
+        for (Map.Entry<String, byte[]> object : schema.getValue().entrySet()) {
+          writeLine(channel, entry(schema.getKey(), object.getKey(), object.getValue()));
+        }
+      }
+      channel.force(true);
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,130 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+
+/**
+ * Coalesces concurrent reads of the same key, so that a caller that reads a key while another
+ * caller is already reading it waits for that read, rather than making its own read of storage.
+ *
+ * <p>Each caller is given its own copy of what was read, as callers are free to modify what they
+ * are given. A key that has been written is forgotten, so that callers that read it after the
+ * write do not wait for a read that started before it.
+ *
+ * <p>The number of reads coalesced is published as rhsvc.reads.coalesced, tagged with the type of
+ * read.
+ */
+public class ReadCoalescer {
+
+  /**
+   * A read of storage.
+   *
+   * @param <T> the type read
+   */
+  @FunctionalInterface
+  public interface Read<T> {
+    T read() throws CTPException;
+  }
+
+  private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Counter> coalescedCounters = new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * Constructor for ReadCoalescer
+   *
+   * @param meterRegistry registry for the coalesced reads counter
+   */
+  public ReadCoalescer(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Read a key, or wait for the read of the key already in flight.
+   *
+   * @param <T> the type read
+   * @param type the type of read, eg uac
+   * @param key the key read
+   * @param read the read of storage, made if the key is not already being read
+   * @param copier copies what was read, for each caller after the first
+   * @return what was read
+   * @throws CTPException if the read failed
+   */
+  public <T> T read(String type, String key, Read<T> read, UnaryOperator<T> copier)
+      throws CTPException {
+    String id = type + ":" + key;
+    Flight mine = new Flight();
+    Flight flight =
+        inFlight.compute(id, (k, existing) -> existing == null ? mine : existing.join());
+    if (flight != mine) {
+      coalescedCounter(type).increment();
+      return copier.apply(flight.await());
+    }
+
+    T result;
+    try {
+      result = read.read();
+      mine.future.complete(result);
+    } catch (CTPException | RuntimeException e) {
+      mine.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(id, mine);
+    }
+    // no caller can join once the flight is removed, and those that did are reading the result
+    return mine.followers.get() == 0 ? result : copier.apply(result);
+  }
+
+  /**
+   * Forget any read of a key in flight, once the key has been written.
+   *
+   * @param type the type of read, eg uac
+   * @param key the key written
+   */
+  public void forget(String type, String key) {
+    inFlight.remove(type + ":" + key);
+  }
+
+  private Counter coalescedCounter(String type) {
+    return coalescedCounters.computeIfAbsent(
+        type,
+        t ->
+            Counter.builder("rhsvc.reads.coalesced")
+                .description("Reads that waited for the same read already in flight")
+                .tag("read", t)
+                .register(meterRegistry));
+  }
+
+  private static class Flight {
+    private final CompletableFuture<Object> future = new CompletableFuture<>();
+    private final AtomicInteger followers = new AtomicInteger();
+
+    Flight join() {
+      followers.incrementAndGet();
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T await() throws CTPException {
+      try {
+        return (T) future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof CTPException) {
+          throw (CTPException) e.getCause();
+        }
+        throw (RuntimeException) e.getCause();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CTPException(Fault.SYSTEM_ERROR, e, "Interrupted waiting for read");
+      }
+    }
+  }
+}
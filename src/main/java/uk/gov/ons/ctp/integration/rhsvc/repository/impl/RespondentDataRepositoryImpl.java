@@ -1,34 +1,61 @@
 package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import uk.gov.ons.ctp.common.cloud.CloudDataStore;
-import uk.gov.ons.ctp.common.cloud.RetryableCloudDataStore;
+import org.springframework.util.StringUtils;
 import uk.gov.ons.ctp.common.domain.CaseType;
 import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
 import uk.gov.ons.ctp.common.event.model.CollectionCase;
 import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
 import uk.gov.ons.ctp.integration.rhsvc.RHSvcApplication;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.CacheConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.HedgedReadConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UacFilterConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.CaseUpdate;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageEngine;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageTransaction;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+import uk.gov.ons.ctp.integration.rhsvc.repository.UACClaimContext;
 
-/** A RespondentDataRepository implementation for CRUD operations on Respondent data entities */
+/**
+ * A RespondentDataRepository implementation for CRUD operations on Respondent data entities, which
+ * are kept by the {@link StorageEngine} selected by storage.engine.
+ */
 @Service
 public class RespondentDataRepositoryImpl implements RespondentDataRepository {
   private static final Logger log = LoggerFactory.getLogger(RHSvcApplication.class);
 
-  private RetryableCloudDataStore retryableCloudDataStore;
-
-  // Cloud data store access for startup checks only
-  @Autowired CloudDataStore nonRetryableCloudDataStore;
+  private StorageEngine storageEngine;
 
   @Value("${GOOGLE_CLOUD_PROJECT}")
   private String gcpProject;
@@ -39,15 +66,84 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
   @Value("${cloud-storage.uac-schema-name}")
   private String uacSchemaName;
 
+  @Value("${cloud-storage.uprn-index-schema-name}")
+  private String uprnIndexSchemaName;
+
+  @Value("${cloud-storage.case-version-schema-name}")
+  private String caseVersionSchemaName;
+
+  @Value("${cloud-storage.uac-claim-context-schema-name}")
+  private String uacClaimContextSchemaName;
+
+  @Value("${cloud-storage.uprn-lease-schema-name}")
+  private String uprnLeaseSchemaName;
+
+  // whether the UAC claim context projection is maintained and read
+  @Value("${uac-claim-context.enabled}")
+  private boolean uacClaimContextEnabled;
+
+  // whether concurrent reads of the same key are coalesced into one read of storage
+  @Value("${read-coalescing.enabled}")
+  private boolean readCoalescingEnabled;
+
   String caseSchema;
   private String uacSchema;
+  String uprnIndexSchema;
+  String caseVersionSchema;
+  String uacClaimContextSchema;
+  String uprnLeaseSchema;
 
   private static final String[] SEARCH_BY_UPRN_PATH = new String[] {"address", "uprn"};
+  private static final String[] SEARCH_BY_LINKED_CASE_PATH = new String[] {"uac", "caseId"};
+
+  // types of read that are coalesced
+  private static final String UAC_READ = "uac";
+  private static final String CASE_READ = "case";
+  private static final String UPRN_READ = "uprn";
+  private static final String CONTEXT_READ = "uac-claim-context";
+
+  // Used to copy UACs in and out of the cache, and objects read for more than one caller, as
+  // callers are free to modify what they are given
+  private static final ObjectMapper COPIER = new CustomObjectMapper();
+
+  // Used to serialise cases for their digest. Properties are sorted so that it is repeatable.
+  private static final ObjectMapper CASE_DIGEST_MAPPER =
+      new CustomObjectMapper().configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
+
+  // Read-through cache of UACs keyed by uacHash. Null if caching is disabled.
+  private Cache<String, UAC> uacCache;
+
+  // Count of the writes of the UACs of each stripe of uacHashes, so that a read that overlaps a
+  // write of the UAC it read can tell, and not leave what it read in the cache
+  private static final int UAC_WRITE_STRIPES = 1024;
+  private final AtomicLongArray uacWrites = new AtomicLongArray(UAC_WRITE_STRIPES);
+
+  // Versions of the cases last written by this instance, keyed by case id. Null if disabled.
+  private Cache<String, CaseVersion> caseVersionCache;
+
+  // Filter of the hashes of the stored UACs, for unknown UACs. Null if disabled.
+  private UacHashFilter uacHashFilter;
+  private UacFilterConfig uacFilterConfig;
+  private MeterRegistry meterRegistry;
+
+  private ReadCoalescer readCoalescer;
+  // null unless hedged reads are enabled
+  private HedgedReader hedgedReader;
+
+  private Counter unchangedCaseWritesSkipped;
+  private Counter staleCaseWritesSkipped;
+
+  // the most writes that Firestore commits together
+  private int maxWritesPerCommit = 500;
 
   @PostConstruct
   public void init() {
     caseSchema = gcpProject + "-" + caseSchemaName.toLowerCase();
     uacSchema = gcpProject + "-" + uacSchemaName.toLowerCase();
+    uprnIndexSchema = gcpProject + "-" + uprnIndexSchemaName.toLowerCase();
+    caseVersionSchema = gcpProject + "-" + caseVersionSchemaName.toLowerCase();
+    uacClaimContextSchema = gcpProject + "-" + uacClaimContextSchemaName.toLowerCase();
+    uprnLeaseSchema = gcpProject + "-" + uprnLeaseSchemaName.toLowerCase();
 
     // Verify that Cloud Storage is working before consuming any events
     try {
@@ -60,50 +156,730 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
           "Failed cloud storage startup check. Unable to write to storage. Aborting service", e);
       System.exit(-1);
     }
+
+    if (uacFilterConfig != null && uacFilterConfig.isEnabled()) {
+      uacHashFilter =
+          new UacHashFilter(
+              uacFilterConfig,
+              consumer -> storageEngine.forEachKey(uacSchema, consumer),
+              meterRegistry);
+    } else {
+      log.info("UAC filter is disabled");
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (uacHashFilter != null) {
+      uacHashFilter.destroy();
+    }
+    if (hedgedReader != null) {
+      hedgedReader.destroy();
+    }
   }
 
   @Autowired
-  public RespondentDataRepositoryImpl(RetryableCloudDataStore retryableCloudDataStore) {
-    this.retryableCloudDataStore = retryableCloudDataStore;
+  public RespondentDataRepositoryImpl(
+      StorageEngine storageEngine, AppConfig appConfig, MeterRegistry meterRegistry) {
+    this.storageEngine = storageEngine;
+    this.uacFilterConfig = appConfig.getUacFilter();
+    this.meterRegistry = meterRegistry;
+    this.readCoalescer = new ReadCoalescer(meterRegistry);
+    HedgedReadConfig hedgeConfig = appConfig.getHedgedReads();
+    if (hedgeConfig != null && hedgeConfig.isEnabled()) {
+      this.hedgedReader = new HedgedReader(hedgeConfig, meterRegistry);
+    }
+    this.uacCache = createCache(appConfig.getUacCache(), meterRegistry, "uac");
+    this.caseVersionCache =
+        createCache(appConfig.getCaseVersionCache(), meterRegistry, "caseVersion");
+    this.unchangedCaseWritesSkipped = caseWritesSkippedCounter(meterRegistry, "unchanged");
+    this.staleCaseWritesSkipped = caseWritesSkippedCounter(meterRegistry, "stale");
+  }
+
+  private <T> Cache<String, T> createCache(
+      CacheConfig cacheConfig, MeterRegistry meterRegistry, String cacheName) {
+    if (cacheConfig == null || !cacheConfig.isEnabled()) {
+      log.with("cacheName", cacheName).info("Cache is disabled");
+      return null;
+    }
+    log.with("cacheName", cacheName).with("cacheConfig", cacheConfig).info("Creating cache");
+    Cache<String, T> cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(cacheConfig.getMaximumSize())
+            .expireAfterWrite(cacheConfig.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    // publishes cache.gets (hit/miss), cache.evictions, cache.puts and cache.size
+    GuavaCacheMetrics.monitor(meterRegistry, cache, cacheName);
+    return cache;
+  }
+
+  private Counter caseWritesSkippedCounter(MeterRegistry meterRegistry, String reason) {
+    return Counter.builder("rhsvc.case.writes.skipped")
+        .description("Case updates not written as they would not change the stored case")
+        .tag("reason", reason)
+        .register(meterRegistry);
   }
 
   /**
    * Stores a UAC object into the cloud data store.
    *
+   * <p>Any cached copy of the UAC is invalidated, so that subsequent reads on this instance see the
+   * newly written version, and the UAC is added to the UAC filter. If the UAC claim context is
+   * enabled, the context of the UAC is rewritten in the same transaction as the UAC, joining the
+   * UAC with its case as stored.
+   *
    * @param uac - object to be stored in the cloud
    * @throws CTPException - if a cloud exception was detected.
    */
   @Override
   public void writeUAC(final UAC uac) throws CTPException {
-    retryableCloudDataStore.storeObject(uacSchema, uac.getUacHash(), uac, uac.getCaseId());
+    if (uacHashFilter != null) {
+      uacHashFilter.put(uac.getUacHash());
+    }
+    try {
+      if (uacClaimContextEnabled) {
+        storageEngine.runTransaction(
+            context -> {
+              store(context, uacWrites(context, uac, List.of()));
+              return null;
+            });
+      } else {
+        storageEngine.storeObject(uacSchema, uac.getUacHash(), uac, uac.getCaseId());
+      }
+      if (uacHashFilter != null) {
+        uacHashFilter.put(uac.getUacHash());
+      }
+    } finally {
+      uacWritten(uac.getUacHash());
+      readCoalescer.forget(UAC_READ, uac.getUacHash());
+      readCoalescer.forget(CONTEXT_READ, uac.getUacHash());
+    }
+  }
+
+  /**
+   * Stores a batch of UAC objects as a single write, so that either all of them are stored or none
+   * of them are.
+   *
+   * <p>Each UAC is dealt with as it is by {@link #writeUAC}. If the UAC claim context is enabled,
+   * the UACs and their contexts are written in one transaction, otherwise the UACs are written as
+   * one batch. There must be no more than one of each UAC in a batch.
+   *
+   * @param uacs - the UACs to be stored in the cloud
+   * @throws CTPException - if a cloud exception was detected, in which case nothing was stored.
+   */
+  @Override
+  public void writeUACs(final List<UAC> uacs) throws CTPException {
+    if (uacHashFilter != null) {
+      uacs.forEach(uac -> uacHashFilter.put(uac.getUacHash()));
+    }
+    try {
+      if (uacClaimContextEnabled) {
+        storageEngine.runTransaction(
+            context -> {
+              List<StorageWrite> writes = new ArrayList<>();
+              for (UAC uac : uacs) {
+                writes.addAll(uacWrites(context, uac, List.of()));
+              }
+              store(context, writes);
+              return null;
+            });
+      } else {
+        List<StorageWrite> writes = new ArrayList<>();
+        for (UAC uac : uacs) {
+          writes.add(new StorageWrite(uacSchema, uac.getUacHash(), uac));
+        }
+        storageEngine.storeObjects(writes);
+      }
+      if (uacHashFilter != null) {
+        uacs.forEach(uac -> uacHashFilter.put(uac.getUacHash()));
+      }
+    } finally {
+      for (UAC uac : uacs) {
+        uacWritten(uac.getUacHash());
+        readCoalescer.forget(UAC_READ, uac.getUacHash());
+        readCoalescer.forget(CONTEXT_READ, uac.getUacHash());
+      }
+    }
+  }
+
+  /**
+   * Stores a UAC together with the new cases it has been linked to, as a single transaction, so
+   * that either the UAC and all the cases are stored or none of them are.
+   *
+   * <p>The version record of each case, the UPRN index entries that the cases change, and the UAC
+   * claim context of the UAC, are written in the same transaction. Caches, the UAC filter and reads
+   * in flight are dealt with as they are by {@link #writeUAC} and {@link #writeCollectionCase}.
+   *
+   * @param uac - the UAC to be stored, linked to its case
+   * @param collectionCases - the new cases to be stored with the UAC, which may be none
+   * @throws CTPException - if a cloud exception was detected, in which case nothing was stored.
+   */
+  @Override
+  public void writeUACLink(final UAC uac, final List<CollectionCase> collectionCases)
+      throws CTPException {
+    List<CaseVersion> versions = new ArrayList<>();
+    for (CollectionCase collectionCase : collectionCases) {
+      versions.add(new CaseVersion(collectionCase.getId(), digestOf(collectionCase), null, null));
+    }
+    String uacHash = uac.getUacHash();
+    if (uacHashFilter != null) {
+      uacHashFilter.put(uacHash);
+    }
+    Set<String> uprns = new LinkedHashSet<>();
+    try {
+      storageEngine.runTransaction(
+          context -> {
+            CaseWrites caseWrites = caseWrites(context, collectionCases, versions, false, uprns);
+            List<StorageWrite> uacWrites = uacWrites(context, uac, collectionCases);
+            // the context of the UAC is written with the UAC, not as a context of its case
+            caseWrites.writes.removeIf(w -> isContextOf(w, uacHash));
+            caseWrites.writes.addAll(uacWrites);
+            store(context, caseWrites);
+            return null;
+          });
+      if (uacHashFilter != null) {
+        uacHashFilter.put(uacHash);
+      }
+      if (caseVersionCache != null) {
+        versions.forEach(version -> caseVersionCache.put(version.getCaseId(), version));
+      }
+    } catch (CTPException e) {
+      // we no longer know what is stored
+      if (caseVersionCache != null) {
+        versions.forEach(version -> caseVersionCache.invalidate(version.getCaseId()));
+      }
+      throw e;
+    } finally {
+      uacWritten(uacHash);
+      readCoalescer.forget(UAC_READ, uacHash);
+      readCoalescer.forget(CONTEXT_READ, uacHash);
+      versions.forEach(version -> readCoalescer.forget(CASE_READ, version.getCaseId()));
+      uprns.forEach(this::forgetUprnReads);
+    }
+  }
+
+  /**
+   * Make the reads needed to write a UAC in a transaction, and return the writes: the UAC, and its
+   * claim context if that is enabled.
+   *
+   * @param context - the transaction
+   * @param uac - the UAC to write
+   * @param collectionCases - the cases written with the UAC, one of which may be its case
+   * @return - the writes to make
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  private List<StorageWrite> uacWrites(
+      StorageTransaction.Context context, UAC uac, List<CollectionCase> collectionCases)
+      throws CTPException {
+    String uacHash = uac.getUacHash();
+    List<StorageWrite> writes = new ArrayList<>();
+    writes.add(new StorageWrite(uacSchema, uacHash, uac));
+    if (uacClaimContextEnabled) {
+      CollectionCase linkedCase = linkedCase(context, uac, collectionCases);
+      writes.add(
+          new StorageWrite(
+              uacClaimContextSchema, uacHash, new UACClaimContext(uacHash, uac, linkedCase)));
+    }
+    return writes;
+  }
+
+  // the case a UAC is linked to, from those being written with it or else from what is stored
+  private CollectionCase linkedCase(
+      StorageTransaction.Context context, UAC uac, List<CollectionCase> collectionCases)
+      throws CTPException {
+    String caseId = uac.getCaseId();
+    if (StringUtils.isEmpty(caseId)) {
+      return null;
+    }
+    Optional<CollectionCase> writtenCase =
+        collectionCases.stream().filter(c -> caseId.equals(c.getId())).findFirst();
+    return writtenCase.isPresent()
+        ? writtenCase.get()
+        : context.retrieveObject(CollectionCase.class, caseSchema, caseId).orElse(null);
+  }
+
+  private boolean isContextOf(StorageWrite write, String uacHash) {
+    return write.getSchema().equals(uacClaimContextSchema) && write.getKey().equals(uacHash);
+  }
+
+  // a UAC has been written, or may have been, so a read of it that is in flight is not cached
+  private void uacWritten(String uacHash) {
+    if (uacCache != null) {
+      uacWrites.incrementAndGet(uacWriteStripe(uacHash));
+      uacCache.invalidate(uacHash);
+    }
+  }
+
+  private int uacWriteStripe(String uacHash) {
+    return Math.floorMod(uacHash.hashCode(), UAC_WRITE_STRIPES);
   }
 
   /**
    * Read a UAC object from cloud.
    *
+   * <p>If the UAC cache is enabled then a cached copy is returned where one is held, otherwise the
+   * UAC is read from cloud and, if found, cached for subsequent reads. A read that overlaps a write
+   * of the UAC on this instance is not cached, as it may have read the UAC from before the write.
+   * Writes on other instances do not invalidate the cache, so a UAC written elsewhere may be read
+   * as it was for up to uac-cache.expire-after-write-seconds. If the UAC filter is enabled then a
+   * UAC that is not in the filter is taken not to exist, and is not read, unless the filter's
+   * budget allows it to be read in case it was written by another instance since the filter was
+   * built. Concurrent reads of the same UAC are coalesced into one read, which is hedged if hedged
+   * reads are enabled.
+   *
    * @param universalAccessCodeHash - the hash of the unique id of the object stored
    * @return - de-serialised version of the stored object
    * @throws CTPException - if a cloud exception was detected.
    */
   @Override
   public Optional<UAC> readUAC(final String universalAccessCodeHash) throws CTPException {
-    return retryableCloudDataStore.retrieveObject(UAC.class, uacSchema, universalAccessCodeHash);
+    if (uacCache != null) {
+      UAC cachedUac = uacCache.getIfPresent(universalAccessCodeHash);
+      if (cachedUac != null) {
+        return Optional.of(copyOf(cachedUac));
+      }
+    }
+
+    boolean filterMiss = uacHashFilter != null && !uacHashFilter.lookup(universalAccessCodeHash);
+    if (filterMiss && !uacHashFilter.checkMiss()) {
+      return Optional.empty();
+    }
+
+    return coalesce(
+        UAC_READ,
+        universalAccessCodeHash,
+        () -> {
+          int stripe = uacWriteStripe(universalAccessCodeHash);
+          long writes = uacWrites.get(stripe);
+          Optional<UAC> uac = retrieve(UAC_READ, UAC.class, uacSchema, universalAccessCodeHash);
+          if (filterMiss && uac.isPresent()) {
+            uacHashFilter.missFound(universalAccessCodeHash);
+          } else if (!filterMiss && uac.isEmpty() && uacHashFilter != null) {
+            uacHashFilter.notFound();
+          }
+          if (uacCache != null && uac.isPresent()) {
+            uacCache.put(universalAccessCodeHash, copyOf(uac.get()));
+            // a write since the read began may have been invalidated before the put
+            if (uacWrites.get(stripe) != writes) {
+              uacCache.invalidate(universalAccessCodeHash);
+            }
+          }
+          return uac;
+        },
+        UAC.class);
+  }
+
+  // keyed reads are idempotent, so may be hedged
+  private <T> Optional<T> retrieve(String type, Class<T> target, String schema, String key)
+      throws CTPException {
+    if (hedgedReader == null) {
+      return storageEngine.retrieveObject(target, schema, key);
+    }
+    return hedgedReader.read(type, () -> storageEngine.retrieveObject(target, schema, key));
+  }
+
+  private UAC copyOf(UAC uac) {
+    return COPIER.convertValue(uac, UAC.class);
+  }
+
+  // each caller of a coalesced read is given its own copy of what was read
+  private <T> Optional<T> coalesce(
+      String type, String key, ReadCoalescer.Read<Optional<T>> read, Class<T> target)
+      throws CTPException {
+    if (!readCoalescingEnabled) {
+      return read.read();
+    }
+    return readCoalescer.read(
+        type, key, read, o -> o.map(value -> COPIER.convertValue(value, target)));
   }
 
   /**
-   * Write a CollectionCase object into the cloud data store.
+   * Write a CollectionCase object into the cloud data store, and bring the UPRN index for the
+   * address of the case up to date.
    *
    * @param collectionCase - is the case to be stored in the cloud.
    * @throws CTPException - if a cloud exception was detected.
    */
   @Override
   public void writeCollectionCase(final CollectionCase collectionCase) throws CTPException {
+    storeCollectionCase(
+        collectionCase, new CaseVersion(collectionCase.getId(), null, null, null), false);
+  }
+
+  /**
+   * Write a CollectionCase object received in an event, unless it would not change the stored
+   * case.
+   *
+   * <p>The write is skipped if the case is the same as the stored case, or if the event is older
+   * than the event that the stored case came from, as happens when events are replayed. What is
+   * stored is found by reading the version record that is stored alongside each case, in the same
+   * transaction as the case is written in, so that a concurrent write of the case cannot come
+   * between the check and the write. A case from an event older than the version of the case that
+   * this instance last wrote is skipped without reading anything, as a stored version is never
+   * replaced by an older one.
+   *
+   * @param collectionCase - is the case to be stored in the cloud.
+   * @param eventDateTime - the time of the event that the case was received in.
+   * @return - true if the case was written; false if the write was skipped.
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  @Override
+  public boolean writeCollectionCaseIfChanged(
+      final CollectionCase collectionCase, final Date eventDateTime) throws CTPException {
     String id = collectionCase.getId();
-    retryableCloudDataStore.storeObject(caseSchema, id, collectionCase, id);
+    CaseVersion version = new CaseVersion(id, digestOf(collectionCase), eventDateTime, null);
+
+    CaseVersion cachedVersion = caseVersionCache == null ? null : caseVersionCache.getIfPresent(id);
+    if (cachedVersion != null && isOlder(version, cachedVersion)) {
+      skippedStale(version, cachedVersion);
+      return false;
+    }
+
+    return storeCollectionCase(collectionCase, version, true);
+  }
+
+  /**
+   * Write a batch of CollectionCase objects received in events, skipping any that would not change
+   * the stored case, as a single transaction, so that either all the cases that are not skipped
+   * are stored or none of them are.
+   *
+   * <p>Each case is checked and written as by {@link #writeCollectionCaseIfChanged}, in one
+   * transaction for the whole batch rather than one for each case. There must be no more than one
+   * update of a case in a batch, and no more than {@link #MAX_CASES_PER_BATCH} cases. A batch whose
+   * cases have so many UAC claim contexts that its writes cannot be committed together is split in
+   * two, and each half written in its own transaction, so that the cases of one half may be stored
+   * without those of the other if the second transaction fails.
+   *
+   * @param caseUpdates - the cases to be stored in the cloud, each with the time of its event.
+   * @return - the number of cases written; the rest were skipped.
+   * @throws CTPException - if a cloud exception was detected, in which case nothing was stored.
+   */
+  @Override
+  public int writeCollectionCasesIfChanged(final List<CaseUpdate> caseUpdates)
+      throws CTPException {
+    List<CollectionCase> collectionCases = new ArrayList<>();
+    List<CaseVersion> versions = new ArrayList<>();
+    for (CaseUpdate caseUpdate : caseUpdates) {
+      CollectionCase collectionCase = caseUpdate.getCollectionCase();
+      String id = collectionCase.getId();
+      CaseVersion version =
+          new CaseVersion(id, digestOf(collectionCase), caseUpdate.getEventDateTime(), null);
+      CaseVersion cachedVersion =
+          caseVersionCache == null ? null : caseVersionCache.getIfPresent(id);
+      if (cachedVersion != null && isOlder(version, cachedVersion)) {
+        skippedStale(version, cachedVersion);
+        continue;
+      }
+      collectionCases.add(collectionCase);
+      versions.add(version);
+    }
+    if (collectionCases.isEmpty()) {
+      return 0;
+    }
+    return storeChangedCollectionCases(collectionCases, versions);
+  }
+
+  private int storeChangedCollectionCases(
+      List<CollectionCase> collectionCases, List<CaseVersion> versions) throws CTPException {
+    CaseWrites caseWrites = storeCollectionCases(collectionCases, versions, true);
+    if (!caseWrites.committed) {
+      log.with("size", collectionCases.size())
+          .with("writes", caseWrites.size())
+          .warn("Case batch has too many writes to commit together, splitting it");
+      int half = collectionCases.size() / 2;
+      return storeChangedCollectionCases(
+              collectionCases.subList(0, half), versions.subList(0, half))
+          + storeChangedCollectionCases(
+              collectionCases.subList(half, collectionCases.size()),
+              versions.subList(half, versions.size()));
+    }
+    int written = 0;
+    for (CaseVersion version : versions) {
+      if (caseWrites.skipped(version)) {
+        skipped(version, caseWrites.stored.get(version.getCaseId()));
+      } else {
+        written++;
+      }
+    }
+    return written;
+  }
+
+  private void skippedStale(CaseVersion version, CaseVersion stored) {
+    log.with("caseId", version.getCaseId())
+        .with("eventDateTime", version.getEventDateTime())
+        .with("storedEventDateTime", stored.getEventDateTime())
+        .info("Skipping write of case from event older than stored case");
+    staleCaseWritesSkipped.increment();
+  }
+
+  private void skippedUnchanged(CaseVersion version) {
+    log.with("caseId", version.getCaseId()).debug("Skipping write of unchanged case");
+    unchangedCaseWritesSkipped.increment();
+  }
+
+  // returns false if the write was skipped as it would not change the stored case
+  private boolean storeCollectionCase(
+      final CollectionCase collectionCase, CaseVersion version, boolean onlyIfChanged)
+      throws CTPException {
+    if (version.getDigest() == null) {
+      version.setDigest(digestOf(collectionCase));
+    }
+    CaseWrites caseWrites =
+        storeCollectionCases(List.of(collectionCase), List.of(version), onlyIfChanged);
+    if (caseWrites.skipped(version)) {
+      skipped(version, caseWrites.stored.get(version.getCaseId()));
+      return false;
+    }
+    return true;
+  }
+
+  /*
+   * Store cases, with their versions in the same order, in one transaction. If there is more than
+   * one case, and the writes are too many to commit together, nothing is stored and the writes are
+   * returned as not committed. A single case with too many writes fails.
+   */
+  private CaseWrites storeCollectionCases(
+      List<CollectionCase> collectionCases, List<CaseVersion> versions, boolean onlyIfChanged)
+      throws CTPException {
+    Set<String> uprns = new LinkedHashSet<>();
+    CaseWrites caseWrites;
+    try {
+      caseWrites =
+          storageEngine.runTransaction(
+              context -> {
+                CaseWrites writes =
+                    caseWrites(context, collectionCases, versions, onlyIfChanged, uprns);
+                if (writes.size() > maxWritesPerCommit) {
+                  if (collectionCases.size() == 1) {
+                    throw new CTPException(
+                        Fault.SYSTEM_ERROR,
+                        "Too many writes to store case " + collectionCases.get(0).getId());
+                  }
+                  writes.committed = false;
+                  return writes;
+                }
+                store(context, writes);
+                return writes;
+              });
+      if (!caseWrites.committed) {
+        return caseWrites;
+      }
+      if (caseVersionCache != null) {
+        for (CaseVersion version : versions) {
+          String id = version.getCaseId();
+          caseVersionCache.put(id, caseWrites.stored.getOrDefault(id, version));
+        }
+      }
+    } catch (CTPException e) {
+      // we no longer know what is stored
+      if (caseVersionCache != null) {
+        versions.forEach(version -> caseVersionCache.invalidate(version.getCaseId()));
+      }
+      throw e;
+    } finally {
+      versions.forEach(version -> readCoalescer.forget(CASE_READ, version.getCaseId()));
+      uprns.forEach(this::forgetUprnReads);
+    }
+    if (uacClaimContextEnabled) {
+      forgetContextReads(caseWrites);
+    }
+    return caseWrites;
+  }
+
+  private void forgetContextReads(CaseWrites caseWrites) {
+    caseWrites.writes.stream()
+        .filter(write -> uacClaimContextSchema.equals(write.getSchema()))
+        .forEach(write -> readCoalescer.forget(CONTEXT_READ, write.getKey()));
+  }
+
+  /** The writes of cases made in a transaction, with the stored versions of any cases skipped. */
+  private static class CaseWrites {
+    private final List<StorageWrite> writes = new ArrayList<>();
+    // the UPRN index entries of the cases, which are written without reading the index
+    private final List<IndexWrite> indexWrites = new ArrayList<>();
+    // the stored version of each case that was skipped, by case ID
+    private final Map<String, CaseVersion> stored = new HashMap<>();
+    // false if the writes were too many to commit together, so nothing was stored
+    private boolean committed = true;
+
+    private boolean skipped(CaseVersion version) {
+      return stored.containsKey(version.getCaseId());
+    }
+
+    private int size() {
+      return writes.size() + indexWrites.size();
+    }
+  }
+
+  /** A case added to, or removed from, the UPRN index entry for a UPRN. */
+  private static class IndexWrite {
+    private final String uprn;
+    private final String caseId;
+    // null to remove the case from the entry
+    private final UprnCaseIndex.Entry entry;
+
+    private IndexWrite(String uprn, String caseId, UprnCaseIndex.Entry entry) {
+      this.uprn = uprn;
+      this.caseId = caseId;
+      this.entry = entry;
+    }
   }
 
   /**
-   * Read a Case object from cloud.
+   * Make the reads needed to write cases in a transaction, and return the writes: each case with
+   * its version, the UPRN index entries of the cases, and, if the UAC claim context is enabled,
+   * the contexts of the UACs linked to the cases.
+   *
+   * <p>The stored version of each case is read, and if only changed cases are to be written, a case
+   * that is unchanged or from an older event than the stored case is skipped (see {@link
+   * #writeCollectionCaseIfChanged}). A case written by RH itself has no event time, so its version
+   * keeps the event time of the stored case, which later events are still checked against.
+   *
+   * <p>The index is not read. Each case is put in the entry for its UPRN, or taken out of it if the
+   * case is HI, and taken out of the entry for the UPRN it has moved from, which is found from the
+   * stored version of the case. A case whose stored version does not record its UPRN may be left
+   * in the entry for the UPRN it has moved from, which reads of the index allow for.
+   *
+   * @param context - the transaction
+   * @param collectionCases - the cases to write
+   * @param versions - the versions of the cases, in the same order, which are given their UPRN
+   * @param onlyIfChanged - true to skip cases that would not change the stored case
+   * @param uprns - given the UPRNs whose index entries the cases may change
+   * @return - the writes to make, and the cases skipped
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  private CaseWrites caseWrites(
+      StorageTransaction.Context context,
+      List<CollectionCase> collectionCases,
+      List<CaseVersion> versions,
+      boolean onlyIfChanged,
+      Set<String> uprns)
+      throws CTPException {
+    CaseWrites caseWrites = new CaseWrites();
+    List<CollectionCase> writtenCases = new ArrayList<>();
+    for (int i = 0; i < collectionCases.size(); i++) {
+      CollectionCase collectionCase = collectionCases.get(i);
+      CaseVersion version = versions.get(i);
+      String id = collectionCase.getId();
+      Optional<CaseVersion> storedVersion =
+          context.retrieveObject(CaseVersion.class, caseVersionSchema, id);
+      if (onlyIfChanged && storedVersion.isPresent() && !isChanged(version, storedVersion.get())) {
+        caseWrites.stored.put(id, storedVersion.get());
+        continue;
+      }
+      if (version.getEventDateTime() == null) {
+        version.setEventDateTime(storedVersion.map(CaseVersion::getEventDateTime).orElse(null));
+      }
+      String storedUprn = storedVersion.map(CaseVersion::getUprn).orElse(null);
+      String uprn = uprnOf(collectionCase);
+      version.setUprn(uprn);
+      if (storedUprn != null && !storedUprn.equals(uprn)) {
+        caseWrites.indexWrites.add(new IndexWrite(storedUprn, id, null));
+        uprns.add(storedUprn);
+      }
+      if (uprn != null) {
+        caseWrites.indexWrites.add(new IndexWrite(uprn, id, indexEntryOf(collectionCase)));
+        uprns.add(uprn);
+      }
+      caseWrites.writes.add(new StorageWrite(caseSchema, id, collectionCase));
+      caseWrites.writes.add(new StorageWrite(caseVersionSchema, id, version));
+      writtenCases.add(collectionCase);
+    }
+    if (uacClaimContextEnabled) {
+      for (CollectionCase collectionCase : writtenCases) {
+        caseWrites.writes.addAll(claimContextWrites(context, collectionCase));
+      }
+    }
+    return caseWrites;
+  }
+
+  // the claim contexts of the UACs linked to a case, brought up to date with the case
+  private List<StorageWrite> claimContextWrites(
+      StorageTransaction.Context context, CollectionCase collectionCase) throws CTPException {
+    List<StorageWrite> writes = new ArrayList<>();
+    List<UACClaimContext> claimContexts =
+        context.search(
+            UACClaimContext.class,
+            uacClaimContextSchema,
+            SEARCH_BY_LINKED_CASE_PATH,
+            collectionCase.getId());
+    for (UACClaimContext claimContext : claimContexts) {
+      claimContext.setCollectionCase(collectionCase);
+      writes.add(new StorageWrite(uacClaimContextSchema, claimContext.getUacHash(), claimContext));
+    }
+    return writes;
+  }
+
+  // false if the case is unchanged, or from an older event than the stored case
+  private boolean isChanged(CaseVersion version, CaseVersion stored) {
+    return !isOlder(version, stored) && !version.getDigest().equals(stored.getDigest());
+  }
+
+  // log and count a case that was skipped, for the reason it was skipped
+  private void skipped(CaseVersion version, CaseVersion stored) {
+    if (isOlder(version, stored)) {
+      skippedStale(version, stored);
+    } else {
+      skippedUnchanged(version);
+    }
+  }
+
+  private static void store(StorageTransaction.Context context, List<StorageWrite> writes) {
+    for (StorageWrite write : writes) {
+      context.storeObject(write.getSchema(), write.getKey(), write.getValue());
+    }
+  }
+
+  private void store(StorageTransaction.Context context, CaseWrites caseWrites) {
+    store(context, caseWrites.writes);
+    for (IndexWrite write : caseWrites.indexWrites) {
+      context.storeMapEntry(
+          uprnIndexSchema, write.uprn, UprnCaseIndex.CASES, write.caseId, write.entry);
+    }
+  }
+
+  // HI cases are not indexed, so an HI case is taken out of the index
+  private UprnCaseIndex.Entry indexEntryOf(CollectionCase collectionCase) {
+    if (CaseType.HI.name().equals(collectionCase.getCaseType())) {
+      return null;
+    }
+    return new UprnCaseIndex.Entry(
+        collectionCase.getCreatedDateTime(), collectionCase.isAddressInvalid());
+  }
+
+  private String uprnOf(CollectionCase collectionCase) {
+    return collectionCase.getAddress() == null ? null : collectionCase.getAddress().getUprn();
+  }
+
+  // Cases written by RH itself have no event time, so they are never older
+  private boolean isOlder(CaseVersion version, CaseVersion stored) {
+    return version.getEventDateTime() != null
+        && stored.getEventDateTime() != null
+        && version.getEventDateTime().before(stored.getEventDateTime());
+  }
+
+  private String digestOf(CollectionCase collectionCase) throws CTPException {
+    try {
+      byte[] content = CASE_DIGEST_MAPPER.writeValueAsBytes(collectionCase);
+      return Hashing.sha256().hashBytes(content).toString();
+    } catch (JsonProcessingException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to serialise case for digest");
+    }
+  }
+
+  private void forgetUprnReads(String uprn) {
+    readCoalescer.forget(UPRN_READ, uprnReadKey(uprn, true));
+    readCoalescer.forget(UPRN_READ, uprnReadKey(uprn, false));
+  }
+
+  private String uprnReadKey(String uprn, boolean onlyValid) {
+    return uprn + (onlyValid ? ":valid" : ":any");
+  }
+
+  /**
+   * Read a Case object from cloud. Concurrent reads of the same case are coalesced into one read,
+   * which is hedged if hedged reads are enabled.
    *
    * @param caseId - the unique id of the object stored
    * @return - de-serialised version of the stored object
@@ -111,13 +887,52 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
    */
   @Override
   public Optional<CollectionCase> readCollectionCase(final String caseId) throws CTPException {
-    return retryableCloudDataStore.retrieveObject(CollectionCase.class, caseSchema, caseId);
+    return coalesce(
+        CASE_READ,
+        caseId,
+        () -> retrieve(CASE_READ, CollectionCase.class, caseSchema, caseId),
+        CollectionCase.class);
+  }
+
+  /**
+   * Read the UAC claim context for a UAC, which holds the UAC and the case it is linked to.
+   *
+   * <p>The context is maintained as UACs and cases are written, so it is missing for UACs that
+   * have not been written since the projection was enabled, in which case the caller is to read
+   * the UAC and case themselves. It is always missing if the projection is disabled. It is not
+   * read for a UAC that is not in the UAC filter, which the caller then reads as it would any
+   * UAC, or for a UAC held in the UAC cache, as reading its case is then the only read needed.
+   * Concurrent reads of the same context are coalesced into one read, which is hedged if hedged
+   * reads are enabled.
+   *
+   * @param uacHash - the hash of the UAC
+   * @return - the claim context, if there is one
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  @Override
+  public Optional<UACClaimContext> readUACClaimContext(final String uacHash) throws CTPException {
+    if (!uacClaimContextEnabled
+        || (uacHashFilter != null && !uacHashFilter.mightContain(uacHash))
+        || (uacCache != null && uacCache.getIfPresent(uacHash) != null)) {
+      return Optional.empty();
+    }
+    return coalesce(
+        CONTEXT_READ,
+        uacHash,
+        () -> retrieve(CONTEXT_READ, UACClaimContext.class, uacClaimContextSchema, uacHash),
+        UACClaimContext.class);
   }
 
   /**
    * Read case objects from cloud based on its uprn. Filter by non HI, latest case, and optionally
    * whether the case is valid.
    *
+   * <p>The IDs of the cases are read from the UPRN index with a keyed read, and the latest case is
+   * then read by its ID. If there is no index entry for the UPRN, as no case has been written for
+   * it since the index was introduced, the cases are searched for by uprn. Concurrent reads of the
+   * same UPRN are coalesced into one read, so a read may be answered by a read that began before
+   * it; use {@link #readNonHILatestCollectionCaseByUprnFromStorage} where that matters.
+   *
    * @param uprn - is the uprn that the target case(s) must contain.
    * @param onlyValid - true if only valid cases to be returned; false if we don't care
    * @return - Optional containing 1 de-serialised version of the stored object. If no matching
@@ -127,9 +942,57 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
   @Override
   public Optional<CollectionCase> readNonHILatestCollectionCaseByUprn(
       final String uprn, boolean onlyValid) throws CTPException {
-    List<CollectionCase> searchResults =
-        retryableCloudDataStore.search(CollectionCase.class, caseSchema, SEARCH_BY_UPRN_PATH, uprn);
-    return filterLatestValidNonHiCollectionCaseSearchResults(searchResults, onlyValid);
+    return coalesce(
+        UPRN_READ,
+        uprnReadKey(uprn, onlyValid),
+        () -> readNonHILatestCollectionCaseByUprnFromStorage(uprn, onlyValid),
+        CollectionCase.class);
+  }
+
+  /**
+   * Read case objects from cloud based on its uprn, as {@link
+   * #readNonHILatestCollectionCaseByUprn} does, but always with a read of storage that begins
+   * after this call, rather than joining a read of the same UPRN already in flight. This is for
+   * reads that must see every case stored before they were made, such as the read made under the
+   * UPRN lock before creating a case.
+   *
+   * @param uprn - is the uprn that the target case(s) must contain.
+   * @param onlyValid - true if only valid cases to be returned; false if we don't care
+   * @return - Optional containing 1 de-serialised version of the stored object. If no matching
+   *     cases are found then an empty Optional is returned.
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  @Override
+  public Optional<CollectionCase> readNonHILatestCollectionCaseByUprnFromStorage(
+      final String uprn, boolean onlyValid) throws CTPException {
+    Optional<UprnCaseIndex> index =
+        storageEngine.retrieveObject(UprnCaseIndex.class, uprnIndexSchema, uprn);
+    if (index.isEmpty()) {
+      return filterLatestValidNonHiCollectionCaseSearchResults(
+          storageEngine.search(CollectionCase.class, caseSchema, SEARCH_BY_UPRN_PATH, uprn),
+          onlyValid);
+    }
+    List<Map.Entry<String, UprnCaseIndex.Entry>> entries =
+        new ArrayList<>(index.get().getCases().entrySet());
+    entries.removeIf(entry -> onlyValid && entry.getValue().isAddressInvalid());
+    // latest first
+    entries.sort(
+        (a, b) -> b.getValue().getCreatedDateTime().compareTo(a.getValue().getCreatedDateTime()));
+    for (Map.Entry<String, UprnCaseIndex.Entry> entry : entries) {
+      Optional<CollectionCase> collectionCase =
+          storageEngine.retrieveObject(CollectionCase.class, caseSchema, entry.getKey());
+      if (collectionCase.isPresent() && isIndexedAs(collectionCase.get(), uprn, onlyValid)) {
+        return collectionCase;
+      }
+    }
+    return Optional.empty();
+  }
+
+  // a case may be left in the entry for a UPRN it has moved from, so is checked against the entry
+  private boolean isIndexedAs(CollectionCase collectionCase, String uprn, boolean onlyValid) {
+    return uprn.equals(uprnOf(collectionCase))
+        && !CaseType.HI.name().equals(collectionCase.getCaseType())
+        && !(onlyValid && collectionCase.isAddressInvalid());
   }
 
   /**
@@ -147,6 +1010,58 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
         .max(Comparator.comparing(CollectionCase::getCreatedDateTime));
   }
 
+  /**
+   * Take the lease on a UPRN, held while a case is created for the address, by storing the lease
+   * document for the UPRN if there is none.
+   *
+   * <p>A lease that has expired, as its holder did not release it, is replaced. The lease is read
+   * and written in one transaction, so that of two requests that find the same expired lease at
+   * once only one takes it.
+   *
+   * @param uprn - the UPRN to lease
+   * @param holder - identifies the request taking the lease
+   * @param durationMillis - how long until the lease expires if it is not released
+   * @return - true if the lease was taken; false if it is held by another request
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  @Override
+  public boolean acquireUprnLease(String uprn, String holder, long durationMillis)
+      throws CTPException {
+    return storageEngine.runTransaction(
+        context -> {
+          long now = System.currentTimeMillis();
+          Optional<UprnLease> heldLease =
+              context.retrieveObject(UprnLease.class, uprnLeaseSchema, uprn);
+          if (heldLease.isPresent()) {
+            if (heldLease.get().getExpiresAt() > now) {
+              return false;
+            }
+            log.with("uprn", uprn)
+                .with("holder", heldLease.get().getHolder())
+                .info("Replacing expired UPRN lease");
+          }
+          UprnLease lease = new UprnLease(uprn, holder, now + durationMillis);
+          context.storeObject(uprnLeaseSchema, uprn, lease);
+          return true;
+        });
+  }
+
+  /**
+   * Release the lease on a UPRN, if it is still held by the request.
+   *
+   * @param uprn - the leased UPRN
+   * @param holder - identifies the request that took the lease
+   * @throws CTPException - if a cloud exception was detected.
+   */
+  @Override
+  public void releaseUprnLease(String uprn, String holder) throws CTPException {
+    Optional<UprnLease> heldLease =
+        storageEngine.retrieveObject(UprnLease.class, uprnLeaseSchema, uprn);
+    if (heldLease.isPresent() && holder.equals(heldLease.get().getHolder())) {
+      storageEngine.deleteObject(uprnLeaseSchema, uprn);
+    }
+  }
+
   private void runCloudStartupCheck() throws Throwable {
     // Find out if we are doing a cloud storage check on startup.
     // Default is to always to do the check unless disabled by an environment variable
@@ -193,7 +1108,7 @@ public class RespondentDataRepositoryImpl implements RespondentDataRepository {
     // (which will result in GCP restarting the service)
     String schemaName = gcpProject + "-" + "datastore-startup-check";
     String primaryKey = timestamp + "-" + hostname;
-    nonRetryableCloudDataStore.storeObject(schemaName, primaryKey, startupAuditData);
+    storageEngine.storeStartupCheckObject(schemaName, primaryKey, startupAuditData);
 
     return primaryKey;
   }
@@ -0,0 +1,349 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.integration.rhsvc.config.UacFilterConfig;
+
+/**
+ * Bloom filter of the hashes of the stored UACs, so that reads of UACs that do not exist, from
+ * mistyped codes or from guessing, can be answered without reading storage.
+ *
+ * <p>A hash the filter does not contain is not stored, as far as this instance knows. A hash it
+ * does contain is probably stored, and must be read to find out. The UACs written by this instance
+ * are added as they are written, and the filter is rebuilt from a scan of all the stored UACs every
+ * interval, which brings in the UACs written by other instances. Until the first scan has
+ * completed the filter is not used, and every hash is read from storage.
+ *
+ * <p>A UAC written by another instance since the last scan is not in the filter, so a hash the
+ * filter does not contain is still read from storage while the budget for such reads allows, and
+ * added to the filter if it is found. The budget is a number of reads a second, with a burst that
+ * may be saved while there are few unknown UACs. Beyond it, the filter is trusted.
+ *
+ * <p>Each scan lists every stored UAC, which Firestore charges as a read of each UAC, and which
+ * takes time in proportion to the number of UACs. Every instance makes its own scans, so the
+ * interval trades the cost of the scans against how soon the UACs written by other instances are
+ * known without using the budget.
+ *
+ * <p>The filter grows as UACs are added, by adding a larger Bloom filter each time the last one is
+ * full, with a lower false positive probability so that the probability overall stays bounded.
+ *
+ * <p>The observed false positive rate is published, as the proportion of unknown UACs that were
+ * read from storage, with the rate expected of the filter for comparison.
+ */
+public class UacHashFilter {
+  private static final Logger log = LoggerFactory.getLogger(UacHashFilter.class);
+
+  /** Source of the hashes of all the stored UACs. */
+  @FunctionalInterface
+  public interface UacHashSource {
+    void forEachUacHash(Consumer<String> consumer) throws CTPException;
+  }
+
+  private final int expectedInsertions;
+  private final double falsePositiveProbability;
+  private final UacHashSource source;
+  private final ScheduledExecutorService scheduler;
+
+  // null until the first scan has completed
+  private volatile ScalableBloomFilter filter;
+  // the filter being built by a scan, which is also given the UACs written during the scan
+  private volatile ScalableBloomFilter building;
+
+  private final Counter absent;
+  private final Counter present;
+  private final Counter falsePositives;
+  private final Counter missesChecked;
+  private final Counter missesFound;
+
+  // reads of hashes the filter does not contain that may be made, refilled as time passes
+  private final double missChecksPerSecond;
+  private final double missCheckBurst;
+  private double missCheckBudget;
+  private long missCheckBudgetNanos = System.nanoTime();
+
+  /**
+   * Constructor for UacHashFilter, which starts the scans that build the filter.
+   *
+   * @param filterConfig configuration of the filter
+   * @param source source of the hashes of all the stored UACs
+   * @param meterRegistry registry for the metrics of the filter
+   */
+  public UacHashFilter(
+      UacFilterConfig filterConfig, UacHashSource source, MeterRegistry meterRegistry) {
+    this.expectedInsertions = filterConfig.getExpectedInsertions();
+    this.falsePositiveProbability = filterConfig.getFalsePositiveProbability();
+    this.source = source;
+    this.missChecksPerSecond = filterConfig.getMissChecksPerSecond();
+    this.missCheckBurst = filterConfig.getMissCheckBurst();
+    this.missCheckBudget = missCheckBurst;
+
+    absent = lookupCounter(meterRegistry, "absent");
+    present = lookupCounter(meterRegistry, "present");
+    falsePositives =
+        Counter.builder("rhsvc.uac.filter.false.positives")
+            .description("UACs the filter contained that were not found in storage")
+            .register(meterRegistry);
+    missesChecked =
+        Counter.builder("rhsvc.uac.filter.misses.checked")
+            .description("UACs the filter did not contain that were read from storage anyway")
+            .register(meterRegistry);
+    missesFound =
+        Counter.builder("rhsvc.uac.filter.misses.found")
+            .description("UACs the filter did not contain that were found in storage")
+            .register(meterRegistry);
+    Gauge.builder("rhsvc.uac.filter.false.positive.rate", this, UacHashFilter::falsePositiveRate)
+        .description("Proportion of unknown UACs that were read from storage")
+        .register(meterRegistry);
+    Gauge.builder(
+            "rhsvc.uac.filter.expected.false.positive.rate", this, UacHashFilter::expectedFpp)
+        .description("False positive probability of the filter as it is now filled")
+        .register(meterRegistry);
+    Gauge.builder("rhsvc.uac.filter.size", this, UacHashFilter::size)
+        .description("Approximate number of UACs in the filter")
+        .register(meterRegistry);
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "uac-filter");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::rebuildSafely, 0, filterConfig.getRebuildIntervalSeconds(), TimeUnit.SECONDS);
+  }
+
+  private Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("rhsvc.uac.filter.lookups")
+        .description("UACs looked up in the filter before reading storage")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Whether the first scan has completed, so that the filter is used.
+   *
+   * @return true if the filter has been built
+   */
+  public boolean isBuilt() {
+    return filter != null;
+  }
+
+  /**
+   * Whether a UAC may be stored, without recording the lookup.
+   *
+   * @param uacHash the hash of the UAC
+   * @return false if the UAC is definitely not stored; true if it may be, or the filter is not yet
+   *     built
+   */
+  public boolean mightContain(String uacHash) {
+    ScalableBloomFilter current = filter;
+    return current == null || current.mightContain(uacHash);
+  }
+
+  /**
+   * Whether a UAC may be stored, recording the lookup in the metrics of the filter. If the UAC is
+   * then not found in storage, call {@link #notFound()}. If the filter does not contain the UAC,
+   * call {@link #checkMiss()} to find whether to read it anyway.
+   *
+   * @param uacHash the hash of the UAC
+   * @return false if the UAC is definitely not stored; true if it may be, or the filter is not yet
+   *     built
+   */
+  public boolean lookup(String uacHash) {
+    ScalableBloomFilter current = filter;
+    if (current == null) {
+      return true;
+    }
+    if (current.mightContain(uacHash)) {
+      present.increment();
+      return true;
+    }
+    absent.increment();
+    return false;
+  }
+
+  /**
+   * Whether a UAC the filter does not contain is to be read from storage anyway, in case it was
+   * written by another instance since the filter was last built, which it is while the budget for
+   * such reads allows. If the UAC is then found in storage, call {@link #missFound(String)}.
+   *
+   * @return true if the UAC is to be read; false if the filter is to be trusted
+   */
+  public boolean checkMiss() {
+    if (!spendMissCheck()) {
+      return false;
+    }
+    missesChecked.increment();
+    return true;
+  }
+
+  private synchronized boolean spendMissCheck() {
+    long now = System.nanoTime();
+    double earned = (now - missCheckBudgetNanos) / 1e9 * missChecksPerSecond;
+    missCheckBudget = Math.min(missCheckBurst, missCheckBudget + earned);
+    missCheckBudgetNanos = now;
+    if (missCheckBudget < 1) {
+      return false;
+    }
+    missCheckBudget--;
+    return true;
+  }
+
+  /**
+   * Record that a UAC the filter did not contain was found in storage, and add it to the filter.
+   *
+   * @param uacHash the hash of the UAC
+   */
+  public void missFound(String uacHash) {
+    missesFound.increment();
+    put(uacHash);
+  }
+
+  /** Record that a UAC the filter contained was not found in storage. */
+  public void notFound() {
+    if (filter != null) {
+      falsePositives.increment();
+    }
+  }
+
+  /**
+   * Add the hash of a UAC that is being stored. Add it again once it has been stored, in case a
+   * scan started in between that missed it.
+   *
+   * @param uacHash the hash of the UAC
+   */
+  public void put(String uacHash) {
+    // the filter being built is read first, as it replaces the filter before it is cleared
+    ScalableBloomFilter next = building;
+    if (next != null) {
+      next.put(uacHash);
+    }
+    ScalableBloomFilter current = filter;
+    if (current != null && current != next) {
+      current.put(uacHash);
+    }
+  }
+
+  /**
+   * Rebuild the filter from a scan of the stored UACs, replacing the filter once the scan has
+   * completed. This is done every interval by the filter itself.
+   *
+   * @throws CTPException if the stored UACs could not be scanned
+   */
+  public synchronized void rebuild() throws CTPException {
+    long start = System.currentTimeMillis();
+    ScalableBloomFilter next = new ScalableBloomFilter();
+    building = next;
+    try {
+      source.forEachUacHash(next::put);
+      filter = next;
+    } finally {
+      building = null;
+    }
+    log.with("uacs", next.size())
+        .with("expectedFpp", next.expectedFpp())
+        .with("elapsedMillis", System.currentTimeMillis() - start)
+        .info("Rebuilt UAC filter");
+  }
+
+  // a failed scan leaves the last filter in place, to be rebuilt next interval
+  private void rebuildSafely() {
+    try {
+      rebuild();
+    } catch (Exception e) {
+      log.warn(e, "Failed to rebuild UAC filter");
+    }
+  }
+
+  private double falsePositiveRate() {
+    double unknown = falsePositives.count() + absent.count();
+    return unknown == 0 ? 0 : falsePositives.count() / unknown;
+  }
+
+  private double expectedFpp() {
+    ScalableBloomFilter current = filter;
+    return current == null ? 0 : current.expectedFpp();
+  }
+
+  private long size() {
+    ScalableBloomFilter current = filter;
+    return current == null ? 0 : current.size();
+  }
+
+  /** Stop rebuilding the filter. */
+  public void destroy() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * A series of Bloom filters, each twice the capacity of the last and with half its false positive
+   * probability, so that the overall probability is at most twice that of the first.
+   */
+  private class ScalableBloomFilter {
+    private final List<BloomFilter<CharSequence>> stages = new CopyOnWriteArrayList<>();
+    private volatile long capacity = expectedInsertions;
+    private double stageFpp = falsePositiveProbability;
+
+    ScalableBloomFilter() {
+      addStage();
+    }
+
+    private void addStage() {
+      stages.add(
+          BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, stageFpp));
+    }
+
+    boolean mightContain(String uacHash) {
+      for (BloomFilter<CharSequence> stage : stages) {
+        if (stage.mightContain(uacHash)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void put(String uacHash) {
+      BloomFilter<CharSequence> last = stages.get(stages.size() - 1);
+      if (last.approximateElementCount() >= capacity) {
+        last = grow(last);
+      }
+      last.put(uacHash);
+    }
+
+    private synchronized BloomFilter<CharSequence> grow(BloomFilter<CharSequence> full) {
+      if (stages.get(stages.size() - 1) == full) {
+        capacity *= 2;
+        stageFpp /= 2;
+        addStage();
+      }
+      return stages.get(stages.size() - 1);
+    }
+
+    double expectedFpp() {
+      // the chance that a hash is in none of the stages is the product of each missing it
+      double none = 1;
+      for (BloomFilter<CharSequence> stage : stages) {
+        none *= 1 - stage.expectedFpp();
+      }
+      return 1 - none;
+    }
+
+    long size() {
+      return stages.stream().mapToLong(BloomFilter::approximateElementCount).sum();
+    }
+  }
+}
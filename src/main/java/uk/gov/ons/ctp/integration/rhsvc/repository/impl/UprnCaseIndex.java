@@ -0,0 +1,33 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Index entry holding the IDs of the non HI cases for a UPRN, so that the latest case for an
+ * address can be found with keyed reads rather than a search. Each case is held with only what is
+ * needed to choose the latest case, and the case itself is read by its ID.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class UprnCaseIndex {
+  // name of the field holding the cases, which are written to it one entry at a time
+  static final String CASES = "cases";
+
+  // the indexed cases, by case ID
+  private Map<String, Entry> cases = new HashMap<>();
+
+  /** A case in the index. */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  static class Entry {
+    private Date createdDateTime;
+    private boolean addressInvalid;
+  }
+}
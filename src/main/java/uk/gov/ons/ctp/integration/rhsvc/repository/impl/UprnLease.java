@@ -0,0 +1,20 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Lease on a UPRN, held while a request creates a case for the address, so that requests on other
+ * instances wait rather than create a case of their own.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+class UprnLease {
+  private String uprn;
+  // identifies the request holding the lease
+  private String holder;
+  // epoch millis after which the lease is no longer held, if it has not been released
+  private long expiresAt;
+}
@@ -4,6 +4,7 @@ import static java.util.stream.Collectors.toList;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,6 +12,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import ma.glasnost.orika.MapperFacade;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +64,27 @@ public class CaseServiceImpl implements CaseService {
   @Autowired private EventPublisher eventPublisher;
   @Autowired private ProductReference productReference;
   @Autowired private RateLimiterClient rateLimiterClient;
+  @Autowired private LocalRateLimiter localRateLimiter;
+  @Autowired private UprnLock uprnLock;
+
+  // Products by search criteria. The product catalogue does not change while the service runs, so
+  // the product found for a fulfilment code is kept rather than searched for on each request.
+  private final Map<Product, Product> productsByCriteria = new ConcurrentHashMap<>();
+
+  // calls to the rate limiter for the products of a fulfilment request
+  private ExecutorService rateLimiterExecutor;
+
+  /** Create the rate limiter executor */
+  @PostConstruct
+  void init() {
+    rateLimiterExecutor =
+        ServiceUtil.newExecutor(appConfig.getRateLimiter().getExecutor(), "rate-limiter-");
+  }
+
+  @PreDestroy
+  void shutdown() {
+    rateLimiterExecutor.shutdown();
+  }
 
   @Override
   public CaseDTO getLatestValidNonHICaseByUPRN(final UniquePropertyReferenceNumber uprn)
@@ -80,30 +107,39 @@ public class CaseServiceImpl implements CaseService {
   public CaseDTO createNewCase(CaseRequestDTO request) throws CTPException {
 
     Optional<CaseDTO> existingCase = getLatestNonHICaseByUPRN(request.getUprn());
-
-    CaseDTO caseToReturn;
     if (existingCase.isPresent()) {
       // Don't need to create a new case, as we found one with the same UPRN
-      caseToReturn = existingCase.get();
-    } else {
-      // Create a new case as not found for the UPRN in Firestore
-      CaseType caseType = ServiceUtil.determineCaseType(request);
-      CollectionCase newCase =
-          ServiceUtil.createCase(request, caseType, appConfig.getCollectionExerciseId());
-      log.with("caseId", newCase.getId())
-          .with("primaryCaseType", caseType)
-          .debug("Created new case");
+      return existingCase.get();
+    }
+
+    // Read again while the UPRN is locked, as a concurrent request may have created the case.
+    // The read is not joined to one in flight, which may have begun before the case was stored
+    String uprn = Long.toString(request.getUprn().getValue());
+    return uprnLock.callWithLock(
+        uprn,
+        () -> {
+          Optional<CollectionCase> concurrentCase =
+              dataRepo.readNonHILatestCollectionCaseByUprnFromStorage(uprn, false);
+          return concurrentCase.isPresent()
+              ? mapperFacade.map(concurrentCase.get(), CaseDTO.class)
+              : createCase(request);
+        });
+  }
 
-      // Store new case in Firestore
-      dataRepo.writeCollectionCase(newCase);
+  // Create a new case as not found for the UPRN in Firestore
+  private CaseDTO createCase(CaseRequestDTO request) throws CTPException {
+    CaseType caseType = ServiceUtil.determineCaseType(request);
+    CollectionCase newCase =
+        ServiceUtil.createCase(request, caseType, appConfig.getCollectionExerciseId());
+    log.with("caseId", newCase.getId()).with("primaryCaseType", caseType).debug("Created new case");
 
-      // tell RM we have created a case for the selected (HH|CE|SPG) address
-      ServiceUtil.sendNewAddressEvent(eventPublisher, newCase);
+    // Store new case in Firestore
+    dataRepo.writeCollectionCase(newCase);
 
-      caseToReturn = mapperFacade.map(newCase, CaseDTO.class);
-    }
+    // tell RM we have created a case for the selected (HH|CE|SPG) address
+    ServiceUtil.sendNewAddressEvent(eventPublisher, newCase);
 
-    return caseToReturn;
+    return mapperFacade.map(newCase, CaseDTO.class);
   }
 
   @Override
@@ -244,29 +280,51 @@ public class CaseServiceImpl implements CaseService {
     }
   }
 
+  /*
+   * Call the rate limiter for each product. The local limits are checked first, to reject clearly
+   * excessive requests without calling the service. The RateLimiterClient invokes the EnvoyLimiter
+   * within a circuit-breaker, thus protecting the RHSvc in the unlikely event that the rate limiter
+   * service is failing.
+   *
+   * When there are several products the service is called for them concurrently. The first
+   * failure is thrown as soon as it happens, without waiting for the other products, whose calls
+   * are cancelled if they have not yet been made.
+   *
+   * If the limit is breached a ResponseStatusException with HTTP 429 will be thrown.
+   * If Rate limiter validation fails then a CTPException is thrown.
+   */
   private void recordRateLimiting(
       Contact contact, String ipAddress, List<Product> products, CollectionCase caseDetails)
       throws CTPException {
     if (appConfig.getRateLimiter().isEnabled()) {
+      CaseType caseType = CaseType.valueOf(caseDetails.getCaseType());
+      UniquePropertyReferenceNumber uprn =
+          UniquePropertyReferenceNumber.create(caseDetails.getAddress().getUprn());
       for (Product product : products) {
-        log.with("fulfilmentCode", product.getFulfilmentCode()).debug("Recording rate-limiting");
-        CaseType caseType = CaseType.valueOf(caseDetails.getCaseType());
-        UniquePropertyReferenceNumber uprn =
-            UniquePropertyReferenceNumber.create(caseDetails.getAddress().getUprn());
-        recordRateLimiting(contact, product, caseType, ipAddress, uprn);
+        localRateLimiter.checkFulfilmentRateLimit(
+            product, caseType, ipAddress, uprn, contact.getTelNo());
+      }
+
+      if (products.size() == 1) {
+        recordRateLimiting(contact, products.get(0), caseType, ipAddress, uprn);
+      } else {
+        List<CompletableFuture<?>> checks = new ArrayList<>();
+        for (Product product : products) {
+          checks.add(
+              ServiceUtil.runAsync(
+                  () -> {
+                    recordRateLimiting(contact, product, caseType, ipAddress, uprn);
+                    return null;
+                  },
+                  rateLimiterExecutor));
+        }
+        ServiceUtil.awaitAll(checks);
       }
     } else {
       log.info("Rate limiter client is disabled");
     }
   }
 
-  /*
-   * Call the rate limiter. The RateLimiterClient invokes the EnvoyLimiter within a circuit-breaker,
-   * thus protecting the RHSvc in the unlikely event that the rate limiter service is failing.
-   *
-   * If the limit is breached a ResponseStatusException with HTTP 429 will be thrown.
-   * If Rate limiter validation fails then a CTPException is thrown.
-   */
   private void recordRateLimiting(
       Contact contact,
       Product product,
@@ -274,7 +332,7 @@ public class CaseServiceImpl implements CaseService {
       String ipAddress,
       UniquePropertyReferenceNumber uprn)
       throws CTPException {
-
+    log.with("fulfilmentCode", product.getFulfilmentCode()).debug("Recording rate-limiting");
     rateLimiterClient.checkFulfilmentRateLimit(
         Domain.RH, product, caseType, ipAddress, uprn, contact.getTelNo());
   }
@@ -334,14 +392,23 @@ public class CaseServiceImpl implements CaseService {
     searchCriteria.setDeliveryChannel(deliveryChannel);
     searchCriteria.setFulfilmentCode(fulfilmentCode);
 
+    Product product = productsByCriteria.get(searchCriteria);
+    if (product != null) {
+      return product;
+    }
+
     // Attempt to find matching product
-    return productReference.searchProducts(searchCriteria).stream()
-        .findFirst()
-        .orElseThrow(
-            () -> {
-              log.with("searchCriteria", searchCriteria).warn("Compatible product cannot be found");
-              return new CTPException(Fault.BAD_REQUEST, "Compatible product cannot be found");
-            });
+    product =
+        productReference.searchProducts(searchCriteria).stream()
+            .findFirst()
+            .orElseThrow(
+                () -> {
+                  log.with("searchCriteria", searchCriteria)
+                      .warn("Compatible product cannot be found");
+                  return new CTPException(Fault.BAD_REQUEST, "Compatible product cannot be found");
+                });
+    productsByCriteria.putIfAbsent(searchCriteria, product);
+    return product;
   }
 
   // Read case from firestore
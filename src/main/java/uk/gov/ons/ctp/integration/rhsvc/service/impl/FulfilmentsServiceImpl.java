@@ -2,6 +2,8 @@ package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import ma.glasnost.orika.MapperFacade;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -22,6 +24,11 @@ public class FulfilmentsServiceImpl implements FulfilmentsService {
 
   @Autowired MapperFacade mapperFacade;
 
+  // Fulfilments by search example. The product catalogue does not change while the service runs,
+  // so the result of a search is mapped once and kept. Empty results are not kept, so the index is
+  // bounded by the catalogue whatever is asked for.
+  private final Map<Product, List<ProductDTO>> fulfilmentsByExample = new ConcurrentHashMap<>();
+
   @Override
   public List<ProductDTO> getFulfilments(
       List<CaseType> caseTypes,
@@ -33,13 +40,20 @@ public class FulfilmentsServiceImpl implements FulfilmentsService {
 
     Product example = new Product();
     example.setRequestChannels(Arrays.asList(RequestChannel.RH));
-    example.setCaseTypes(caseTypes);
+    example.setCaseTypes(caseTypes == null ? null : List.copyOf(caseTypes));
     example.setRegions(region == null ? null : Arrays.asList(region));
     example.setDeliveryChannel(deliveryChannel);
     example.setIndividual(individual);
     example.setProductGroup(productGroup);
 
-    List<Product> products = productReference.searchProducts(example);
-    return mapperFacade.mapAsList(products, ProductDTO.class);
+    List<ProductDTO> fulfilments = fulfilmentsByExample.get(example);
+    if (fulfilments == null) {
+      List<Product> products = productReference.searchProducts(example);
+      fulfilments = List.copyOf(mapperFacade.mapAsList(products, ProductDTO.class));
+      if (!fulfilments.isEmpty()) {
+        fulfilmentsByExample.putIfAbsent(example, fulfilments);
+      }
+    }
+    return fulfilments;
   }
 }
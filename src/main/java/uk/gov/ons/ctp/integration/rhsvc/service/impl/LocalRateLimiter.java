@@ -0,0 +1,198 @@
+package uk.gov.ons.ctp.integration.rhsvc.service.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.ons.ctp.common.domain.CaseType;
+import uk.gov.ons.ctp.common.domain.UniquePropertyReferenceNumber;
+import uk.gov.ons.ctp.integration.common.product.model.Product;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig.LocalLimit;
+import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig.LocalLimitsConfig;
+
+/**
+ * In process rate limiting, checked before the rate limiter service is called, so that requests
+ * which are clearly over the limit are rejected without a call to the service.
+ *
+ * <p>The local limits are configured to be looser than those of the service, and are kept for keys
+ * at least as specific as the service's, so a request is only rejected here if the service would
+ * reject it too. A rejected request gets the same ResponseStatusException with HTTP 429 that the
+ * RateLimiterClient throws.
+ *
+ * <p>Each key has a token bucket, held as the single time at which the bucket will be full again
+ * (the generic cell rate algorithm), which is updated with a compare and set. Requests for
+ * different keys therefore never wait for one another.
+ */
+@Component
+public class LocalRateLimiter {
+  private static final Logger log = LoggerFactory.getLogger(LocalRateLimiter.class);
+
+  private final LimitTable fulfilmentIpAddress;
+  private final LimitTable fulfilmentUprn;
+  private final LimitTable fulfilmentTelNo;
+  private final LimitTable webformIpAddress;
+  private final LimitTable eqLaunchIpAddress;
+  private final MeterRegistry meterRegistry;
+  private final LongSupplier clock;
+
+  @Autowired
+  public LocalRateLimiter(AppConfig appConfig, MeterRegistry meterRegistry) {
+    this(appConfig, meterRegistry, System::nanoTime);
+  }
+
+  LocalRateLimiter(AppConfig appConfig, MeterRegistry meterRegistry, LongSupplier clock) {
+    this.meterRegistry = meterRegistry;
+    LocalLimitsConfig config = appConfig.getRateLimiter().getLocal();
+    boolean enabled = config != null && config.isEnabled();
+    int maxKeys = enabled ? config.getMaxKeys() : 0;
+    this.fulfilmentIpAddress =
+        table(enabled ? config.getFulfilmentIpAddress() : null, "fulfilmentIpAddress", maxKeys);
+    this.fulfilmentUprn =
+        table(enabled ? config.getFulfilmentUprn() : null, "fulfilmentUprn", maxKeys);
+    this.fulfilmentTelNo =
+        table(enabled ? config.getFulfilmentTelNo() : null, "fulfilmentTelNo", maxKeys);
+    this.webformIpAddress =
+        table(enabled ? config.getWebformIpAddress() : null, "webformIpAddress", maxKeys);
+    this.eqLaunchIpAddress =
+        table(enabled ? config.getEqLaunchIpAddress() : null, "eqLaunchIpAddress", maxKeys);
+    this.clock = clock;
+    log.with("localLimits", config).info("Local rate limits");
+  }
+
+  private LimitTable table(LocalLimit limit, String name, int maxKeys) {
+    if (limit == null) {
+      return null;
+    }
+    Counter rejected =
+        Counter.builder("rhsvc.ratelimit.local.rejected")
+            .description("Requests rejected by the local rate limits")
+            .tag("limit", name)
+            .register(meterRegistry);
+    return new LimitTable(name, limit, maxKeys, rejected);
+  }
+
+  /**
+   * Check the local limits for a fulfilment of a product, with the same arguments as the
+   * RateLimiterClient.
+   *
+   * @param product the product requested
+   * @param caseType the type of the case
+   * @param ipAddress the address of the client, if known
+   * @param uprn the UPRN of the case
+   * @param telNo the telephone number for an SMS fulfilment, or null
+   */
+  public void checkFulfilmentRateLimit(
+      Product product,
+      CaseType caseType,
+      String ipAddress,
+      UniquePropertyReferenceNumber uprn,
+      String telNo) {
+    String fulfilment =
+        product.getProductGroup()
+            + ":"
+            + product.getDeliveryChannel()
+            + ":"
+            + caseType
+            + ":"
+            + product.getIndividual()
+            + ":";
+    check(fulfilmentIpAddress, ipAddress == null ? null : fulfilment + ipAddress);
+    check(fulfilmentUprn, uprn == null ? null : fulfilment + uprn.getValue());
+    check(fulfilmentTelNo, telNo == null ? null : fulfilment + telNo);
+  }
+
+  /**
+   * Check the local limit for sending a webform.
+   *
+   * @param ipAddress the address of the client, if known
+   */
+  public void checkWebformRateLimit(String ipAddress) {
+    check(webformIpAddress, ipAddress);
+  }
+
+  /**
+   * Check the local limit for launching EQ.
+   *
+   * @param ipAddress the address of the client, if known
+   */
+  public void checkEqLaunchLimit(String ipAddress) {
+    check(eqLaunchIpAddress, ipAddress);
+  }
+
+  private void check(LimitTable table, String key) {
+    if (table == null || key == null) {
+      return;
+    }
+    if (!table.tryAcquire(key, clock.getAsLong())) {
+      table.rejected.increment();
+      log.with("limit", table.name).debug("Request rejected by local rate limit");
+      throw new ResponseStatusException(
+          HttpStatus.TOO_MANY_REQUESTS, "Too many requests for " + table.name);
+    }
+  }
+
+  private static final class LimitTable {
+    private final String name;
+    private final long intervalNanos;
+    private final long periodNanos;
+    private final int maxKeys;
+    // the time at which the bucket of each key will be full again
+    private final Map<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final Counter rejected;
+
+    LimitTable(String name, LocalLimit limit, int maxKeys, Counter rejected) {
+      this.name = name;
+      this.rejected = rejected;
+      this.periodNanos = TimeUnit.SECONDS.toNanos(limit.getPeriodSeconds());
+      this.intervalNanos = periodNanos / Math.max(limit.getLimit(), 1);
+      this.maxKeys = maxKeys;
+    }
+
+    boolean tryAcquire(String key, long now) {
+      AtomicLong bucket = fullAt.get(key);
+      if (bucket == null) {
+        sweepIfFull(now);
+        bucket = fullAt.computeIfAbsent(key, k -> new AtomicLong(now));
+      }
+      while (true) {
+        long current = bucket.get();
+        long next = Math.max(current, now) + intervalNanos;
+        if (next - now > periodNanos) {
+          return false;
+        }
+        if (bucket.compareAndSet(current, next)) {
+          return true;
+        }
+      }
+    }
+
+    // a full bucket is the same as no bucket, so those are forgotten first. If there are still too
+    // many keys all are forgotten, which can only let more requests through to the service.
+    private void sweepIfFull(long now) {
+      if (fullAt.size() < maxKeys || !sweeping.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        fullAt.values().removeIf(bucket -> bucket.get() - now <= 0);
+        if (fullAt.size() >= maxKeys) {
+          log.with("limit", name).with("keys", fullAt.size()).warn("Forgetting local rate limits");
+          fullAt.clear();
+        }
+      } finally {
+        sweeping.set(false);
+      }
+    }
+  }
+}
@@ -2,13 +2,23 @@ package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import lombok.experimental.UtilityClass;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import uk.gov.ons.ctp.common.domain.AddressLevel;
 import uk.gov.ons.ctp.common.domain.AddressType;
 import uk.gov.ons.ctp.common.domain.CaseType;
 import uk.gov.ons.ctp.common.domain.EstabType;
+import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.EventPublisher;
 import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
@@ -18,6 +28,8 @@ import uk.gov.ons.ctp.common.event.model.CollectionCase;
 import uk.gov.ons.ctp.common.event.model.CollectionCaseNewAddress;
 import uk.gov.ons.ctp.common.event.model.NewAddress;
 import uk.gov.ons.ctp.common.time.DateTimeUtil;
+import uk.gov.ons.ctp.integration.rhsvc.config.ExecutorConfig;
+import uk.gov.ons.ctp.integration.rhsvc.metrics.StageTrace;
 import uk.gov.ons.ctp.integration.rhsvc.representation.CaseRequestDTO;
 
 /**
@@ -99,4 +111,85 @@ public class ServiceUtil {
         .with("transactionId", transactionId)
         .debug("NewAddressReported event published");
   }
+
+  /**
+   * Create an executor for the steps of service requests. It is bounded, and once its queue is full
+   * the request thread runs the step itself.
+   */
+  static ExecutorService newExecutor(ExecutorConfig executorConfig, String threadNamePrefix) {
+    return new ThreadPoolExecutor(
+        executorConfig.getThreads(),
+        executorConfig.getThreads(),
+        60L,
+        TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(executorConfig.getQueueSize()),
+        new CustomizableThreadFactory(threadNamePrefix),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /** A step of a service request that may be run on an executor */
+  @FunctionalInterface
+  interface AsyncStep<T> {
+    T run() throws CTPException;
+  }
+
+  // the stage trace of the request is attached to the thread running the step
+  static <T> CompletableFuture<T> runAsync(AsyncStep<T> step, Executor executor) {
+    StageTrace trace = StageTrace.current();
+    return CompletableFuture.supplyAsync(
+        () -> {
+          StageTrace previous = StageTrace.attach(trace);
+          try {
+            return step.run();
+          } catch (CTPException e) {
+            throw new CompletionException(e);
+          } finally {
+            StageTrace.attach(previous);
+          }
+        },
+        executor);
+  }
+
+  /*
+   * Wait for all the steps, and throw the failure of the first step to fail as soon as it fails, as
+   * if it had run on this thread. The steps still to finish are then cancelled, so that those not
+   * yet started are not run.
+   */
+  static void awaitAll(List<CompletableFuture<?>> futures) throws CTPException {
+    CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+    for (CompletableFuture<?> future : futures) {
+      future.whenComplete(
+          (result, failure) -> {
+            if (failure != null) {
+              firstFailure.completeExceptionally(failure);
+            }
+          });
+    }
+    CompletableFuture<Void> all =
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    try {
+      await(CompletableFuture.anyOf(all, firstFailure));
+    } finally {
+      futures.forEach(future -> future.cancel(false));
+    }
+  }
+
+  // wait for a step, and throw its failure as if it had run on this thread
+  static <T> T await(CompletableFuture<T> future) throws CTPException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CTPException) {
+        throw (CTPException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
 }
@@ -24,13 +24,18 @@ public class SurveyLaunchedServiceImpl implements SurveyLaunchedService {
 
   private EventPublisher eventPublisher;
   private RateLimiterClient rateLimiterClient;
+  private LocalRateLimiter localRateLimiter;
   private AppConfig appConfig;
 
   @Autowired
   public SurveyLaunchedServiceImpl(
-      EventPublisher eventPublisher, RateLimiterClient rateLimiterClient, AppConfig appConfig) {
+      EventPublisher eventPublisher,
+      RateLimiterClient rateLimiterClient,
+      LocalRateLimiter localRateLimiter,
+      AppConfig appConfig) {
     this.eventPublisher = eventPublisher;
     this.rateLimiterClient = rateLimiterClient;
+    this.localRateLimiter = localRateLimiter;
     this.appConfig = appConfig;
   }
 
@@ -67,6 +72,7 @@ public class SurveyLaunchedServiceImpl implements SurveyLaunchedService {
       log.with("ipAddress", ipAddress)
           .with("loadshedding.modulus", modulus)
           .debug("Invoking rate limiter for survey launched");
+      localRateLimiter.checkEqLaunchLimit(ipAddress);
       rateLimiterClient.checkEqLaunchLimit(Domain.RH, ipAddress, modulus);
     } else {
       log.info("Rate limiter client is disabled");
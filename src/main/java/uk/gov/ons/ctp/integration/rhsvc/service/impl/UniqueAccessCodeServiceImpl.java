@@ -2,9 +2,15 @@ package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import ma.glasnost.orika.MapperFacade;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -25,6 +31,7 @@ import uk.gov.ons.ctp.common.event.model.RespondentAuthenticatedResponse;
 import uk.gov.ons.ctp.common.event.model.UAC;
 import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+import uk.gov.ons.ctp.integration.rhsvc.repository.UACClaimContext;
 import uk.gov.ons.ctp.integration.rhsvc.representation.CaseRequestDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO.CaseStatus;
@@ -40,6 +47,7 @@ public class UniqueAccessCodeServiceImpl implements UniqueAccessCodeService {
   @Autowired private RespondentDataRepository dataRepo;
   @Autowired private EventPublisher eventPublisher;
   @Autowired private MapperFacade mapperFacade;
+  @Autowired private UprnLock uprnLock;
 
   // Enums to capture the linking matrix of valid form type and case types.
   // Original table is from:
@@ -68,20 +76,39 @@ public class UniqueAccessCodeServiceImpl implements UniqueAccessCodeService {
     }
   }
 
+  // runs the case search of linkUACCase alongside the UAC read
+  private ExecutorService linkExecutor;
+
   /** Constructor */
   public UniqueAccessCodeServiceImpl() {}
 
+  /** Create the link executor */
+  @PostConstruct
+  void init() {
+    linkExecutor = ServiceUtil.newExecutor(appConfig.getLinkExecutor(), "link-");
+  }
+
+  @PreDestroy
+  void shutdown() {
+    linkExecutor.shutdown();
+  }
+
   @Override
   public UniqueAccessCodeDTO getAndAuthenticateUAC(String uacHash) throws CTPException {
 
     UniqueAccessCodeDTO data;
-    Optional<UAC> uacMatch = dataRepo.readUAC(uacHash);
+    // The claim context holds the UAC and its case, so saves a read. Without it read the UAC.
+    Optional<UACClaimContext> claimContext = dataRepo.readUACClaimContext(uacHash);
+    Optional<UAC> uacMatch =
+        claimContext.isPresent()
+            ? Optional.of(claimContext.get().getUac())
+            : dataRepo.readUAC(uacHash);
     if (uacMatch.isPresent()) {
       // we found UAC
       String caseId = uacMatch.get().getCaseId();
       if (!StringUtils.isEmpty(caseId)) {
         // UAC has a caseId
-        Optional<CollectionCase> caseMatch = dataRepo.readCollectionCase(caseId);
+        Optional<CollectionCase> caseMatch = readLinkedCase(caseId, claimContext);
         if (caseMatch.isPresent()) {
           // Case found
           log.with(uacHash).with(caseId).debug("UAC is linked");
@@ -108,103 +135,146 @@ public class UniqueAccessCodeServiceImpl implements UniqueAccessCodeService {
     return data;
   }
 
+  // The case held in the claim context, if it is the linked case, otherwise the case as stored
+  private Optional<CollectionCase> readLinkedCase(
+      String caseId, Optional<UACClaimContext> claimContext) throws CTPException {
+    Optional<CollectionCase> contextCase =
+        claimContext.map(UACClaimContext::getCollectionCase).filter(c -> caseId.equals(c.getId()));
+    return contextCase.isPresent() ? contextCase : dataRepo.readCollectionCase(caseId);
+  }
+
   @Override
   public UniqueAccessCodeDTO linkUACCase(String uacHash, CaseRequestDTO request)
       throws CTPException {
     log.with(uacHash).with(request).debug("Enter linkUACCase()");
 
-    // First get UAC from firestore
-    Optional<UAC> uacOptional = dataRepo.readUAC(uacHash);
+    // Search for the Case(s) for the UPRN while the UAC is read
+    String uprn = Long.toString(request.getUprn().getValue());
+    CompletableFuture<Optional<CollectionCase>> primaryCaseRead =
+        ServiceUtil.runAsync(
+            () -> dataRepo.readNonHILatestCollectionCaseByUprn(uprn, true), linkExecutor);
+
+    // First check we have the UAC. If not, the search is discarded, whatever its outcome
+    Optional<UAC> uacOptional;
+    try {
+      uacOptional = dataRepo.readUAC(uacHash);
+    } catch (CTPException | RuntimeException e) {
+      primaryCaseRead.cancel(false);
+      throw e;
+    }
     if (uacOptional.isEmpty()) {
+      primaryCaseRead.cancel(false);
       log.with("UACHash", uacHash).warn("Failed to retrieve UAC");
       throw new CTPException(CTPException.Fault.RESOURCE_NOT_FOUND, "Failed to retrieve UAC");
     }
     UAC uac = uacOptional.get();
 
-    CollectionCase primaryCase;
-    boolean alreadyLinked = false;
-
-    // Read the Case(s) for the UPRN from firestore if we can
-    Optional<CollectionCase> primaryCaseOptional =
-        dataRepo.readNonHILatestCollectionCaseByUprn(
-            Long.toString(request.getUprn().getValue()), true);
+    UniqueAccessCodeDTO uniqueAccessCodeDTO;
+    Optional<CollectionCase> primaryCaseOptional = ServiceUtil.await(primaryCaseRead);
     if (primaryCaseOptional.isPresent()) {
-      primaryCase = primaryCaseOptional.get();
+      CollectionCase primaryCase = primaryCaseOptional.get();
       log.with(primaryCase.getId()).debug("Found existing case");
+      uniqueAccessCodeDTO = linkToCase(uac, primaryCase, false, request);
+    } else {
+      // Read again while the UPRN is locked, as a concurrent request may have created the case.
+      // The read is not joined to one in flight, which may have begun before the case was stored.
+      // A new case is committed with the link, before the lock is released
+      uniqueAccessCodeDTO =
+          uprnLock.callWithLock(
+              uprn,
+              () -> {
+                Optional<CollectionCase> concurrentCase =
+                    dataRepo.readNonHILatestCollectionCaseByUprnFromStorage(uprn, true);
+                return concurrentCase.isPresent()
+                    ? linkToCase(uac, concurrentCase.get(), false, request)
+                    : linkToCase(uac, createPrimaryCase(uac, request), true, request);
+              });
+    }
 
-      if (primaryCase.getId().equals(uac.getCaseId())) {
-        // The UAC is already linked to the target case. Don't send duplicate events
-        log.with(uacHash).with(primaryCase.getId()).debug("Already linked to case");
-        alreadyLinked = true;
-      }
+    log.with(uacHash).with(uniqueAccessCodeDTO).debug("Exit linkUACCase()");
+    return uniqueAccessCodeDTO;
+  }
 
-      validateUACCase(uac, primaryCase); // will abort here if invalid combo
-    } else {
-      // Create a new case as not found for the UPRN in Firestore
-      CaseType primaryCaseType = ServiceUtil.determineCaseType(request);
-      primaryCase =
-          ServiceUtil.createCase(request, primaryCaseType, appConfig.getCollectionExerciseId());
-      primaryCase.getAddress().setAddressLevel(determineAddressLevel(primaryCaseType, uac).name());
-      log.with("caseId", primaryCase.getId())
-          .with("primaryCaseType", primaryCaseType)
-          .debug("Created new case");
-      validateUACCase(uac, primaryCase); // will abort here if invalid combo
-
-      // Store new case in Firestore
-      dataRepo.writeCollectionCase(primaryCase);
+  // Create a new case as not found for the UPRN in Firestore. It is stored with the link
+  private CollectionCase createPrimaryCase(UAC uac, CaseRequestDTO request) {
+    CaseType primaryCaseType = ServiceUtil.determineCaseType(request);
+    CollectionCase primaryCase =
+        ServiceUtil.createCase(request, primaryCaseType, appConfig.getCollectionExerciseId());
+    primaryCase.getAddress().setAddressLevel(determineAddressLevel(primaryCaseType, uac).name());
+    log.with("caseId", primaryCase.getId())
+        .with("primaryCaseType", primaryCaseType)
+        .debug("Created new case");
+    return primaryCase;
+  }
 
-      // tell RM we have created a case for the selected (HH|CE|SPG) address
-      sendNewAddressEvent(primaryCase);
+  /**
+   * Link a UAC to the case found or created for the address, or to a new individual case for the
+   * address. The UAC is stored together with any new cases as a single write, so that the link is
+   * stored whole or not at all.
+   */
+  private UniqueAccessCodeDTO linkToCase(
+      UAC uac, CollectionCase primaryCase, boolean newPrimaryCase, CaseRequestDTO request)
+      throws CTPException {
+    boolean alreadyLinked = false;
+    if (primaryCase.getId().equals(uac.getCaseId())) {
+      // The UAC is already linked to the target case. Don't send duplicate events
+      log.with(uac.getUacHash()).with(primaryCase.getId()).debug("Already linked to case");
+      alreadyLinked = true;
     }
 
-    UniqueAccessCodeDTO uniqueAccessCodeDTO;
-    if (alreadyLinked) {
-      uniqueAccessCodeDTO = createUniqueAccessCodeDTO(uac, Optional.of(primaryCase), CaseStatus.OK);
-
-    } else {
-      // for now assume that the UAC is to be linked to either the HH|CE|SPG case we found or the
-      // one we created
-      String caseId = primaryCase.getId();
-      uac.setCaseId(caseId);
-
-      String individualCaseId = null;
-      CollectionCase individualCase = null;
-
-      // if the uac indicates that the UAC is for a HI through the formType of I, we need to link
-      // the UAC to a new HI case instead of the HH case
-      if (primaryCase.getCaseType().equals(CaseType.HH.name())
-          && uac.getFormType().equals(FormType.I.name())) {
-        individualCase =
-            ServiceUtil.createCase(request, CaseType.HI, appConfig.getCollectionExerciseId());
-        individualCase.getAddress().setAddressLevel(determineAddressLevel(CaseType.HI, uac).name());
-        individualCaseId = individualCase.getId();
-        log.with(individualCaseId).debug("Created individual case");
-
-        dataRepo.writeCollectionCase(individualCase);
-
-        // if we are creating an individual case the UAC should be linked to that
-        uac.setCaseId(individualCaseId);
-      }
+    validateUACCase(uac, primaryCase); // will abort here if invalid combo
 
-      // Our UAC will have been linked to one of:
-      // - The case we found by uprn in firestore
-      // - The HH|CE|SPG case we created when one was not found in firestore
-      // - The Individual case we created for one of the above
-      // so NOW persist it
-      dataRepo.writeUAC(uac);
+    if (alreadyLinked) {
+      return createUniqueAccessCodeDTO(uac, Optional.of(primaryCase), CaseStatus.OK);
+    }
 
-      sendQuestionnaireLinkedEvent(uac.getQuestionnaireId(), primaryCase.getId(), individualCaseId);
+    // for now assume that the UAC is to be linked to either the HH|CE|SPG case we found or the
+    // one we created
+    List<CollectionCase> newCases = new ArrayList<>();
+    if (newPrimaryCase) {
+      newCases.add(primaryCase);
+    }
+    uac.setCaseId(primaryCase.getId());
+
+    String individualCaseId = null;
+    CollectionCase individualCase = null;
+
+    // if the uac indicates that the UAC is for a HI through the formType of I, we need to link
+    // the UAC to a new HI case instead of the HH case
+    if (primaryCase.getCaseType().equals(CaseType.HH.name())
+        && uac.getFormType().equals(FormType.I.name())) {
+      individualCase =
+          ServiceUtil.createCase(request, CaseType.HI, appConfig.getCollectionExerciseId());
+      individualCase.getAddress().setAddressLevel(determineAddressLevel(CaseType.HI, uac).name());
+      individualCaseId = individualCase.getId();
+      log.with(individualCaseId).debug("Created individual case");
+      newCases.add(individualCase);
+
+      // if we are creating an individual case the UAC should be linked to that
+      uac.setCaseId(individualCaseId);
+    }
 
-      uniqueAccessCodeDTO =
-          createUniqueAccessCodeDTO(
-              uac,
-              individualCase != null ? Optional.of(individualCase) : Optional.of(primaryCase),
-              CaseStatus.OK);
+    // Our UAC will have been linked to one of:
+    // - The case we found by uprn in firestore
+    // - The HH|CE|SPG case we created when one was not found in firestore
+    // - The Individual case we created for one of the above
+    // so NOW persist it, with the cases we created
+    dataRepo.writeUACLink(uac, newCases);
 
-      sendRespondentAuthenticatedEvent(uniqueAccessCodeDTO);
+    if (newPrimaryCase) {
+      // tell RM we have created a case for the selected (HH|CE|SPG) address
+      sendNewAddressEvent(primaryCase);
     }
 
-    log.with(uacHash).with(uniqueAccessCodeDTO).debug("Exit linkUACCase()");
+    UniqueAccessCodeDTO uniqueAccessCodeDTO =
+        createUniqueAccessCodeDTO(
+            uac,
+            individualCase != null ? Optional.of(individualCase) : Optional.of(primaryCase),
+            CaseStatus.OK);
+
+    // The questionnaire is linked before the respondent is authenticated against it
+    sendQuestionnaireLinkedEvent(uac.getQuestionnaireId(), primaryCase.getId(), individualCaseId);
+    sendRespondentAuthenticatedEvent(uniqueAccessCodeDTO);
     return uniqueAccessCodeDTO;
   }
 
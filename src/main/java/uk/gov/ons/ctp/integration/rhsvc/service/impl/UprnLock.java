@@ -0,0 +1,187 @@
+package uk.gov.ons.ctp.integration.rhsvc.service.impl;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UprnLockConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UprnLockConfig.LeaseConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+
+/**
+ * Serialises the creation of cases for an address, so that concurrent requests for the same UPRN
+ * create one case, and send one NEW_ADDRESS_REPORTED event, between them. The caller reads the
+ * UPRN again once it holds the lock, and only creates a case if there is still none.
+ *
+ * <p>Within the service each UPRN is locked with one of a fixed number of striped locks. If the
+ * lease is enabled, a lease on the UPRN is also taken in storage, so that requests on other
+ * instances are serialised too. A request that cannot get the lock or lease within the wait fails
+ * with HTTP 503, so that it can be retried, unless proceed-without-lock is set, in which case it
+ * goes ahead without them and at worst creates a duplicate case, as it would have without the lock.
+ */
+@Component
+public class UprnLock {
+  private static final Logger log = LoggerFactory.getLogger(UprnLock.class);
+
+  private static final int DEFAULT_STRIPES = 256;
+  private static final long DEFAULT_WAIT = 5000;
+
+  /**
+   * A call made while a UPRN is locked.
+   *
+   * @param <T> the type returned
+   */
+  @FunctionalInterface
+  public interface LockedCall<T> {
+    T call() throws CTPException;
+  }
+
+  private final Striped<Lock> locks;
+  private final long wait;
+  private final boolean proceedWithoutLock;
+  private final LeaseConfig leaseConfig;
+  private final RespondentDataRepository dataRepo;
+
+  private final Timer lockWait;
+  private final Counter lockTimeouts;
+  private final Counter leaseTimeouts;
+
+  /**
+   * Constructor for UprnLock
+   *
+   * @param appConfig centralised configuration, of which uprn-lock is optional
+   * @param dataRepo repository holding the leases
+   * @param meterRegistry registry for the metrics of the lock
+   */
+  @Autowired
+  public UprnLock(
+      AppConfig appConfig, RespondentDataRepository dataRepo, MeterRegistry meterRegistry) {
+    UprnLockConfig lockConfig = appConfig.getUprnLock();
+    this.locks =
+        Striped.lazyWeakLock(lockConfig == null ? DEFAULT_STRIPES : lockConfig.getStripes());
+    this.wait = lockConfig == null ? DEFAULT_WAIT : lockConfig.getWait();
+    this.proceedWithoutLock = lockConfig != null && lockConfig.isProceedWithoutLock();
+    this.leaseConfig = lockConfig == null ? null : lockConfig.getLease();
+    this.dataRepo = dataRepo;
+
+    lockWait =
+        Timer.builder("rhsvc.uprn.lock.wait")
+            .description("Time waiting for the lock and lease on a UPRN to create a case")
+            .register(meterRegistry);
+    lockTimeouts = timeoutCounter(meterRegistry, "lock");
+    leaseTimeouts = timeoutCounter(meterRegistry, "lease");
+  }
+
+  private Counter timeoutCounter(MeterRegistry meterRegistry, String scope) {
+    return Counter.builder("rhsvc.uprn.lock.timeouts")
+        .description("Case creations that timed out waiting for the lock on their UPRN")
+        .tag("scope", scope)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Make a call while a UPRN is locked.
+   *
+   * @param <T> the type returned
+   * @param uprn the UPRN to lock
+   * @param call the call to make
+   * @return the result of the call
+   * @throws CTPException if the call failed, or the lease could not be taken
+   * @throws ResponseStatusException with HTTP 503 if the lock or lease was not free within the
+   *     wait, and the call may not go ahead without it
+   */
+  public <T> T callWithLock(String uprn, LockedCall<T> call) throws CTPException {
+    long start = System.nanoTime();
+    long deadline = System.currentTimeMillis() + wait;
+    Lock lock = locks.get(uprn);
+    boolean locked = tryLock(lock, uprn);
+    try {
+      String holder = UUID.randomUUID().toString();
+      boolean leased = acquireLease(uprn, holder, deadline);
+      lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      try {
+        return call.call();
+      } finally {
+        if (leased) {
+          releaseLease(uprn, holder);
+        }
+      }
+    } finally {
+      if (locked) {
+        lock.unlock();
+      }
+    }
+  }
+
+  private boolean tryLock(Lock lock, String uprn) {
+    try {
+      if (lock.tryLock(wait, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    lockTimeouts.increment();
+    timedOut(uprn, "lock");
+    return false;
+  }
+
+  private boolean acquireLease(String uprn, String holder, long deadline) throws CTPException {
+    if (leaseConfig == null || !leaseConfig.isEnabled()) {
+      return false;
+    }
+    try {
+      while (!dataRepo.acquireUprnLease(uprn, holder, leaseConfig.getDuration())) {
+        if (System.currentTimeMillis() >= deadline) {
+          leaseTimeouts.increment();
+          timedOut(uprn, "lease");
+          return false;
+        }
+        Thread.sleep(leaseConfig.getRetryInterval());
+      }
+      return true;
+    } catch (CTPException e) {
+      if (!proceedWithoutLock) {
+        throw e;
+      }
+      log.with("uprn", uprn).warn(e, "Failed to take UPRN lease, creating case without it");
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      timedOut(uprn, "lease");
+      return false;
+    }
+  }
+
+  // fail, so that the request can be retried, unless configured to go ahead without the lock
+  private void timedOut(String uprn, String scope) {
+    if (!proceedWithoutLock) {
+      log.with("uprn", uprn).with("scope", scope).warn("Timed out waiting for UPRN lock");
+      throw new ResponseStatusException(
+          HttpStatus.SERVICE_UNAVAILABLE, "Timed out waiting for " + scope + " on UPRN");
+    }
+    log.with("uprn", uprn)
+        .with("scope", scope)
+        .warn("Timed out waiting for UPRN lock, creating case without it");
+  }
+
+  // a lease that is not released expires, so the failure only delays other requests
+  private void releaseLease(String uprn, String holder) {
+    try {
+      dataRepo.releaseUprnLease(uprn, holder);
+    } catch (CTPException e) {
+      log.with("uprn", uprn).warn(e, "Failed to release UPRN lease");
+    }
+  }
+}
@@ -38,6 +38,7 @@ public class WebformServiceImpl implements WebformService {
   private AppConfig appConfig;
 
   @Autowired private RateLimiterClient rateLimiterClient;
+  @Autowired private LocalRateLimiter localRateLimiter;
 
   /**
    * Constructor for WebformServiceImpl
@@ -137,6 +138,7 @@ public class WebformServiceImpl implements WebformService {
   private void checkWebformRateLimit(String ipAddress) throws CTPException {
     if (appConfig.getRateLimiter().isEnabled()) {
       log.with("ipAddress", ipAddress).debug("Invoking rate limiter for webform");
+      localRateLimiter.checkWebformRateLimit(ipAddress);
       // Do rest call to rate limiter
       rateLimiterClient.checkWebformRateLimit(Domain.RH, ipAddress);
     } else {
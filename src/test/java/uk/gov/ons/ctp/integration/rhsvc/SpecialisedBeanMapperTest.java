@@ -0,0 +1,160 @@
+package uk.gov.ons.ctp.integration.rhsvc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import ma.glasnost.orika.MapperFacade;
+import org.junit.Before;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.domain.UniquePropertyReferenceNumber;
+import uk.gov.ons.ctp.common.event.model.Address;
+import uk.gov.ons.ctp.common.event.model.AddressCompact;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.integration.rhsvc.representation.AddressDTO;
+import uk.gov.ons.ctp.integration.rhsvc.representation.CaseDTO;
+import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
+
+/** Checks that the SpecialisedBeanMapper gives the same results as the RHSvcBeanMapper. */
+public class SpecialisedBeanMapperTest {
+
+  private MapperFacade orikaMapper = new RHSvcBeanMapper();
+  private MapperFacade specialisedMapper = new SpecialisedBeanMapper();
+
+  private List<CollectionCase> collectionCases;
+  private List<UAC> uacs;
+
+  @Before
+  public void setup() {
+    collectionCases = new ArrayList<>();
+    collectionCases.addAll(FixtureHelper.loadClassFixtures(CollectionCase[].class));
+    uacs = FixtureHelper.loadClassFixtures(UAC[].class);
+
+    // a case with no address at all
+    CollectionCase noAddressCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    noAddressCase.setAddress(null);
+    collectionCases.add(noAddressCase);
+  }
+
+  @Test
+  public void shouldMapCollectionCaseToCaseDTO() {
+    for (CollectionCase collectionCase : collectionCases) {
+      assertEquals(
+          orikaMapper.map(collectionCase, CaseDTO.class),
+          specialisedMapper.map(collectionCase, CaseDTO.class));
+    }
+  }
+
+  @Test
+  public void shouldMapCollectionCasesToCaseDTOs() {
+    // with a null element, and a case that appears twice
+    List<CollectionCase> sources = new ArrayList<>(collectionCases);
+    sources.add(null);
+    sources.add(collectionCases.get(0));
+    CollectionCase[] sourceArray = sources.toArray(new CollectionCase[0]);
+
+    assertEquals(
+        orikaMapper.mapAsList(sources, CaseDTO.class),
+        specialisedMapper.mapAsList(sources, CaseDTO.class));
+    assertEquals(
+        orikaMapper.mapAsList(sourceArray, CaseDTO.class),
+        specialisedMapper.mapAsList(sourceArray, CaseDTO.class));
+    assertArrayEquals(
+        orikaMapper.mapAsArray(new CaseDTO[sources.size()], sources, CaseDTO.class),
+        specialisedMapper.mapAsArray(new CaseDTO[sources.size()], sources, CaseDTO.class));
+    assertArrayEquals(
+        orikaMapper.mapAsArray(new CaseDTO[sources.size()], sourceArray, CaseDTO.class),
+        specialisedMapper.mapAsArray(new CaseDTO[sources.size()], sourceArray, CaseDTO.class));
+  }
+
+  @Test
+  public void shouldMapAddressesToAddressCompacts() {
+    List<Address> addresses = new ArrayList<>();
+    for (CollectionCase collectionCase : collectionCases) {
+      addresses.add(collectionCase.getAddress());
+    }
+    Address[] addressArray = addresses.toArray(new Address[0]);
+
+    assertEquals(
+        orikaMapper.mapAsList(addresses, AddressCompact.class),
+        specialisedMapper.mapAsList(addresses, AddressCompact.class));
+    assertEquals(
+        orikaMapper.mapAsList(addressArray, AddressCompact.class),
+        specialisedMapper.mapAsList(addressArray, AddressCompact.class));
+    assertArrayEquals(
+        orikaMapper.mapAsArray(
+            new AddressCompact[addresses.size()], addresses, AddressCompact.class),
+        specialisedMapper.mapAsArray(
+            new AddressCompact[addresses.size()], addresses, AddressCompact.class));
+    assertArrayEquals(
+        orikaMapper.mapAsArray(
+            new AddressCompact[addresses.size()], addressArray, AddressCompact.class),
+        specialisedMapper.mapAsArray(
+            new AddressCompact[addresses.size()], addressArray, AddressCompact.class));
+  }
+
+  @Test
+  public void shouldMapUACAndCollectionCaseToUniqueAccessCodeDTO() {
+    for (UAC uac : uacs) {
+      assertEquals(
+          uniqueAccessCodeDTO(orikaMapper, uac), uniqueAccessCodeDTO(specialisedMapper, uac));
+      for (CollectionCase collectionCase : collectionCases) {
+        UniqueAccessCodeDTO expected = uniqueAccessCodeDTO(orikaMapper, uac);
+        orikaMapper.map(collectionCase, expected);
+        UniqueAccessCodeDTO actual = uniqueAccessCodeDTO(specialisedMapper, uac);
+        specialisedMapper.map(collectionCase, actual);
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void shouldMapAddressToAddressCompact() {
+    for (CollectionCase collectionCase : collectionCases) {
+      assertEquals(
+          orikaMapper.map(collectionCase.getAddress(), AddressCompact.class),
+          specialisedMapper.map(collectionCase.getAddress(), AddressCompact.class));
+    }
+  }
+
+  @Test
+  public void shouldMapAddressDTOOntoAddressCompact() {
+    AddressDTO addressChange = new AddressDTO();
+    addressChange.setAddressLine1("1a main street");
+    addressChange.setTownName("upton");
+    addressChange.setPostcode("UP103UP");
+    addressChange.setUprn(UniquePropertyReferenceNumber.create("305634838282"));
+    AddressDTO addressChangeWithoutUprn = new AddressDTO();
+    addressChangeWithoutUprn.setAddressLine1("1b main street");
+
+    for (AddressDTO change : List.of(addressChange, addressChangeWithoutUprn)) {
+      for (CollectionCase collectionCase : collectionCases) {
+        AddressCompact expected =
+            orikaMapper.map(collectionCase.getAddress(), AddressCompact.class);
+        orikaMapper.map(change, expected);
+        AddressCompact actual =
+            specialisedMapper.map(collectionCase.getAddress(), AddressCompact.class);
+        specialisedMapper.map(change, actual);
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void shouldLeaveOtherMappingsToOrika() {
+    AddressDTO address = new AddressDTO();
+    address.setAddressLine1("1 main street");
+    assertEquals(
+        orikaMapper.map(address, AddressDTO.class),
+        specialisedMapper.map(address, AddressDTO.class));
+  }
+
+  private UniqueAccessCodeDTO uniqueAccessCodeDTO(MapperFacade mapper, UAC uac) {
+    UniqueAccessCodeDTO dto = new UniqueAccessCodeDTO();
+    mapper.map(uac, dto);
+    return dto;
+  }
+}
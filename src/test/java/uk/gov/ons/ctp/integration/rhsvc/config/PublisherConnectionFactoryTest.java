@@ -0,0 +1,52 @@
+package uk.gov.ons.ctp.integration.rhsvc.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+
+public class PublisherConnectionFactoryTest {
+
+  @Test
+  public void shouldApplyRabbitProperties() throws Exception {
+    RabbitProperties properties = new RabbitProperties();
+    properties.setHost("rabbit");
+    properties.setPort(35672);
+    properties.setUsername("user");
+    properties.setVirtualHost("census");
+    properties.getCache().getChannel().setSize(50);
+
+    CachingConnectionFactory factory =
+        PublisherConnectionFactory.create(properties, ConfirmType.CORRELATED, "rhsvc-publisher");
+
+    try {
+      assertEquals("rabbit", factory.getHost());
+      assertEquals(35672, factory.getPort());
+      assertEquals("user", factory.getUsername());
+      assertEquals("census", factory.getVirtualHost());
+      assertEquals(50, factory.getChannelCacheSize());
+      assertTrue(factory.isPublisherConfirms());
+    } finally {
+      factory.destroy();
+    }
+  }
+
+  @Test
+  public void shouldConnectToAddresses() throws Exception {
+    RabbitProperties properties = new RabbitProperties();
+    properties.setAddresses("rabbit-1:5672,rabbit-2:5672");
+
+    CachingConnectionFactory factory =
+        PublisherConnectionFactory.create(properties, ConfirmType.SIMPLE, "rhsvc-outbox");
+
+    try {
+      assertEquals("rabbit-1", factory.getHost());
+      assertTrue(factory.isSimplePublisherConfirms());
+    } finally {
+      factory.destroy();
+    }
+  }
+}
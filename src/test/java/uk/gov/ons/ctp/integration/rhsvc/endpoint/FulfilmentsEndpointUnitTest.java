@@ -1,6 +1,7 @@
 package uk.gov.ons.ctp.integration.rhsvc.endpoint;
 
 import static org.hamcrest.core.Is.is;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static uk.gov.ons.ctp.common.MvcHelper.getJson;
@@ -15,10 +16,10 @@ import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
@@ -26,6 +27,8 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import uk.gov.ons.ctp.common.FixtureHelper;
 import uk.gov.ons.ctp.common.error.RestExceptionHandler;
 import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.FulfilmentsConfig;
 import uk.gov.ons.ctp.integration.rhsvc.representation.ProductDTO;
 import uk.gov.ons.ctp.integration.rhsvc.service.FulfilmentsService;
 
@@ -35,7 +38,7 @@ import uk.gov.ons.ctp.integration.rhsvc.service.FulfilmentsService;
  */
 @RunWith(MockitoJUnitRunner.class)
 public final class FulfilmentsEndpointUnitTest {
-  @InjectMocks private FulfilmentsEndpoint fulfilmentsEndpoint;
+  private FulfilmentsEndpoint fulfilmentsEndpoint;
 
   @Mock FulfilmentsService fulfilmentsService;
 
@@ -51,6 +54,11 @@ public final class FulfilmentsEndpointUnitTest {
    */
   @Before
   public void setUp() throws Exception {
+    AppConfig appConfig = new AppConfig();
+    appConfig.setFulfilments(new FulfilmentsConfig());
+    appConfig.getFulfilments().setCacheMaxAgeSeconds(300);
+    this.fulfilmentsEndpoint =
+        new FulfilmentsEndpoint(fulfilmentsService, new CustomObjectMapper(), appConfig);
     this.mockMvc =
         MockMvcBuilders.standaloneSetup(fulfilmentsEndpoint)
             .setHandlerExceptionResolvers(mockAdviceFor(RestExceptionHandler.class))
@@ -82,6 +90,56 @@ public final class FulfilmentsEndpointUnitTest {
     Mockito.verify(fulfilmentsService).getFulfilments(Arrays.asList(HH), E, SMS, UAC, true);
   }
 
+  @Test
+  public void fulfilmentsRequestHasCacheHeaders() throws Exception {
+    Mockito.when(fulfilmentsService.getFulfilments(Arrays.asList(HH), null, null, null, null))
+        .thenReturn(productDTO);
+
+    ResultActions action = mockMvc.perform(getJson("/fulfilments?caseType=HH"));
+    statusOk(action);
+    action.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=300, public"));
+    action.andExpect(header().exists(HttpHeaders.ETAG));
+  }
+
+  @Test
+  public void fulfilmentsRequestWithMatchingETagIsNotModified() throws Exception {
+    Mockito.when(fulfilmentsService.getFulfilments(Arrays.asList(), null, null, null, null))
+        .thenReturn(productDTO);
+    String eTag =
+        mockMvc
+            .perform(getJson("/fulfilments"))
+            .andReturn()
+            .getResponse()
+            .getHeader(HttpHeaders.ETAG);
+
+    mockMvc
+        .perform(getJson("/fulfilments").header(HttpHeaders.IF_NONE_MATCH, eTag))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, eTag));
+  }
+
+  @Test
+  public void fulfilmentsRequestWithOtherETagIsOk() throws Exception {
+    Mockito.when(fulfilmentsService.getFulfilments(Arrays.asList(), null, null, null, null))
+        .thenReturn(productDTO);
+
+    ResultActions action =
+        mockMvc.perform(getJson("/fulfilments").header(HttpHeaders.IF_NONE_MATCH, "\"stale\""));
+    statusOk(action);
+  }
+
+  @Test
+  public void fulfilmentsRequestIsRenderedOnce() throws Exception {
+    Mockito.when(fulfilmentsService.getFulfilments(Arrays.asList(), E, null, null, null))
+        .thenReturn(productDTO);
+
+    statusOk(mockMvc.perform(getJson("/fulfilments?region=E")));
+    statusOk(mockMvc.perform(getJson("/fulfilments?region=E")));
+
+    Mockito.verify(fulfilmentsService, Mockito.times(1))
+        .getFulfilments(Arrays.asList(), E, null, null, null);
+  }
+
   @Test
   public void fulfilmentsReqestWithInvalidCaseType() throws Exception {
     mockMvc
@@ -0,0 +1,146 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.AdaptiveConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.AdaptiveListenerController;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdaptiveListenerControllerTest {
+  private static final String QUEUE = "case.rh.case";
+
+  @Mock private SimpleMessageListenerContainer container;
+  @Mock private ListenerMetrics listenerMetrics;
+  @Mock private AmqpAdmin amqpAdmin;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private AdaptiveListenerController target;
+
+  private long deliveries;
+  private double processingMillis;
+  private double events;
+  private double rejections;
+
+  @Before
+  public void setUp() {
+    AdaptiveConfig adaptiveConfig = new AdaptiveConfig();
+    adaptiveConfig.setMaxPrefetchCount(8);
+    // the scheduler is not left to run, each test adjusts the listener itself
+    adaptiveConfig.setInterval(3600000);
+    adaptiveConfig.setScaleUpDepth(100);
+    adaptiveConfig.setTargetLatency(500);
+    adaptiveConfig.setMaxErrorRate(0.1);
+    target =
+        new AdaptiveListenerController(
+            QUEUE,
+            container,
+            1,
+            4,
+            1,
+            adaptiveConfig,
+            listenerMetrics,
+            amqpAdmin,
+            meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    target.destroy();
+  }
+
+  private void processed(long newDeliveries, double newProcessingMillis, double newRejections) {
+    deliveries += newDeliveries;
+    processingMillis += newProcessingMillis;
+    events += newDeliveries;
+    rejections += newRejections;
+    when(listenerMetrics.getDeliveries()).thenReturn(deliveries);
+    when(listenerMetrics.getProcessingMillis()).thenReturn(processingMillis);
+    when(listenerMetrics.getEvents()).thenReturn(events);
+    when(listenerMetrics.getRejections()).thenReturn(rejections);
+  }
+
+  private void queueDepth(int depth) {
+    when(amqpAdmin.getQueueInfo(QUEUE)).thenReturn(new QueueInformation(QUEUE, depth, 1));
+  }
+
+  private void adjustTimes(int times) {
+    for (int i = 0; i < times; i++) {
+      target.adjust();
+    }
+  }
+
+  @Test
+  public void shouldScaleUpToMaximumWhileBacklogIsProcessedQuickly() {
+    processed(100, 1000, 0);
+    queueDepth(5000);
+
+    adjustTimes(5);
+
+    assertEquals(4, target.getConsumers());
+    assertEquals(8, target.getPrefetch());
+    verify(container).setConcurrentConsumers(4);
+    verify(container).setPrefetchCount(8);
+    assertEquals(
+        4, meterRegistry.get("rhsvc.listener.consumers").tag("queue", QUEUE).gauge().value(), 0);
+  }
+
+  @Test
+  public void shouldScaleDownWhenProcessingIsSlow() {
+    queueDepth(5000);
+    adjustTimes(3);
+    assertEquals(4, target.getConsumers());
+
+    processed(10, 10000, 0);
+    target.adjust();
+
+    assertEquals(2, target.getConsumers());
+    assertEquals(4, target.getPrefetch());
+  }
+
+  @Test
+  public void shouldScaleDownWhenEventsAreRejected() {
+    queueDepth(5000);
+    adjustTimes(3);
+
+    processed(10, 100, 5);
+    target.adjust();
+
+    assertEquals(2, target.getConsumers());
+  }
+
+  @Test
+  public void shouldScaleDownToMinimumWhenQueueIsEmpty() {
+    queueDepth(5000);
+    adjustTimes(3);
+
+    queueDepth(0);
+    adjustTimes(5);
+
+    assertEquals(1, target.getConsumers());
+    assertEquals(1, target.getPrefetch());
+  }
+
+  @Test
+  public void shouldNotChangeListenerWhenQueueDepthIsUnknown() {
+    adjustTimes(3);
+
+    assertEquals(1, target.getConsumers());
+    verify(container, never()).setConcurrentConsumers(anyInt());
+    verify(container, never()).setPrefetchCount(anyInt());
+  }
+}
@@ -2,6 +2,7 @@ package uk.gov.ons.ctp.integration.rhsvc.message.impl;
 
 import static org.mockito.Mockito.verify;
 
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -10,6 +11,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 import uk.gov.ons.ctp.common.FixtureHelper;
 import uk.gov.ons.ctp.common.event.model.CaseEvent;
 import uk.gov.ons.ctp.integration.rhsvc.event.impl.CaseEventReceiverImpl;
+import uk.gov.ons.ctp.integration.rhsvc.repository.CaseUpdate;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -23,6 +25,20 @@ public class CaseEventReceiverImplUnit_Test {
   public void test_acceptCaseEvent_success() throws Exception {
     CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
     target.acceptCaseEvent(caseEvent);
-    verify(mockRespondentDataRepo).writeCollectionCase(caseEvent.getPayload().getCollectionCase());
+    verify(mockRespondentDataRepo)
+        .writeCollectionCaseIfChanged(
+            caseEvent.getPayload().getCollectionCase(), caseEvent.getEvent().getDateTime());
+  }
+
+  @Test
+  public void test_acceptCaseEvents_success() throws Exception {
+    CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+    target.acceptCaseEvents(List.of(caseEvent));
+    verify(mockRespondentDataRepo)
+        .writeCollectionCasesIfChanged(
+            List.of(
+                new CaseUpdate(
+                    caseEvent.getPayload().getCollectionCase(),
+                    caseEvent.getEvent().getDateTime())));
   }
 }
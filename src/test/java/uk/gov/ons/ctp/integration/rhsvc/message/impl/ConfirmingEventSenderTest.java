@@ -0,0 +1,136 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.CorrelationDataPostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ConfirmingEventSender;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfirmingEventSenderTest {
+  private static final RoutingKey ROUTING_KEY = RoutingKey.values()[0];
+
+  @Mock private RabbitTemplate template;
+  @Captor private ArgumentCaptor<CorrelationDataPostProcessor> postProcessorCaptor;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private GenericEvent event = mock(GenericEvent.class);
+  private ConfirmingEventSender target;
+
+  @Before
+  public void setUp() {
+    target = new ConfirmingEventSender(template, 1, 200, meterRegistry);
+    verify(template).setCorrelationDataPostProcessor(postProcessorCaptor.capture());
+  }
+
+  // each publish asks the template's post processor for its correlation data, as rabbit would
+  private void mockPublish(Consumer<CorrelationData> confirmer) {
+    doAnswer(
+            invocation -> {
+              CorrelationData data = postProcessorCaptor.getValue().postProcess(null, null);
+              confirmer.accept(data);
+              return null;
+            })
+        .when(template)
+        .convertAndSend(anyString(), any(Object.class));
+  }
+
+  private double outstanding() {
+    return meterRegistry.get("rhsvc.publish.confirms.outstanding").gauge().value();
+  }
+
+  @Test
+  public void shouldSendEventThatIsAcked() {
+    mockPublish(data -> data.getFuture().set(new Confirm(true, null)));
+
+    target.sendEvent(ROUTING_KEY, event);
+
+    verify(template).convertAndSend(anyString(), any(Object.class));
+    assertEquals(0, outstanding(), 0);
+  }
+
+  @Test
+  public void shouldFailEventThatIsNacked() {
+    mockPublish(data -> data.getFuture().set(new Confirm(false, "rejected")));
+
+    try {
+      target.sendEvent(ROUTING_KEY, event);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("rejected"));
+    }
+    assertEquals(0, outstanding(), 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldFailEventThatIsNotConfirmed() {
+    mockPublish(data -> {});
+
+    target.sendEvent(ROUTING_KEY, event);
+  }
+
+  @Test
+  public void shouldPassOnSendFailure() {
+    doThrow(new AmqpException("down"))
+        .when(template)
+        .convertAndSend(anyString(), any(Object.class));
+
+    try {
+      target.sendEvent(ROUTING_KEY, event);
+      fail();
+    } catch (AmqpException e) {
+      assertEquals("down", e.getMessage());
+    }
+    assertEquals(0, outstanding(), 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldFailWhenWindowIsFull() throws Exception {
+    CountDownLatch published = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    mockPublish(
+        data -> {
+          published.countDown();
+          try {
+            release.await(1, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          data.getFuture().set(new Confirm(true, null));
+        });
+    Thread first = new Thread(() -> target.sendEvent(ROUTING_KEY, event));
+    first.start();
+    published.await(1, TimeUnit.SECONDS);
+
+    try {
+      target.sendEvent(ROUTING_KEY, event);
+    } finally {
+      release.countDown();
+      first.join();
+    }
+  }
+}
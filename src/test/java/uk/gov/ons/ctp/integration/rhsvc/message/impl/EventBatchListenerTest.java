@@ -0,0 +1,161 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.InboundEventIntegrationConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.CaseEventReceiver;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.EventBatchListener;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EventBatchListenerTest {
+
+  @Mock private CaseEventReceiver receiver;
+  @Mock private Channel channel;
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private EventBatchListener<CaseEvent> target;
+
+  @Before
+  public void setUp() {
+    target =
+        new EventBatchListener<>(
+            "case",
+            new InboundEventIntegrationConfig(new AppConfig())
+                .caseJsonMessageConverter(objectMapper),
+            CaseEvent.class,
+            e -> e.getPayload().getCollectionCase().getId(),
+            e -> e.getEvent().getDateTime(),
+            receiver::acceptCaseEvents,
+            receiver::acceptCaseEvent,
+            new RetryTemplate(),
+            new ListenerMetrics("case", meterRegistry));
+  }
+
+  private CaseEvent caseEvent(String caseId) {
+    CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+    caseEvent.getPayload().getCollectionCase().setId(caseId);
+    return caseEvent;
+  }
+
+  private Message message(CaseEvent caseEvent, long deliveryTag) throws Exception {
+    MessageProperties properties = new MessageProperties();
+    properties.setDeliveryTag(deliveryTag);
+    return new Message(objectMapper.writeValueAsBytes(caseEvent), properties);
+  }
+
+  private double rejectedCount() {
+    return meterRegistry.get("rhsvc.listener.rejected").tag("queue", "case").counter().count();
+  }
+
+  private List<Message> messages(CaseEvent... caseEvents) throws Exception {
+    List<Message> messages = new ArrayList<>();
+    for (CaseEvent caseEvent : caseEvents) {
+      messages.add(message(caseEvent, messages.size() + 1));
+    }
+    return messages;
+  }
+
+  @Test
+  public void shouldProcessAndAckWholeBatch() throws Exception {
+    CaseEvent event1 = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    CaseEvent event2 = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa2");
+    CaseEvent event3 = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa3");
+
+    target.onMessageBatch(messages(event1, event2, event3), channel);
+
+    verify(receiver).acceptCaseEvents(List.of(event1, event2, event3));
+    verify(receiver, never()).acceptCaseEvent(any());
+    verify(channel).basicAck(3, true);
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+    assertEquals(0, rejectedCount(), 0);
+  }
+
+  @Test
+  public void shouldOnlyProcessLastEventForCase() throws Exception {
+    CaseEvent earlier = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    CaseEvent later = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    later.getPayload().getCollectionCase().setCaseRef("later");
+
+    target.onMessageBatch(messages(earlier, later), channel);
+
+    verify(receiver).acceptCaseEvents(List.of(later));
+    verify(channel).basicAck(2, true);
+  }
+
+  @Test
+  public void shouldOnlyProcessNewestEventForCase() throws Exception {
+    CaseEvent newer = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    CaseEvent older = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    newer.getEvent().setDateTime(new Date(2000));
+    older.getEvent().setDateTime(new Date(1000));
+    older.getPayload().getCollectionCase().setCaseRef("older");
+
+    target.onMessageBatch(messages(newer, older), channel);
+
+    verify(receiver).acceptCaseEvents(List.of(newer));
+    verify(channel).basicAck(2, true);
+  }
+
+  @Test
+  public void shouldRejectOnlyFailedEventWhenBatchFails() throws Exception {
+    CaseEvent good = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    CaseEvent bad = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa2");
+    doThrow(new CTPException(Fault.SYSTEM_ERROR)).when(receiver).acceptCaseEvents(any());
+    doThrow(new CTPException(Fault.SYSTEM_ERROR)).when(receiver).acceptCaseEvent(bad);
+
+    target.onMessageBatch(messages(good, bad), channel);
+
+    // once in the batch, then once on its own
+    verify(receiver).acceptCaseEvents(List.of(good, bad));
+    verify(receiver, times(1)).acceptCaseEvent(good);
+    verify(channel).basicAck(1, false);
+    verify(channel).basicReject(2, false);
+    verify(channel, never()).basicAck(2, true);
+    assertEquals(1, rejectedCount(), 0);
+  }
+
+  @Test
+  public void shouldRejectUnreadableEvent() throws Exception {
+    CaseEvent good = caseEvent("ea4477d1-dd3f-4c69-b181-7ff725dc9fa1");
+    List<Message> messages = messages(good);
+    MessageProperties properties = new MessageProperties();
+    properties.setDeliveryTag(2);
+    messages.add(new Message("not json".getBytes(), properties));
+
+    target.onMessageBatch(messages, channel);
+
+    verify(receiver, never()).acceptCaseEvents(any());
+    verify(receiver).acceptCaseEvent(good);
+    verify(channel).basicAck(1, false);
+    verify(channel).basicReject(2, false);
+    assertEquals(1, rejectedCount(), 0);
+  }
+}
@@ -0,0 +1,166 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.InboundEventIntegrationConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.CaseEventReceiver;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.EventLaneListener;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.QidFilteringPostProcessor;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EventLaneListenerTest {
+  private static final String CASE_ID_1 = "ea4477d1-dd3f-4c69-b181-7ff725dc9fa1";
+  private static final String CASE_ID_2 = "ea4477d1-dd3f-4c69-b181-7ff725dc9fa2";
+
+  @Mock private CaseEventReceiver receiver;
+  @Mock private Channel channel;
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private ListenerMetrics listenerMetrics = new ListenerMetrics("case", meterRegistry);
+  private EventLaneListener<CaseEvent> target;
+
+  @Before
+  public void setUp() {
+    target =
+        new EventLaneListener<>(
+            "case",
+            new InboundEventIntegrationConfig(new AppConfig())
+                .caseJsonMessageConverter(objectMapper),
+            CaseEvent.class,
+            e -> e.getPayload().getCollectionCase().getId(),
+            receiver::acceptCaseEvent,
+            new RetryTemplate(),
+            listenerMetrics,
+            4,
+            2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    target.destroy();
+  }
+
+  private CaseEvent caseEvent(String caseId, String caseRef) {
+    CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+    caseEvent.getPayload().getCollectionCase().setId(caseId);
+    caseEvent.getPayload().getCollectionCase().setCaseRef(caseRef);
+    return caseEvent;
+  }
+
+  private Message message(CaseEvent caseEvent, long deliveryTag) throws Exception {
+    MessageProperties properties = new MessageProperties();
+    properties.setDeliveryTag(deliveryTag);
+    return new Message(objectMapper.writeValueAsBytes(caseEvent), properties);
+  }
+
+  private double rejectedCount() {
+    return meterRegistry.get("rhsvc.listener.rejected").tag("queue", "case").counter().count();
+  }
+
+  @Test
+  public void shouldProcessEventsForCaseInOrder() throws Exception {
+    List<String> processed = Collections.synchronizedList(new ArrayList<>());
+    doAnswer(
+            invocation -> {
+              CaseEvent event = invocation.getArgument(0);
+              String caseRef = event.getPayload().getCollectionCase().getCaseRef();
+              if ("1a".equals(caseRef)) {
+                // later events for the case must wait for this one
+                Thread.sleep(200);
+              }
+              processed.add(caseRef);
+              return null;
+            })
+        .when(receiver)
+        .acceptCaseEvent(any());
+
+    target.onMessage(message(caseEvent(CASE_ID_1, "1a"), 1), channel);
+    target.onMessage(message(caseEvent(CASE_ID_2, "2a"), 2), channel);
+    target.onMessage(message(caseEvent(CASE_ID_1, "1b"), 3), channel);
+    target.onMessage(message(caseEvent(CASE_ID_1, "1c"), 4), channel);
+
+    for (long deliveryTag = 1; deliveryTag <= 4; deliveryTag++) {
+      verify(channel, timeout(5000)).basicAck(deliveryTag, false);
+    }
+    List<String> case1 = new ArrayList<>(processed);
+    case1.remove("2a");
+    assertEquals(List.of("1a", "1b", "1c"), case1);
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void shouldRejectEventThatStillFailsAfterRetries() throws Exception {
+    CaseEvent bad = caseEvent(CASE_ID_1, "bad");
+    doThrow(new CTPException(Fault.SYSTEM_ERROR)).when(receiver).acceptCaseEvent(bad);
+
+    target.onMessage(message(bad, 1), channel);
+    target.onMessage(message(caseEvent(CASE_ID_1, "good"), 2), channel);
+
+    verify(channel, timeout(5000)).basicAck(2, false);
+    verify(channel).basicReject(1, false);
+    verify(receiver, times(3)).acceptCaseEvent(bad);
+    assertEquals(1, rejectedCount(), 0);
+  }
+
+  @Test
+  public void shouldRejectUnreadableEvent() throws Exception {
+    MessageProperties properties = new MessageProperties();
+    properties.setDeliveryTag(1);
+
+    target.onMessage(new Message("not json".getBytes(), properties), channel);
+
+    verify(channel).basicReject(1, false);
+    verify(receiver, never()).acceptCaseEvent(any());
+    assertEquals(1, rejectedCount(), 0);
+  }
+
+  @Test
+  public void shouldAcknowledgeFilteredEventWithoutProcessingIt() throws Exception {
+    target.setFilter(new QidFilteringPostProcessor(Set.of("63"), listenerMetrics));
+    MessageProperties properties = new MessageProperties();
+    properties.setDeliveryTag(1);
+    byte[] body = "{\"payload\":{\"uac\":{\"questionnaireId\":\"631234\"}}}".getBytes();
+
+    target.onMessage(new Message(body, properties), channel);
+    target.onMessage(message(caseEvent(CASE_ID_1, "1a"), 2), channel);
+
+    verify(channel, timeout(5000)).basicAck(2, false);
+    verify(channel).basicAck(1, false);
+    verify(receiver).acceptCaseEvent(any());
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+    assertEquals(
+        1, meterRegistry.get("rhsvc.listener.filtered").tag("queue", "case").counter().count(), 0);
+  }
+}
@@ -0,0 +1,101 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ListenerMetricsTest {
+
+  @Mock private MethodInvocation invocation;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private MethodInterceptor target = new ListenerMetrics("case", meterRegistry).processingAdvice();
+
+  private Message message(String body) {
+    return new Message(body.getBytes(), new MessageProperties());
+  }
+
+  private Message raisedMessage(OffsetDateTime dateTime) {
+    return message(
+        "{\"payload\":{\"collectionCase\":{}},"
+            + "\"event\":{\"type\":\"CASE_UPDATED\",\"dateTime\":\""
+            + dateTime
+            + "\"}}");
+  }
+
+  private Timer timer(String name) {
+    return meterRegistry.get(name).tag("queue", "case").timer();
+  }
+
+  @Test
+  public void shouldTimeProcessingAndRecordLag() throws Throwable {
+    Message message = raisedMessage(OffsetDateTime.now(ZoneOffset.UTC).minusMinutes(5));
+    when(invocation.getArguments()).thenReturn(new Object[] {null, message});
+    when(invocation.proceed()).thenReturn("done");
+
+    assertEquals("done", target.invoke(invocation));
+
+    assertEquals(1, timer("rhsvc.listener.processing").count());
+    Timer lag = timer("rhsvc.listener.lag");
+    assertEquals(1, lag.count());
+    assertTrue(lag.totalTime(TimeUnit.MINUTES) >= 5);
+  }
+
+  @Test
+  public void shouldRecordBatchSizeAndLagOfEachEvent() throws Throwable {
+    OffsetDateTime raised = OffsetDateTime.now(ZoneOffset.UTC).minusSeconds(30);
+    List<Message> messages = List.of(raisedMessage(raised), raisedMessage(raised));
+    when(invocation.getArguments()).thenReturn(new Object[] {null, messages});
+
+    target.invoke(invocation);
+
+    assertEquals(1, timer("rhsvc.listener.processing").count());
+    assertEquals(2, timer("rhsvc.listener.lag").count());
+    assertEquals(
+        2,
+        meterRegistry.get("rhsvc.listener.batch.size").tag("queue", "case").summary().totalAmount(),
+        0);
+  }
+
+  @Test
+  public void shouldTimeProcessingOfEventWithoutDateTime() throws Throwable {
+    when(invocation.getArguments()).thenReturn(new Object[] {null, message("not json")});
+
+    target.invoke(invocation);
+
+    assertEquals(1, timer("rhsvc.listener.processing").count());
+    assertEquals(0, timer("rhsvc.listener.lag").count());
+  }
+
+  @Test
+  public void shouldTimeProcessingThatFails() throws Throwable {
+    Message message = raisedMessage(OffsetDateTime.now(ZoneOffset.UTC));
+    when(invocation.getArguments()).thenReturn(new Object[] {null, message});
+    when(invocation.proceed()).thenThrow(new IllegalStateException());
+
+    try {
+      target.invoke(invocation);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertEquals(1, timer("rhsvc.listener.processing").count());
+  }
+}
@@ -0,0 +1,145 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitOperations.OperationsCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventSender;
+import uk.gov.ons.ctp.common.event.model.UACEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.config.MessagingConfig.OutboxConfig;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxEventSender;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxJournal;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OutboxEventSenderTest {
+  private static final RoutingKey ROUTING_KEY = RoutingKey.values()[0];
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock private RabbitTemplate template;
+  @Mock private RabbitOperations operations;
+  @Mock private EventSender sender;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private Path directory;
+  private OutboxJournal journal;
+  private OutboxEventSender target;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.getRoot().toPath();
+    journal = new OutboxJournal(directory, new CustomObjectMapper(), false, 100, 100);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    target.destroy();
+  }
+
+  private OutboxEventSender outboxEventSender() {
+    OutboxConfig outboxConfig = new OutboxConfig();
+    outboxConfig.setBatchSize(10);
+    outboxConfig.setPollTimeout(10);
+    outboxConfig.setConfirmTimeout(100);
+    outboxConfig.setRetryBackoff(1);
+    outboxConfig.setMaxAttempts(3);
+    outboxConfig.setDrainTimeout(0);
+    return new OutboxEventSender(journal, template, sender, outboxConfig, meterRegistry);
+  }
+
+  // the template runs the dispatcher's callback, as it would on a channel with confirms
+  @SuppressWarnings("unchecked")
+  private void mockInvoke() {
+    when(template.invoke(any()))
+        .thenAnswer(
+            invocation ->
+                ((OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(operations));
+  }
+
+  private UACEvent uacEvent(String qid) {
+    UACEvent uacEvent = new UACEvent();
+    uacEvent.getPayload().getUac().setQuestionnaireId(qid);
+    return uacEvent;
+  }
+
+  private double parkedCount() {
+    return meterRegistry.get("rhsvc.outbox.parked").counter().count();
+  }
+
+  private void awaitBacklog(int backlog) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (journal.size() != backlog && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void shouldParkEventThatCannotBePublished() throws Exception {
+    mockInvoke();
+    UACEvent poison = uacEvent("poison");
+    doAnswer(
+            invocation -> {
+              if (invocation.getArgument(1) == poison) {
+                throw new IllegalStateException("Cannot convert event");
+              }
+              return null;
+            })
+        .when(sender)
+        .sendEvent(any(), any());
+    journal.append(ROUTING_KEY.name(), uacEvent("1"));
+    journal.append(ROUTING_KEY.name(), poison);
+    journal.append(ROUTING_KEY.name(), uacEvent("3"));
+
+    target = outboxEventSender();
+    awaitBacklog(0);
+
+    assertEquals(0, journal.size());
+    assertEquals(1, parkedCount(), 0);
+    List<String> deadLetters = Files.readAllLines(directory.resolve("outbox.deadletter"));
+    assertEquals(1, deadLetters.size());
+    assertTrue(deadLetters.get(0), deadLetters.get(0).contains("poison"));
+    // the event after it is published
+    verify(sender, atLeastOnce()).sendEvent(any(), argThat(e -> "3".equals(qid((UACEvent) e))));
+  }
+
+  @Test
+  public void shouldNotParkEventWhenRabbitCannotBeReached() throws Exception {
+    when(template.invoke(any())).thenThrow(new AmqpConnectException(new Exception("down")));
+    journal.append(ROUTING_KEY.name(), uacEvent("1"));
+
+    target = outboxEventSender();
+    Thread.sleep(200);
+
+    assertEquals(1, journal.size());
+    assertEquals(0, parkedCount(), 0);
+    assertFalse(Files.exists(directory.resolve("outbox.deadletter")));
+  }
+
+  private static String qid(UACEvent uacEvent) {
+    return uacEvent.getPayload().getUac().getQuestionnaireId();
+  }
+}
@@ -0,0 +1,214 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.ons.ctp.common.event.model.UACEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxJournal;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.OutboxJournal.Entry;
+
+public class OutboxJournalTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private Path directory;
+  private OutboxJournal journal;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.getRoot().toPath();
+    journal = open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    journal.close();
+  }
+
+  private OutboxJournal open() throws Exception {
+    return new OutboxJournal(directory, objectMapper, false, 2, 5);
+  }
+
+  private UACEvent uacEvent(String qid) {
+    UACEvent uacEvent = new UACEvent();
+    uacEvent.getPayload().getUac().setQuestionnaireId(qid);
+    return uacEvent;
+  }
+
+  private long segmentCount() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(f -> f.getFileName().toString().endsWith(".journal")).count();
+    }
+  }
+
+  @Test
+  public void shouldReturnEntriesInOrder() throws Exception {
+    journal.append("UAC_UPDATE", uacEvent("1"));
+    journal.append("UAC_UPDATE", uacEvent("2"));
+    journal.append("UAC_UPDATE", uacEvent("3"));
+
+    List<Entry> entries = journal.awaitEntries(2, 0);
+
+    assertEquals(2, entries.size());
+    assertEquals(1, entries.get(0).getSequence());
+    assertEquals(2, entries.get(1).getSequence());
+    assertEquals(3, journal.size());
+  }
+
+  @Test
+  public void shouldReturnNoEntriesWhenEmpty() throws Exception {
+    assertTrue(journal.awaitEntries(10, 10).isEmpty());
+    assertEquals(0, journal.oldestAgeMillis());
+  }
+
+  @Test
+  public void shouldReloadUnacknowledgedEntries() throws Exception {
+    journal.append("UAC_UPDATE", uacEvent("1"));
+    journal.append("UAC_UPDATE", uacEvent("2"));
+    journal.append("UAC_UPDATE", uacEvent("3"));
+    journal.acknowledge(1);
+    journal.close();
+
+    journal = open();
+
+    List<Entry> entries = journal.awaitEntries(10, 0);
+    assertEquals(2, entries.size());
+    assertEquals(2, entries.get(0).getSequence());
+    assertEquals("UAC_UPDATE", entries.get(0).getRoutingKey());
+    UACEvent event = (UACEvent) entries.get(0).getEvent();
+    assertEquals("2", event.getPayload().getUac().getQuestionnaireId());
+  }
+
+  @Test
+  public void shouldContinueSequenceAfterReload() throws Exception {
+    journal.append("UAC_UPDATE", uacEvent("1"));
+    journal.acknowledge(1);
+    journal.close();
+
+    journal = open();
+
+    assertEquals(2, journal.append("UAC_UPDATE", uacEvent("2")).getSequence());
+  }
+
+  @Test
+  public void shouldDeleteAcknowledgedSegments() throws Exception {
+    for (String qid : Stream.of("1", "2", "3", "4", "5").collect(Collectors.toList())) {
+      journal.append("UAC_UPDATE", uacEvent(qid));
+    }
+    assertEquals(3, segmentCount());
+
+    journal.acknowledge(4);
+
+    assertEquals(1, journal.size());
+    assertEquals(1, segmentCount());
+  }
+
+  @Test
+  public void shouldSkipPartlyWrittenEntry() throws Exception {
+    journal.append("UAC_UPDATE", uacEvent("1"));
+    journal.close();
+    Path segment = directory.resolve(String.format("outbox-%020d.journal", 1));
+    Files.write(segment, "{\"sequence\":2,\"queuedAt".getBytes(), StandardOpenOption.APPEND);
+
+    journal = open();
+
+    assertEquals(1, journal.size());
+    assertEquals(2, journal.append("UAC_UPDATE", uacEvent("2")).getSequence());
+  }
+
+  @Test
+  public void shouldParkOldestEntry() throws Exception {
+    Entry parked = journal.append("UAC_UPDATE", uacEvent("1"));
+    journal.append("UAC_UPDATE", uacEvent("2"));
+
+    journal.park(parked);
+
+    List<Entry> entries = journal.awaitEntries(10, 0);
+    assertEquals(1, entries.size());
+    assertEquals(2, entries.get(0).getSequence());
+    List<String> deadLetters = Files.readAllLines(directory.resolve("outbox.deadletter"));
+    assertEquals(1, deadLetters.size());
+    assertTrue(deadLetters.get(0), deadLetters.get(0).contains("\"sequence\":1"));
+
+    // the parked entry is not loaded again
+    journal.close();
+    journal = open();
+    assertEquals(1, journal.size());
+  }
+
+  @Test
+  public void shouldOnlyParkOldestEntry() throws Exception {
+    journal.append("UAC_UPDATE", uacEvent("1"));
+    Entry second = journal.append("UAC_UPDATE", uacEvent("2"));
+
+    try {
+      journal.park(second);
+      fail("Should only park the oldest entry");
+    } catch (IllegalArgumentException e) {
+      assertEquals(2, journal.size());
+    }
+  }
+
+  @Test
+  public void shouldRejectAppendWhenFull() throws Exception {
+    for (String qid : Stream.of("1", "2", "3", "4", "5").collect(Collectors.toList())) {
+      journal.append("UAC_UPDATE", uacEvent(qid));
+    }
+
+    try {
+      journal.append("UAC_UPDATE", uacEvent("6"));
+      fail("Should have rejected event");
+    } catch (IllegalStateException e) {
+      assertEquals(5, journal.size());
+    }
+
+    journal.acknowledge(1);
+    assertEquals(6, journal.append("UAC_UPDATE", uacEvent("6")).getSequence());
+  }
+
+  @Test
+  public void shouldSyncConcurrentAppends() throws Exception {
+    journal.close();
+    journal = new OutboxJournal(directory, objectMapper, true, 25, 1000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Entry>> appends = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String qid = Integer.toString(i);
+        appends.add(executor.submit(() -> journal.append("UAC_UPDATE", uacEvent(qid))));
+      }
+      for (Future<Entry> append : appends) {
+        append.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    journal.close();
+
+    journal = open();
+
+    List<Entry> entries = journal.awaitEntries(1000, 0);
+    assertEquals(100, entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      assertEquals(i + 1, entries.get(i).getSequence());
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package uk.gov.ons.ctp.integration.rhsvc.message.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import uk.gov.ons.ctp.common.event.model.UACEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.ListenerMetrics;
+import uk.gov.ons.ctp.integration.rhsvc.event.impl.QidFilteringPostProcessor;
+
+public class QidFilteringPostProcessorTest {
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private QidFilteringPostProcessor target =
+      new QidFilteringPostProcessor(
+          Stream.of("11", "12").collect(Collectors.toSet()),
+          new ListenerMetrics("uac", meterRegistry));
+
+  private Message uacMessage(String qid) throws Exception {
+    UACEvent uacEvent = new UACEvent();
+    uacEvent.getPayload().getUac().setQuestionnaireId(qid);
+    return new Message(objectMapper.writeValueAsBytes(uacEvent), new MessageProperties());
+  }
+
+  private double filteredCount() {
+    return meterRegistry.get("rhsvc.listener.filtered").tag("queue", "uac").counter().count();
+  }
+
+  @Test
+  public void shouldDiscardFilteredQid() throws Exception {
+    assertNull(target.postProcessMessage(uacMessage("123456789")));
+    assertEquals(1, filteredCount(), 0);
+  }
+
+  @Test
+  public void shouldPassOnAcceptedQid() throws Exception {
+    Message message = uacMessage("013456789");
+    assertSame(message, target.postProcessMessage(message));
+    assertEquals(0, filteredCount(), 0);
+  }
+
+  @Test
+  public void shouldPassOnMessageWithoutQid() throws Exception {
+    Message message = uacMessage(null);
+    assertSame(message, target.postProcessMessage(message));
+  }
+
+  @Test
+  public void shouldPassOnUnreadableMessage() {
+    Message message = new Message("not json".getBytes(), new MessageProperties());
+    assertSame(message, target.postProcessMessage(message));
+  }
+}
@@ -4,6 +4,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.SneakyThrows;
@@ -44,18 +45,23 @@ public class UacEventReceiverImplUnit_Test {
     target.setRespondentDataRepo(mockRespondentDataRepo);
   }
 
-  @SneakyThrows
-  private void prepareAndAcceptEvent(String qid, EventType type) {
-    // Construct UACEvent
-    uacEventFixture = new UACEvent();
-    UACPayload uacPayloadFixture = uacEventFixture.getPayload();
-    uacFixture = uacPayloadFixture.getUac();
-    uacFixture.setQuestionnaireId(qid);
+  private UACEvent uacEvent(String qid, EventType type) {
+    UACEvent uacEvent = new UACEvent();
+    UACPayload uacPayloadFixture = uacEvent.getPayload();
+    uacPayloadFixture.getUac().setQuestionnaireId(qid);
 
     Header headerFixture = new Header();
     headerFixture.setType(type);
     headerFixture.setTransactionId("c45de4dc-3c3b-11e9-b210-d663bd873d93");
-    uacEventFixture.setEvent(headerFixture);
+    uacEvent.setEvent(headerFixture);
+    return uacEvent;
+  }
+
+  @SneakyThrows
+  private void prepareAndAcceptEvent(String qid, EventType type) {
+    // Construct UACEvent
+    uacEventFixture = uacEvent(qid, type);
+    uacFixture = uacEventFixture.getPayload().getUac();
 
     // execution
     target.acceptUACEvent(uacEventFixture);
@@ -117,4 +123,14 @@ public class UacEventReceiverImplUnit_Test {
   public void shouldAcceptUacCreatedEvent() {
     acceptUacEvent(RespondentHomeFixture.QID_01, EventType.UAC_CREATED);
   }
+
+  @Test
+  public void shouldWriteBatchOfUacEventsWithoutFilteredUacs() throws Exception {
+    UACEvent accepted = uacEvent(RespondentHomeFixture.QID_01, EventType.UAC_UPDATED);
+    UACEvent filtered = uacEvent(RespondentHomeFixture.QID_11, EventType.UAC_UPDATED);
+
+    target.acceptUACEvents(List.of(accepted, filtered));
+
+    verify(mockRespondentDataRepo).writeUACs(List.of(accepted.getPayload().getUac()));
+  }
 }
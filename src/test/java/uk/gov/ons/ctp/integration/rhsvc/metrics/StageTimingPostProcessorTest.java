@@ -0,0 +1,103 @@
+package uk.gov.ons.ctp.integration.rhsvc.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+public class StageTimingPostProcessorTest {
+
+  public interface Store {
+    String read(String key);
+  }
+
+  public static class StoreImpl implements Store {
+    @Override
+    public String read(String key) {
+      if (key == null) {
+        throw new IllegalArgumentException("no key");
+      }
+      return "value of " + key;
+    }
+  }
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private StageTimingPostProcessor postProcessor;
+
+  @Before
+  public void setUp() {
+    StaticListableBeanFactory beanFactory =
+        new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry));
+    postProcessor =
+        new StageTimingPostProcessor(
+            Map.of(Store.class, "store"), beanFactory.getBeanProvider(MeterRegistry.class));
+  }
+
+  @After
+  public void tearDown() {
+    StageTrace.end();
+  }
+
+  private Store proxy() {
+    return (Store) postProcessor.postProcessAfterInitialization(new StoreImpl(), "store");
+  }
+
+  private long count() {
+    return meterRegistry
+        .get("rhsvc.stage")
+        .tag("stage", "store")
+        .tag("operation", "read")
+        .timer()
+        .count();
+  }
+
+  @Test
+  public void shouldTimeCalls() {
+    Store store = proxy();
+
+    assertEquals("value of A", store.read("A"));
+    store.read("B");
+
+    assertEquals(2, count());
+  }
+
+  @Test
+  public void shouldTimeFailedCalls() {
+    Store store = proxy();
+
+    try {
+      store.read(null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(1, count());
+    }
+  }
+
+  @Test
+  public void shouldRecordCallsInTrace() {
+    Store store = proxy();
+    StageTrace trace = StageTrace.begin();
+
+    store.read("A");
+
+    List<String> stages = trace.getStages();
+    assertEquals(1, stages.size());
+    assertTrue(stages.get(0), stages.get(0).startsWith("store.read="));
+  }
+
+  @Test
+  public void shouldNotWrapOtherBeans() {
+    Object bean = new Object();
+
+    assertSame(bean, postProcessor.postProcessAfterInitialization(bean, "other"));
+  }
+}
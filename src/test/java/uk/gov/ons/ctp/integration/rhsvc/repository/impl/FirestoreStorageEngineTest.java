@@ -0,0 +1,122 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.api.gax.rpc.StatusCode.Code;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.ctp.common.cloud.RetryableCloudDataStore;
+import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FirestoreStorageEngineTest {
+  private static final String UAC_HASH =
+      "8a9d5db4bbee34fd16e40aa2aaae52cfbdf1842559023614c30edb480ec252b4";
+  private static final String CASE_ID = "bfb5cdca-3119-4d2c-a807-51ae55443b33";
+
+  @Mock private RetryableCloudDataStore cloudDataStore;
+  @Mock private Firestore firestore;
+  @Mock private CollectionReference collection;
+  @Mock private DocumentReference document;
+  @Mock private WriteBatch batch;
+
+  private FirestoreStorageEngine target;
+
+  @Before
+  public void setUp() {
+    target = new FirestoreStorageEngine(cloudDataStore, firestore);
+    ReflectionTestUtils.setField(target, "backoffInitial", 1L);
+    ReflectionTestUtils.setField(target, "backoffMultiplier", 1.0);
+    ReflectionTestUtils.setField(target, "backoffMax", 1L);
+    ReflectionTestUtils.setField(target, "backoffMaxAttempts", 3);
+    when(firestore.collection("uac")).thenReturn(collection);
+    when(collection.document(UAC_HASH)).thenReturn(document);
+  }
+
+  private UAC uac() {
+    UAC uac = new UAC();
+    uac.setUacHash(UAC_HASH);
+    uac.setCaseId(CASE_ID);
+    return uac;
+  }
+
+  private ApiException failure(Code code) {
+    StatusCode statusCode =
+        new StatusCode() {
+          @Override
+          public Code getCode() {
+            return code;
+          }
+
+          @Override
+          public Object getTransportCode() {
+            return code;
+          }
+        };
+    return new ApiException(new RuntimeException(code.name()), statusCode, false);
+  }
+
+  /** Test a batch is written as the cloud data store would write each of its objects */
+  @Test
+  public void shouldStoreBatchAsCloudDataStoreWould() throws Exception {
+    when(firestore.batch()).thenReturn(batch);
+    when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+    UAC uac = uac();
+
+    target.storeObject("uac", UAC_HASH, uac, CASE_ID);
+    target.storeObjects(List.of(new StorageWrite("uac", UAC_HASH, uac)));
+
+    ArgumentCaptor<Object> stored = ArgumentCaptor.forClass(Object.class);
+    verify(cloudDataStore).storeObject(any(), any(), stored.capture(), any());
+    ArgumentCaptor<Object> batched = ArgumentCaptor.forClass(Object.class);
+    verify(batch).set(any(DocumentReference.class), batched.capture());
+    assertSame(stored.getValue(), batched.getValue());
+    assertEquals(uac(), batched.getValue());
+    verify(batch).set(document, uac);
+    verify(firestore).batch();
+    verify(batch).commit();
+  }
+
+  /** Test a batch that fails transiently is written again */
+  @Test
+  public void shouldRetryBatchOnTransientFailure() throws Exception {
+    when(firestore.batch()).thenReturn(batch);
+    when(batch.commit())
+        .thenReturn(ApiFutures.immediateFailedFuture(failure(Code.UNAVAILABLE)))
+        .thenReturn(ApiFutures.immediateFuture(List.of()));
+
+    target.storeObjects(List.of(new StorageWrite("uac", UAC_HASH, uac())));
+
+    verify(batch, times(2)).commit();
+  }
+
+  /** Test an object is not created where one already exists */
+  @Test
+  public void shouldNotStoreObjectIfPresent() throws Exception {
+    UAC uac = uac();
+    when(document.create(uac))
+        .thenReturn(ApiFutures.immediateFailedFuture(failure(Code.ALREADY_EXISTS)));
+
+    assertFalse(target.storeObjectIfAbsent("uac", UAC_HASH, uac));
+  }
+}
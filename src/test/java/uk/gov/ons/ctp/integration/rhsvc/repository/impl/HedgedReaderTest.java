@@ -0,0 +1,174 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.integration.rhsvc.config.ExecutorConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.HedgedReadConfig;
+
+public class HedgedReaderTest {
+  private static final int MIN_SAMPLES = 5;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private HedgedReader target;
+
+  private AtomicInteger reads = new AtomicInteger();
+  private CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    if (target != null) {
+      target.destroy();
+    }
+  }
+
+  private HedgedReader hedgedReader(double budgetPercent) {
+    ExecutorConfig executorConfig = new ExecutorConfig();
+    executorConfig.setThreads(4);
+    executorConfig.setQueueSize(10);
+    HedgedReadConfig hedgeConfig = new HedgedReadConfig();
+    hedgeConfig.setEnabled(true);
+    hedgeConfig.setPercentile(0.95);
+    hedgeConfig.setMinDelayMillis(20);
+    hedgeConfig.setMinSamples(MIN_SAMPLES);
+    hedgeConfig.setBudgetPercent(budgetPercent);
+    hedgeConfig.setBurst(1);
+    hedgeConfig.setExecutor(executorConfig);
+    return new HedgedReader(hedgeConfig, meterRegistry);
+  }
+
+  private double count(String name) {
+    return meterRegistry.counter(name, "read", "uac").count();
+  }
+
+  private void warmUp() throws Exception {
+    for (int i = 0; i < MIN_SAMPLES; i++) {
+      assertEquals("fast", target.read("uac", () -> "fast"));
+    }
+  }
+
+  private void awaitRelease() {
+    try {
+      release.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // the first read is slow, until released, and any read after it is fast
+  private String slowFirstRead() {
+    if (reads.incrementAndGet() == 1) {
+      awaitRelease();
+      return "slow";
+    }
+    return "hedge";
+  }
+
+  @Test
+  public void shouldNotHedgeFastReads() throws Exception {
+    target = hedgedReader(100);
+    warmUp();
+
+    assertEquals("fast", target.read("uac", () -> "fast"));
+    assertEquals(0, count("rhsvc.reads.hedged"), 0);
+  }
+
+  @Test
+  public void shouldNotHedgeBeforeEnoughReadsObserved() throws Exception {
+    target = hedgedReader(100);
+    new Thread(
+            () -> {
+              sleep(100);
+              release.countDown();
+            })
+        .start();
+
+    assertEquals("slow", target.read("uac", this::slowFirstRead));
+    assertEquals(1, reads.get());
+    assertEquals(0, count("rhsvc.reads.hedged"), 0);
+  }
+
+  @Test
+  public void shouldHedgeSlowRead() throws Exception {
+    target = hedgedReader(100);
+    warmUp();
+
+    assertEquals("hedge", target.read("uac", this::slowFirstRead));
+    assertEquals(2, reads.get());
+    assertEquals(1, count("rhsvc.reads.hedged"), 0);
+    assertEquals(1, count("rhsvc.reads.hedge.wins"), 0);
+  }
+
+  @Test
+  public void shouldNotHedgeWhenOverBudget() throws Exception {
+    target = hedgedReader(0);
+    warmUp();
+    new Thread(
+            () -> {
+              sleep(100);
+              release.countDown();
+            })
+        .start();
+
+    assertEquals("slow", target.read("uac", this::slowFirstRead));
+    assertEquals(1, reads.get());
+    assertEquals(0, count("rhsvc.reads.hedged"), 0);
+    assertEquals(1, count("rhsvc.reads.hedges.denied"), 0);
+  }
+
+  @Test
+  public void shouldUseHedgeWhenSlowReadFails() throws Exception {
+    target = hedgedReader(100);
+    warmUp();
+    CTPException failure = new CTPException(Fault.SYSTEM_ERROR, "Firestore unavailable");
+
+    String result =
+        target.read(
+            "uac",
+            () -> {
+              if (reads.incrementAndGet() == 1) {
+                awaitRelease();
+                throw failure;
+              }
+              release.countDown();
+              return "hedge";
+            });
+
+    assertEquals("hedge", result);
+  }
+
+  @Test
+  public void shouldPassOnFailureOfRead() throws Exception {
+    target = hedgedReader(100);
+    CTPException failure = new CTPException(Fault.SYSTEM_ERROR, "Firestore unavailable");
+
+    try {
+      target.<String>read(
+          "uac",
+          () -> {
+            throw failure;
+          });
+      fail("Should have failed to read");
+    } catch (CTPException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
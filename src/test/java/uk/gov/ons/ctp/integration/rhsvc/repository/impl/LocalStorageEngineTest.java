@@ -0,0 +1,286 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig.LocalStorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+
+public class LocalStorageEngineTest {
+  private static final String SCHEMA = "case";
+  private static final String[] SEARCH_BY_UPRN_PATH = new String[] {"address", "uprn"};
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private LocalStorageEngine target;
+
+  @After
+  public void tearDown() throws Exception {
+    if (target != null) {
+      target.destroy();
+    }
+  }
+
+  private LocalStorageEngine engine(String directory) throws Exception {
+    LocalStorageConfig localConfig = new LocalStorageConfig();
+    localConfig.setDirectory(directory);
+    StorageConfig storageConfig = new StorageConfig();
+    storageConfig.setLocal(localConfig);
+    AppConfig appConfig = new AppConfig();
+    appConfig.setStorage(storageConfig);
+    return new LocalStorageEngine(appConfig);
+  }
+
+  private CollectionCase collectionCase(String id, String uprn) {
+    CollectionCase collectionCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    collectionCase.setId(id);
+    collectionCase.getAddress().setUprn(uprn);
+    return collectionCase;
+  }
+
+  @Test
+  public void shouldRetrieveCopyOfStoredObject() throws Exception {
+    target = engine(null);
+    CollectionCase stored = collectionCase("id-1", "100");
+    target.storeObject(SCHEMA, "id-1", stored, "id-1");
+
+    CollectionCase retrieved = target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").get();
+    assertEquals(stored, retrieved);
+
+    retrieved.setCaseRef("changed");
+    assertEquals(stored, target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").get());
+  }
+
+  @Test
+  public void shouldNotRetrieveMissingObject() throws Exception {
+    target = engine(null);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+
+    assertFalse(target.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+    assertFalse(target.retrieveObject(CollectionCase.class, "uac", "id-1").isPresent());
+  }
+
+  @Test
+  public void shouldSearchByFieldPath() throws Exception {
+    target = engine(null);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+    target.storeObject(SCHEMA, "id-2", collectionCase("id-2", "200"), "id-2");
+    target.storeObject(SCHEMA, "id-3", collectionCase("id-3", "100"), "id-3");
+
+    List<CollectionCase> found =
+        target.search(CollectionCase.class, SCHEMA, SEARCH_BY_UPRN_PATH, "100");
+
+    assertEquals(2, found.size());
+    assertTrue(found.stream().allMatch(c -> "100".equals(c.getAddress().getUprn())));
+    assertTrue(target.search(CollectionCase.class, SCHEMA, SEARCH_BY_UPRN_PATH, "300").isEmpty());
+  }
+
+  @Test
+  public void shouldListKeysOfSchema() throws Exception {
+    target = engine(null);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+    target.storeObject(SCHEMA, "id-2", collectionCase("id-2", "200"), "id-2");
+    target.storeObject("uac", "hash-1", collectionCase("id-1", "100"), "id-1");
+
+    List<String> keys = new ArrayList<>();
+    target.forEachKey(SCHEMA, keys::add);
+
+    assertEquals(2, keys.size());
+    assertTrue(keys.containsAll(List.of("id-1", "id-2")));
+  }
+
+  @Test
+  public void shouldStoreObjectOnlyIfAbsent() throws Exception {
+    target = engine(null);
+
+    assertTrue(target.storeObjectIfAbsent(SCHEMA, "id-1", collectionCase("id-1", "100")));
+    assertFalse(target.storeObjectIfAbsent(SCHEMA, "id-1", collectionCase("id-1", "200")));
+
+    Optional<CollectionCase> stored = target.retrieveObject(CollectionCase.class, SCHEMA, "id-1");
+    assertEquals("100", stored.get().getAddress().getUprn());
+  }
+
+  @Test
+  public void shouldDeleteObject() throws Exception {
+    String directory = folder.getRoot().toString();
+    target = engine(directory);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+    target.storeObject(SCHEMA, "id-2", collectionCase("id-2", "200"), "id-2");
+    target.deleteObject(SCHEMA, "id-1");
+    target.deleteObject(SCHEMA, "id-3");
+
+    assertFalse(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+    assertTrue(target.storeObjectIfAbsent(SCHEMA, "id-1", collectionCase("id-1", "300")));
+    target.deleteObject(SCHEMA, "id-1");
+    target.destroy();
+
+    // the deletes are replayed when reopened
+    target = engine(directory);
+
+    assertFalse(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+  }
+
+  @Test
+  public void shouldStoreBatchOfObjects() throws Exception {
+    String directory = folder.getRoot().toString();
+    target = engine(directory);
+    target.storeObjects(
+        List.of(
+            new StorageWrite(SCHEMA, "id-1", collectionCase("id-1", "100")),
+            new StorageWrite("uac", "hash-1", collectionCase("id-1", "100"))));
+
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+    assertTrue(target.retrieveObject(CollectionCase.class, "uac", "hash-1").isPresent());
+    target.destroy();
+
+    // a partly written batch is not loaded at all
+    Path log = folder.getRoot().toPath().resolve("storage.log");
+    byte[] partBatch =
+        "{\"batch\":[{\"schema\":\"case\",\"key\":\"id-2\",\"value\":{}},{\"sch"
+            .getBytes(StandardCharsets.UTF_8);
+    Files.write(log, partBatch, StandardOpenOption.APPEND);
+    target = engine(directory);
+
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+    assertTrue(target.retrieveObject(CollectionCase.class, "uac", "hash-1").isPresent());
+    assertFalse(target.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+  }
+
+  @Test
+  public void shouldStoreWritesOfTransaction() throws Exception {
+    String directory = folder.getRoot().toString();
+    target = engine(directory);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+
+    int found =
+        target.runTransaction(
+            context -> {
+              List<CollectionCase> cases =
+                  context.search(CollectionCase.class, SCHEMA, SEARCH_BY_UPRN_PATH, "100");
+              CollectionCase stored =
+                  context.retrieveObject(CollectionCase.class, SCHEMA, "id-1").get();
+              stored.setCaseRef("changed");
+              context.storeObject(SCHEMA, "id-1", stored);
+              context.storeObject(SCHEMA, "id-2", collectionCase("id-2", "100"));
+              // the writes are not stored until the transaction ends
+              assertFalse(context.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+              return cases.size();
+            });
+
+    assertEquals(1, found);
+    assertEquals(2, target.search(CollectionCase.class, SCHEMA, SEARCH_BY_UPRN_PATH, "100").size());
+    target.destroy();
+
+    // the writes are logged as one batch
+    assertEquals(2, Files.readAllLines(folder.getRoot().toPath().resolve("storage.log")).size());
+    target = engine(directory);
+    Optional<CollectionCase> stored = target.retrieveObject(CollectionCase.class, SCHEMA, "id-1");
+    assertEquals("changed", stored.get().getCaseRef());
+  }
+
+  @Test
+  public void shouldMergeMapEntriesOfTransaction() throws Exception {
+    target = engine(null);
+    Date created = new Date();
+    target.runTransaction(
+        context -> {
+          context.storeMapEntry(
+              "index", "100", UprnCaseIndex.CASES, "id-1", new UprnCaseIndex.Entry(created, false));
+          context.storeMapEntry(
+              "index", "100", UprnCaseIndex.CASES, "id-2", new UprnCaseIndex.Entry(created, true));
+          return null;
+        });
+
+    target.runTransaction(
+        context -> {
+          context.storeMapEntry("index", "100", UprnCaseIndex.CASES, "id-1", null);
+          context.storeMapEntry(
+              "index", "100", UprnCaseIndex.CASES, "id-3", new UprnCaseIndex.Entry(created, false));
+          return null;
+        });
+
+    UprnCaseIndex index = target.retrieveObject(UprnCaseIndex.class, "index", "100").get();
+    assertEquals(
+        Map.of(
+            "id-2", new UprnCaseIndex.Entry(created, true),
+            "id-3", new UprnCaseIndex.Entry(created, false)),
+        index.getCases());
+  }
+
+  @Test
+  public void shouldNotStoreWritesOfFailedTransaction() throws Exception {
+    target = engine(null);
+
+    try {
+      target.runTransaction(
+          context -> {
+            context.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"));
+            throw new CTPException(Fault.SYSTEM_ERROR, "failed");
+          });
+      fail("Transaction should have failed");
+    } catch (CTPException e) {
+      assertEquals(Fault.SYSTEM_ERROR, e.getFault());
+    }
+
+    assertFalse(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+  }
+
+  @Test
+  public void shouldLoadLatestObjectsWhenReopened() throws Exception {
+    String directory = folder.getRoot().toString();
+    target = engine(directory);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "200"), "id-1");
+    target.storeObject(SCHEMA, "id-2", collectionCase("id-2", "300"), "id-2");
+    target.destroy();
+
+    target = engine(directory);
+
+    Optional<CollectionCase> reloaded = target.retrieveObject(CollectionCase.class, SCHEMA, "id-1");
+    assertEquals("200", reloaded.get().getAddress().getUprn());
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+    // the log is compacted to the latest version of each object
+    assertEquals(2, Files.readAllLines(folder.getRoot().toPath().resolve("storage.log")).size());
+  }
+
+  @Test
+  public void shouldSkipPartlyWrittenEntryWhenReopened() throws Exception {
+    String directory = folder.getRoot().toString();
+    target = engine(directory);
+    target.storeObject(SCHEMA, "id-1", collectionCase("id-1", "100"), "id-1");
+    target.destroy();
+    Path log = folder.getRoot().toPath().resolve("storage.log");
+    byte[] partLine = "{\"schema\":\"case\",\"ke".getBytes(StandardCharsets.UTF_8);
+    Files.write(log, partLine, StandardOpenOption.APPEND);
+
+    target = engine(directory);
+
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-1").isPresent());
+    target.storeObject(SCHEMA, "id-2", collectionCase("id-2", "200"), "id-2");
+    target.destroy();
+    target = engine(directory);
+    assertTrue(target.retrieveObject(CollectionCase.class, SCHEMA, "id-2").isPresent());
+  }
+}
@@ -0,0 +1,148 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+
+public class ReadCoalescerTest {
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private ReadCoalescer target = new ReadCoalescer(meterRegistry);
+  private ExecutorService executor = Executors.newCachedThreadPool();
+
+  private AtomicInteger reads = new AtomicInteger();
+  private CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private double coalesced() {
+    return meterRegistry.counter("rhsvc.reads.coalesced", "read", "uac").count();
+  }
+
+  private void awaitRelease() {
+    try {
+      release.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private List<String> blockedRead() {
+    reads.incrementAndGet();
+    awaitRelease();
+    return new ArrayList<>(List.of("uac"));
+  }
+
+  private Future<List<String>> readInBackground() {
+    return executor.submit(() -> target.read("uac", "hash", this::blockedRead, ArrayList::new));
+  }
+
+  private void awaitCoalesced(int expected) throws Exception {
+    for (int i = 0; i < 500 && coalesced() < expected; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, coalesced(), 0);
+  }
+
+  @Test
+  public void shouldCoalesceConcurrentReadsOfKey() throws Exception {
+    Future<List<String>> first = readInBackground();
+    while (reads.get() == 0) {
+      Thread.sleep(10);
+    }
+    Future<List<String>> second = readInBackground();
+    Future<List<String>> third = readInBackground();
+    awaitCoalesced(2);
+
+    release.countDown();
+
+    assertEquals(List.of("uac"), first.get());
+    assertEquals(List.of("uac"), second.get());
+    assertEquals(List.of("uac"), third.get());
+    assertNotSame(first.get(), second.get());
+    assertNotSame(second.get(), third.get());
+    assertEquals(1, reads.get());
+  }
+
+  @Test
+  public void shouldNotCopyUncoalescedRead() throws Exception {
+    List<String> result = new ArrayList<>();
+
+    assertSame(result, target.read("uac", "hash", () -> result, ArrayList::new));
+    assertEquals(0, coalesced(), 0);
+  }
+
+  @Test
+  public void shouldReadAgainOnceReadCompletes() throws Exception {
+    release.countDown();
+
+    target.read("uac", "hash", this::blockedRead, ArrayList::new);
+    target.read("uac", "hash", this::blockedRead, ArrayList::new);
+
+    assertEquals(2, reads.get());
+  }
+
+  @Test
+  public void shouldReadAgainOnceKeyForgotten() throws Exception {
+    Future<List<String>> first = readInBackground();
+    while (reads.get() == 0) {
+      Thread.sleep(10);
+    }
+
+    target.forget("uac", "hash");
+    Future<List<String>> second = readInBackground();
+    while (reads.get() < 2) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    first.get();
+    second.get();
+    assertEquals(0, coalesced(), 0);
+  }
+
+  @Test
+  public void shouldFailCoalescedReadsWhenReadFails() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    executor.submit(
+        () ->
+            target.<List<String>>read(
+                "uac",
+                "hash",
+                () -> {
+                  started.countDown();
+                  awaitRelease();
+                  throw new CTPException(Fault.SYSTEM_ERROR, "read failed");
+                },
+                ArrayList::new));
+    started.await(5, TimeUnit.SECONDS);
+    Future<List<String>> second = readInBackground();
+    awaitCoalesced(1);
+
+    release.countDown();
+
+    try {
+      second.get();
+      fail("expected the coalesced read to fail");
+    } catch (Exception e) {
+      assertEquals(CTPException.class, e.getCause().getClass());
+    }
+  }
+}
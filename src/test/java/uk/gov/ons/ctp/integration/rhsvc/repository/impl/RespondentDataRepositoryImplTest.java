@@ -1,25 +1,58 @@
 package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.cloud.firestore.Firestore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.time.DateUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import uk.gov.ons.ctp.common.FixtureHelper;
 import uk.gov.ons.ctp.common.cloud.RetryableCloudDataStore;
 import uk.gov.ons.ctp.common.domain.UniquePropertyReferenceNumber;
+import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.model.UAC;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.CacheConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.StorageConfig.LocalStorageConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UacFilterConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.CaseUpdate;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageTransaction;
+import uk.gov.ons.ctp.integration.rhsvc.repository.StorageWrite;
+import uk.gov.ons.ctp.integration.rhsvc.repository.UACClaimContext;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RespondentDataRepositoryImplTest {
@@ -27,19 +60,332 @@ public class RespondentDataRepositoryImplTest {
   private static final UniquePropertyReferenceNumber UPRN =
       new UniquePropertyReferenceNumber("123456");
   private static final String UPRN_STRING = Long.toString(UPRN.getValue());
+  private static final String UAC_HASH =
+      "8a9d5db4bbee34fd16e40aa2aaae52cfbdf1842559023614c30edb480ec252b4";
+  private static final String CASE_ID = "bfb5cdca-3119-4d2c-a807-51ae55443b33";
 
   @Spy private RetryableCloudDataStore mockCloudDataStore;
+  @Mock private Firestore firestore;
 
-  @InjectMocks private RespondentDataRepositoryImpl target;
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private RespondentDataRepositoryImpl target;
 
   private List<CollectionCase> collectionCase;
   private final String[] searchByUprnPath = new String[] {"address", "uprn"};
+  private final String[] searchByLinkedCasePath = new String[] {"uac", "caseId"};
 
   /** Setup tests */
   @Before
   public void setUp() throws Exception {
     this.collectionCase = FixtureHelper.loadClassFixtures(CollectionCase[].class);
+    target =
+        new RespondentDataRepositoryImpl(
+            storageEngine(),
+            appConfig(true),
+            meterRegistry);
     ReflectionTestUtils.setField(target, "caseSchema", "SCHEMA");
+    ReflectionTestUtils.setField(target, "uacSchema", "UAC_SCHEMA");
+    ReflectionTestUtils.setField(target, "uprnIndexSchema", "INDEX_SCHEMA");
+    ReflectionTestUtils.setField(target, "caseVersionSchema", "VERSION_SCHEMA");
+  }
+
+  // runs transactions on the mock data store, as the Firestore client's cannot be mocked
+  private FirestoreStorageEngine storageEngine() {
+    return new FirestoreStorageEngine(mockCloudDataStore, firestore) {
+      @Override
+      public <T> T runTransaction(StorageTransaction<T> transaction) throws CTPException {
+        List<StorageWrite> writes = new ArrayList<>();
+        T result =
+            transaction.run(
+                new StorageTransaction.Context() {
+                  @Override
+                  public <U> Optional<U> retrieveObject(Class<U> target, String schema, String key)
+                      throws CTPException {
+                    return mockCloudDataStore.retrieveObject(target, schema, key);
+                  }
+
+                  @Override
+                  public <U> List<U> search(
+                      Class<U> target, String schema, String[] fieldPath, String searchValue)
+                      throws CTPException {
+                    return mockCloudDataStore.search(target, schema, fieldPath, searchValue);
+                  }
+
+                  @Override
+                  public void storeObject(String schema, String key, Object value) {
+                    writes.add(new StorageWrite(schema, key, value));
+                  }
+
+                  @Override
+                  public void storeMapEntry(
+                      String schema, String key, String field, String entryKey, Object value) {
+                    Map<String, Object> entry = Collections.singletonMap(entryKey, value);
+                    writes.add(new StorageWrite(schema, key, Map.of(field, entry)));
+                  }
+                });
+        for (StorageWrite write : writes) {
+          mockCloudDataStore.storeObject(
+              write.getSchema(), write.getKey(), write.getValue(), write.getKey());
+        }
+        return result;
+      }
+    };
+  }
+
+  private void mockNoStoredCase(CollectionCase caze) throws Exception {
+    doReturn(Optional.empty())
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", caze.getId());
+  }
+
+  private void mockCaseVersionWrite() throws Exception {
+    doNothing()
+        .when(mockCloudDataStore)
+        .storeObject(eq("VERSION_SCHEMA"), any(), any(CaseVersion.class), any());
+  }
+
+  private void mockCaseWrite(CollectionCase caze) throws Exception {
+    doNothing().when(mockCloudDataStore).storeObject("SCHEMA", caze.getId(), caze, caze.getId());
+    mockCaseVersionWrite();
+  }
+
+  private double casesSkipped(String reason) {
+    return meterRegistry.counter("rhsvc.case.writes.skipped", "reason", reason).count();
+  }
+
+  private void mockNoUprnIndex() throws Exception {
+    doReturn(Optional.empty())
+        .when(mockCloudDataStore)
+        .retrieveObject(UprnCaseIndex.class, "INDEX_SCHEMA", UPRN_STRING);
+  }
+
+  // the cases are in the index entry for the UPRN, and stored as they are
+  private void mockUprnIndex(CollectionCase... cases) throws Exception {
+    UprnCaseIndex index = new UprnCaseIndex();
+    for (CollectionCase caze : cases) {
+      index
+          .getCases()
+          .put(
+              caze.getId(),
+              new UprnCaseIndex.Entry(caze.getCreatedDateTime(), caze.isAddressInvalid()));
+      doReturn(Optional.of(caze))
+          .when(mockCloudDataStore)
+          .retrieveObject(CollectionCase.class, "SCHEMA", caze.getId());
+    }
+    doReturn(Optional.of(index))
+        .when(mockCloudDataStore)
+        .retrieveObject(UprnCaseIndex.class, "INDEX_SCHEMA", UPRN_STRING);
+  }
+
+  private void mockUprnIndexWrite() throws Exception {
+    doNothing().when(mockCloudDataStore).storeObject(eq("INDEX_SCHEMA"), any(), any(), any());
+  }
+
+  // the entry written to the index for the case, null if the case was taken out of the index
+  @SuppressWarnings("unchecked")
+  private UprnCaseIndex.Entry verifyUprnIndexWritten(String uprn, String caseId)
+      throws Exception {
+    ArgumentCaptor<Map<String, Map<String, Object>>> indexCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(mockCloudDataStore)
+        .storeObject(eq("INDEX_SCHEMA"), eq(uprn), indexCaptor.capture(), eq(uprn));
+    Map<String, Object> cases = indexCaptor.getValue().get(UprnCaseIndex.CASES);
+    assertTrue(cases.containsKey(caseId));
+    return (UprnCaseIndex.Entry) cases.get(caseId);
+  }
+
+  private AppConfig appConfig(boolean uacCacheEnabled) {
+    CacheConfig uacCache = new CacheConfig();
+    uacCache.setEnabled(uacCacheEnabled);
+    uacCache.setMaximumSize(10);
+    uacCache.setExpireAfterWriteSeconds(60);
+    CacheConfig caseVersionCache = new CacheConfig();
+    caseVersionCache.setEnabled(true);
+    caseVersionCache.setMaximumSize(10);
+    caseVersionCache.setExpireAfterWriteSeconds(600);
+    AppConfig appConfig = new AppConfig();
+    appConfig.setUacCache(uacCache);
+    appConfig.setCaseVersionCache(caseVersionCache);
+    return appConfig;
+  }
+
+  private UAC uac() {
+    UAC uac = new UAC();
+    uac.setUacHash(UAC_HASH);
+    uac.setCaseId(CASE_ID);
+    return uac;
+  }
+
+  /** Test a second read of the same UAC is served from the cache */
+  @Test
+  public void shouldReadUACFromCache() throws Exception {
+    doReturn(Optional.of(uac()))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+    assertEquals(UAC_HASH, target.readUAC(UAC_HASH).get().getUacHash());
+    assertEquals(UAC_HASH, target.readUAC(UAC_HASH).get().getUacHash());
+
+    verify(mockCloudDataStore, times(1)).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+  }
+
+  /** Test changes made by the caller to a returned UAC do not leak into the cache */
+  @Test
+  public void shouldNotShareCachedUAC() throws Exception {
+    doReturn(Optional.of(uac()))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+    target.readUAC(UAC_HASH).get().setCaseId("changed");
+
+    assertEquals(CASE_ID, target.readUAC(UAC_HASH).get().getCaseId());
+  }
+
+  /** Test writing a UAC invalidates the cached copy */
+  @Test
+  public void shouldInvalidateCachedUACOnWrite() throws Exception {
+    UAC uac = uac();
+    doReturn(Optional.of(uac))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+    doNothing().when(mockCloudDataStore).storeObject("UAC_SCHEMA", UAC_HASH, uac, uac.getCaseId());
+
+    target.readUAC(UAC_HASH);
+    target.writeUAC(uac);
+    target.readUAC(UAC_HASH);
+
+    verify(mockCloudDataStore, times(2)).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+  }
+
+  /** Test a UAC read before a write that overlaps the read is not left in the cache */
+  @Test
+  public void shouldNotCacheUACReadDuringWrite() throws Exception {
+    UAC storedUac = uac();
+    UAC writtenUac = uac();
+    writtenUac.setQuestionnaireId("written");
+    doNothing()
+        .when(mockCloudDataStore)
+        .storeObject("UAC_SCHEMA", UAC_HASH, writtenUac, writtenUac.getCaseId());
+    doAnswer(
+            invocation -> {
+              // the UAC is written once it has been read, but before the read is cached
+              target.writeUAC(writtenUac);
+              return Optional.of(storedUac);
+            })
+        .doReturn(Optional.of(writtenUac))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+    assertEquals(storedUac, target.readUAC(UAC_HASH).get());
+    assertEquals(writtenUac, target.readUAC(UAC_HASH).get());
+
+    verify(mockCloudDataStore, times(2)).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+  }
+
+  /** Test a UAC that is not found is not cached */
+  @Test
+  public void shouldNotCacheUnknownUAC() throws Exception {
+    doReturn(Optional.empty())
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+    assertEquals(Optional.empty(), target.readUAC(UAC_HASH));
+    assertEquals(Optional.empty(), target.readUAC(UAC_HASH));
+
+    verify(mockCloudDataStore, times(2)).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+  }
+
+  /** Test every read goes to the data store when the cache is disabled */
+  @Test
+  public void shouldNotCacheUACWhenDisabled() throws Exception {
+    target =
+        new RespondentDataRepositoryImpl(
+            storageEngine(),
+            appConfig(false),
+            meterRegistry);
+    ReflectionTestUtils.setField(target, "uacSchema", "UAC_SCHEMA");
+    doReturn(Optional.of(uac()))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+    target.readUAC(UAC_HASH);
+    target.readUAC(UAC_HASH);
+
+    verify(mockCloudDataStore, times(2)).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+  }
+
+  private UacHashFilter useUacHashFilter(String... storedUacHashes) throws Exception {
+    return useUacHashFilter(0, storedUacHashes);
+  }
+
+  private UacHashFilter useUacHashFilter(int missCheckBurst, String... storedUacHashes)
+      throws Exception {
+    UacFilterConfig filterConfig = new UacFilterConfig();
+    filterConfig.setExpectedInsertions(100);
+    filterConfig.setFalsePositiveProbability(0.01);
+    filterConfig.setRebuildIntervalSeconds(3600);
+    filterConfig.setMissCheckBurst(missCheckBurst);
+    UacHashFilter filter =
+        new UacHashFilter(
+            filterConfig, consumer -> List.of(storedUacHashes).forEach(consumer), meterRegistry);
+    while (!filter.isBuilt()) {
+      Thread.sleep(10);
+    }
+    ReflectionTestUtils.setField(target, "uacHashFilter", filter);
+    return filter;
+  }
+
+  /** Test a UAC that is not in the UAC filter is not read */
+  @Test
+  public void shouldNotReadUACUnknownToFilter() throws Exception {
+    UacHashFilter filter = useUacHashFilter("other");
+    try {
+      assertEquals(Optional.empty(), target.readUAC(UAC_HASH));
+
+      verify(mockCloudDataStore, never()).retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+    } finally {
+      filter.destroy();
+    }
+  }
+
+  /** Test a UAC not in the UAC filter is read while the budget allows, as it may be new */
+  @Test
+  public void shouldReadUACUnknownToFilterWithinBudget() throws Exception {
+    UacHashFilter filter = useUacHashFilter(1, "other");
+    try {
+      UAC uac = uac();
+      doReturn(Optional.of(uac))
+          .when(mockCloudDataStore)
+          .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+      assertEquals(uac, target.readUAC(UAC_HASH).get());
+
+      // the UAC is now in the filter, and an unknown UAC is not read once the budget is spent
+      assertTrue(filter.mightContain(UAC_HASH));
+      assertEquals(Optional.empty(), target.readUAC("unknown"));
+      verify(mockCloudDataStore, never()).retrieveObject(UAC.class, "UAC_SCHEMA", "unknown");
+    } finally {
+      filter.destroy();
+    }
+  }
+
+  /** Test a UAC that is written is added to the UAC filter, so is then read */
+  @Test
+  public void shouldReadUACWrittenAfterFilterBuilt() throws Exception {
+    UacHashFilter filter = useUacHashFilter("other");
+    try {
+      UAC uac = uac();
+      doNothing().when(mockCloudDataStore).storeObject("UAC_SCHEMA", UAC_HASH, uac, CASE_ID);
+      doReturn(Optional.of(uac))
+          .when(mockCloudDataStore)
+          .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+
+      target.writeUAC(uac);
+
+      assertEquals(UAC_HASH, target.readUAC(UAC_HASH).get().getUacHash());
+    } finally {
+      filter.destroy();
+    }
   }
 
   /** Returns Empty Optional where no valid Address cases are returned from repository */
@@ -47,6 +393,7 @@ public class RespondentDataRepositoryImplTest {
   public void getInvalidAddressCaseByUPRNOnly() throws Exception {
 
     final List<CollectionCase> emptyList = new ArrayList<>();
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(emptyList);
@@ -62,6 +409,7 @@ public class RespondentDataRepositoryImplTest {
   public void getInvalidCaseTypeCasesByUPRNOnly() throws Exception {
 
     collectionCase.forEach(cc -> cc.setCaseType("HI"));
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -77,6 +425,7 @@ public class RespondentDataRepositoryImplTest {
   public void getInvalidAddressedCasesByUPRNOnly() throws Exception {
 
     collectionCase.forEach(cc -> cc.setAddressInvalid(Boolean.TRUE));
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -99,6 +448,7 @@ public class RespondentDataRepositoryImplTest {
     collectionCase.get(0).setCreatedDateTime(mid);
     collectionCase.get(1).setCreatedDateTime(latest); // EXPECTED
     collectionCase.get(2).setCreatedDateTime(earliest);
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -122,6 +472,7 @@ public class RespondentDataRepositoryImplTest {
     collectionCase.get(1).setCaseType("HI"); // INVALID
     collectionCase.get(2).setCreatedDateTime(earliest);
     collectionCase.get(2).setCaseType("HH"); // VALID
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -146,6 +497,7 @@ public class RespondentDataRepositoryImplTest {
     collectionCase.get(1).setCaseType("HI"); // INVALID
     collectionCase.get(2).setCreatedDateTime(earliest);
     collectionCase.get(2).setCaseType("HH"); // VALID / EXPECTED
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -170,6 +522,7 @@ public class RespondentDataRepositoryImplTest {
     collectionCase.get(1).setCaseType("HI"); // INVALID
     collectionCase.get(2).setCreatedDateTime(earliest);
     collectionCase.get(2).setCaseType("HH"); // VALID
+    mockNoUprnIndex();
     when(mockCloudDataStore.search(
             CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
         .thenReturn(collectionCase);
@@ -179,4 +532,696 @@ public class RespondentDataRepositoryImplTest {
         Optional.of(collectionCase.get(0)),
         target.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
   }
+
+  /** Test the latest cases are read from the UPRN index without searching */
+  @Test
+  public void shouldReadLatestCasesFromUprnIndex() throws Exception {
+    CollectionCase validCase = collectionCase.get(0);
+    validCase.setCreatedDateTime(new Date());
+    CollectionCase invalidCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    invalidCase.setId(CASE_ID);
+    invalidCase.setCreatedDateTime(DateUtils.addDays(new Date(), 1));
+    invalidCase.setAddressInvalid(true);
+    mockUprnIndex(validCase, invalidCase);
+
+    assertEquals(
+        Optional.of(invalidCase), target.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
+    assertEquals(
+        Optional.of(validCase), target.readNonHILatestCollectionCaseByUprn(UPRN_STRING, true));
+
+    verify(mockCloudDataStore, never())
+        .search(CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING);
+  }
+
+  /** Test an index entry without a valid case is a definite answer */
+  @Test
+  public void shouldReadNoValidCaseFromUprnIndex() throws Exception {
+    CollectionCase invalidCase = collectionCase.get(0);
+    invalidCase.setAddressInvalid(true);
+    mockUprnIndex(invalidCase);
+
+    assertEquals(Optional.empty(), target.readNonHILatestCollectionCaseByUprn(UPRN_STRING, true));
+
+    verify(mockCloudDataStore, never())
+        .search(CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING);
+    verify(mockCloudDataStore, never())
+        .retrieveObject(CollectionCase.class, "SCHEMA", invalidCase.getId());
+  }
+
+  /** Test a UPRN without an index entry is searched, and the index is not written by the read */
+  @Test
+  public void shouldSearchUprnWithoutIndexEntry() throws Exception {
+    collectionCase.forEach(cc -> cc.setCaseType("HH"));
+    mockNoUprnIndex();
+    when(mockCloudDataStore.search(
+            CollectionCase.class, target.caseSchema, searchByUprnPath, UPRN_STRING))
+        .thenReturn(collectionCase);
+
+    assertTrue(target.readNonHILatestCollectionCaseByUprn(UPRN_STRING, true).isPresent());
+
+    verify(mockCloudDataStore, never()).storeObject(eq("INDEX_SCHEMA"), any(), any(), any());
+  }
+
+  /** Test writing a case puts it in the UPRN index without reading the index or the stored case */
+  @Test
+  public void shouldIndexCaseWithoutReadingIndex() throws Exception {
+    CollectionCase caze = collectionCase.get(0);
+    caze.setCreatedDateTime(new Date());
+    mockNoStoredCase(caze);
+    mockCaseWrite(caze);
+    mockUprnIndexWrite();
+
+    target.writeCollectionCase(caze);
+
+    UprnCaseIndex.Entry entry = verifyUprnIndexWritten(UPRN_STRING, caze.getId());
+    assertEquals(new UprnCaseIndex.Entry(caze.getCreatedDateTime(), false), entry);
+    verify(mockCloudDataStore, never()).retrieveObject(eq(UprnCaseIndex.class), any(), any());
+    verify(mockCloudDataStore, never()).retrieveObject(eq(CollectionCase.class), any(), any());
+  }
+
+  /** Test writing an HI case takes it out of the UPRN index */
+  @Test
+  public void shouldNotIndexHICase() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    mockNoStoredCase(hiCase);
+    mockCaseWrite(hiCase);
+    mockUprnIndexWrite();
+
+    target.writeCollectionCase(hiCase);
+
+    assertNull(verifyUprnIndexWritten(UPRN_STRING, hiCase.getId()));
+  }
+
+  /** Test a case that has moved is taken out of the index entry of the UPRN in its version */
+  @Test
+  public void shouldTakeMovedCaseOutOfIndexOfStoredUprn() throws Exception {
+    CollectionCase caze = collectionCase.get(0);
+    caze.getAddress().setUprn("654321");
+    doReturn(Optional.of(new CaseVersion(caze.getId(), "old digest", null, UPRN_STRING)))
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", caze.getId());
+    mockCaseWrite(caze);
+    mockUprnIndexWrite();
+
+    target.writeCollectionCase(caze);
+
+    assertNull(verifyUprnIndexWritten(UPRN_STRING, caze.getId()));
+    assertNotNull(verifyUprnIndexWritten("654321", caze.getId()));
+  }
+
+  /** Test a case from an event is written when there is no stored version of it */
+  @Test
+  public void shouldWriteCaseWithNoStoredVersion() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    Date eventDateTime = new Date();
+    mockNoStoredCase(hiCase);
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+
+    assertTrue(target.writeCollectionCaseIfChanged(hiCase, eventDateTime));
+
+    ArgumentCaptor<CaseVersion> versionCaptor = ArgumentCaptor.forClass(CaseVersion.class);
+    verify(mockCloudDataStore)
+        .storeObject(
+            eq("VERSION_SCHEMA"), eq(hiCase.getId()), versionCaptor.capture(), eq(hiCase.getId()));
+    assertEquals(eventDateTime, versionCaptor.getValue().getEventDateTime());
+  }
+
+  /** Test a repeated case update is not written again */
+  @Test
+  public void shouldSkipUnchangedCase() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    mockNoStoredCase(hiCase);
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+
+    assertTrue(target.writeCollectionCaseIfChanged(hiCase, new Date()));
+    ArgumentCaptor<CaseVersion> versionCaptor = ArgumentCaptor.forClass(CaseVersion.class);
+    verify(mockCloudDataStore)
+        .storeObject(eq("VERSION_SCHEMA"), any(), versionCaptor.capture(), any());
+    doReturn(Optional.of(versionCaptor.getValue()))
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+    CollectionCase resent = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(1);
+    assertFalse(target.writeCollectionCaseIfChanged(resent, new Date()));
+
+    // the stored version is read again, not taken from the cache
+    verify(mockCloudDataStore, times(2))
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+    verify(mockCloudDataStore, times(1))
+        .storeObject("SCHEMA", hiCase.getId(), hiCase, hiCase.getId());
+    assertEquals(1.0, casesSkipped("unchanged"), 0);
+  }
+
+  /** Test a changed case is written over the stored version */
+  @Test
+  public void shouldWriteChangedCase() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    CaseVersion storedVersion =
+        new CaseVersion(hiCase.getId(), "old digest", new Date(0), UPRN_STRING);
+    doReturn(Optional.of(storedVersion))
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+
+    assertTrue(target.writeCollectionCaseIfChanged(hiCase, new Date()));
+
+    verify(mockCloudDataStore).storeObject("SCHEMA", hiCase.getId(), hiCase, hiCase.getId());
+  }
+
+  /** Test a case from an event older than the stored version is not written */
+  @Test
+  public void shouldSkipStaleCase() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    Date storedEventDateTime = new Date();
+    doReturn(Optional.of(new CaseVersion(hiCase.getId(), "old digest", storedEventDateTime, null)))
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+
+    assertFalse(
+        target.writeCollectionCaseIfChanged(hiCase, DateUtils.addDays(storedEventDateTime, -1)));
+
+    verify(mockCloudDataStore, never()).storeObject(eq("SCHEMA"), any(), any(), any());
+    assertEquals(1.0, casesSkipped("stale"), 0);
+  }
+
+  /** Test a case from an event older than the version last written is skipped without a read */
+  @Test
+  public void shouldSkipStaleCaseFromCache() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    Date eventDateTime = new Date();
+    mockNoStoredCase(hiCase);
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+    assertTrue(target.writeCollectionCaseIfChanged(hiCase, eventDateTime));
+
+    assertFalse(target.writeCollectionCaseIfChanged(hiCase, DateUtils.addDays(eventDateTime, -1)));
+
+    verify(mockCloudDataStore).retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+    assertEquals(1.0, casesSkipped("stale"), 0);
+  }
+
+  /** Test a case written by RH keeps the event time of the stored case */
+  @Test
+  public void shouldKeepStoredEventDateTimeOfCaseWrittenByRH() throws Exception {
+    CollectionCase hiCase = collectionCase.get(1);
+    Date storedEventDateTime = new Date();
+    CaseVersion storedVersion =
+        new CaseVersion(hiCase.getId(), "old digest", storedEventDateTime, UPRN_STRING);
+    doReturn(Optional.of(storedVersion))
+        .when(mockCloudDataStore)
+        .retrieveObject(CaseVersion.class, "VERSION_SCHEMA", hiCase.getId());
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+
+    target.writeCollectionCase(hiCase);
+
+    ArgumentCaptor<CaseVersion> versionCaptor = ArgumentCaptor.forClass(CaseVersion.class);
+    verify(mockCloudDataStore)
+        .storeObject(eq("VERSION_SCHEMA"), any(), versionCaptor.capture(), any());
+    assertEquals(storedEventDateTime, versionCaptor.getValue().getEventDateTime());
+    // so an event older than the stored case is still skipped
+    assertFalse(
+        target.writeCollectionCaseIfChanged(hiCase, DateUtils.addDays(storedEventDateTime, -1)));
+  }
+
+  /** Test a case updated while its version is checked is checked again against the update */
+  @Test
+  public void shouldCheckVersionOfCaseWrittenConcurrently() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    CollectionCase caze = collectionCase.get(0);
+    Date eventDateTime = new Date();
+    List<Boolean> written = Collections.synchronizedList(new ArrayList<>());
+
+    CompletableFuture.allOf(
+            CompletableFuture.runAsync(
+                () -> written.add(writeCaseIfChanged(repository, caze, eventDateTime))),
+            CompletableFuture.runAsync(
+                () -> written.add(writeCaseIfChanged(repository, caze, eventDateTime))))
+        .get(5, TimeUnit.SECONDS);
+
+    // only one of the writes of the same update is made
+    assertEquals(1, written.stream().filter(w -> w).count());
+  }
+
+  private boolean writeCaseIfChanged(
+      RespondentDataRepositoryImpl repository, CollectionCase caze, Date eventDateTime) {
+    try {
+      return repository.writeCollectionCaseIfChanged(caze, eventDateTime);
+    } catch (CTPException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Test a batch of cases is written in one transaction, skipping cases that are unchanged */
+  @Test
+  public void shouldWriteBatchOfChangedCases() throws Exception {
+    LocalStorageEngine storageEngine = spy(localStorageEngine());
+    RespondentDataRepositoryImpl repository = localRepository(storageEngine);
+    CollectionCase householdCase = collectionCase.get(0);
+    CollectionCase individualCase = collectionCase.get(1);
+    repository.writeCollectionCase(householdCase);
+    Date eventDateTime = new Date();
+
+    int written =
+        repository.writeCollectionCasesIfChanged(
+            List.of(
+                new CaseUpdate(householdCase, eventDateTime),
+                new CaseUpdate(individualCase, eventDateTime)));
+
+    assertEquals(1, written);
+    verify(storageEngine, times(2)).runTransaction(any());
+    assertEquals(individualCase, repository.readCollectionCase(individualCase.getId()).get());
+    assertEquals(1.0, casesSkipped("unchanged"), 0);
+    // the version was written with the case, so the unchanged case is not written again
+    assertFalse(repository.writeCollectionCaseIfChanged(individualCase, eventDateTime));
+  }
+
+  /** Test a batch with too many writes to commit together is split */
+  @Test
+  public void shouldSplitBatchWithTooManyWrites() throws Exception {
+    LocalStorageEngine storageEngine = spy(localStorageEngine());
+    RespondentDataRepositoryImpl repository = localRepository(storageEngine);
+    ReflectionTestUtils.setField(repository, "maxWritesPerCommit", 4);
+    CollectionCase householdCase = collectionCase.get(0);
+    CollectionCase individualCase = collectionCase.get(1);
+    Date eventDateTime = new Date();
+
+    int written =
+        repository.writeCollectionCasesIfChanged(
+            List.of(
+                new CaseUpdate(householdCase, eventDateTime),
+                new CaseUpdate(individualCase, eventDateTime)));
+
+    assertEquals(2, written);
+    // the whole batch, then each half
+    verify(storageEngine, times(3)).runTransaction(any());
+    assertEquals(householdCase, repository.readCollectionCase(householdCase.getId()).get());
+    assertEquals(individualCase, repository.readCollectionCase(individualCase.getId()).get());
+  }
+
+  /** Test a case with too many writes to commit fails */
+  @Test
+  public void shouldFailCaseWithTooManyWrites() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    ReflectionTestUtils.setField(repository, "maxWritesPerCommit", 2);
+    CollectionCase householdCase = collectionCase.get(0);
+
+    try {
+      repository.writeCollectionCasesIfChanged(List.of(new CaseUpdate(householdCase, new Date())));
+      fail("Case should have been too large to write");
+    } catch (CTPException e) {
+      assertEquals(CTPException.Fault.SYSTEM_ERROR, e.getFault());
+    }
+    assertFalse(repository.readCollectionCase(householdCase.getId()).isPresent());
+  }
+
+  private void enableUACClaimContext() {
+    ReflectionTestUtils.setField(target, "uacClaimContextEnabled", true);
+    ReflectionTestUtils.setField(target, "uacClaimContextSchema", "CONTEXT_SCHEMA");
+  }
+
+  /** Test writing a UAC writes its claim context, joined with its case */
+  @Test
+  public void shouldWriteUACClaimContext() throws Exception {
+    enableUACClaimContext();
+    UAC uac = uac();
+    CollectionCase caze = collectionCase.get(0);
+    doNothing().when(mockCloudDataStore).storeObject("UAC_SCHEMA", UAC_HASH, uac, UAC_HASH);
+    doReturn(Optional.of(caze))
+        .when(mockCloudDataStore)
+        .retrieveObject(CollectionCase.class, "SCHEMA", CASE_ID);
+    doNothing()
+        .when(mockCloudDataStore)
+        .storeObject(eq("CONTEXT_SCHEMA"), eq(UAC_HASH), any(), eq(UAC_HASH));
+
+    target.writeUAC(uac);
+
+    ArgumentCaptor<UACClaimContext> contextCaptor = ArgumentCaptor.forClass(UACClaimContext.class);
+    verify(mockCloudDataStore)
+        .storeObject(eq("CONTEXT_SCHEMA"), eq(UAC_HASH), contextCaptor.capture(), eq(UAC_HASH));
+    assertEquals(uac, contextCaptor.getValue().getUac());
+    assertEquals(caze, contextCaptor.getValue().getCollectionCase());
+  }
+
+  /** Test writing a case brings the claim contexts of its UACs up to date */
+  @Test
+  public void shouldUpdateUACClaimContextsOfCase() throws Exception {
+    enableUACClaimContext();
+    CollectionCase hiCase = collectionCase.get(1);
+    UAC uac = uac();
+    uac.setCaseId(hiCase.getId());
+    mockNoStoredCase(hiCase);
+    mockUprnIndexWrite();
+    mockCaseWrite(hiCase);
+    List<UACClaimContext> contexts = new ArrayList<>();
+    contexts.add(new UACClaimContext(UAC_HASH, uac, null));
+    doReturn(contexts)
+        .when(mockCloudDataStore)
+        .search(UACClaimContext.class, "CONTEXT_SCHEMA", searchByLinkedCasePath, hiCase.getId());
+    doNothing()
+        .when(mockCloudDataStore)
+        .storeObject(eq("CONTEXT_SCHEMA"), eq(UAC_HASH), any(), eq(UAC_HASH));
+
+    target.writeCollectionCase(hiCase);
+
+    ArgumentCaptor<UACClaimContext> contextCaptor = ArgumentCaptor.forClass(UACClaimContext.class);
+    verify(mockCloudDataStore)
+        .storeObject(eq("CONTEXT_SCHEMA"), eq(UAC_HASH), contextCaptor.capture(), eq(UAC_HASH));
+    assertEquals(hiCase, contextCaptor.getValue().getCollectionCase());
+  }
+
+  /** Test the claim context is not read when the projection is disabled */
+  @Test
+  public void shouldNotReadUACClaimContextWhenDisabled() throws Exception {
+    assertEquals(Optional.empty(), target.readUACClaimContext(UAC_HASH));
+
+    verify(mockCloudDataStore, never()).retrieveObject(eq(UACClaimContext.class), any(), any());
+  }
+
+  /** Test the claim context is not read for a UAC in the UAC cache, as only its case is needed */
+  @Test
+  public void shouldNotReadUACClaimContextOfCachedUAC() throws Exception {
+    enableUACClaimContext();
+    UAC uac = uac();
+    doReturn(Optional.of(uac))
+        .when(mockCloudDataStore)
+        .retrieveObject(UAC.class, "UAC_SCHEMA", UAC_HASH);
+    target.readUAC(UAC_HASH);
+
+    assertEquals(Optional.empty(), target.readUACClaimContext(UAC_HASH));
+
+    verify(mockCloudDataStore, never()).retrieveObject(eq(UACClaimContext.class), any(), any());
+  }
+
+  /** Test concurrent reads of a claim context are made as one read */
+  @Test
+  public void shouldCoalesceConcurrentReadsOfUACClaimContext() throws Exception {
+    enableUACClaimContext();
+    ReflectionTestUtils.setField(target, "readCoalescingEnabled", true);
+    UACClaimContext claimContext = new UACClaimContext(UAC_HASH, uac(), collectionCase.get(0));
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              reading.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return Optional.of(claimContext);
+            })
+        .when(mockCloudDataStore)
+        .retrieveObject(UACClaimContext.class, "CONTEXT_SCHEMA", UAC_HASH);
+
+    CompletableFuture<Optional<UACClaimContext>> first =
+        CompletableFuture.supplyAsync(() -> readUACClaimContext());
+    reading.await(5, TimeUnit.SECONDS);
+    CompletableFuture<Optional<UACClaimContext>> second =
+        CompletableFuture.supplyAsync(() -> readUACClaimContext());
+    while (meterRegistry.counter("rhsvc.reads.coalesced", "read", "uac-claim-context").count()
+        == 0) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    assertEquals(claimContext, first.get().get());
+    assertEquals(claimContext, second.get().get());
+    verify(mockCloudDataStore).retrieveObject(UACClaimContext.class, "CONTEXT_SCHEMA", UAC_HASH);
+  }
+
+  private Optional<UACClaimContext> readUACClaimContext() {
+    try {
+      return target.readUACClaimContext(UAC_HASH);
+    } catch (CTPException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Test concurrent reads of a case are made as one read, and each caller has its own copy */
+  @Test
+  public void shouldCoalesceConcurrentReadsOfCase() throws Exception {
+    ReflectionTestUtils.setField(target, "readCoalescingEnabled", true);
+    CollectionCase caze = collectionCase.get(0);
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              reading.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return Optional.of(caze);
+            })
+        .when(mockCloudDataStore)
+        .retrieveObject(CollectionCase.class, "SCHEMA", caze.getId());
+
+    CompletableFuture<Optional<CollectionCase>> first =
+        CompletableFuture.supplyAsync(() -> readCase(caze.getId()));
+    reading.await(5, TimeUnit.SECONDS);
+    CompletableFuture<Optional<CollectionCase>> second =
+        CompletableFuture.supplyAsync(() -> readCase(caze.getId()));
+    while (meterRegistry.counter("rhsvc.reads.coalesced", "read", "case").count() == 0) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    assertEquals(caze, first.get().get());
+    assertEquals(caze, second.get().get());
+    assertTrue(first.get().get() != second.get().get());
+    verify(mockCloudDataStore).retrieveObject(CollectionCase.class, "SCHEMA", caze.getId());
+  }
+
+  private LocalStorageEngine localStorageEngine() throws Exception {
+    AppConfig appConfig = new AppConfig();
+    StorageConfig storageConfig = new StorageConfig();
+    storageConfig.setLocal(new LocalStorageConfig());
+    appConfig.setStorage(storageConfig);
+    return new LocalStorageEngine(appConfig);
+  }
+
+  private RespondentDataRepositoryImpl localRepository() throws Exception {
+    return localRepository(localStorageEngine());
+  }
+
+  private RespondentDataRepositoryImpl localRepository(LocalStorageEngine storageEngine) {
+    RespondentDataRepositoryImpl repository =
+        new RespondentDataRepositoryImpl(storageEngine, appConfig(false), meterRegistry);
+    ReflectionTestUtils.setField(repository, "caseSchema", "SCHEMA");
+    ReflectionTestUtils.setField(repository, "uacSchema", "UAC_SCHEMA");
+    ReflectionTestUtils.setField(repository, "uprnIndexSchema", "INDEX_SCHEMA");
+    ReflectionTestUtils.setField(repository, "caseVersionSchema", "VERSION_SCHEMA");
+    ReflectionTestUtils.setField(repository, "uacClaimContextSchema", "CONTEXT_SCHEMA");
+    ReflectionTestUtils.setField(repository, "uprnLeaseSchema", "LEASE_SCHEMA");
+    return repository;
+  }
+
+  private UAC uac(String uacHash, String caseId) {
+    UAC uac = uac();
+    uac.setUacHash(uacHash);
+    uac.setCaseId(caseId);
+    return uac;
+  }
+
+  /** Test a batch of UACs is stored as one write */
+  @Test
+  public void shouldWriteBatchOfUACs() throws Exception {
+    LocalStorageEngine storageEngine = spy(localStorageEngine());
+    RespondentDataRepositoryImpl repository = localRepository(storageEngine);
+    UAC uac1 = uac(UAC_HASH + "1", CASE_ID);
+    UAC uac2 = uac(UAC_HASH + "2", CASE_ID);
+
+    repository.writeUACs(List.of(uac1, uac2));
+
+    verify(storageEngine).storeObjects(any());
+    verify(storageEngine, never()).storeObject(any(), any(), any(), any());
+    assertEquals(uac1, repository.readUAC(uac1.getUacHash()).get());
+    assertEquals(uac2, repository.readUAC(uac2.getUacHash()).get());
+  }
+
+  /** Test a batch of UACs is stored with their claim contexts in one transaction */
+  @Test
+  public void shouldWriteBatchOfUACsWithClaimContexts() throws Exception {
+    LocalStorageEngine storageEngine = spy(localStorageEngine());
+    RespondentDataRepositoryImpl repository = localRepository(storageEngine);
+    ReflectionTestUtils.setField(repository, "uacClaimContextEnabled", true);
+    CollectionCase caze = collectionCase.get(0);
+    repository.writeCollectionCase(caze);
+    UAC uac1 = uac(UAC_HASH + "1", caze.getId());
+    UAC uac2 = uac(UAC_HASH + "2", caze.getId());
+
+    repository.writeUACs(List.of(uac1, uac2));
+
+    // one transaction for the case, and one for the batch
+    verify(storageEngine, times(2)).runTransaction(any());
+    assertEquals(caze, repository.readUACClaimContext(uac1.getUacHash()).get().getCollectionCase());
+    assertEquals(caze, repository.readUACClaimContext(uac2.getUacHash()).get().getCollectionCase());
+  }
+
+  /** Test a UAC is written with its new cases, their versions and its claim context */
+  @Test
+  public void shouldWriteUACLink() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    ReflectionTestUtils.setField(repository, "uacClaimContextEnabled", true);
+    CollectionCase householdCase = collectionCase.get(0);
+    CollectionCase individualCase = collectionCase.get(1);
+    UAC uac = uac();
+    uac.setCaseId(individualCase.getId());
+
+    repository.writeUACLink(uac, List.of(householdCase, individualCase));
+
+    assertEquals(uac, repository.readUAC(UAC_HASH).get());
+    assertEquals(householdCase, repository.readCollectionCase(householdCase.getId()).get());
+    assertEquals(individualCase, repository.readCollectionCase(individualCase.getId()).get());
+    UACClaimContext context = repository.readUACClaimContext(UAC_HASH).get();
+    assertEquals(individualCase, context.getCollectionCase());
+    // the versions were written with the cases, so an unchanged case is not written again
+    assertFalse(repository.writeCollectionCaseIfChanged(householdCase, new Date()));
+  }
+
+  /** Test the claim context of a UAC is not left behind by a concurrent write of its case */
+  @Test
+  public void shouldWriteUACClaimContextWithCaseWrittenConcurrently() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    ReflectionTestUtils.setField(repository, "uacClaimContextEnabled", true);
+    CollectionCase caze = collectionCase.get(0);
+    repository.writeCollectionCase(caze);
+    UAC uac = uac();
+    uac.setCaseId(caze.getId());
+    CollectionCase updatedCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    updatedCase.setCaseRef("updated");
+
+    CompletableFuture.allOf(
+            CompletableFuture.runAsync(() -> writeUAC(repository, uac)),
+            CompletableFuture.runAsync(() -> writeCase(repository, updatedCase)))
+        .get(5, TimeUnit.SECONDS);
+
+    UACClaimContext context = repository.readUACClaimContext(UAC_HASH).get();
+    assertEquals(updatedCase, context.getCollectionCase());
+  }
+
+  private void writeUAC(RespondentDataRepositoryImpl repository, UAC uac) {
+    try {
+      repository.writeUAC(uac);
+    } catch (CTPException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Test a UPRN lease is held by one request at a time, and only released by its holder */
+  @Test
+  public void shouldTakeUprnLeaseOnce() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+
+    assertTrue(repository.acquireUprnLease(UPRN_STRING, "holder-1", 60000));
+    assertFalse(repository.acquireUprnLease(UPRN_STRING, "holder-2", 60000));
+
+    repository.releaseUprnLease(UPRN_STRING, "holder-2");
+    assertFalse(repository.acquireUprnLease(UPRN_STRING, "holder-2", 60000));
+
+    repository.releaseUprnLease(UPRN_STRING, "holder-1");
+    assertTrue(repository.acquireUprnLease(UPRN_STRING, "holder-2", 60000));
+  }
+
+  /** Test a UPRN lease that was not released is replaced once it has expired */
+  @Test
+  public void shouldReplaceExpiredUprnLease() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+
+    assertTrue(repository.acquireUprnLease(UPRN_STRING, "holder-1", -1));
+    assertTrue(repository.acquireUprnLease(UPRN_STRING, "holder-2", 60000));
+    assertFalse(repository.acquireUprnLease(UPRN_STRING, "holder-1", 60000));
+  }
+
+  /** Test a case left in the index entry of a UPRN it has moved from is not read as at the UPRN */
+  @Test
+  public void shouldNotReadCaseMovedFromIndexedUprn() throws Exception {
+    LocalStorageEngine storageEngine = localStorageEngine();
+    RespondentDataRepositoryImpl repository = localRepository(storageEngine);
+    CollectionCase caze = collectionCase.get(0);
+    repository.writeCollectionCase(caze);
+
+    // as if the case had been moved by a write whose version did not record the old UPRN
+    CollectionCase moved = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    moved.getAddress().setUprn("654321");
+    storageEngine.storeObject("SCHEMA", moved.getId(), moved, moved.getId());
+
+    assertEquals(
+        Optional.empty(), repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
+  }
+
+  /** Test concurrent writes of cases for the same UPRN all update its index entry */
+  @Test
+  public void shouldIndexConcurrentWritesOfCasesForUprn() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    CollectionCase first = collectionCase.get(0);
+    first.setCreatedDateTime(new Date(0));
+    repository.writeCollectionCase(first);
+    List<CollectionCase> cases = new ArrayList<>();
+    for (int i = 1; i <= 8; i++) {
+      CollectionCase caze = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+      caze.setId("case-" + i);
+      caze.setCreatedDateTime(new Date(i * 1000L));
+      caze.setAddressInvalid(i == 8);
+      cases.add(caze);
+    }
+
+    CompletableFuture.allOf(
+            cases.stream()
+                .map(caze -> CompletableFuture.runAsync(() -> writeCase(repository, caze)))
+                .toArray(CompletableFuture[]::new))
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals(
+        Optional.of(cases.get(7)),
+        repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
+    assertEquals(
+        Optional.of(cases.get(6)),
+        repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, true));
+  }
+
+  /** Test a case whose address moves to another UPRN is taken out of the old UPRN's entry */
+  @Test
+  public void shouldRemoveCaseFromIndexOfUprnMovedFrom() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    CollectionCase caze = collectionCase.get(0);
+    repository.writeCollectionCase(caze);
+    assertEquals(
+        Optional.of(caze), repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, true));
+
+    CollectionCase moved = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    moved.getAddress().setUprn("654321");
+    repository.writeCollectionCase(moved);
+
+    assertEquals(
+        Optional.empty(), repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
+    assertEquals(
+        Optional.of(moved), repository.readNonHILatestCollectionCaseByUprn("654321", true));
+  }
+
+  /** Test a case that becomes HI is taken out of the UPRN index entry */
+  @Test
+  public void shouldRemoveCaseFromIndexWhenHI() throws Exception {
+    RespondentDataRepositoryImpl repository = localRepository();
+    CollectionCase caze = collectionCase.get(0);
+    repository.writeCollectionCase(caze);
+
+    caze.setCaseType("HI");
+    repository.writeCollectionCase(caze);
+
+    assertEquals(
+        Optional.empty(), repository.readNonHILatestCollectionCaseByUprn(UPRN_STRING, false));
+  }
+
+  private void writeCase(RespondentDataRepositoryImpl repository, CollectionCase caze) {
+    try {
+      repository.writeCollectionCase(caze);
+    } catch (CTPException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Optional<CollectionCase> readCase(String caseId) {
+    try {
+      return target.readCollectionCase(caseId);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
 }
@@ -0,0 +1,128 @@
+package uk.gov.ons.ctp.integration.rhsvc.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.integration.rhsvc.config.UacFilterConfig;
+
+public class UacHashFilterTest {
+  private List<String> storedUacHashes = new ArrayList<>();
+  private boolean scanFails;
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private UacHashFilter target;
+
+  @Before
+  public void setUp() throws Exception {
+    UacFilterConfig filterConfig = new UacFilterConfig();
+    filterConfig.setExpectedInsertions(100);
+    filterConfig.setFalsePositiveProbability(0.01);
+    // the filter is built once when created, and then each test rebuilds it itself
+    filterConfig.setRebuildIntervalSeconds(3600);
+    // the budget for reads of UACs not in the filter is only what is saved, as it does not refill
+    filterConfig.setMissCheckBurst(2);
+    storedUacHashes.add("stored");
+    target =
+        new UacHashFilter(
+            filterConfig,
+            consumer -> {
+              if (scanFails) {
+                throw new CTPException(Fault.SYSTEM_ERROR, "scan failed");
+              }
+              new ArrayList<>(storedUacHashes).forEach(consumer);
+            },
+            meterRegistry);
+    while (!target.isBuilt()) {
+      Thread.sleep(10);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    target.destroy();
+  }
+
+  private double lookups(String result) {
+    return meterRegistry.counter("rhsvc.uac.filter.lookups", "result", result).count();
+  }
+
+  @Test
+  public void shouldFilterUnknownUACOnceBuilt() throws Exception {
+    assertTrue(target.lookup("stored"));
+    assertFalse(target.lookup("unknown"));
+    assertEquals(1, lookups("present"), 0);
+    assertEquals(1, lookups("absent"), 0);
+  }
+
+  @Test
+  public void shouldCheckMissesWithinBudget() throws Exception {
+    assertTrue(target.checkMiss());
+    assertTrue(target.checkMiss());
+    assertFalse(target.checkMiss());
+    assertEquals(2, meterRegistry.counter("rhsvc.uac.filter.misses.checked").count(), 0);
+  }
+
+  @Test
+  public void shouldContainMissFoundInStorage() throws Exception {
+    target.missFound("new");
+
+    assertTrue(target.lookup("new"));
+    assertEquals(1, meterRegistry.counter("rhsvc.uac.filter.misses.found").count(), 0);
+  }
+
+  @Test
+  public void shouldContainUACPutAfterBuilt() throws Exception {
+    target.put("new");
+
+    assertTrue(target.mightContain("new"));
+  }
+
+  @Test
+  public void shouldKeepFilterWhenScanFails() throws Exception {
+    target.put("new");
+    scanFails = true;
+
+    try {
+      target.rebuild();
+    } catch (CTPException e) {
+      // the last filter is still used
+    }
+
+    assertTrue(target.mightContain("new"));
+    assertFalse(target.mightContain("unknown"));
+  }
+
+  @Test
+  public void shouldHoldMoreUACsThanExpected() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      storedUacHashes.add("uac-" + i);
+    }
+    target.rebuild();
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(target.mightContain("uac-" + i));
+    }
+    double expectedFpp =
+        meterRegistry.get("rhsvc.uac.filter.expected.false.positive.rate").gauge().value();
+    assertTrue(expectedFpp < 0.03);
+  }
+
+  @Test
+  public void shouldPublishFalsePositiveRate() throws Exception {
+    target.lookup("unknown-1");
+    target.lookup("unknown-2");
+    target.lookup("unknown-3");
+    target.notFound();
+
+    assertEquals(
+        0.25, meterRegistry.get("rhsvc.uac.filter.false.positive.rate").gauge().value(), 0);
+  }
+}
@@ -1,12 +1,14 @@
 package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -18,7 +20,11 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import ma.glasnost.orika.MapperFacade;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -51,6 +57,7 @@ import uk.gov.ons.ctp.integration.ratelimiter.client.RateLimiterClient;
 import uk.gov.ons.ctp.integration.ratelimiter.client.RateLimiterClient.Domain;
 import uk.gov.ons.ctp.integration.rhsvc.RHSvcBeanMapper;
 import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.ExecutorConfig;
 import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
 import uk.gov.ons.ctp.integration.rhsvc.representation.PostalFulfilmentRequestDTO;
@@ -71,6 +78,8 @@ public class CaseServiceImplFulfilmentTest {
 
   @Mock private RateLimiterClient rateLimiterClient;
 
+  @Mock private LocalRateLimiter localRateLimiter;
+
   @Spy private MapperFacade mapperFacade = new RHSvcBeanMapper();
 
   @Mock private ProductReference productReference;
@@ -87,11 +96,22 @@ public class CaseServiceImplFulfilmentTest {
     this.smsRequest = FixtureHelper.loadClassFixtures(SMSFulfilmentRequestDTO[].class).get(0);
     this.postalRequest = FixtureHelper.loadClassFixtures(PostalFulfilmentRequestDTO[].class).get(0);
     when(appConfig.getRateLimiter()).thenReturn(rateLimiterConfig(true));
+    caseSvc.init();
+  }
+
+  @After
+  public void tearDown() {
+    caseSvc.shutdown();
   }
 
   private RateLimiterConfig rateLimiterConfig(boolean enabled) {
     RateLimiterConfig rateLimiterConfig = new RateLimiterConfig();
     rateLimiterConfig.setEnabled(enabled);
+    // a single thread calls the rate limiter for each product in turn
+    ExecutorConfig executorConfig = new ExecutorConfig();
+    executorConfig.setThreads(1);
+    executorConfig.setQueueSize(10);
+    rateLimiterConfig.setExecutor(executorConfig);
     return rateLimiterConfig;
   }
 
@@ -157,6 +177,14 @@ public class CaseServiceImplFulfilmentTest {
     assertNull(eventPayload.getIndividualCaseId());
   }
 
+  @Test
+  public void shouldFindProductOnceForRepeatedRequests() throws Exception {
+    doFulfilmentRequestBySMS(Product.CaseType.HH, false);
+    caseSvc.fulfilmentRequestBySMS(smsRequest);
+
+    verify(productReference, times(1)).searchProducts(any());
+  }
+
   private FulfilmentRequest doFulfilmentRequestBySMS(Product.CaseType caseType, Boolean individual)
       throws Exception {
     CollectionCase caseDetails = selectCollectionCaseForTest(caseType, individual);
@@ -442,6 +470,90 @@ public class CaseServiceImplFulfilmentTest {
     verifyRateLimiterCall(1, null, postalRequest.getClientIP(), caseDetails);
   }
 
+  @Test
+  public void shouldRejectMultiplePostalFulfilmentsWithFirstRateLimiterRejection()
+      throws Exception {
+    CollectionCase caseDetails = selectCollectionCaseForTest(Product.CaseType.HH, false);
+    UUID caseId = UUID.fromString(caseDetails.getId());
+    when(dataRepo.readCollectionCase(eq(caseId.toString()))).thenReturn(Optional.of(caseDetails));
+
+    postalRequest.setCaseId(caseId);
+    postalRequest.setTitle("Mrs");
+    postalRequest.setFulfilmentCodes(Arrays.asList("F1", "F2"));
+
+    mockProductSearch("F1", false, DeliveryChannel.POST, Product.CaseType.HH);
+    Product p2 = mockProductSearch("F2", false, DeliveryChannel.POST, Product.CaseType.HH);
+
+    doThrow(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "F2"))
+        .when(rateLimiterClient)
+        .checkFulfilmentRateLimit(any(), eq(p2), any(), any(), any(), any());
+
+    ResponseStatusException ex =
+        assertThrows(
+            ResponseStatusException.class, () -> caseSvc.fulfilmentRequestByPost(postalRequest));
+
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, ex.getStatus());
+    assertEquals("F2", ex.getReason());
+    verify(eventPublisher, never()).sendEvent(any(), any(), any(), any());
+    verifyRateLimiterCall(2, null, postalRequest.getClientIP(), caseDetails);
+  }
+
+  @Test
+  public void shouldRejectMultiplePostalFulfilmentsWithoutWaitingForOtherProducts()
+      throws Exception {
+    // the rate limiter is called for both products at once
+    caseSvc.shutdown();
+    RateLimiterConfig rateLimiterConfig = rateLimiterConfig(true);
+    rateLimiterConfig.getExecutor().setThreads(2);
+    when(appConfig.getRateLimiter()).thenReturn(rateLimiterConfig);
+    caseSvc.init();
+
+    CollectionCase caseDetails = selectCollectionCaseForTest(Product.CaseType.HH, false);
+    UUID caseId = UUID.fromString(caseDetails.getId());
+    when(dataRepo.readCollectionCase(eq(caseId.toString()))).thenReturn(Optional.of(caseDetails));
+
+    postalRequest.setCaseId(caseId);
+    postalRequest.setTitle("Mrs");
+    postalRequest.setFulfilmentCodes(Arrays.asList("F1", "F2"));
+
+    Product p1 = mockProductSearch("F1", false, DeliveryChannel.POST, Product.CaseType.HH);
+    Product p2 = mockProductSearch("F2", false, DeliveryChannel.POST, Product.CaseType.HH);
+
+    // the first product is still being checked when the second is rejected
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean firstDone = new AtomicBoolean();
+    doAnswer(
+            invocation -> {
+              firstStarted.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              firstDone.set(true);
+              return null;
+            })
+        .when(rateLimiterClient)
+        .checkFulfilmentRateLimit(any(), eq(p1), any(), any(), any(), any());
+    doAnswer(
+            invocation -> {
+              firstStarted.await(5, TimeUnit.SECONDS);
+              throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "F2");
+            })
+        .when(rateLimiterClient)
+        .checkFulfilmentRateLimit(any(), eq(p2), any(), any(), any(), any());
+
+    try {
+      ResponseStatusException ex =
+          assertThrows(
+              ResponseStatusException.class,
+              () -> caseSvc.fulfilmentRequestByPost(postalRequest));
+
+      assertEquals("F2", ex.getReason());
+      assertFalse(firstDone.get());
+      verify(eventPublisher, never()).sendEvent(any(), any(), any(), any());
+    } finally {
+      release.countDown();
+    }
+  }
+
   // multi sms fulfilment tests
 
   @Test
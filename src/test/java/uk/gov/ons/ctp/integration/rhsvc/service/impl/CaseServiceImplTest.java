@@ -10,6 +10,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -70,6 +71,8 @@ public class CaseServiceImplTest {
 
   @Spy private AppConfig appConfig = new AppConfig();
 
+  @Spy private UprnLock uprnLock = new UprnLock(new AppConfig(), null, new SimpleMeterRegistry());
+
   private TestUtil testUtil;
 
   private List<CollectionCase> collectionCase;
@@ -324,6 +327,30 @@ public class CaseServiceImplTest {
     verify(eventPublisher, times(0)).sendEvent(any(), any(), any(), any());
   }
 
+  @Test
+  public void createNewCase_withCaseCreatedConcurrently() throws Exception {
+    CaseRequestDTO request = FixtureHelper.loadClassFixtures(CaseRequestDTO[].class).get(0);
+    String uprn = Long.toString(request.getUprn().getValue());
+
+    // The case is only found when read again from storage under the UPRN lock
+    CollectionCase concurrentCase = FixtureHelper.loadClassFixtures(CollectionCase[].class).get(0);
+    concurrentCase.getAddress().setUprn(uprn);
+    when(dataRepo.readNonHILatestCollectionCaseByUprn(eq(uprn), eq(false)))
+        .thenReturn(Optional.empty());
+    when(dataRepo.readNonHILatestCollectionCaseByUprnFromStorage(eq(uprn), eq(false)))
+        .thenReturn(Optional.of(concurrentCase));
+
+    // Invoke code under test
+    CaseDTO newCase = caseSvc.createNewCase(request);
+
+    // Verify that returned case holds details for the concurrently created case
+    testUtil.validateCaseDTO(concurrentCase, newCase);
+
+    // Verify nothing written to Firestore and no events sent
+    verify(dataRepo, times(0)).writeCollectionCase(any());
+    verify(eventPublisher, times(0)).sendEvent(any(), any(), any(), any());
+  }
+
   @Test
   public void createNewCase_CE() throws Exception {
     doCreateNewCaseTest(
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import ma.glasnost.orika.MapperFacade;
 import org.junit.Test;
@@ -99,4 +100,32 @@ public class FulfilmentsServiceImplTest {
     assertEquals(product.getHandler(), theResult.getHandler());
     assertEquals(product.getLanguage(), theResult.getLanguage());
   }
+
+  @Test
+  public void shouldSearchOnceForRepeatedQuery() throws Exception {
+    Product product =
+        Product.builder().fulfilmentCode("F1").productGroup(Product.ProductGroup.UAC).build();
+    Mockito.when(productReference.searchProducts(any())).thenReturn(Arrays.asList(product));
+
+    List<ProductDTO> first =
+        fulfilmentsService.getFulfilments(
+            Arrays.asList(CaseType.HH), Region.E, DeliveryChannel.SMS, null, null);
+    List<ProductDTO> second =
+        fulfilmentsService.getFulfilments(
+            Arrays.asList(CaseType.HH), Region.E, DeliveryChannel.SMS, null, null);
+
+    Mockito.verify(productReference, Mockito.times(1)).searchProducts(any());
+    assertEquals(first, second);
+    assertEquals("F1", second.get(0).getFulfilmentCode());
+  }
+
+  @Test
+  public void shouldSearchAgainForEmptyResult() throws Exception {
+    Mockito.when(productReference.searchProducts(any())).thenReturn(Collections.emptyList());
+
+    fulfilmentsService.getFulfilments(null, Region.W, DeliveryChannel.POST, null, null);
+    fulfilmentsService.getFulfilments(null, Region.W, DeliveryChannel.POST, null, null);
+
+    Mockito.verify(productReference, Mockito.times(2)).searchProducts(any());
+  }
 }
@@ -0,0 +1,153 @@
+package uk.gov.ons.ctp.integration.rhsvc.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.ons.ctp.common.domain.CaseType;
+import uk.gov.ons.ctp.common.domain.UniquePropertyReferenceNumber;
+import uk.gov.ons.ctp.integration.common.product.model.Product;
+import uk.gov.ons.ctp.integration.common.product.model.Product.DeliveryChannel;
+import uk.gov.ons.ctp.integration.common.product.model.Product.ProductGroup;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig.LocalLimit;
+import uk.gov.ons.ctp.integration.rhsvc.config.RateLimiterConfig.LocalLimitsConfig;
+
+public class LocalRateLimiterTest {
+  private static final String IP_ADDRESS = "123.123.123.123";
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private LocalLimitsConfig localConfig;
+  private AppConfig appConfig;
+  private long now = 1000;
+
+  @Before
+  public void setUp() {
+    localConfig = new LocalLimitsConfig();
+    localConfig.setEnabled(true);
+    localConfig.setMaxKeys(100);
+    localConfig.setWebformIpAddress(limit(3, 60));
+    localConfig.setFulfilmentUprn(limit(2, 60));
+    RateLimiterConfig rateLimiterConfig = new RateLimiterConfig();
+    rateLimiterConfig.setLocal(localConfig);
+    appConfig = new AppConfig();
+    appConfig.setRateLimiter(rateLimiterConfig);
+  }
+
+  private LocalLimit limit(int limit, long periodSeconds) {
+    LocalLimit localLimit = new LocalLimit();
+    localLimit.setLimit(limit);
+    localLimit.setPeriodSeconds(periodSeconds);
+    return localLimit;
+  }
+
+  private Product product(DeliveryChannel deliveryChannel) {
+    Product product = new Product();
+    product.setProductGroup(ProductGroup.UAC);
+    product.setDeliveryChannel(deliveryChannel);
+    return product;
+  }
+
+  private LocalRateLimiter limiter() {
+    return new LocalRateLimiter(appConfig, meterRegistry, () -> now);
+  }
+
+  private void assertRejected(Runnable check) {
+    ResponseStatusException ex = assertThrows(ResponseStatusException.class, check::run);
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, ex.getStatus());
+  }
+
+  private double rejected(String limit) {
+    return meterRegistry
+        .get("rhsvc.ratelimit.local.rejected")
+        .tag("limit", limit)
+        .counter()
+        .count();
+  }
+
+  @Test
+  public void shouldRejectWhenLimitExceeded() {
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.checkWebformRateLimit(IP_ADDRESS);
+    }
+
+    assertRejected(() -> limiter.checkWebformRateLimit(IP_ADDRESS));
+    assertEquals(1, rejected("webformIpAddress"), 0);
+  }
+
+  @Test
+  public void shouldLimitEachKeySeparately() {
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.checkWebformRateLimit(IP_ADDRESS);
+    }
+
+    limiter.checkWebformRateLimit("1.2.3.4");
+  }
+
+  @Test
+  public void shouldAllowAgainAfterRefill() {
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.checkWebformRateLimit(IP_ADDRESS);
+    }
+
+    now += TimeUnit.SECONDS.toNanos(20);
+
+    limiter.checkWebformRateLimit(IP_ADDRESS);
+    assertRejected(() -> limiter.checkWebformRateLimit(IP_ADDRESS));
+  }
+
+  @Test
+  public void shouldLimitFulfilmentsOfEachProductSeparately() {
+    LocalRateLimiter limiter = limiter();
+    UniquePropertyReferenceNumber uprn = UniquePropertyReferenceNumber.create("100041045018");
+    Product sms = product(DeliveryChannel.SMS);
+    Product post = product(DeliveryChannel.POST);
+
+    limiter.checkFulfilmentRateLimit(sms, CaseType.HH, null, uprn, null);
+    limiter.checkFulfilmentRateLimit(sms, CaseType.HH, null, uprn, null);
+    limiter.checkFulfilmentRateLimit(post, CaseType.HH, null, uprn, null);
+
+    assertRejected(() -> limiter.checkFulfilmentRateLimit(sms, CaseType.HH, null, uprn, null));
+    assertEquals(1, rejected("fulfilmentUprn"), 0);
+  }
+
+  @Test
+  public void shouldForgetKeysWhenTooMany() {
+    localConfig.setMaxKeys(2);
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.checkWebformRateLimit(IP_ADDRESS);
+    }
+
+    limiter.checkWebformRateLimit("1.1.1.1");
+    limiter.checkWebformRateLimit("2.2.2.2");
+
+    limiter.checkWebformRateLimit(IP_ADDRESS);
+  }
+
+  @Test
+  public void shouldNotLimitWithoutConfiguredLimit() {
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 10; i++) {
+      limiter.checkEqLaunchLimit(IP_ADDRESS);
+    }
+  }
+
+  @Test
+  public void shouldNotLimitWhenDisabled() {
+    localConfig.setEnabled(false);
+    LocalRateLimiter limiter = limiter();
+    for (int i = 0; i < 10; i++) {
+      limiter.checkWebformRateLimit(IP_ADDRESS);
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -15,6 +18,8 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 import uk.gov.ons.ctp.common.event.EventPublisher;
 import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
@@ -34,6 +39,7 @@ public class SurveyLaunchedServiceImplTest {
 
   @Mock private EventPublisher publisher;
   @Mock private RateLimiterClient rateLimiterClient;
+  @Mock private LocalRateLimiter localRateLimiter;
   @Mock private AppConfig appConfig;
 
   @InjectMocks SurveyLaunchedServiceImpl surveyLaunchedService;
@@ -120,4 +126,20 @@ public class SurveyLaunchedServiceImplTest {
     callAndVerifySurveyLaunched(Channel.AD);
     verifyRateLimiterNotCalled();
   }
+
+  @Test
+  public void shouldNotCallRateLimiterWhenLocalLimitExceeded() throws Exception {
+    doThrow(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS))
+        .when(localRateLimiter)
+        .checkEqLaunchLimit(AN_IP_ADDR);
+
+    ResponseStatusException ex =
+        assertThrows(
+            ResponseStatusException.class,
+            () -> surveyLaunchedService.surveyLaunched(surveyLaunchedDTO));
+
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, ex.getStatus());
+    verifyRateLimiterNotCalled();
+    verify(publisher, never()).sendEvent(any(), any(), any(), any());
+  }
 }
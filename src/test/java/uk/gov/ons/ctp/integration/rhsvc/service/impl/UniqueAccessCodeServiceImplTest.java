@@ -3,24 +3,29 @@ package uk.gov.ons.ctp.integration.rhsvc.service.impl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.List;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import ma.glasnost.orika.MapperFacade;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -46,7 +51,9 @@ import uk.gov.ons.ctp.common.event.model.RespondentAuthenticatedResponse;
 import uk.gov.ons.ctp.common.event.model.UAC;
 import uk.gov.ons.ctp.integration.rhsvc.RHSvcBeanMapper;
 import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.ExecutorConfig;
 import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+import uk.gov.ons.ctp.integration.rhsvc.repository.UACClaimContext;
 import uk.gov.ons.ctp.integration.rhsvc.representation.AddressDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.CaseRequestDTO;
 import uk.gov.ons.ctp.integration.rhsvc.representation.UniqueAccessCodeDTO;
@@ -73,17 +80,29 @@ public class UniqueAccessCodeServiceImplTest {
 
   @Spy private AppConfig appConfig = new AppConfig();
 
+  @Spy private UprnLock uprnLock = new UprnLock(new AppConfig(), null, new SimpleMeterRegistry());
+
   private TestUtil testUtil;
 
   /** Setup tests */
   @Before
   public void setUp() throws Exception {
     appConfig.setCollectionExerciseId(COLLECTION_EXERCISE_ID);
+    ExecutorConfig linkExecutor = new ExecutorConfig();
+    linkExecutor.setThreads(2);
+    linkExecutor.setQueueSize(10);
+    appConfig.setLinkExecutor(linkExecutor);
     ReflectionTestUtils.setField(uacSvc, "appConfig", appConfig);
+    uacSvc.init();
 
     testUtil = new TestUtil(dataRepo, eventPublisher);
   }
 
+  @After
+  public void tearDown() {
+    uacSvc.shutdown();
+  }
+
   @Test
   public void getUACLinkedToExistingCase() throws Exception {
 
@@ -132,6 +151,42 @@ public class UniqueAccessCodeServiceImplTest {
     assertEquals(uacDTO.getQuestionnaireId(), payload.getQuestionnaireId());
   }
 
+  @Test
+  public void getUACFromClaimContext() throws Exception {
+    UAC uacTest = getUAC("linkedHousehold");
+    CollectionCase caseTest = getCase("household");
+    when(dataRepo.readUACClaimContext(UAC_HASH))
+        .thenReturn(Optional.of(new UACClaimContext(UAC_HASH, uacTest, caseTest)));
+
+    UniqueAccessCodeDTO uacDTO = uacSvc.getAndAuthenticateUAC(UAC_HASH);
+
+    verify(dataRepo, never()).readUAC(any());
+    verify(dataRepo, never()).readCollectionCase(any());
+    verifyTotalNumberEventsSent(1);
+
+    assertEquals(UAC_HASH, uacDTO.getUacHash());
+    assertEquals(CaseStatus.OK, uacDTO.getCaseStatus());
+    assertEquals(UUID.fromString(uacTest.getCaseId()), uacDTO.getCaseId());
+    assertEquals(caseTest.getCaseType(), uacDTO.getCaseType());
+    assertEquals(caseTest.getAddress().getPostcode(), uacDTO.getAddress().getPostcode());
+  }
+
+  @Test
+  public void getUACFromClaimContextWithoutCase() throws Exception {
+    UAC uacTest = getUAC("linkedHousehold");
+    CollectionCase caseTest = getCase("household");
+    when(dataRepo.readUACClaimContext(UAC_HASH))
+        .thenReturn(Optional.of(new UACClaimContext(UAC_HASH, uacTest, null)));
+    when(dataRepo.readCollectionCase(CASE_ID)).thenReturn(Optional.of(caseTest));
+
+    UniqueAccessCodeDTO uacDTO = uacSvc.getAndAuthenticateUAC(UAC_HASH);
+
+    verify(dataRepo, never()).readUAC(any());
+    verify(dataRepo, times(1)).readCollectionCase(CASE_ID);
+    assertEquals(CaseStatus.OK, uacDTO.getCaseStatus());
+    assertEquals(caseTest.getCaseType(), uacDTO.getCaseType());
+  }
+
   @Test
   public void getUACLinkedToCaseThatCannotBeFound() throws Exception {
 
@@ -252,6 +307,15 @@ public class UniqueAccessCodeServiceImplTest {
 
     verifyTotalNumberEventsSent(2);
 
+    // the questionnaire is linked before the respondent is authenticated against it
+    InOrder inOrder = Mockito.inOrder(eventPublisher);
+    inOrder
+        .verify(eventPublisher)
+        .sendEvent(eq(EventType.QUESTIONNAIRE_LINKED), any(), any(), any());
+    inOrder
+        .verify(eventPublisher)
+        .sendEvent(eq(EventType.RESPONDENT_AUTHENTICATED), any(), any(), any());
+
     verifyLinkingResult(
         uniqueAccessCodeDTO, householdCase.getId(), CaseType.HH, householdUAC, householdCase);
   }
@@ -444,6 +508,31 @@ public class UniqueAccessCodeServiceImplTest {
     verifyLinkingResult(uniqueAccessCodeDTO, newCase.getId(), CaseType.HH, householdUAC, newCase);
   }
 
+  // Test linking to a case that is only found when read again from storage under the UPRN lock, as
+  // a concurrent request created it
+  @Test
+  public void linkHouseholdUACToCaseCreatedConcurrently() throws Exception {
+    CaseRequestDTO request = getRequest("householdAddress");
+    String uprn = Long.toString(request.getUprn().getValue());
+
+    UAC householdUAC = getUAC("unlinkedHousehold");
+    mockDataRepoForReadUAC(UAC_HASH, householdUAC);
+
+    CollectionCase householdCase = getCase("household");
+    when(dataRepo.readNonHILatestCollectionCaseByUprnFromStorage(uprn, true))
+        .thenReturn(Optional.of(householdCase));
+
+    // Run code under test: Attempt linking
+    UniqueAccessCodeDTO uniqueAccessCodeDTO = uacSvc.linkUACCase(UAC_HASH, request);
+
+    grabRepoWriteCollectionCaseValues(0); // No cases created
+
+    verifyUACUpdated(UAC_HASH, householdCase.getId());
+
+    verifyLinkingResult(
+        uniqueAccessCodeDTO, householdCase.getId(), CaseType.HH, householdUAC, householdCase);
+  }
+
   // Happy path test for linking when the UAC doesn't link to an existing case, and one needs to be
   // created.
   // As the UAC is HI a new HI case is also created.
@@ -505,7 +594,7 @@ public class UniqueAccessCodeServiceImplTest {
 
     // Virtually nothing should be done. No case written, no UAC updated & no events sent
     grabRepoWriteCollectionCaseValues(0);
-    Mockito.verify(dataRepo, times(0)).writeUAC(any());
+    Mockito.verify(dataRepo, times(0)).writeUACLink(any(), any());
     verifyTotalNumberEventsSent(0);
 
     verifyLinkingResult(
@@ -526,6 +615,81 @@ public class UniqueAccessCodeServiceImplTest {
     }
   }
 
+  // Test that the case found for the UPRN, searched for alongside the UAC read, is not used when
+  // the UAC is unknown
+  @Test
+  public void attemptToLinkUnknownUACWhenCaseFound() throws Exception {
+    CaseRequestDTO request = getRequest("householdAddress");
+    // lenient, as the search may be discarded before it is made
+    Mockito.lenient()
+        .when(dataRepo.readNonHILatestCollectionCaseByUprn(any(), eq(true)))
+        .thenReturn(Optional.of(getCase("household")));
+
+    try {
+      uacSvc.linkUACCase(UAC_HASH, request);
+      fail("Should have failed to find UAC");
+    } catch (CTPException e) {
+      assertEquals(Fault.RESOURCE_NOT_FOUND, e.getFault());
+    }
+    verify(dataRepo, never()).writeUACLink(any(), any());
+    verifyTotalNumberEventsSent(0);
+  }
+
+  // Test that an unknown UAC is reported even though the case search, made at the same time, fails
+  @Test
+  public void attemptToLinkUnknownUACWhenCaseReadFails() throws Exception {
+    CaseRequestDTO request = getRequest("householdAddress");
+    // lenient, as the search may be discarded before it is made
+    Mockito.lenient()
+        .when(dataRepo.readNonHILatestCollectionCaseByUprn(any(), eq(true)))
+        .thenThrow(new CTPException(Fault.SYSTEM_ERROR, "Firestore unavailable"));
+
+    try {
+      uacSvc.linkUACCase(UAC_HASH, request);
+      fail("Should have failed to find UAC");
+    } catch (CTPException e) {
+      assertEquals(Fault.RESOURCE_NOT_FOUND, e.getFault());
+    }
+  }
+
+  // Test that a failure of the case read is passed on as it was thrown by the repository
+  @Test
+  public void attemptToLinkWhenCaseReadFails() throws Exception {
+    CaseRequestDTO request = getRequest("householdAddress");
+    mockDataRepoForReadUAC(UAC_HASH, getUAC("unlinkedHousehold"));
+    CTPException failure = new CTPException(Fault.SYSTEM_ERROR, "Firestore unavailable");
+    when(dataRepo.readNonHILatestCollectionCaseByUprn(any(), eq(true))).thenThrow(failure);
+
+    try {
+      uacSvc.linkUACCase(UAC_HASH, request);
+      fail("Should have failed to read case");
+    } catch (CTPException e) {
+      assertSame(failure, e);
+    }
+    verify(dataRepo, never()).writeUACLink(any(), any());
+    verifyTotalNumberEventsSent(0);
+  }
+
+  // Test that no events are sent for a new case when the write of the link fails, as then nothing
+  // has been stored
+  @Test
+  public void attemptToLinkToNewCaseWhenWriteFails() throws Exception {
+    CaseRequestDTO request = getRequest("householdAddress");
+    mockDataRepoForReadUAC(UAC_HASH, getUAC("unlinkedIndividual"));
+    CTPException failure = new CTPException(Fault.SYSTEM_ERROR, "Firestore unavailable");
+    Mockito.doThrow(failure).when(dataRepo).writeUACLink(any(), any());
+
+    try {
+      uacSvc.linkUACCase(UAC_HASH, request);
+      fail("Should have failed to write link");
+    } catch (CTPException e) {
+      assertSame(failure, e);
+    }
+    // the new household case and individual case are written with the UAC, in one write
+    assertEquals(2, grabRepoWriteCollectionCaseValues(2).size());
+    verifyTotalNumberEventsSent(0);
+  }
+
   private void assertAddressesEqual(Address expected, AddressDTO actual) {
     assertEquals(expected.getUprn(), Long.toString(actual.getUprn().getValue()));
     assertEquals(expected.getAddressLine1(), actual.getAddressLine1());
@@ -630,19 +794,25 @@ public class UniqueAccessCodeServiceImplTest {
     return expectedAddress;
   }
 
-  // Support method to get the newly created cases from dataRepo.writeCollectionCase and return the
-  // cases
+  // Support method to get the newly created cases from dataRepo.writeUACLink and return the
+  // cases. The cases are only ever written together with the UAC
+  @SuppressWarnings("unchecked")
   private List<CollectionCase> grabRepoWriteCollectionCaseValues(int expectedNumberCasesCreated)
       throws CTPException {
-    ArgumentCaptor<CollectionCase> caseCapture = ArgumentCaptor.forClass(CollectionCase.class);
-    verify(dataRepo, times(expectedNumberCasesCreated)).writeCollectionCase(caseCapture.capture());
+    ArgumentCaptor<List<CollectionCase>> casesCapture = ArgumentCaptor.forClass(List.class);
+    verify(dataRepo, Mockito.atMost(1)).writeUACLink(any(), casesCapture.capture());
+    verify(dataRepo, never()).writeCollectionCase(any());
 
-    return caseCapture.getAllValues();
+    List<CollectionCase> cases =
+        casesCapture.getAllValues().isEmpty() ? List.of() : casesCapture.getValue();
+    assertEquals(expectedNumberCasesCreated, cases.size());
+    return cases;
   }
 
   private void verifyUACUpdated(String uacHash, String expectedCaseId) throws CTPException {
     ArgumentCaptor<UAC> uacUpdateCapture = ArgumentCaptor.forClass(UAC.class);
-    verify(dataRepo, times(1)).writeUAC(uacUpdateCapture.capture());
+    verify(dataRepo, times(1)).writeUACLink(uacUpdateCapture.capture(), any());
+    verify(dataRepo, never()).writeUAC(any());
 
     UAC uacUpdated = uacUpdateCapture.getValue();
     assertEquals(UAC_HASH, uacUpdated.getUacHash());
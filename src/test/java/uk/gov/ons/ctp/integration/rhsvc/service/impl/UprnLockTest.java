@@ -0,0 +1,227 @@
+package uk.gov.ons.ctp.integration.rhsvc.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.ons.ctp.integration.rhsvc.config.AppConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UprnLockConfig;
+import uk.gov.ons.ctp.integration.rhsvc.config.UprnLockConfig.LeaseConfig;
+import uk.gov.ons.ctp.integration.rhsvc.repository.RespondentDataRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UprnLockTest {
+  private static final String UPRN = "123456";
+
+  @Mock private RespondentDataRepository dataRepo;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private UprnLockConfig lockConfig;
+  private AppConfig appConfig;
+  private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @Before
+  public void setUp() {
+    LeaseConfig leaseConfig = new LeaseConfig();
+    leaseConfig.setDuration(10000);
+    leaseConfig.setRetryInterval(10);
+    lockConfig = new UprnLockConfig();
+    lockConfig.setStripes(16);
+    lockConfig.setWait(5000);
+    lockConfig.setLease(leaseConfig);
+    appConfig = new AppConfig();
+    appConfig.setUprnLock(lockConfig);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private UprnLock uprnLock() {
+    return new UprnLock(appConfig, dataRepo, meterRegistry);
+  }
+
+  private double timeouts(String scope) {
+    return meterRegistry.get("rhsvc.uprn.lock.timeouts").tag("scope", scope).counter().count();
+  }
+
+  @Test
+  public void shouldSerialiseCallsForSameUprn() throws Exception {
+    UprnLock uprnLock = uprnLock();
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean firstDone = new AtomicBoolean();
+
+    Future<String> first =
+        executor.submit(
+            () ->
+                uprnLock.callWithLock(
+                    UPRN,
+                    () -> {
+                      locked.countDown();
+                      await(release);
+                      firstDone.set(true);
+                      return "first";
+                    }));
+    locked.await(5, TimeUnit.SECONDS);
+    new Thread(
+            () -> {
+              sleep(100);
+              release.countDown();
+            })
+        .start();
+
+    // the second call cannot start until the first has finished
+    String second = uprnLock.callWithLock(UPRN, () -> firstDone.get() ? "second" : "overlapped");
+    assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    assertEquals("second", second);
+    assertEquals(0, timeouts("lock"), 0);
+  }
+
+  @Test
+  public void shouldFailWhenLockNotFreeWithinWait() throws Exception {
+    lockConfig.setWait(50);
+    UprnLock uprnLock = uprnLock();
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first =
+        executor.submit(
+            () ->
+                uprnLock.callWithLock(
+                    UPRN,
+                    () -> {
+                      locked.countDown();
+                      await(release);
+                      return "first";
+                    }));
+    locked.await(5, TimeUnit.SECONDS);
+
+    try {
+      uprnLock.callWithLock(UPRN, () -> "second");
+      fail("Call should have timed out waiting for the lock");
+    } catch (ResponseStatusException e) {
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+    }
+    assertEquals(1, timeouts("lock"), 0);
+    release.countDown();
+    assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    // the lock is free again once the first call has finished
+    assertEquals("third", uprnLock.callWithLock(UPRN, () -> "third"));
+  }
+
+  @Test
+  public void shouldGoAheadWithoutLockAfterWait() throws Exception {
+    lockConfig.setWait(50);
+    lockConfig.setProceedWithoutLock(true);
+    UprnLock uprnLock = uprnLock();
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first =
+        executor.submit(
+            () ->
+                uprnLock.callWithLock(
+                    UPRN,
+                    () -> {
+                      locked.countDown();
+                      await(release);
+                      return "first";
+                    }));
+    locked.await(5, TimeUnit.SECONDS);
+
+    assertEquals("second", uprnLock.callWithLock(UPRN, () -> "second"));
+    assertEquals(1, timeouts("lock"), 0);
+    release.countDown();
+    assertEquals("first", first.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldNotTakeLeaseWhenDisabled() throws Exception {
+    assertEquals("created", uprnLock().callWithLock(UPRN, () -> "created"));
+    verify(dataRepo, never()).acquireUprnLease(any(), any(), anyLong());
+  }
+
+  @Test
+  public void shouldTakeAndReleaseLease() throws Exception {
+    lockConfig.getLease().setEnabled(true);
+    when(dataRepo.acquireUprnLease(eq(UPRN), any(), eq(10000L))).thenReturn(false, true);
+
+    assertEquals("created", uprnLock().callWithLock(UPRN, () -> "created"));
+
+    ArgumentCaptor<String> holder = ArgumentCaptor.forClass(String.class);
+    verify(dataRepo).releaseUprnLease(eq(UPRN), holder.capture());
+    assertFalse(holder.getValue().isEmpty());
+    assertEquals(0, timeouts("lease"), 0);
+  }
+
+  @Test
+  public void shouldFailWhenLeaseNotFreeWithinWait() throws Exception {
+    lockConfig.setWait(50);
+    lockConfig.getLease().setEnabled(true);
+    when(dataRepo.acquireUprnLease(eq(UPRN), any(), anyLong())).thenReturn(false);
+    AtomicBoolean called = new AtomicBoolean();
+
+    try {
+      uprnLock().callWithLock(UPRN, () -> called.getAndSet(true));
+      fail("Call should have timed out waiting for the lease");
+    } catch (ResponseStatusException e) {
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+    }
+    assertFalse(called.get());
+    verify(dataRepo, never()).releaseUprnLease(any(), any());
+    assertEquals(1, timeouts("lease"), 0);
+  }
+
+  @Test
+  public void shouldGoAheadWithoutLeaseAfterWait() throws Exception {
+    lockConfig.setWait(50);
+    lockConfig.setProceedWithoutLock(true);
+    lockConfig.getLease().setEnabled(true);
+    when(dataRepo.acquireUprnLease(eq(UPRN), any(), anyLong())).thenReturn(false);
+
+    assertEquals("created", uprnLock().callWithLock(UPRN, () -> "created"));
+
+    verify(dataRepo, never()).releaseUprnLease(any(), any());
+    assertEquals(1, timeouts("lease"), 0);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -72,6 +72,8 @@ public class WebformServiceImplTest extends WebformServiceImplTestBase {
 
   @MockBean private RateLimiterClient rateLimiterClient;
 
+  @MockBean private LocalRateLimiter localRateLimiter;
+
   @Captor ArgumentCaptor<WebformDTO> webformEventCaptor;
   @Captor ArgumentCaptor<Map<String, String>> templateValueCaptor;
 
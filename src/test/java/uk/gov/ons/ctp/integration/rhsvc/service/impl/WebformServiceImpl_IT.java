@@ -52,6 +52,7 @@ public class WebformServiceImpl_IT extends WebformServiceImplTestBase {
   private static final int TIMEOUT = 1;
 
   @MockBean RateLimiterClient rateLimiterClient;
+  @MockBean LocalRateLimiter localRateLimiter;
 
   private void mockSlowSend() throws Exception {
     doAnswer(